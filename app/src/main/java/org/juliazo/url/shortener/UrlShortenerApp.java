@@ -30,20 +30,29 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
+@EnableScheduling
 public class UrlShortenerApp {
 
     private static final Logger logger = LoggerFactory.getLogger(UrlShortenerApp.class);
 
     /**
-     * Spring Boot application starter
+     * Spring Boot application starter. With url-shortener.startup.exit-after-start set, the
+     * application stops as soon as it started: a training run recording the classes loaded
+     * at startup, for the class-data sharing archive of the fast-start image.
      *
      * @param args
      */
     public static void main(String[] args) {
         logger.info("Starting URL Shortener Application");
-        SpringApplication.run(UrlShortenerApp.class, args);
+        ConfigurableApplicationContext context = SpringApplication.run(UrlShortenerApp.class, args);
+        if (context.getEnvironment().getProperty("url-shortener.startup.exit-after-start", Boolean.class, false)) {
+            logger.info("Started for training only, exiting");
+            System.exit(SpringApplication.exit(context));
+        }
     }
 
 }
@@ -0,0 +1,96 @@
+package org.juliazo.url.shortener.bulkhead;
+
+import org.juliazo.url.shortener.commons.exception.ServiceOverloadedException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.PreDestroy;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Runs the work of each {@link Workload} on its own bounded executor, with the
+ * executing thread bound to the workload so database access uses its own pool.
+ * <p>
+ * A workload without an executor runs inline, on the calling thread.
+ */
+public class Bulkhead {
+
+    private static final Logger logger = LoggerFactory.getLogger(Bulkhead.class);
+
+    /**
+     * How long tasks in progress may take to complete on shutdown.
+     */
+    static final long SHUTDOWN_GRACE_SECONDS = 10;
+
+    private final Map<Workload, ExecutorService> executors;
+
+    private final long retryAfterSeconds;
+
+    public Bulkhead(Map<Workload, ExecutorService> executors, long retryAfterSeconds) {
+        this.executors = executors;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    /**
+     * @return a bulkhead running every workload inline
+     */
+    public static Bulkhead inline() {
+        return new Bulkhead(Map.of(), 0);
+    }
+
+    /**
+     * @param workload the kind of traffic the task belongs to
+     * @param task     the work to be run
+     * @param <T>      type of the task result
+     * @return the future result of the task
+     * @throws ServiceOverloadedException when the executor of the workload is saturated
+     */
+    public <T> CompletableFuture<T> submit(Workload workload, Supplier<T> task) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        ExecutorService executor = executors.get(workload);
+        if (executor == null) {
+            workload.run(() -> complete(result, task));
+            return result;
+        }
+        try {
+            executor.execute(() -> workload.run(() -> complete(result, task)));
+        } catch (RejectedExecutionException exception) {
+            throw new ServiceOverloadedException(retryAfterSeconds);
+        }
+        return result;
+    }
+
+    /**
+     * Stops accepting tasks, the tasks in progress are given some time to complete
+     * while the connection pools they use are still open.
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        executors.values().forEach(ExecutorService::shutdown);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(SHUTDOWN_GRACE_SECONDS);
+        for (Map.Entry<Workload, ExecutorService> executor : executors.entrySet()) {
+            if (!executor.getValue().awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                logger.warn("Tasks of the {} bulkhead still running after {}s, interrupting them",
+                        executor.getKey(), SHUTDOWN_GRACE_SECONDS);
+                executor.getValue().shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Completes the future with the outcome of the task. Errors complete it too, otherwise
+     * the caller waiting on it would hang.
+     */
+    private static <T> void complete(CompletableFuture<T> result, Supplier<T> task) {
+        try {
+            result.complete(task.get());
+        } catch (Throwable exception) {
+            result.completeExceptionally(exception);
+        }
+    }
+}
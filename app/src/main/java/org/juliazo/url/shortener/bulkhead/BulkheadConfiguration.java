@@ -0,0 +1,119 @@
+package org.juliazo.url.shortener.bulkhead;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.context.annotation.Primary;
+
+import javax.sql.DataSource;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Isolates redirects from shortening: each {@link Workload} gets its own bounded executor
+ * and its own connection pool, each with its own size and timeouts.
+ * <p>
+ * Saturation is published per workload: the executors as {@code executor.*} meters tagged
+ * with {@code name=bulkhead.redirect} or {@code name=bulkhead.shorten}, the connection pools
+ * as {@code hikaricp.*} meters tagged with {@code pool=redirect-pool} or {@code pool=shorten-pool}.
+ * <p>
+ * The bulkhead depends on the connection pools, so on shutdown its executors are stopped,
+ * and their tasks in progress drained, before the pools are closed.
+ * <p>
+ * With {@code url-shortener.bulkhead.enabled=false}, requests run on the servlet threads and
+ * the single auto-configured connection pool is used.
+ */
+@Configuration
+public class BulkheadConfiguration {
+
+    @Bean
+    @ConditionalOnProperty(name = "url-shortener.bulkhead.enabled", havingValue = "true")
+    @DependsOn({"redirectDataSource", "shortenDataSource"})
+    public Bulkhead bulkhead(
+            @Value("${url-shortener.bulkhead.redirect.threads:64}") int redirectThreads,
+            @Value("${url-shortener.bulkhead.redirect.queue-size:1000}") int redirectQueueSize,
+            @Value("${url-shortener.bulkhead.shorten.threads:16}") int shortenThreads,
+            @Value("${url-shortener.bulkhead.shorten.queue-size:200}") int shortenQueueSize,
+            @Value("${url-shortener.limiter.retry-after-seconds:1}") long retryAfterSeconds,
+            MeterRegistry meterRegistry) {
+        ExecutorService redirectExecutor = ExecutorServiceMetrics.monitor(meterRegistry,
+                boundedExecutor("redirect", redirectThreads, redirectQueueSize), "bulkhead.redirect", List.of());
+        ExecutorService shortenExecutor = ExecutorServiceMetrics.monitor(meterRegistry,
+                boundedExecutor("shorten", shortenThreads, shortenQueueSize), "bulkhead.shorten", List.of());
+        return new Bulkhead(Map.of(Workload.REDIRECT, redirectExecutor, Workload.SHORTEN, shortenExecutor),
+                retryAfterSeconds);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "url-shortener.bulkhead.enabled", havingValue = "false", matchIfMissing = true)
+    public Bulkhead inlineBulkhead() {
+        return Bulkhead.inline();
+    }
+
+    /**
+     * Fixed size executor that rejects work once its queue is full, instead of growing it.
+     */
+    static ThreadPoolExecutor boundedExecutor(String name, int threads, int queueSize) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize), runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * The connection pools. Defining any DataSource makes Spring Boot skip its own, these
+     * pools are built from the usual {@code spring.datasource.*} properties.
+     */
+    @Configuration
+    @ConditionalOnProperty(name = "url-shortener.bulkhead.enabled", havingValue = "true")
+    static class DataSourcesConfiguration {
+
+        @Bean
+        public HikariDataSource redirectDataSource(
+                DataSourceProperties dataSourceProperties,
+                @Value("${url-shortener.bulkhead.redirect.pool-size:10}") int poolSize,
+                @Value("${url-shortener.bulkhead.redirect.connection-timeout-millis:1000}") long connectionTimeout) {
+            return pool(dataSourceProperties, "redirect-pool", poolSize, connectionTimeout);
+        }
+
+        @Bean
+        public HikariDataSource shortenDataSource(
+                DataSourceProperties dataSourceProperties,
+                @Value("${url-shortener.bulkhead.shorten.pool-size:10}") int poolSize,
+                @Value("${url-shortener.bulkhead.shorten.connection-timeout-millis:5000}") long connectionTimeout) {
+            return pool(dataSourceProperties, "shorten-pool", poolSize, connectionTimeout);
+        }
+
+        @Bean
+        @Primary
+        public DataSource dataSource(@Qualifier("redirectDataSource") DataSource redirectDataSource,
+                                     @Qualifier("shortenDataSource") DataSource shortenDataSource) {
+            return new WorkloadRoutingDataSource(redirectDataSource, shortenDataSource);
+        }
+
+        private static HikariDataSource pool(DataSourceProperties dataSourceProperties, String name,
+                                             int poolSize, long connectionTimeout) {
+            HikariDataSource dataSource = dataSourceProperties.initializeDataSourceBuilder()
+                    .type(HikariDataSource.class).build();
+            dataSource.setPoolName(name);
+            dataSource.setMaximumPoolSize(poolSize);
+            dataSource.setConnectionTimeout(connectionTimeout);
+            return dataSource;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package org.juliazo.url.shortener.bulkhead;
+
+/**
+ * Kinds of traffic that are isolated from each other, each one with its own
+ * threads and database connections.
+ */
+public enum Workload {
+
+    /**
+     * Lookups of short urls, GET /{shortUrl}.
+     */
+    REDIRECT,
+
+    /**
+     * Creation of short urls, POST /shorten, and every other database access
+     * not made on behalf of a redirect.
+     */
+    SHORTEN;
+
+    private static final ThreadLocal<Workload> CURRENT = new ThreadLocal<>();
+
+    /**
+     * @return the workload the current thread works for, {@link #SHORTEN} when none was set
+     */
+    public static Workload current() {
+        Workload workload = CURRENT.get();
+        return workload == null ? SHORTEN : workload;
+    }
+
+    /**
+     * Runs the given task with the current thread bound to this workload.
+     *
+     * @param task the work to be run
+     */
+    public void run(Runnable task) {
+        Workload previous = CURRENT.get();
+        CURRENT.set(this);
+        try {
+            task.run();
+        } finally {
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        }
+    }
+}
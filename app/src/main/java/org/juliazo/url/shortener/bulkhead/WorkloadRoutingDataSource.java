@@ -0,0 +1,24 @@
+package org.juliazo.url.shortener.bulkhead;
+
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+
+import javax.sql.DataSource;
+import java.util.Map;
+
+/**
+ * Hands out connections from the pool of the {@link Workload} the calling thread works
+ * for, so a slow write holding connections can not exhaust the ones redirects need.
+ */
+public class WorkloadRoutingDataSource extends AbstractRoutingDataSource {
+
+    public WorkloadRoutingDataSource(DataSource redirectDataSource, DataSource shortenDataSource) {
+        setTargetDataSources(Map.of(Workload.REDIRECT, redirectDataSource, Workload.SHORTEN, shortenDataSource));
+        setDefaultTargetDataSource(shortenDataSource);
+        afterPropertiesSet();
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        return Workload.current();
+    }
+}
@@ -0,0 +1,283 @@
+package org.juliazo.url.shortener.cache;
+
+import org.juliazo.url.shortener.commons.redirect.UrlRedirect;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Keeps the {@link UrlMappingCache} of this instance coherent with the other replicas.
+ * <p>
+ * Every insert into and removal from url_entity is recorded by a database trigger in
+ * url_mapping_event and announced on the {@value #CHANNEL} channel. This listener holds
+ * a dedicated connection that LISTENs on the channel: announced inserts, which carry the
+ * redirect policy and expiration of the link, pre-warm the local cache and announced removals
+ * invalidate it.
+ * <p>
+ * Notifications are not durable, they are lost while the connection is down and can
+ * be delivered out of id order. Therefore:
+ * 1: a gap in the event ids triggers a catch-up read of the removals after the last event seen;
+ * 2: events committed recently are periodically replayed, which covers out of order commits;
+ * 3: after (re)connecting, the whole local cache is dropped, since removals may have been missed;
+ * 4: an insert older than the last event seen is skipped, its link may have been removed since,
+ * and putting it back would keep a removed link in the cache until the next reconciliation.
+ */
+@Component
+@ConditionalOnProperty(name = "url-shortener.cache.coherence.enabled", havingValue = "true")
+public class CacheCoherenceListener {
+
+    static final String CHANNEL = "url_mapping_events";
+
+    private static final int POLL_TIMEOUT_MILLIS = 500;
+    private static final int RECONNECT_DELAY_MILLIS = 5000;
+    private static final int CATCH_UP_BATCH_SIZE = 1000;
+    private static final int PRUNE_BATCH_SIZE = 10000;
+
+    private static final Logger logger = LoggerFactory.getLogger(CacheCoherenceListener.class);
+
+    private final UrlMappingCache urlMappingCache;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final DataSourceProperties dataSourceProperties;
+
+    /**
+     * How far back, in seconds, the periodic reconciliation replays events.
+     */
+    private final long reconcileWindowSeconds;
+
+    /**
+     * How long, in hours, events are kept in url_mapping_event.
+     */
+    private final long retentionHours;
+
+    private volatile long lastEventId = -1;
+
+    private volatile boolean running;
+
+    private Thread listenerThread;
+
+    @Autowired
+    public CacheCoherenceListener(UrlMappingCache urlMappingCache, JdbcTemplate jdbcTemplate,
+                                  DataSourceProperties dataSourceProperties,
+                                  @Value("${url-shortener.cache.coherence.reconcile-window-seconds:120}")
+                                          long reconcileWindowSeconds,
+                                  @Value("${url-shortener.cache.coherence.retention-hours:24}")
+                                          long retentionHours) {
+        this.urlMappingCache = urlMappingCache;
+        this.jdbcTemplate = jdbcTemplate;
+        this.dataSourceProperties = dataSourceProperties;
+        this.reconcileWindowSeconds = reconcileWindowSeconds;
+        this.retentionHours = retentionHours;
+    }
+
+    @PostConstruct
+    public void start() {
+        running = true;
+        listenerThread = new Thread(this::listen, "cache-coherence-listener");
+        listenerThread.setDaemon(true);
+        listenerThread.start();
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        listenerThread.interrupt();
+        listenerThread.join(RECONNECT_DELAY_MILLIS);
+    }
+
+    /**
+     * Main loop of the listener thread. Opens the dedicated connection and waits
+     * for notifications, reconnecting whenever the connection fails.
+     */
+    private void listen() {
+        while (running) {
+            try (Connection connection = DriverManager.getConnection(dataSourceProperties.determineUrl(),
+                    dataSourceProperties.determineUsername(), dataSourceProperties.determinePassword())) {
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("LISTEN " + CHANNEL);
+                }
+                resynchronize();
+                logger.info("Listening for url mapping events on channel [{}]", CHANNEL);
+
+                PGConnection pgConnection = connection.unwrap(PGConnection.class);
+                while (running) {
+                    PGNotification[] notifications = pgConnection.getNotifications(POLL_TIMEOUT_MILLIS);
+                    if (notifications != null) {
+                        for (PGNotification notification : notifications) {
+                            onNotification(notification.getParameter());
+                        }
+                    }
+                }
+            } catch (SQLException | RuntimeException exception) {
+                if (running) {
+                    logger.warn("Lost url mapping event channel, reconnecting in [{}] ms",
+                            RECONNECT_DELAY_MILLIS, exception);
+                    sleepBeforeReconnect();
+                }
+            }
+        }
+    }
+
+    private void sleepBeforeReconnect() {
+        try {
+            Thread.sleep(RECONNECT_DELAY_MILLIS);
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            running = false;
+        }
+    }
+
+    /**
+     * Called once the channel is (re)established. Removals may have been missed while
+     * it was down, so the local cache is dropped and the event ids restart from the
+     * latest recorded event.
+     */
+    void resynchronize() {
+        Long maxId = jdbcTemplate.queryForObject("SELECT COALESCE(MAX(id), 0) FROM url_mapping_event", Long.class);
+        urlMappingCache.invalidateAll();
+        lastEventId = maxId == null ? 0 : maxId;
+    }
+
+    /**
+     * Applies one notification, catching up first when the ids show a gap. Inserts older than
+     * the last event seen are skipped, a skipped insert only costs a cache miss.
+     *
+     * @param payload the notification payload, see {@link MappingEvent#parse}
+     */
+    void onNotification(String payload) {
+        MappingEvent event = MappingEvent.parse(payload);
+        if (event == null) {
+            logger.warn("Ignoring malformed url mapping event [{}]", payload);
+            return;
+        }
+        if (lastEventId >= 0 && event.id > lastEventId + 1) {
+            catchUp(lastEventId, event.id);
+        }
+        if (event.type == MappingEvent.INSERT && event.id <= lastEventId) {
+            logger.debug("Skipping stale insert event [{}] of shortUrl [{}]", event.id, event.shortUrl);
+        } else {
+            apply(event);
+        }
+        lastEventId = Math.max(lastEventId, event.id);
+    }
+
+    /**
+     * Reads and applies the removals recorded with ids in {@code (fromId, toId)}.
+     * Missed inserts are not read back, they only cost a cache miss.
+     */
+    private void catchUp(long fromId, long toId) {
+        List<MappingEvent> events = jdbcTemplate.query(
+                "SELECT id, short_url, long_url FROM url_mapping_event "
+                        + "WHERE id > ? AND id < ? AND event_type = 'D' ORDER BY id LIMIT ?",
+                (resultSet, row) -> new MappingEvent(resultSet.getLong(1), MappingEvent.DELETE,
+                        resultSet.getString(2), new UrlRedirect(resultSet.getString(3), null, null)),
+                fromId, toId, CATCH_UP_BATCH_SIZE);
+        if (events.size() == CATCH_UP_BATCH_SIZE) {
+            logger.warn("Too many missed url mapping events after id [{}], dropping the local cache", fromId);
+            urlMappingCache.invalidateAll();
+            return;
+        }
+        events.forEach(this::apply);
+    }
+
+    /**
+     * Replays the removals recorded in the last {@link #reconcileWindowSeconds}, covering
+     * notifications that were dropped or that arrived before an older, slower commit.
+     * Inserts are not replayed, a missed insert only costs a cache miss.
+     */
+    @Scheduled(fixedDelayString = "${url-shortener.cache.coherence.reconcile-interval-millis:30000}",
+            initialDelayString = "${url-shortener.startup.background-delay-millis:0}")
+    public void reconcile() {
+        jdbcTemplate.query(
+                "SELECT short_url, long_url FROM url_mapping_event "
+                        + "WHERE event_type = 'D' AND created_at >= now() - (? * interval '1 second')",
+                resultSet -> {
+                    urlMappingCache.invalidate(resultSet.getString(1), resultSet.getString(2));
+                },
+                reconcileWindowSeconds);
+        int pruned = jdbcTemplate.update(
+                "DELETE FROM url_mapping_event WHERE id IN (SELECT id FROM url_mapping_event "
+                        + "WHERE created_at < now() - (? * interval '1 hour') ORDER BY id LIMIT ?)",
+                retentionHours, PRUNE_BATCH_SIZE);
+        logger.debug("Reconciled url mapping cache, pruned [{}] old events", pruned);
+    }
+
+    private void apply(MappingEvent event) {
+        if (event.type == MappingEvent.INSERT) {
+            urlMappingCache.put(event.shortUrl, event.redirect);
+        } else {
+            urlMappingCache.invalidate(event.shortUrl, event.redirect.getLongUrl());
+        }
+    }
+
+    /**
+     * One change to url_entity, as recorded in url_mapping_event.
+     */
+    static final class MappingEvent {
+
+        static final char INSERT = 'I';
+        static final char DELETE = 'D';
+
+        final long id;
+        final char type;
+        final String shortUrl;
+        final UrlRedirect redirect;
+
+        MappingEvent(long id, char type, String shortUrl, UrlRedirect redirect) {
+            this.id = id;
+            this.type = type;
+            this.shortUrl = shortUrl;
+            this.redirect = redirect;
+        }
+
+        /**
+         * Parses a notification payload in the format
+         * {@code <id>|<type>|<short url>|<redirect status>|<cache max age>|<expires at>|<long url>},
+         * where empty policy fields mean the deployment default and an empty expiration, in epoch
+         * milliseconds, means the link never expires.
+         * The long url is last since it may itself contain the separator.
+         *
+         * @return the event, or null when the payload is malformed
+         */
+        static MappingEvent parse(String payload) {
+            String[] fields = payload.split("\\|", 7);
+            if (fields.length != 7 || fields[1].length() != 1) {
+                return null;
+            }
+            char type = fields[1].charAt(0);
+            if (type != INSERT && type != DELETE) {
+                return null;
+            }
+            try {
+                Instant expiresAt = fields[5].isEmpty() ? null : Instant.ofEpochMilli(Long.parseLong(fields[5]));
+                UrlRedirect redirect = new UrlRedirect(fields[6], parseOptional(fields[3]), parseOptional(fields[4]),
+                        expiresAt);
+                return new MappingEvent(Long.parseLong(fields[0]), type, fields[2], redirect);
+            } catch (NumberFormatException exception) {
+                return null;
+            }
+        }
+
+        private static Integer parseOptional(String field) {
+            return field.isEmpty() ? null : Integer.valueOf(field);
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package org.juliazo.url.shortener.cache;
+
+import org.juliazo.url.shortener.commons.redirect.UrlRedirect;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Compact form of the redirects held by the redirect cache: a single byte array per link,
+ * instead of a {@link UrlRedirect} with its long url string and boxed policy.
+ * <p>
+ * Long urls mostly share a few thousand hosts, so the scheme and authority of a long url,
+ * its prefix, is interned once in a dictionary and referred to by its index, the rest of the
+ * url is kept as UTF-8. Prefixes are never evicted, the index of a cached url stays valid:
+ * once the dictionary holds {@code maxPrefixes} of them, the urls of other prefixes are kept
+ * whole. The same redirect is then always encoded the same way.
+ * <p>
+ * Layout: a flags byte, the redirect status minus 300 on one byte, the cache max age as a
+ * varint, the expiration as varint seconds and nanoseconds, the index of the prefix as a
+ * varint, then the rest of the url. Each field but the flags is only present when its flag
+ * is set.
+ */
+final class CompactRedirects {
+
+    private static final int STATUS = 1;
+    private static final int CACHE_MAX_AGE = 1 << 1;
+    private static final int EXPIRES_AT = 1 << 2;
+    private static final int PREFIX = 1 << 3;
+
+    private static final int STATUS_BASE = 300;
+
+    /**
+     * Flags, status, an int and a long as varints, an int varint, a prefix index varint.
+     */
+    private static final int MAX_HEADER_SIZE = 1 + 1 + 5 + 10 + 5 + 5;
+
+    private final int maxPrefixes;
+
+    private final Map<String, Integer> prefixIndexes = new ConcurrentHashMap<>();
+
+    private final AtomicReferenceArray<byte[]> prefixes;
+
+    private volatile int prefixCount;
+
+    /**
+     * @param maxPrefixes most prefixes interned, 0 keeps every url whole
+     */
+    CompactRedirects(int maxPrefixes) {
+        this.maxPrefixes = maxPrefixes;
+        this.prefixes = new AtomicReferenceArray<>(maxPrefixes);
+    }
+
+    /**
+     * @param redirect the long url and redirect policy of a link
+     * @return its compact form
+     */
+    byte[] encode(UrlRedirect redirect) {
+        String longUrl = redirect.getLongUrl();
+        int prefixEnd = prefixEnd(longUrl);
+        int prefixIndex = prefixEnd < 0 ? -1 : intern(longUrl.substring(0, prefixEnd));
+        byte[] rest = (prefixIndex < 0 ? longUrl : longUrl.substring(prefixEnd)).getBytes(StandardCharsets.UTF_8);
+
+        byte[] header = new byte[MAX_HEADER_SIZE];
+        int flags = 0;
+        int position = 1;
+        if (redirect.getRedirectStatus() != null) {
+            flags |= STATUS;
+            header[position++] = (byte) (redirect.getRedirectStatus() - STATUS_BASE);
+        }
+        if (redirect.getCacheMaxAge() != null) {
+            flags |= CACHE_MAX_AGE;
+            position = writeVarLong(header, position, redirect.getCacheMaxAge());
+        }
+        if (redirect.getExpiresAt() != null) {
+            flags |= EXPIRES_AT;
+            position = writeVarLong(header, position, redirect.getExpiresAt().getEpochSecond());
+            position = writeVarLong(header, position, redirect.getExpiresAt().getNano());
+        }
+        if (prefixIndex >= 0) {
+            flags |= PREFIX;
+            position = writeVarLong(header, position, prefixIndex);
+        }
+        header[0] = (byte) flags;
+
+        byte[] encoded = new byte[position + rest.length];
+        System.arraycopy(header, 0, encoded, 0, position);
+        System.arraycopy(rest, 0, encoded, position, rest.length);
+        return encoded;
+    }
+
+    /**
+     * @param encoded a redirect encoded by {@link #encode}
+     * @return the redirect
+     */
+    UrlRedirect decode(byte[] encoded) {
+        int flags = encoded[0];
+        int[] position = {1};
+        Integer redirectStatus = (flags & STATUS) == 0 ? null : STATUS_BASE + (encoded[position[0]++] & 0xFF);
+        Integer cacheMaxAge = (flags & CACHE_MAX_AGE) == 0 ? null : (int) readVarLong(encoded, position);
+        Instant expiresAt = null;
+        if ((flags & EXPIRES_AT) != 0) {
+            long epochSecond = readVarLong(encoded, position);
+            expiresAt = Instant.ofEpochSecond(epochSecond, readVarLong(encoded, position));
+        }
+        return new UrlRedirect(decodeLongUrl(encoded, flags, position), redirectStatus, cacheMaxAge, expiresAt);
+    }
+
+    /**
+     * @param encoded a redirect encoded by {@link #encode}
+     * @return its long url, without decoding the policy
+     */
+    String decodeLongUrl(byte[] encoded) {
+        int flags = encoded[0];
+        int[] position = {1};
+        if ((flags & STATUS) != 0) {
+            position[0]++;
+        }
+        if ((flags & CACHE_MAX_AGE) != 0) {
+            readVarLong(encoded, position);
+        }
+        if ((flags & EXPIRES_AT) != 0) {
+            readVarLong(encoded, position);
+            readVarLong(encoded, position);
+        }
+        return decodeLongUrl(encoded, flags, position);
+    }
+
+    private String decodeLongUrl(byte[] encoded, int flags, int[] position) {
+        if ((flags & PREFIX) == 0) {
+            return new String(encoded, position[0], encoded.length - position[0], StandardCharsets.UTF_8);
+        }
+        byte[] prefix = prefixes.get((int) readVarLong(encoded, position));
+        int restLength = encoded.length - position[0];
+        byte[] url = new byte[prefix.length + restLength];
+        System.arraycopy(prefix, 0, url, 0, prefix.length);
+        System.arraycopy(encoded, position[0], url, prefix.length, restLength);
+        return new String(url, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the number of prefixes interned
+     */
+    int prefixCount() {
+        return prefixCount;
+    }
+
+    /**
+     * @return the index of the prefix, interned when new and the dictionary is not full, or -1
+     */
+    private int intern(String prefix) {
+        Integer index = prefixIndexes.get(prefix);
+        if (index != null) {
+            return index;
+        }
+        if (prefixCount >= maxPrefixes) {
+            return -1;
+        }
+        synchronized (this) {
+            index = prefixIndexes.get(prefix);
+            if (index != null) {
+                return index;
+            }
+            int count = prefixCount;
+            if (count >= maxPrefixes) {
+                return -1;
+            }
+            prefixes.set(count, prefix.getBytes(StandardCharsets.UTF_8));
+            prefixIndexes.put(prefix, count);
+            prefixCount = count + 1;
+            return count;
+        }
+    }
+
+    /**
+     * @return the end of the scheme and authority of the url, -1 for a url without authority
+     */
+    static int prefixEnd(String longUrl) {
+        int authority = longUrl.indexOf("://");
+        if (authority < 0) {
+            return -1;
+        }
+        for (int i = authority + 3; i < longUrl.length(); i++) {
+            char c = longUrl.charAt(i);
+            if (c == '/' || c == '?' || c == '#') {
+                return i;
+            }
+        }
+        return longUrl.length();
+    }
+
+    private static int writeVarLong(byte[] buffer, int position, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+        return position;
+    }
+
+    private static long readVarLong(byte[] buffer, int[] position) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer[position[0]++];
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+}
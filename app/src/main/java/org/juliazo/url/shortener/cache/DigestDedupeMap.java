@@ -0,0 +1,249 @@
+package org.juliazo.url.shortener.cache;
+
+import org.juliazo.url.shortener.commons.redirect.ShortUrls;
+import org.juliazo.url.shortener.service.ShortUrlGenerator;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded map of long urls to their short urls, stored as packed primitives.
+ * <p>
+ * A long url is not kept: it is keyed by its 128 bit MurmurHash3, and its short url is
+ * packed into a long, 6 bits per character. An entry takes three longs, 24 bytes, in
+ * arrays allocated once, whatever the length of the long url; the map holds no object
+ * per entry for the garbage collector to trace. Two long urls sharing a 128 bit hash are
+ * not expected in the lifetime of the service.
+ * <p>
+ * The map is set associative: a long url may only be stored in one of the {@link #WAYS}
+ * slots of the set its hash selects, the three longs of a set sit next to each other in
+ * memory. A full set evicts with the clock algorithm: every hit marks its entry, and the
+ * hand of the set skips, and unmarks, the marked entries on its way to the next entry
+ * to evict. Sets are locked in stripes.
+ */
+class DigestDedupeMap {
+
+    static final int WAYS = 8;
+
+    /**
+     * Longs per slot: both halves of the hash, then the packed short url.
+     */
+    private static final int SLOT_LONGS = 3;
+
+    private static final int LOCK_COUNT = 64;
+
+    private static final String ALPHABET = "0123456789abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ";
+
+    private static final int BITS_PER_CHAR = 6;
+
+    private static final long CHAR_MASK = (1L << BITS_PER_CHAR) - 1;
+
+    /**
+     * Marks an entry hit since the clock last passed it, above the 60 bits of a packed short url.
+     */
+    private static final long REFERENCED = Long.MIN_VALUE;
+
+    private final long[] slots;
+
+    /**
+     * Way of each set the clock hand points to.
+     */
+    private final byte[] hands;
+
+    private final int sets;
+
+    private final Object[] locks = new Object[LOCK_COUNT];
+
+    private final LongAdder size = new LongAdder();
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param maxSize entries the map holds, rounded up to a whole number of sets
+     */
+    DigestDedupeMap(int maxSize) {
+        this.sets = Math.max(1, (maxSize + WAYS - 1) / WAYS);
+        this.slots = new long[sets * WAYS * SLOT_LONGS];
+        this.hands = new byte[sets];
+        for (int i = 0; i < LOCK_COUNT; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    /**
+     * @param longUrl an already validated long url
+     * @return the short url of the long url, or null when it is not cached
+     */
+    String get(String longUrl) {
+        long[] hash = hash(longUrl);
+        int set = setOf(hash);
+        synchronized (lockOf(set)) {
+            int slot = find(set, hash);
+            if (slot >= 0) {
+                long packed = slots[slot + 2];
+                slots[slot + 2] = packed | REFERENCED;
+                hits.increment();
+                return unpack(packed);
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * Maps a long url to its short url. Short urls that can not be packed are not cached.
+     */
+    void put(String longUrl, String shortUrl) {
+        long packed = pack(shortUrl);
+        if (packed == 0) {
+            return;
+        }
+        long[] hash = hash(longUrl);
+        int set = setOf(hash);
+        synchronized (lockOf(set)) {
+            int slot = find(set, hash);
+            if (slot < 0) {
+                slot = victim(set);
+                if (slots[slot + 2] == 0) {
+                    size.increment();
+                }
+                slots[slot] = hash[0];
+                slots[slot + 1] = hash[1];
+            }
+            slots[slot + 2] = packed;
+        }
+    }
+
+    /**
+     * Removes the mapping of a long url, only when it maps to the given short url.
+     */
+    void remove(String longUrl, String shortUrl) {
+        long packed = pack(shortUrl);
+        long[] hash = hash(longUrl);
+        int set = setOf(hash);
+        synchronized (lockOf(set)) {
+            int slot = find(set, hash);
+            if (slot >= 0 && (slots[slot + 2] & ~REFERENCED) == packed) {
+                slots[slot] = 0;
+                slots[slot + 1] = 0;
+                slots[slot + 2] = 0;
+                size.decrement();
+            }
+        }
+    }
+
+    void clear() {
+        for (int set = 0; set < sets; set++) {
+            synchronized (lockOf(set)) {
+                int first = set * WAYS * SLOT_LONGS;
+                for (int slot = first; slot < first + WAYS * SLOT_LONGS; slot += SLOT_LONGS) {
+                    if (slots[slot + 2] != 0) {
+                        slots[slot + 2] = 0;
+                        size.decrement();
+                    }
+                }
+            }
+        }
+    }
+
+    int size() {
+        return size.intValue();
+    }
+
+    /**
+     * @return entries the map holds once full
+     */
+    int capacity() {
+        return sets * WAYS;
+    }
+
+    /**
+     * @return bytes taken by the entries and the clock hands, full or not
+     */
+    long footprintBytes() {
+        return (long) slots.length * Long.BYTES + hands.length;
+    }
+
+    long hits() {
+        return hits.sum();
+    }
+
+    long misses() {
+        return misses.sum();
+    }
+
+    private static long[] hash(String longUrl) {
+        return ShortUrlGenerator.murmur3(longUrl.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Maps the hash to a set with a multiply and a shift instead of a modulo.
+     */
+    private int setOf(long[] hash) {
+        return (int) (((hash[1] >>> 32) * sets) >>> 32);
+    }
+
+    private Object lockOf(int set) {
+        return locks[set & (LOCK_COUNT - 1)];
+    }
+
+    /**
+     * @return the first long of the slot holding the hash, or -1
+     */
+    private int find(int set, long[] hash) {
+        int first = set * WAYS * SLOT_LONGS;
+        for (int slot = first; slot < first + WAYS * SLOT_LONGS; slot += SLOT_LONGS) {
+            if (slots[slot + 2] != 0 && slots[slot] == hash[0] && slots[slot + 1] == hash[1]) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the first long of an empty slot of the set, or of the entry to evict
+     */
+    private int victim(int set) {
+        int first = set * WAYS * SLOT_LONGS;
+        for (int way = 0; way < WAYS; way++) {
+            if (slots[first + way * SLOT_LONGS + 2] == 0) {
+                return first + way * SLOT_LONGS;
+            }
+        }
+        int hand = hands[set];
+        while (true) {
+            int slot = first + hand * SLOT_LONGS;
+            hand = (hand + 1) & (WAYS - 1);
+            if ((slots[slot + 2] & REFERENCED) == 0) {
+                hands[set] = (byte) hand;
+                return slot;
+            }
+            slots[slot + 2] &= ~REFERENCED;
+        }
+    }
+
+    /**
+     * @return the short url packed in a long, each character as its position in the base 62
+     * alphabet plus one, so that 0 stands for no entry; 0 when the short url can not be packed
+     */
+    static long pack(String shortUrl) {
+        if (!ShortUrls.isWellFormed(shortUrl)) {
+            return 0;
+        }
+        long packed = 0;
+        for (int i = shortUrl.length() - 1; i >= 0; i--) {
+            packed = (packed << BITS_PER_CHAR) | (ALPHABET.indexOf(shortUrl.charAt(i)) + 1);
+        }
+        return packed;
+    }
+
+    static String unpack(long packed) {
+        StringBuilder shortUrl = new StringBuilder(ShortUrls.MAX_SIZE);
+        for (long rest = packed & ~REFERENCED; rest != 0; rest >>>= BITS_PER_CHAR) {
+            shortUrl.append(ALPHABET.charAt((int) (rest & CHAR_MASK) - 1));
+        }
+        return shortUrl.toString();
+    }
+}
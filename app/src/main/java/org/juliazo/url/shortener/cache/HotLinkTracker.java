@@ -0,0 +1,209 @@
+package org.juliazo.url.shortener.cache;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.LongSupplier;
+
+/**
+ * Approximate hit counts of short urls over a sliding time window, in fixed memory.
+ * <p>
+ * Hits are counted in a Count-Min sketch: {@value #DEPTH} rows of {@code width}
+ * counters, a hit increments one counter per row and the estimate of a short url is
+ * the smallest of its counters. Estimates never undercount, they may overcount when
+ * short urls share counters. The window is split in {@code buckets} sketches, one per
+ * slice of time; the oldest one is cleared as time moves on, so hits older than the
+ * window are forgotten a slice at a time. The memory used is fixed, four bytes per
+ * counter: 1.5 MB with the default width of 16384 and 6 slices.
+ * <p>
+ * The hottest short urls are tracked among a bounded set of candidates, as in the
+ * Space-Saving algorithm: a short url enters the set once its estimate exceeds the
+ * estimate of the coldest candidate, which it then replaces.
+ * <p>
+ * Recording a hit takes no lock: counters are atomic and lost increments during the
+ * clearing of a slice are tolerated. Only a short url about to enter the candidates
+ * synchronizes, which most hits never do.
+ */
+@Component
+public class HotLinkTracker {
+
+    private static final int DEPTH = 4;
+
+    private final int width;
+
+    private final int buckets;
+
+    private final long bucketMillis;
+
+    private final int maxCandidates;
+
+    private final LongSupplier clockMillis;
+
+    private final AtomicIntegerArray[] sketches;
+
+    private final Map<String, Boolean> candidates;
+
+    /**
+     * Estimate a short url must exceed to enter the candidates, the estimate of the
+     * coldest candidate when last computed. Reset when a slice is cleared.
+     */
+    private volatile int candidateFloor;
+
+    private volatile long currentBucket;
+
+    @Autowired
+    public HotLinkTracker(@Value("${url-shortener.hot-links.window-seconds:60}") long windowSeconds,
+                          @Value("${url-shortener.hot-links.window-buckets:6}") int buckets,
+                          @Value("${url-shortener.hot-links.sketch-width:16384}") int width,
+                          @Value("${url-shortener.hot-links.candidates:256}") int maxCandidates) {
+        this(windowSeconds, buckets, width, maxCandidates, System::currentTimeMillis);
+    }
+
+    HotLinkTracker(long windowSeconds, int buckets, int width, int maxCandidates, LongSupplier clockMillis) {
+        if (Integer.bitCount(width) != 1) {
+            throw new IllegalArgumentException("The sketch width must be a power of two");
+        }
+        this.width = width;
+        this.buckets = buckets;
+        this.bucketMillis = Math.max(1, windowSeconds * 1000 / buckets);
+        this.maxCandidates = maxCandidates;
+        this.clockMillis = clockMillis;
+        this.sketches = new AtomicIntegerArray[buckets];
+        for (int i = 0; i < buckets; i++) {
+            sketches[i] = new AtomicIntegerArray(DEPTH * width);
+        }
+        this.candidates = new ConcurrentHashMap<>(maxCandidates * 2);
+        this.currentBucket = clockMillis.getAsLong() / bucketMillis;
+    }
+
+    /**
+     * Counts a hit of the given short url.
+     *
+     * @param shortUrl alias requested by a redirect, found or not
+     */
+    public void record(String shortUrl) {
+        AtomicIntegerArray sketch = sketches[(int) (advance() % buckets)];
+        int hash = spread(shortUrl.hashCode());
+        int step = rehash(hash);
+        for (int row = 0; row < DEPTH; row++) {
+            sketch.incrementAndGet(index(row, hash, step));
+        }
+        if (!candidates.containsKey(shortUrl) && estimate(hash, step) > candidateFloor) {
+            offerCandidate(shortUrl);
+        }
+    }
+
+    /**
+     * @param shortUrl alias for a long url
+     * @return the estimated hits of the short url within the window
+     */
+    public int estimate(String shortUrl) {
+        advance();
+        int hash = spread(shortUrl.hashCode());
+        return estimate(hash, rehash(hash));
+    }
+
+    /**
+     * @param limit how many short urls to return at most
+     * @return the hottest short urls within the window with their estimated hits, hottest first
+     */
+    public List<Map.Entry<String, Integer>> top(int limit) {
+        List<Map.Entry<String, Integer>> top = new ArrayList<>();
+        for (String candidate : candidates.keySet()) {
+            int estimate = estimate(candidate);
+            if (estimate > 0) {
+                top.add(new AbstractMap.SimpleImmutableEntry<>(candidate, estimate));
+            }
+        }
+        top.sort(Map.Entry.<String, Integer>comparingByValue().reversed()
+                .thenComparing(Map.Entry.comparingByKey()));
+        return top.size() > limit ? new ArrayList<>(top.subList(0, limit)) : top;
+    }
+
+    private synchronized void offerCandidate(String shortUrl) {
+        if (candidates.containsKey(shortUrl)) {
+            return;
+        }
+        if (candidates.size() < maxCandidates) {
+            candidates.put(shortUrl, Boolean.TRUE);
+            return;
+        }
+        int estimate = estimate(shortUrl);
+        Map.Entry<String, Integer> coldest = candidates.keySet().stream()
+                .map(candidate -> new AbstractMap.SimpleImmutableEntry<>(candidate, estimate(candidate)))
+                .min(Comparator.comparingInt(Map.Entry::getValue))
+                .orElseThrow();
+        if (estimate > coldest.getValue()) {
+            candidates.remove(coldest.getKey());
+            candidates.put(shortUrl, Boolean.TRUE);
+        }
+        candidateFloor = coldest.getValue();
+    }
+
+    /**
+     * Moves the window to the current time, clearing the slices that fell out of it.
+     *
+     * @return the number of the current slice
+     */
+    private long advance() {
+        long bucket = clockMillis.getAsLong() / bucketMillis;
+        if (bucket > currentBucket) {
+            synchronized (sketches) {
+                long from = Math.max(currentBucket + 1, bucket - buckets + 1);
+                for (long cleared = from; cleared <= bucket; cleared++) {
+                    AtomicIntegerArray sketch = sketches[(int) (cleared % buckets)];
+                    for (int i = 0; i < sketch.length(); i++) {
+                        sketch.set(i, 0);
+                    }
+                }
+                if (bucket > currentBucket) {
+                    currentBucket = bucket;
+                    candidateFloor = 0;
+                }
+            }
+        }
+        return bucket;
+    }
+
+    /**
+     * Sums, over the slices of the window, the smallest counter of the short url in each slice.
+     */
+    private int estimate(int hash, int step) {
+        int estimate = 0;
+        for (AtomicIntegerArray sketch : sketches) {
+            int min = Integer.MAX_VALUE;
+            for (int row = 0; row < DEPTH; row++) {
+                min = Math.min(min, sketch.get(index(row, hash, step)));
+            }
+            estimate += min;
+        }
+        return estimate;
+    }
+
+    private int index(int row, int hash, int step) {
+        return row * width + ((hash + row * step) & (width - 1));
+    }
+
+    private static int spread(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Second hash of the double hashing scheme, odd so every row gets a different counter.
+     */
+    private static int rehash(int hash) {
+        return spread(hash * 0x9e3779b9) | 1;
+    }
+}
@@ -0,0 +1,135 @@
+package org.juliazo.url.shortener.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.BiPredicate;
+import java.util.function.Predicate;
+
+/**
+ * Bounded map that evicts the least recently used entry once full.
+ * <p>
+ * Entries are spread over independently locked segments, so concurrent
+ * requests only contend when their keys fall on the same segment. The
+ * size bound and the recency order are kept per segment.
+ * <p>
+ * An optional admission policy decides whether a new key is worth evicting the
+ * least recently used one of a full segment; a rejected key is simply not stored.
+ *
+ * @param <K> type of the keys
+ * @param <V> type of the values
+ */
+class StripedLruMap<K, V> {
+
+    private static final int SEGMENT_COUNT = 16;
+
+    private final Segment<K, V>[] segments;
+
+    /**
+     * Given a new key and the key it would evict, tells whether the new key is admitted.
+     */
+    private final BiPredicate<K, K> admission;
+
+    StripedLruMap(int maxSize) {
+        this(maxSize, (candidate, victim) -> true);
+    }
+
+    @SuppressWarnings("unchecked")
+    StripedLruMap(int maxSize, BiPredicate<K, K> admission) {
+        this.admission = admission;
+        int segmentSize = Math.max(1, maxSize / SEGMENT_COUNT);
+        segments = new Segment[SEGMENT_COUNT];
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            segments[i] = new Segment<>(segmentSize);
+        }
+    }
+
+    private Segment<K, V> segmentFor(Object key) {
+        int hash = key.hashCode();
+        hash ^= (hash >>> 16);
+        return segments[hash & (SEGMENT_COUNT - 1)];
+    }
+
+    V get(K key) {
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            return segment.get(key);
+        }
+    }
+
+    void put(K key, V value) {
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            if (segment.isFull() && !segment.containsKey(key)
+                    && !admission.test(key, segment.keySet().iterator().next())) {
+                return;
+            }
+            segment.put(key, value);
+        }
+    }
+
+    V remove(K key) {
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            return segment.remove(key);
+        }
+    }
+
+    boolean remove(K key, V value) {
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            return segment.remove(key, value);
+        }
+    }
+
+    boolean removeIf(K key, Predicate<V> condition) {
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            V value = segment.get(key);
+            if (value != null && condition.test(value)) {
+                segment.remove(key);
+                return true;
+            }
+            return false;
+        }
+    }
+
+    void clear() {
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    int size() {
+        int size = 0;
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Access ordered map that drops its eldest entry when it grows beyond {@code maxSize}.
+     */
+    private static final class Segment<K, V> extends LinkedHashMap<K, V> {
+
+        private final int maxSize;
+
+        Segment(int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        boolean isFull() {
+            return size() >= maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            return size() > maxSize;
+        }
+    }
+}
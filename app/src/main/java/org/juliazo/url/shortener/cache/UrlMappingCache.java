@@ -0,0 +1,174 @@
+package org.juliazo.url.shortener.cache;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.juliazo.url.shortener.commons.redirect.UrlRedirect;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local, per instance cache of the pairs short url - long url.
+ * <p>
+ * Holds two bounded maps: the redirect cache, used by the lookup of short urls,
+ * and the dedupe cache, used to find the short url already assigned to a long url.
+ * The dedupe cache keeps a digest of the long url rather than the url, see
+ * {@link DigestDedupeMap}, and publishes its hits and misses in
+ * {@code url.shortener.cache.dedupe.requests}. It only holds links without expiration,
+ * which every request for their long url can reuse as they are.
+ * <p>
+ * Mappings are immutable once created, so an entry can only become stale when its
+ * row is removed from the database. Every invalidation bumps a stamp, readers that
+ * fill the cache from the database use {@link #putIfUnchanged} with the stamp taken
+ * before their query, so a row read just before its removal is never cached.
+ * <p>
+ * With admission enabled, a full redirect cache only takes in a short url that the
+ * {@link HotLinkTracker} saw more often than the least recently used short url it
+ * would evict, as in TinyLFU. A flood of one-off short urls, e.g. from a scanner,
+ * then leaves the hot links cached.
+ * <p>
+ * The redirect cache holds the {@link CompactRedirects compact form} of the redirects,
+ * with the scheme and host of the long urls interned, and decodes them on each hit.
+ */
+@Component
+public class UrlMappingCache {
+
+    /**
+     * Prefixes interned when none is configured.
+     */
+    static final int DEFAULT_MAX_PREFIXES = 16384;
+
+    private final StripedLruMap<String, byte[]> redirects;
+
+    private final CompactRedirects compactRedirects;
+
+    private final DigestDedupeMap dedupe;
+
+    private final AtomicLong invalidationStamp = new AtomicLong();
+
+    /**
+     * Creates a cache without admission policy, every mapping is cached.
+     */
+    public UrlMappingCache(int redirectMaxSize, int dedupeMaxSize) {
+        this.redirects = new StripedLruMap<>(redirectMaxSize);
+        this.compactRedirects = new CompactRedirects(DEFAULT_MAX_PREFIXES);
+        this.dedupe = new DigestDedupeMap(dedupeMaxSize);
+    }
+
+    @Autowired
+    public UrlMappingCache(@Value("${url-shortener.cache.redirect.max-size:100000}") int redirectMaxSize,
+                           @Value("${url-shortener.cache.dedupe.max-size:1000000}") int dedupeMaxSize,
+                           @Value("${url-shortener.cache.redirect.admission.enabled:true}") boolean admission,
+                           @Value("${url-shortener.cache.redirect.max-prefixes:16384}") int maxPrefixes,
+                           HotLinkTracker hotLinkTracker, MeterRegistry meterRegistry) {
+        this.redirects = admission
+                ? new StripedLruMap<>(redirectMaxSize, (candidate, victim) ->
+                        hotLinkTracker.estimate(candidate) > hotLinkTracker.estimate(victim))
+                : new StripedLruMap<>(redirectMaxSize);
+        this.compactRedirects = new CompactRedirects(maxPrefixes);
+        this.dedupe = new DigestDedupeMap(dedupeMaxSize);
+        Gauge.builder("url.shortener.cache.redirect.prefixes", compactRedirects, CompactRedirects::prefixCount)
+                .description("Scheme and host prefixes interned by the redirect cache").register(meterRegistry);
+        FunctionCounter.builder("url.shortener.cache.dedupe.requests", dedupe, DigestDedupeMap::hits)
+                .description("Lookups of the dedupe cache").tag("result", "hit").register(meterRegistry);
+        FunctionCounter.builder("url.shortener.cache.dedupe.requests", dedupe, DigestDedupeMap::misses)
+                .description("Lookups of the dedupe cache").tag("result", "miss").register(meterRegistry);
+        Gauge.builder("url.shortener.cache.dedupe.size", dedupe, DigestDedupeMap::size)
+                .description("Entries of the dedupe cache").register(meterRegistry);
+        Gauge.builder("url.shortener.cache.dedupe.footprint", dedupe, DigestDedupeMap::footprintBytes)
+                .description("Memory preallocated for the dedupe cache").baseUnit("bytes").register(meterRegistry);
+    }
+
+    /**
+     * @return the current invalidation stamp, to be passed to {@link #putIfUnchanged}
+     */
+    public long stamp() {
+        return invalidationStamp.get();
+    }
+
+    /**
+     * @param shortUrl alias for the long url
+     * @return the cached redirect for the given short url, if any
+     */
+    public Optional<UrlRedirect> findRedirect(String shortUrl) {
+        return Optional.ofNullable(redirects.get(shortUrl)).map(compactRedirects::decode);
+    }
+
+    /**
+     * @param longUrl an already validated long url
+     * @return the cached short url for the given long url, if any, its link never expires
+     */
+    public Optional<String> findShortUrl(String longUrl) {
+        return Optional.ofNullable(dedupe.get(longUrl));
+    }
+
+    /**
+     * Caches a mapping known to be current, i.e. one that was just created or that
+     * was announced by another instance.
+     *
+     * @param shortUrl alias for the long url
+     * @param redirect the long url and redirect policy of the link
+     */
+    public void put(String shortUrl, UrlRedirect redirect) {
+        put(shortUrl, redirect, compactRedirects.encode(redirect));
+    }
+
+    private void put(String shortUrl, UrlRedirect redirect, byte[] encoded) {
+        redirects.put(shortUrl, encoded);
+        if (redirect.getExpiresAt() == null) {
+            dedupe.put(redirect.getLongUrl(), shortUrl);
+        }
+    }
+
+    /**
+     * Caches a mapping read from the database, unless an invalidation happened
+     * since {@code stamp} was taken.
+     *
+     * @param stamp    the value of {@link #stamp()} taken before reading the mapping
+     * @param shortUrl alias for the long url
+     * @param redirect the long url and redirect policy of the link
+     */
+    public void putIfUnchanged(long stamp, String shortUrl, UrlRedirect redirect) {
+        byte[] encoded = compactRedirects.encode(redirect);
+        put(shortUrl, redirect, encoded);
+        if (invalidationStamp.get() != stamp) {
+            redirects.removeIf(shortUrl, cached -> Arrays.equals(cached, encoded));
+            dedupe.remove(redirect.getLongUrl(), shortUrl);
+        }
+    }
+
+    /**
+     * Removes a mapping that no longer exists in the database.
+     *
+     * @param shortUrl alias for the long url
+     * @param longUrl  the long url
+     */
+    public void invalidate(String shortUrl, String longUrl) {
+        invalidationStamp.incrementAndGet();
+        redirects.removeIf(shortUrl, cached -> compactRedirects.decodeLongUrl(cached).equals(longUrl));
+        dedupe.remove(longUrl, shortUrl);
+    }
+
+    /**
+     * Drops every cached mapping. Used when it is no longer possible to tell
+     * which mappings were removed, e.g. after losing the notification channel.
+     */
+    public void invalidateAll() {
+        invalidationStamp.incrementAndGet();
+        redirects.clear();
+        dedupe.clear();
+    }
+
+    public int redirectCacheSize() {
+        return redirects.size();
+    }
+
+    public int dedupeCacheSize() {
+        return dedupe.size();
+    }
+}
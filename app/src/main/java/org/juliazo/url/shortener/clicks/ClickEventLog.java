@@ -0,0 +1,218 @@
+package org.juliazo.url.shortener.clicks;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.juliazo.url.shortener.commons.clicks.ClickLogFormat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Log of the raw clicks on short urls, for analytics, kept off the redirect path.
+ * <p>
+ * Redirects only put their click in a preallocated {@link ClickEventRing}, which neither
+ * allocates nor blocks. When the ring is full, the click is dropped and counted in
+ * {@code url.shortener.clicks.dropped}. A single writer thread drains the ring and appends
+ * the clicks, in the {@link ClickLogFormat}, to memory-mapped segment files of a fixed size.
+ * A click that cannot be written is dropped and counted the same way.
+ * A full segment is forced to disk and the next one is started; beyond {@link #maxSegments},
+ * the oldest segments are deleted. Segments are turned into NDJSON by the
+ * {@link org.juliazo.url.shortener.commons.clicks.ClickLogReader}.
+ * <p>
+ * Clicks still in the ring or not yet written back by the operating system are lost when
+ * the host crashes, the log is meant for analytics, not for accounting.
+ */
+@Component
+@ConditionalOnProperty(name = "url-shortener.clicks.enabled", havingValue = "true")
+public class ClickEventLog {
+
+    private static final Logger logger = LoggerFactory.getLogger(ClickEventLog.class);
+
+    private static final String SEGMENT_PREFIX = "clicks-";
+
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    private static final int DRAIN_LIMIT = 1024;
+
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static final int MAX_FAILURES_ON_STOP = 3;
+
+    private final ClickEventRing ring;
+
+    private final Path directory;
+
+    private final int segmentSize;
+
+    private final int maxSegments;
+
+    private final LongAdder dropped = new LongAdder();
+
+    private final Counter written;
+
+    private long segmentNumber;
+
+    private MappedByteBuffer segment;
+
+    private volatile boolean running;
+
+    private Thread writerThread;
+
+    @Autowired
+    public ClickEventLog(MeterRegistry meterRegistry,
+                         @Value("${url-shortener.clicks.ring-size:65536}") int ringSize,
+                         @Value("${url-shortener.clicks.directory:./clicks}") String directory,
+                         @Value("${url-shortener.clicks.segment-size-bytes:67108864}") int segmentSize,
+                         @Value("${url-shortener.clicks.max-segments:16}") int maxSegments) {
+        if (segmentSize < ClickLogFormat.HEADER_SIZE + ClickLogFormat.MAX_RECORD_SIZE) {
+            throw new IllegalArgumentException("The click log segments are too small for a click");
+        }
+        this.ring = new ClickEventRing(ringSize);
+        this.directory = Paths.get(directory);
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+        this.written = Counter.builder("url.shortener.clicks.written")
+                .description("Clicks written to the click log").register(meterRegistry);
+        FunctionCounter.builder("url.shortener.clicks.dropped", dropped, LongAdder::sum)
+                .description("Clicks dropped because the ring was full or they could not be written").register(meterRegistry);
+        Gauge.builder("url.shortener.clicks.pending", ring, ClickEventRing::size)
+                .description("Clicks waiting in the ring").register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        Files.createDirectories(directory);
+        segmentNumber = segments().stream().mapToLong(ClickEventLog::segmentNumber).max().orElse(0);
+        running = true;
+        writerThread = new Thread(this::write, "click-log-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Stops the writer once the clicks already in the ring are written.
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        writerThread.join();
+    }
+
+    /**
+     * Queues a click, without blocking. Drops it when the ring is full.
+     *
+     * @param shortUrl  the short url that was resolved
+     * @param referrer  the Referer header of the request, may be null
+     * @param userAgent the User-Agent header of the request, may be null
+     * @return true when the click was queued
+     */
+    public boolean record(String shortUrl, String referrer, String userAgent) {
+        int userAgentHash = userAgent == null ? 0 : userAgent.hashCode();
+        if (ring.offer(shortUrl, System.currentTimeMillis(), userAgentHash, referrer)) {
+            return true;
+        }
+        dropped.increment();
+        return false;
+    }
+
+    /**
+     * Main loop of the writer thread. A click that cannot be written is dropped. Once stopped,
+     * the writer gives up on the clicks left in the ring after {@link #MAX_FAILURES_ON_STOP}
+     * failed writes in a row, rather than holding the shutdown.
+     */
+    private void write() {
+        int failures = 0;
+        while (running || ring.size() > 0) {
+            try {
+                if (ring.drain(this::append, DRAIN_LIMIT) == 0) {
+                    LockSupport.parkNanos(IDLE_NANOS);
+                }
+                failures = 0;
+            } catch (RuntimeException exception) {
+                logger.error("Could not write to the click log, dropping its current segment", exception);
+                dropped.increment();
+                segment = null;
+                if (!running && ++failures >= MAX_FAILURES_ON_STOP) {
+                    int abandoned = ring.drain((shortUrl, timestamp, userAgentHash, referrer) -> { }, Integer.MAX_VALUE);
+                    dropped.add(abandoned);
+                    logger.warn("Dropped [{}] clicks left in the ring, the click log cannot be written", abandoned);
+                    break;
+                }
+                LockSupport.parkNanos(TimeUnit.SECONDS.toNanos(1));
+            }
+        }
+        if (segment != null) {
+            segment.force();
+        }
+    }
+
+    private void append(String shortUrl, long timestamp, int userAgentHash, String referrer) {
+        byte[] encodedReferrer = ClickLogFormat.encodeReferrer(referrer);
+        if (segment == null || segment.remaining() < ClickLogFormat.recordSize(shortUrl, encodedReferrer)) {
+            rotate();
+        }
+        ClickLogFormat.write(segment, shortUrl, timestamp, userAgentHash, encodedReferrer);
+        written.increment();
+    }
+
+    /**
+     * Forces the current segment to disk, then maps a new one and deletes the oldest ones.
+     */
+    private void rotate() {
+        if (segment != null) {
+            segment.force();
+        }
+        segmentNumber++;
+        Path file = directory.resolve(String.format("%s%019d%s", SEGMENT_PREFIX, segmentNumber, SEGMENT_SUFFIX));
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            segment.putInt(ClickLogFormat.MAGIC);
+            List<Path> segments = segments();
+            for (Path oldest : segments.subList(0, Math.max(0, segments.size() - maxSegments))) {
+                Files.deleteIfExists(oldest);
+            }
+        } catch (IOException exception) {
+            throw new UncheckedIOException(exception);
+        }
+        logger.info("Started click log segment [{}]", file);
+    }
+
+    /**
+     * @return the segment files of the directory, oldest first
+     */
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.getFileName().toString().startsWith(SEGMENT_PREFIX)
+                    && file.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+                    .sorted().collect(Collectors.toList());
+        }
+    }
+
+    private static long segmentNumber(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+}
@@ -0,0 +1,126 @@
+package org.juliazo.url.shortener.clicks;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Preallocated, bounded ring of click events, written by many threads and read by one.
+ * <p>
+ * Each slot has a sequence number telling whose turn it is: a producer claims a slot with
+ * one compare-and-set on the tail, fills it and publishes it by advancing its sequence;
+ * the consumer reads published slots in order and hands them back the same way. Slots
+ * are reused forever and the fields are kept in parallel arrays, so offering an event
+ * allocates nothing and never blocks: when the ring is full, the event is refused.
+ */
+class ClickEventRing {
+
+    /**
+     * Receives the events drained from the ring.
+     */
+    interface ClickHandler {
+
+        void handle(String shortUrl, long timestamp, int userAgentHash, String referrer);
+    }
+
+    private final int mask;
+
+    private final AtomicLongArray sequences;
+
+    private final String[] shortUrls;
+
+    private final long[] timestamps;
+
+    private final int[] userAgentHashes;
+
+    private final String[] referrers;
+
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * Only moved by the consumer.
+     */
+    private final AtomicLong head = new AtomicLong();
+
+    /**
+     * @param capacity events the ring holds, a power of two
+     */
+    ClickEventRing(int capacity) {
+        if (capacity < 2 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("The ring capacity must be a power of two");
+        }
+        this.mask = capacity - 1;
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+        this.shortUrls = new String[capacity];
+        this.timestamps = new long[capacity];
+        this.userAgentHashes = new int[capacity];
+        this.referrers = new String[capacity];
+    }
+
+    /**
+     * @return true when the event was queued, false when the ring is full
+     */
+    boolean offer(String shortUrl, long timestamp, int userAgentHash, String referrer) {
+        long position = tail.get();
+        while (true) {
+            int slot = (int) position & mask;
+            long difference = sequences.get(slot) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    shortUrls[slot] = shortUrl;
+                    timestamps[slot] = timestamp;
+                    userAgentHashes[slot] = userAgentHash;
+                    referrers[slot] = referrer;
+                    sequences.lazySet(slot, position + 1);
+                    return true;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                return false;
+            } else {
+                position = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Hands the published events to the handler, oldest first. Only one thread may drain.
+     * <p>
+     * Each slot is handed back as soon as its event was handled. When the handler throws,
+     * its event is skipped, its slot handed back like the others, and the exception is
+     * thrown to the caller: the next drain starts after it.
+     *
+     * @param handler receives the events
+     * @param limit   most events drained by this call
+     * @return the number of events drained
+     */
+    int drain(ClickHandler handler, int limit) {
+        int drained = 0;
+        while (drained < limit) {
+            long position = head.get();
+            int slot = (int) position & mask;
+            if (sequences.get(slot) != position + 1) {
+                break;
+            }
+            try {
+                handler.handle(shortUrls[slot], timestamps[slot], userAgentHashes[slot], referrers[slot]);
+            } finally {
+                shortUrls[slot] = null;
+                referrers[slot] = null;
+                sequences.lazySet(slot, position + mask + 1);
+                head.lazySet(position + 1);
+            }
+            drained++;
+        }
+        return drained;
+    }
+
+    /**
+     * @return the number of events waiting to be drained, an estimate while producers are active
+     */
+    int size() {
+        return (int) Math.max(0, tail.get() - head.get());
+    }
+}
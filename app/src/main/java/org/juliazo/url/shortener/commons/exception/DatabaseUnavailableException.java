@@ -0,0 +1,17 @@
+package org.juliazo.url.shortener.commons.exception;
+
+public class DatabaseUnavailableException extends ServiceOverloadedException {
+
+    /**
+     * Instantiates a new Database Unavailable exception.
+     * This exception occurs when the database can not be reached, or is refused right away
+     * because recent calls to it failed, and the request can not be served without it.
+     * It is answered like any other overload, with a 503 and a Retry-After.
+     *
+     * @param retryAfterSeconds how long the caller should wait before retrying
+     * @param cause             the failure of the database call, null when the call was refused
+     */
+    public DatabaseUnavailableException(long retryAfterSeconds, Throwable cause) {
+        super("The service is temporarily read-only, please try again later.", retryAfterSeconds, cause);
+    }
+}
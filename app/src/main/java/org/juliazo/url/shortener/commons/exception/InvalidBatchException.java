@@ -0,0 +1,15 @@
+package org.juliazo.url.shortener.commons.exception;
+
+public class InvalidBatchException extends IllegalArgumentException {
+
+    /**
+     * Instantiates a new Invalid Batch exception.
+     * This exception occurs when a batch of urls to shorten is empty or holds
+     * more urls than the service accepts at once.
+     *
+     * @param message why the batch is rejected
+     */
+    public InvalidBatchException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,15 @@
+package org.juliazo.url.shortener.commons.exception;
+
+public class InvalidLinkOptionException extends IllegalArgumentException {
+
+    /**
+     * Instantiates a new Invalid Link Option exception.
+     * This exception occurs when one of the optional link settings received by the
+     * service, such as the redirect status, has an unsupported value.
+     *
+     * @param message which option is invalid and why
+     */
+    public InvalidLinkOptionException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,15 @@
+package org.juliazo.url.shortener.commons.exception;
+
+public class InvalidRecordingOptionException extends IllegalArgumentException {
+
+    /**
+     * Instantiates a new Invalid Recording Option exception.
+     * This exception occurs when a flight recording is requested with an unknown
+     * profile or a duration out of the allowed range.
+     *
+     * @param message which option is invalid and why
+     */
+    public InvalidRecordingOptionException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,15 @@
+package org.juliazo.url.shortener.commons.exception;
+
+public class RecordingStateException extends IllegalStateException {
+
+    /**
+     * Instantiates a new Recording State exception.
+     * This exception occurs when a flight recording is started while another one
+     * is running, or stopped when none was started.
+     *
+     * @param message why the recording can not be started or stopped
+     */
+    public RecordingStateException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,26 @@
+package org.juliazo.url.shortener.commons.exception;
+
+public class ServiceOverloadedException extends RuntimeException {
+
+    private final long retryAfterSeconds;
+
+    /**
+     * Instantiates a new Service Overloaded exception.
+     * This exception occurs when a request is shed because the service is already
+     * handling as many concurrent requests of the same kind as it currently allows.
+     *
+     * @param retryAfterSeconds how long the caller should wait before retrying
+     */
+    public ServiceOverloadedException(long retryAfterSeconds) {
+        this("The service is overloaded, please try again later.", retryAfterSeconds, null);
+    }
+
+    protected ServiceOverloadedException(String message, long retryAfterSeconds, Throwable cause) {
+        super(message, cause);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
@@ -0,0 +1,44 @@
+package org.juliazo.url.shortener.controller;
+
+import org.juliazo.url.shortener.cache.HotLinkTracker;
+import org.juliazo.url.shortener.model.HotLinkPayload;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Admin endpoint listing the short urls redirected the most in the recent past.
+ */
+@RestController
+public class HotLinksController {
+
+    private final HotLinkTracker hotLinkTracker;
+
+    @Autowired
+    public HotLinksController(HotLinkTracker hotLinkTracker) {
+        this.hotLinkTracker = hotLinkTracker;
+    }
+
+    /**
+     * GET endpoint to list the hottest short urls of this instance.
+     *
+     * @param limit how many short urls to list at most
+     * @return the short urls with their estimated hits within the tracking window, hottest first
+     * @see HotLinkTracker
+     */
+    @RequestMapping(method = RequestMethod.GET, value = "/admin/top")
+    public ResponseEntity<List<HotLinkPayload>> topLinks(
+            @RequestParam(value = "limit", defaultValue = "10") int limit) {
+        List<HotLinkPayload> topLinks = hotLinkTracker.top(Math.max(0, limit)).stream()
+                .map(entry -> new HotLinkPayload(entry.getKey(), entry.getValue()))
+                .collect(Collectors.toList());
+        return new ResponseEntity<>(topLinks, HttpStatus.OK);
+    }
+}
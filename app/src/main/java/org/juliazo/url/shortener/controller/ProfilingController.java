@@ -0,0 +1,119 @@
+package org.juliazo.url.shortener.controller;
+
+import org.juliazo.url.shortener.commons.exception.InvalidRecordingOptionException;
+import org.juliazo.url.shortener.commons.exception.RecordingStateException;
+import org.juliazo.url.shortener.commons.payload.ErrorResponsePayload;
+import org.juliazo.url.shortener.model.RecordingPayload;
+import org.juliazo.url.shortener.profiling.FlightRecordings;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Admin endpoints to record the application with Java Flight Recorder, only mapped
+ * when {@code url-shortener.admin.jfr.enabled} is set. They must not be reachable
+ * from outside the deployment.
+ */
+@RestController
+@ConditionalOnProperty(name = "url-shortener.admin.jfr.enabled", havingValue = "true")
+public class ProfilingController {
+
+    private static final DateTimeFormatter FILE_NAME_TIMESTAMP = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+    private final FlightRecordings flightRecordings;
+
+    @Autowired
+    public ProfilingController(FlightRecordings flightRecordings) {
+        this.flightRecordings = flightRecordings;
+    }
+
+    /**
+     * POST endpoint to start a flight recording.
+     *
+     * @param profile         the JDK recording configuration, default or profile
+     * @param durationSeconds seconds after which the recording stops by itself
+     * @return 202 ACCEPTED with the state of the started recording
+     */
+    @RequestMapping(method = RequestMethod.POST, value = "/admin/jfr/start")
+    public ResponseEntity<RecordingPayload> startRecording(
+            @RequestParam(value = "profile", defaultValue = "default") String profile,
+            @RequestParam(value = "durationSeconds", defaultValue = "60") long durationSeconds) {
+        return new ResponseEntity<>(flightRecordings.start(profile, durationSeconds), HttpStatus.ACCEPTED);
+    }
+
+    /**
+     * GET endpoint to check on the last flight recording.
+     *
+     * @return the state of the recording, RUNNING until it is stopped or its duration elapses
+     */
+    @RequestMapping(method = RequestMethod.GET, value = "/admin/jfr")
+    public ResponseEntity<RecordingPayload> recordingStatus() {
+        return new ResponseEntity<>(flightRecordings.status(), HttpStatus.OK);
+    }
+
+    /**
+     * POST endpoint to stop the last flight recording, if still running, and download it.
+     * The recording can only be downloaded once.
+     *
+     * @return the .jfr file, to be opened with JDK Mission Control or the jfr tool
+     */
+    @RequestMapping(method = RequestMethod.POST, value = "/admin/jfr/stop")
+    public ResponseEntity<StreamingResponseBody> stopRecording() {
+        Path file = flightRecordings.stop();
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
+        headers.setContentDisposition(ContentDisposition.attachment()
+                .filename("url-shortener-" + LocalDateTime.now().format(FILE_NAME_TIMESTAMP) + ".jfr")
+                .build());
+        StreamingResponseBody body = outputStream -> {
+            try {
+                Files.copy(file, outputStream);
+            } finally {
+                Files.deleteIfExists(file);
+            }
+        };
+        return new ResponseEntity<>(body, headers, HttpStatus.OK);
+    }
+
+    /**
+     * Exception handler for recordings requested with an unknown profile or a duration out of range.
+     *
+     * @param exception {@link InvalidRecordingOptionException}
+     * @return 400 BAD REQUEST status code
+     */
+    @ExceptionHandler(InvalidRecordingOptionException.class)
+    static ResponseEntity<ErrorResponsePayload> handleInvalidRecordingOptionError(
+            InvalidRecordingOptionException exception) {
+        ErrorResponsePayload errorResponsePayload = new ErrorResponsePayload(HttpStatus.BAD_REQUEST.value(),
+                HttpStatus.BAD_REQUEST.getReasonPhrase(), exception.getMessage());
+        return new ResponseEntity<>(errorResponsePayload, HttpStatus.BAD_REQUEST);
+    }
+
+    /**
+     * Exception handler for recordings started while another one runs, or stopped when none was started.
+     *
+     * @param exception {@link RecordingStateException}
+     * @return 409 CONFLICT status code
+     */
+    @ExceptionHandler(RecordingStateException.class)
+    static ResponseEntity<ErrorResponsePayload> handleRecordingStateError(RecordingStateException exception) {
+        ErrorResponsePayload errorResponsePayload = new ErrorResponsePayload(HttpStatus.CONFLICT.value(),
+                HttpStatus.CONFLICT.getReasonPhrase(), exception.getMessage());
+        return new ResponseEntity<>(errorResponsePayload, HttpStatus.CONFLICT);
+    }
+}
@@ -0,0 +1,59 @@
+package org.juliazo.url.shortener.controller;
+
+import org.juliazo.url.shortener.commons.redirect.RedirectPolicy;
+import org.juliazo.url.shortener.commons.redirect.RedirectResponse;
+import org.juliazo.url.shortener.commons.redirect.UrlRedirect;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+
+import java.net.URI;
+import java.time.Instant;
+
+/**
+ * Builds the responses of the redirect endpoint, following the {@link RedirectPolicy}
+ * shared with the edge redirect servers.
+ * <p>
+ * The redirect status and the number of seconds browsers and CDNs may cache the
+ * redirect are set per deployment, and may be overridden per link.
+ * <p>
+ * Long urls are validated when shortened, an ASCII long url goes to the Location header
+ * as it is, only the others are parsed to percent-encode their non-ASCII characters.
+ */
+@Component
+public class RedirectResponseFactory {
+
+    private final RedirectPolicy redirectPolicy;
+
+    public RedirectResponseFactory(@Value("${url-shortener.redirect.status:302}") int defaultStatus,
+                                   @Value("${url-shortener.redirect.cache-max-age:0}") int defaultCacheMaxAge) {
+        this.redirectPolicy = new RedirectPolicy(defaultStatus, defaultCacheMaxAge);
+    }
+
+    /**
+     * @param shortUrl    alias for the long url
+     * @param redirect    the long url and redirect policy of the link
+     * @param ifNoneMatch the If-None-Match request header, may be null
+     * @return the redirect response, or 304 NOT MODIFIED when the caller already holds it
+     */
+    public ResponseEntity<Void> build(String shortUrl, UrlRedirect redirect, String ifNoneMatch) {
+        RedirectResponse response = redirectPolicy.apply(shortUrl, redirect, ifNoneMatch, Instant.now());
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.LOCATION, toAscii(response.getLocation()));
+        headers.setETag(response.getETag());
+        headers.setCacheControl(response.getCacheControl());
+        headers.setExpires(response.getExpiresEpochMillis());
+        return new ResponseEntity<>(headers, HttpStatus.valueOf(response.getStatus()));
+    }
+
+    private static String toAscii(String location) {
+        for (int i = 0; i < location.length(); i++) {
+            if (location.charAt(i) >= 0x80) {
+                return URI.create(location).toASCIIString();
+            }
+        }
+        return location;
+    }
+}
@@ -0,0 +1,487 @@
+package org.juliazo.url.shortener.controller;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.juliazo.url.shortener.bulkhead.Bulkhead;
+import org.juliazo.url.shortener.bulkhead.Workload;
+import org.juliazo.url.shortener.commons.exception.ConflictingDataException;
+import org.juliazo.url.shortener.commons.exception.InvalidBatchException;
+import org.juliazo.url.shortener.commons.exception.InvalidLinkOptionException;
+import org.juliazo.url.shortener.commons.exception.InvalidUrlException;
+import org.juliazo.url.shortener.commons.exception.ResourceNotFoundException;
+import org.juliazo.url.shortener.commons.exception.ServiceOverloadedException;
+import org.juliazo.url.shortener.commons.payload.ErrorResponsePayload;
+import org.juliazo.url.shortener.commons.payload.ResolveBatchItemPayload;
+import org.juliazo.url.shortener.commons.payload.UrlBatchItemPayload;
+import org.juliazo.url.shortener.commons.payload.UrlRequestPayload;
+import org.juliazo.url.shortener.commons.payload.UrlResponsePayload;
+import org.juliazo.url.shortener.commons.redirect.UrlRedirect;
+import org.juliazo.url.shortener.limiter.ConcurrencyLimiter;
+import org.juliazo.url.shortener.ownership.ShortenForwarder;
+import org.juliazo.url.shortener.service.UrlShortenerService;
+import org.juliazo.url.shortener.timing.RequestTimer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.web.util.UriComponents;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Url Shortener Controller. Responsible for handling HTTP requests.
+ * All endpoints of the url shortener API must be defined here, admin endpoints
+ * have controllers of their own.
+ */
+@RestController
+public class UrlShortenerController {
+
+    private static final String URL_SCHEMA = "http";
+    private static final String SERVICE_HOST = "localhost";
+    private static final String SERVICE_PORT = "80";
+
+    private static final Logger logger = LoggerFactory.getLogger(UrlShortenerController.class);
+
+    /**
+     * Item error of an unknown or expired short url of a batch, like {@link #lookupUrl} answers it.
+     */
+    private static final ErrorResponsePayload NOT_FOUND = new ErrorResponsePayload(HttpStatus.NOT_FOUND.value(),
+            HttpStatus.NOT_FOUND.getReasonPhrase(), new ResourceNotFoundException().getMessage());
+
+    /**
+     * Item error of a short url of a batch that the database, unavailable, and the replica could not resolve.
+     */
+    private static final ErrorResponsePayload NOT_RESOLVED = new ErrorResponsePayload(
+            HttpStatus.SERVICE_UNAVAILABLE.value(), HttpStatus.SERVICE_UNAVAILABLE.getReasonPhrase(),
+            "The short url could not be resolved, please try again later.");
+
+    /**
+     * The Shortener Service. Implementation of each endpoint mapped here.
+     */
+    private final UrlShortenerService shortenerService;
+
+    /**
+     * Applies the redirect status and cache headers to the lookup responses.
+     */
+    private final RedirectResponseFactory redirectResponseFactory;
+
+    /**
+     * Sheds shorten requests beyond the concurrency the service currently sustains.
+     */
+    private final ConcurrencyLimiter shortenLimiter;
+
+    /**
+     * Budget of concurrent redirects, kept apart from the shorten requests.
+     */
+    private final ConcurrencyLimiter redirectLimiter;
+
+    /**
+     * Runs redirects and shortening on separate threads and connection pools.
+     */
+    private final Bulkhead bulkhead;
+
+    /**
+     * Records the phase timings of each request, when enabled.
+     */
+    private final RequestTimer requestTimer;
+
+    /**
+     * Most urls accepted by one call to {@link #shortenUrls}.
+     */
+    private final int maxBatchSize;
+
+    /**
+     * Urls of one batch shortened at the same time, each one holding a slot of the shorten limiter.
+     */
+    private final int maxInFlightPerBatch;
+
+    /**
+     * Writes the items of {@link #resolveUrls} as they are resolved.
+     */
+    private final ObjectMapper objectMapper;
+
+    /**
+     * Most short urls accepted by one call to {@link #resolveUrls}.
+     */
+    private final int maxResolveBatchSize;
+
+    /**
+     * Short urls resolved together, in one query for those the cache misses.
+     */
+    private final int resolveChunkSize;
+
+    @Autowired
+    public UrlShortenerController(UrlShortenerService shortenerService,
+                                  RedirectResponseFactory redirectResponseFactory,
+                                  @Qualifier("shortenLimiter") ConcurrencyLimiter shortenLimiter,
+                                  @Qualifier("redirectLimiter") ConcurrencyLimiter redirectLimiter,
+                                  Bulkhead bulkhead,
+                                  RequestTimer requestTimer,
+                                  @Value("${url-shortener.batch.max-size:100}") int maxBatchSize,
+                                  @Value("${url-shortener.batch.max-in-flight:8}") int maxInFlightPerBatch,
+                                  ObjectMapper objectMapper,
+                                  @Value("${url-shortener.batch.resolve.max-size:10000}") int maxResolveBatchSize,
+                                  @Value("${url-shortener.batch.resolve.chunk-size:500}") int resolveChunkSize) {
+        this.shortenerService = shortenerService;
+        this.redirectResponseFactory = redirectResponseFactory;
+        this.shortenLimiter = shortenLimiter;
+        this.redirectLimiter = redirectLimiter;
+        this.bulkhead = bulkhead;
+        this.requestTimer = requestTimer;
+        this.maxBatchSize = maxBatchSize;
+        this.maxInFlightPerBatch = maxInFlightPerBatch;
+        this.objectMapper = objectMapper;
+        this.maxResolveBatchSize = maxResolveBatchSize;
+        this.resolveChunkSize = resolveChunkSize;
+    }
+
+    /**
+     * POST endpoint to create an alias for a given url, known as short url.
+     *
+     * @param urlRequestPayload holds the url to be shortened and its optional redirect policy
+     * @param forwardedBy       address of the replica that forwarded the request to its owner, if any
+     * @param response          receives the Server-Timing header, when timing is enabled
+     * @return an absolute url with the short alias as a path parameter
+     */
+    @RequestMapping(method = RequestMethod.POST, value = "/shorten", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public CompletableFuture<ResponseEntity<UrlResponsePayload>> shortenUrl(
+            @RequestBody UrlRequestPayload urlRequestPayload,
+            @RequestHeader(value = ShortenForwarder.FORWARDED_HEADER, required = false) String forwardedBy,
+            HttpServletResponse response) {
+        String longUrl = urlRequestPayload.getLongUrl();
+        if (forwardedBy == null) {
+            logger.info("Attempting to create short url for [{}]", longUrl);
+        } else {
+            logger.info("Attempting to create short url for [{}], forwarded by [{}]", longUrl, forwardedBy);
+        }
+        return requestTimer.time("shorten", response, timings ->
+                shortenLimiter.executeAsync(() -> bulkhead.submit(Workload.SHORTEN,
+                        timings.bind(() -> forwardedBy == null ? shortenerService.shortenUrl(urlRequestPayload)
+                                : shortenerService.shortenUrlAsOwner(urlRequestPayload))))
+                        .thenApply(shortUrl -> timings.record("render", () -> {
+                            UrlResponsePayload responsePayload =
+                                    new UrlResponsePayload(longUrl, toAbsoluteUrl(shortUrl));
+                            return new ResponseEntity<>(responsePayload, HttpStatus.OK);
+                        })));
+    }
+
+    /**
+     * POST endpoint to create the short urls of several urls in one call, saving a round trip per url.
+     * Each url is shortened like {@link #shortenUrl} would, a few of them at a time, and fails on its
+     * own: the error it would have been answered with is returned in its place.
+     *
+     * @param urlRequestPayloads the urls to be shortened, each with its optional redirect policy
+     * @param response           receives the Server-Timing header, when timing is enabled
+     * @return one item per url, in the order they were sent
+     */
+    @RequestMapping(method = RequestMethod.POST, value = "/shorten/batch", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public CompletableFuture<ResponseEntity<List<UrlBatchItemPayload>>> shortenUrls(
+            @RequestBody List<UrlRequestPayload> urlRequestPayloads, HttpServletResponse response) {
+        if (urlRequestPayloads.isEmpty() || urlRequestPayloads.size() > maxBatchSize) {
+            throw new InvalidBatchException("A batch must hold between 1 and " + maxBatchSize + " urls.");
+        }
+        logger.info("Attempting to create short urls for a batch of [{}] urls", urlRequestPayloads.size());
+        return requestTimer.time("shorten-batch", response, timings -> {
+            UrlBatchItemPayload[] items = new UrlBatchItemPayload[urlRequestPayloads.size()];
+            AtomicInteger next = new AtomicInteger();
+            CompletableFuture<?>[] lanes = new CompletableFuture<?>[Math.min(maxInFlightPerBatch, items.length)];
+            for (int i = 0; i < lanes.length; i++) {
+                lanes[i] = shortenNext(urlRequestPayloads, items, next);
+            }
+            return CompletableFuture.allOf(lanes).thenApply(done -> timings.record("render",
+                    () -> new ResponseEntity<>(Arrays.asList(items), HttpStatus.OK)));
+        });
+    }
+
+    /**
+     * Shortens the urls of a batch one after the other, until none is left.
+     */
+    private CompletableFuture<Void> shortenNext(List<UrlRequestPayload> urlRequestPayloads,
+                                                UrlBatchItemPayload[] items, AtomicInteger next) {
+        int index = next.getAndIncrement();
+        if (index >= items.length) {
+            return CompletableFuture.completedFuture(null);
+        }
+        UrlRequestPayload urlRequestPayload = urlRequestPayloads.get(index);
+        CompletableFuture<String> shortUrl;
+        try {
+            shortUrl = shortenLimiter.executeAsync(() -> bulkhead.submit(Workload.SHORTEN,
+                    () -> shortenerService.shortenUrl(urlRequestPayload)));
+        } catch (RuntimeException exception) {
+            shortUrl = CompletableFuture.failedFuture(exception);
+        }
+        return shortUrl.handle((value, failure) -> {
+            String longUrl = urlRequestPayload.getLongUrl();
+            items[index] = failure == null
+                    ? new UrlBatchItemPayload(longUrl, toAbsoluteUrl(value), null)
+                    : new UrlBatchItemPayload(longUrl, null, toErrorPayload(failure));
+            return null;
+        }).thenCompose(done -> shortenNext(urlRequestPayloads, items, next));
+    }
+
+    private static String toAbsoluteUrl(String shortUrl) {
+        UriComponents uriComponents =
+                UriComponentsBuilder.newInstance()
+                        .scheme(URL_SCHEMA).host(SERVICE_HOST).port(SERVICE_PORT).path(shortUrl)
+                        .build();
+        return uriComponents.toUriString();
+    }
+
+    /**
+     * The error body the exception handlers below answer a single url with.
+     */
+    static ErrorResponsePayload toErrorPayload(Throwable failure) {
+        Throwable cause = failure instanceof CompletionException && failure.getCause() != null
+                ? failure.getCause() : failure;
+        HttpStatus status;
+        if (cause instanceof InvalidUrlException || cause instanceof InvalidLinkOptionException) {
+            status = HttpStatus.BAD_REQUEST;
+        } else if (cause instanceof ConflictingDataException) {
+            status = HttpStatus.CONFLICT;
+        } else if (cause instanceof ServiceOverloadedException) {
+            status = HttpStatus.SERVICE_UNAVAILABLE;
+        } else {
+            logger.error("Failed to create short url in batch", cause);
+            return new ErrorResponsePayload(HttpStatus.INTERNAL_SERVER_ERROR.value(),
+                    HttpStatus.INTERNAL_SERVER_ERROR.getReasonPhrase(), "The short url could not be created.");
+        }
+        return new ErrorResponsePayload(status.value(), status.getReasonPhrase(), cause.getMessage());
+    }
+
+    /**
+     * GET endpoint to exchange a short url alias for its corresponding long url
+     *
+     * @param shortUrl    alias for a given url
+     * @param ifNoneMatch optional ETag of a redirect the caller already holds
+     * @param referrer    optional Referer header, logged with the click
+     * @param userAgent   optional User-Agent header, logged with the click
+     * @param response    receives the Server-Timing header, when timing is enabled
+     * @return a redirect status code, 302 FOUND unless configured otherwise, redirecting
+     * the user to the correct url; or 304 NOT MODIFIED when the caller holds a current copy
+     * @see RedirectResponseFactory
+     */
+    @RequestMapping(method = RequestMethod.GET, value = "/{shortUrl}")
+    public CompletableFuture<ResponseEntity<Void>> lookupUrl(
+            @PathVariable("shortUrl") String shortUrl,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+            @RequestHeader(value = HttpHeaders.REFERER, required = false) String referrer,
+            @RequestHeader(value = HttpHeaders.USER_AGENT, required = false) String userAgent,
+            HttpServletResponse response) {
+        logger.info("Redirecting from short url [{}] ", shortUrl);
+        return requestTimer.time("redirect", response, timings ->
+                redirectLimiter.executeAsync(() -> bulkhead.submit(Workload.REDIRECT,
+                        timings.bind(() -> shortenerService.lookupUrl(shortUrl, referrer, userAgent))))
+                        .thenApply(redirect -> timings.record("render", () -> {
+                            logger.info("Redirecting to long url [{}]", redirect.getLongUrl());
+                            return redirectResponseFactory.build(shortUrl, redirect, ifNoneMatch);
+                        })));
+    }
+
+    /**
+     * POST endpoint to exchange several short url aliases for their long urls in one call, for
+     * callers that check links rather than follow them: no redirect is answered and no click
+     * is logged.
+     * <p>
+     * The short urls are resolved in chunks, each one within the redirect budget and on the
+     * redirect bulkhead, found in the cache first, then with one query for those it misses.
+     * The items are written as soon as their chunk is resolved, while the next chunk is, so
+     * large batches are streamed. A chunk that fails answers each of its short urls with the
+     * error, only the first one fails the whole batch.
+     *
+     * @param shortUrls aliases for long urls
+     * @return one item per short url, in the order they were sent, with its long url or the
+     * error it would have been answered with on its own
+     */
+    @RequestMapping(method = RequestMethod.POST, value = "/resolve/batch", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public CompletableFuture<ResponseEntity<StreamingResponseBody>> resolveUrls(@RequestBody List<String> shortUrls) {
+        if (shortUrls.isEmpty() || shortUrls.size() > maxResolveBatchSize) {
+            throw new InvalidBatchException("A batch must hold between 1 and " + maxResolveBatchSize
+                    + " short urls.");
+        }
+        logger.info("Resolving a batch of [{}] short urls", shortUrls.size());
+        List<String> firstChunk = shortUrls.subList(0, Math.min(resolveChunkSize, shortUrls.size()));
+        return resolveChunk(firstChunk).thenApply(firstResolved -> {
+            StreamingResponseBody body = outputStream -> {
+                try (JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream)
+                        .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)) {
+                    generator.writeStartArray();
+                    CompletableFuture<Map<String, Optional<UrlRedirect>>> next =
+                            CompletableFuture.completedFuture(firstResolved);
+                    for (int from = 0; from < shortUrls.size(); from += resolveChunkSize) {
+                        List<String> chunk = shortUrls.subList(from, Math.min(from + resolveChunkSize,
+                                shortUrls.size()));
+                        CompletableFuture<Map<String, Optional<UrlRedirect>>> current = next;
+                        int nextFrom = from + resolveChunkSize;
+                        if (nextFrom < shortUrls.size()) {
+                            next = resolveChunk(shortUrls.subList(nextFrom, Math.min(nextFrom + resolveChunkSize,
+                                    shortUrls.size())));
+                        }
+                        writeResolved(generator, chunk, current);
+                    }
+                    generator.writeEndArray();
+                }
+            };
+            return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+        });
+    }
+
+    private CompletableFuture<Map<String, Optional<UrlRedirect>>> resolveChunk(List<String> chunk) {
+        try {
+            return redirectLimiter.executeAsync(() -> bulkhead.submit(Workload.REDIRECT,
+                    () -> shortenerService.resolveUrls(chunk)));
+        } catch (RuntimeException exception) {
+            return CompletableFuture.failedFuture(exception);
+        }
+    }
+
+    /**
+     * Writes the items of a chunk, in order, once it is resolved.
+     */
+    private static void writeResolved(JsonGenerator generator, List<String> chunk,
+                                      CompletableFuture<Map<String, Optional<UrlRedirect>>> resolving)
+            throws IOException {
+        Map<String, Optional<UrlRedirect>> resolved = null;
+        ErrorResponsePayload chunkError = null;
+        try {
+            resolved = resolving.join();
+        } catch (CompletionException exception) {
+            chunkError = toResolveErrorPayload(exception);
+        }
+        for (String shortUrl : chunk) {
+            ResolveBatchItemPayload item;
+            Optional<UrlRedirect> redirect = resolved == null ? null : resolved.get(shortUrl);
+            if (chunkError != null) {
+                item = new ResolveBatchItemPayload(shortUrl, null, chunkError);
+            } else if (redirect == null) {
+                item = new ResolveBatchItemPayload(shortUrl, null, NOT_RESOLVED);
+            } else {
+                item = redirect.map(found -> new ResolveBatchItemPayload(shortUrl, found.getLongUrl(), null))
+                        .orElseGet(() -> new ResolveBatchItemPayload(shortUrl, null, NOT_FOUND));
+            }
+            generator.writeObject(item);
+        }
+        generator.flush();
+    }
+
+    /**
+     * The error body a chunk of short urls that could not be resolved is answered with.
+     */
+    private static ErrorResponsePayload toResolveErrorPayload(Throwable failure) {
+        Throwable cause = failure instanceof CompletionException && failure.getCause() != null
+                ? failure.getCause() : failure;
+        if (cause instanceof ServiceOverloadedException) {
+            return new ErrorResponsePayload(HttpStatus.SERVICE_UNAVAILABLE.value(),
+                    HttpStatus.SERVICE_UNAVAILABLE.getReasonPhrase(), cause.getMessage());
+        }
+        logger.error("Failed to resolve short urls in batch", cause);
+        return new ErrorResponsePayload(HttpStatus.INTERNAL_SERVER_ERROR.value(),
+                HttpStatus.INTERNAL_SERVER_ERROR.getReasonPhrase(), "The short url could not be resolved.");
+    }
+
+    /**
+     * Exception handler for cases when the short url alias passed to {@link #lookupUrl} endpoint has no
+     * corresponding long url in the database.
+     *
+     * @param exception {@link ResourceNotFoundException}
+     * @return 404 NOT FOUND status code
+     */
+    @ExceptionHandler(ResourceNotFoundException.class)
+    static ResponseEntity<ErrorResponsePayload> handleNotFoundError(ResourceNotFoundException exception) {
+        ErrorResponsePayload errorResponsePayload = new ErrorResponsePayload(HttpStatus.NOT_FOUND.value(),
+                HttpStatus.NOT_FOUND.getReasonPhrase(), exception.getMessage());
+        return new ResponseEntity<>(errorResponsePayload, HttpStatus.NOT_FOUND);
+    }
+
+    /**
+     * Exception handler for cases when the long url passed to {@link #shortenUrl} does not comply with
+     * RFC 2396 or when no long url was passed.
+     *
+     * @param exception {@link InvalidUrlException}
+     * @return 400 BAD REQUEST status code
+     */
+    @ExceptionHandler(InvalidUrlException.class)
+    static ResponseEntity<ErrorResponsePayload> handleInvalidUrlError(InvalidUrlException exception) {
+        ErrorResponsePayload errorResponsePayload = new ErrorResponsePayload(HttpStatus.BAD_REQUEST.value(),
+                HttpStatus.BAD_REQUEST.getReasonPhrase(), exception.getMessage());
+        return new ResponseEntity<>(errorResponsePayload, HttpStatus.BAD_REQUEST);
+    }
+
+    /**
+     * Exception handler for cases when the redirect policy passed to {@link #shortenUrl} has
+     * an unsupported redirect status or a negative cache max age.
+     *
+     * @param exception {@link InvalidLinkOptionException}
+     * @return 400 BAD REQUEST status code
+     */
+    @ExceptionHandler(InvalidLinkOptionException.class)
+    static ResponseEntity<ErrorResponsePayload> handleInvalidLinkOptionError(InvalidLinkOptionException exception) {
+        ErrorResponsePayload errorResponsePayload = new ErrorResponsePayload(HttpStatus.BAD_REQUEST.value(),
+                HttpStatus.BAD_REQUEST.getReasonPhrase(), exception.getMessage());
+        return new ResponseEntity<>(errorResponsePayload, HttpStatus.BAD_REQUEST);
+    }
+
+    /**
+     * Exception handler for cases when the batch passed to {@link #shortenUrls} is empty or too large.
+     *
+     * @param exception {@link InvalidBatchException}
+     * @return 400 BAD REQUEST status code
+     */
+    @ExceptionHandler(InvalidBatchException.class)
+    static ResponseEntity<ErrorResponsePayload> handleInvalidBatchError(InvalidBatchException exception) {
+        ErrorResponsePayload errorResponsePayload = new ErrorResponsePayload(HttpStatus.BAD_REQUEST.value(),
+                HttpStatus.BAD_REQUEST.getReasonPhrase(), exception.getMessage());
+        return new ResponseEntity<>(errorResponsePayload, HttpStatus.BAD_REQUEST);
+    }
+
+    /**
+     * Exception handler for cases when it was not possible to create a short url alias for the long url passed
+     * to {@link #shortenUrl} due to the excessive number of conflicting records in the database.
+     *
+     * @param exception {@link ConflictingDataException}
+     * @return 409 CONFLICT status code
+     */
+    @ExceptionHandler(ConflictingDataException.class)
+    static ResponseEntity<ErrorResponsePayload> handleShortUrlConflictError(ConflictingDataException exception) {
+        ErrorResponsePayload errorResponsePayload = new ErrorResponsePayload(HttpStatus.CONFLICT.value(),
+                HttpStatus.CONFLICT.getReasonPhrase(), exception.getMessage());
+        return new ResponseEntity<>(errorResponsePayload, HttpStatus.CONFLICT);
+    }
+
+    /**
+     * Exception handler for cases when a request was shed because the service is already
+     * processing as many concurrent requests of the same kind as it currently allows.
+     *
+     * @param exception {@link ServiceOverloadedException}
+     * @return 503 SERVICE UNAVAILABLE status code, with a Retry-After header
+     */
+    @ExceptionHandler(ServiceOverloadedException.class)
+    static ResponseEntity<ErrorResponsePayload> handleServiceOverloadedError(ServiceOverloadedException exception) {
+        ErrorResponsePayload errorResponsePayload = new ErrorResponsePayload(HttpStatus.SERVICE_UNAVAILABLE.value(),
+                HttpStatus.SERVICE_UNAVAILABLE.getReasonPhrase(), exception.getMessage());
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.RETRY_AFTER, String.valueOf(exception.getRetryAfterSeconds()));
+        return new ResponseEntity<>(errorResponsePayload, headers, HttpStatus.SERVICE_UNAVAILABLE);
+    }
+}
@@ -0,0 +1,214 @@
+package org.juliazo.url.shortener.degraded;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.juliazo.url.shortener.commons.exception.DatabaseUnavailableException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.RecoverableDataAccessException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.CannotCreateTransactionException;
+
+import java.sql.SQLException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Circuit breaker around the database calls of the service.
+ * <p>
+ * Closed, calls go through. A call that fails because the database could not be reached,
+ * or that takes longer than the latency budget, is a failure, and {@link #failureThreshold}
+ * failures in a row open the breaker. Open, calls are refused right away instead of waiting
+ * for a connection. Once the open interval has passed, the next call is let through as a
+ * probe and the breaker is half open, refusing the other calls meanwhile: a successful probe
+ * closes the breaker and notifies the recovery listeners, a failed one opens it again.
+ * <p>
+ * Refused calls and calls that could not reach the database both throw a
+ * {@link DatabaseUnavailableException}. Errors answered by a reachable database, like a
+ * unique constraint violation, are rethrown as they are and count as a success.
+ */
+@Component
+@ConditionalOnProperty(name = "url-shortener.degraded.enabled", havingValue = "true")
+public class DatabaseCircuitBreaker {
+
+    private static final Logger logger = LoggerFactory.getLogger(DatabaseCircuitBreaker.class);
+
+    enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int failureThreshold;
+
+    private final long latencyBudgetMillis;
+
+    private final long openMillis;
+
+    private final LongSupplier clockMillis;
+
+    private final AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
+
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+
+    private final List<Runnable> recoveryListeners = new CopyOnWriteArrayList<>();
+
+    private final Counter rejected;
+
+    private volatile long openedAtMillis;
+
+    @Autowired
+    public DatabaseCircuitBreaker(MeterRegistry meterRegistry,
+                                  @Value("${url-shortener.degraded.failure-threshold:5}") int failureThreshold,
+                                  @Value("${url-shortener.degraded.latency-budget-millis:1000}") long latencyBudgetMillis,
+                                  @Value("${url-shortener.degraded.open-millis:5000}") long openMillis) {
+        this(meterRegistry, failureThreshold, latencyBudgetMillis, openMillis, System::currentTimeMillis);
+    }
+
+    DatabaseCircuitBreaker(MeterRegistry meterRegistry, int failureThreshold, long latencyBudgetMillis,
+                           long openMillis, LongSupplier clockMillis) {
+        this.failureThreshold = failureThreshold;
+        this.latencyBudgetMillis = latencyBudgetMillis;
+        this.openMillis = openMillis;
+        this.clockMillis = clockMillis;
+        this.rejected = Counter.builder("url.shortener.degraded.rejected")
+                .description("Database calls refused while the circuit breaker was open").register(meterRegistry);
+        Gauge.builder("url.shortener.degraded.open", state, current -> current.get() == State.CLOSED ? 0 : 1)
+                .description("1 while the database circuit breaker is open or half open").register(meterRegistry);
+    }
+
+    /**
+     * Runs a database call through the breaker.
+     *
+     * @param query the call
+     * @return the result of the call
+     * @throws DatabaseUnavailableException when the breaker refuses the call, or the call could
+     *                                      not reach the database
+     */
+    public <T> T call(Supplier<T> query) {
+        boolean probe = acquire();
+        long startMillis = clockMillis.getAsLong();
+        T result;
+        try {
+            result = query.get();
+        } catch (RuntimeException exception) {
+            if (!isUnreachable(exception)) {
+                complete(probe, startMillis);
+                throw exception;
+            }
+            fail(probe);
+            throw new DatabaseUnavailableException(retryAfterSeconds(), exception);
+        }
+        complete(probe, startMillis);
+        return result;
+    }
+
+    /**
+     * @param listener run by the probe that closes the breaker again, on the probing thread
+     */
+    public void addRecoveryListener(Runnable listener) {
+        recoveryListeners.add(listener);
+    }
+
+    /**
+     * @return true while calls are refused or only a probe is let through
+     */
+    public boolean isOpen() {
+        return state.get() != State.CLOSED;
+    }
+
+    State getState() {
+        return state.get();
+    }
+
+    /**
+     * @return true when the call is the probe of a half open breaker
+     * @throws DatabaseUnavailableException when the call is refused
+     */
+    private boolean acquire() {
+        State current = state.get();
+        if (current == State.CLOSED) {
+            return false;
+        }
+        if (current == State.OPEN && clockMillis.getAsLong() - openedAtMillis >= openMillis
+                && state.compareAndSet(State.OPEN, State.HALF_OPEN)) {
+            return true;
+        }
+        rejected.increment();
+        throw new DatabaseUnavailableException(retryAfterSeconds(), null);
+    }
+
+    /**
+     * A call answered by the database, it still fails when it took too long.
+     */
+    private void complete(boolean probe, long startMillis) {
+        long elapsedMillis = clockMillis.getAsLong() - startMillis;
+        if (elapsedMillis > latencyBudgetMillis) {
+            logger.warn("Database call took [{}] ms, over the budget of [{}] ms", elapsedMillis, latencyBudgetMillis);
+            fail(probe);
+            return;
+        }
+        consecutiveFailures.set(0);
+        if (probe) {
+            state.set(State.CLOSED);
+            logger.info("Database reachable again, closed the circuit breaker");
+            recoveryListeners.forEach(Runnable::run);
+        }
+    }
+
+    private void fail(boolean probe) {
+        if (probe) {
+            openedAtMillis = clockMillis.getAsLong();
+            state.set(State.OPEN);
+            logger.warn("Database probe failed, circuit breaker open for another [{}] ms", openMillis);
+        } else if (consecutiveFailures.incrementAndGet() >= failureThreshold && state.get() == State.CLOSED) {
+            openedAtMillis = clockMillis.getAsLong();
+            if (state.compareAndSet(State.CLOSED, State.OPEN)) {
+                logger.error("[{}] database calls failed in a row, circuit breaker open for [{}] ms",
+                        failureThreshold, openMillis);
+            }
+        }
+    }
+
+    private long retryAfterSeconds() {
+        long remainingMillis = openedAtMillis + openMillis - clockMillis.getAsLong();
+        return Math.max(1, (remainingMillis + 999) / 1000);
+    }
+
+    /**
+     * @return true when the failure, or one of its causes, means the database could not be reached
+     * or did not answer in time
+     */
+    private static boolean isUnreachable(Throwable exception) {
+        for (Throwable cause = exception; cause != null; cause = cause.getCause()) {
+            if (cause instanceof DataAccessResourceFailureException
+                    || cause instanceof TransientDataAccessException
+                    || cause instanceof RecoverableDataAccessException
+                    || cause instanceof CannotCreateTransactionException
+                    || cause instanceof SQLTransientException
+                    || cause instanceof SQLRecoverableException
+                    || isConnectionException(cause)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Drivers report a lost connection with an SQLSTATE of class 08, connection exception.
+     */
+    private static boolean isConnectionException(Throwable cause) {
+        return cause instanceof SQLException && ((SQLException) cause).getSQLState() != null
+                && ((SQLException) cause).getSQLState().startsWith("08");
+    }
+}
@@ -0,0 +1,252 @@
+package org.juliazo.url.shortener.degraded;
+
+import org.juliazo.url.shortener.commons.redirect.RedirectSnapshot;
+import org.juliazo.url.shortener.commons.redirect.UrlRedirect;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Local copy of the links, on disk, that redirects are served from while the database
+ * is unavailable. Kept up to date by the {@link LinkReplicaUpdater}.
+ * <p>
+ * The links are kept in a {@link RedirectSnapshot}, and the changes applied since it was
+ * written in an overlay in memory. Every batch of changes is also appended to a journal
+ * next to the snapshot, ending with the last url_mapping_event it reflects, so a restarted
+ * instance maps the snapshot and replays the journal, and serves redirects even when it
+ * starts while the database is down. A batch cut short by a crash is not replayed, and the
+ * journal is written anew from the replayed changes. Writing a new snapshot empties the
+ * overlay and the journal.
+ * <p>
+ * Only the updater changes the replica, from one thread at a time; lookups run concurrently.
+ */
+@Component
+@ConditionalOnProperty(name = "url-shortener.degraded.enabled", havingValue = "true")
+public class LinkReplica {
+
+    private static final Logger logger = LoggerFactory.getLogger(LinkReplica.class);
+
+    static final String SNAPSHOT_FILE = "links.snapshot";
+
+    static final String JOURNAL_FILE = "links.journal";
+
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+    private static final byte END_OF_BATCH = 3;
+
+    private static final int NO_VALUE = -1;
+    private static final long NO_EXPIRATION = Long.MIN_VALUE;
+
+    private final Path directory;
+
+    /**
+     * Links changed since the snapshot was written, empty for the ones removed.
+     */
+    private final Map<String, Optional<UrlRedirect>> overlay = new ConcurrentHashMap<>();
+
+    private volatile RedirectSnapshot snapshot = RedirectSnapshot.empty();
+
+    private volatile long lastEventId = -1;
+
+    private FileOutputStream journalFile;
+
+    private DataOutputStream journal;
+
+    @Autowired
+    public LinkReplica(@Value("${url-shortener.degraded.directory:./replica}") String directory) {
+        this.directory = Paths.get(directory);
+    }
+
+    /**
+     * Maps the snapshot and replays the journal left by the previous run, if any.
+     */
+    @PostConstruct
+    public void open() throws IOException {
+        Files.createDirectories(directory);
+        Path snapshotFile = directory.resolve(SNAPSHOT_FILE);
+        Path journalPath = directory.resolve(JOURNAL_FILE);
+        if (Files.isRegularFile(snapshotFile)) {
+            try {
+                snapshot = RedirectSnapshot.open(snapshotFile);
+                lastEventId = snapshot.getEventId();
+                if (Files.isRegularFile(journalPath)) {
+                    replay(journalPath);
+                }
+            } catch (IOException exception) {
+                logger.warn("Ignoring unreadable link replica in [{}]", directory, exception);
+                snapshot = RedirectSnapshot.empty();
+                overlay.clear();
+                lastEventId = -1;
+            }
+        }
+        openJournal();
+        if (lastEventId >= 0) {
+            Map<String, UrlRedirect> replayed = new HashMap<>();
+            overlay.forEach((shortUrl, change) -> replayed.put(shortUrl, change.orElse(null)));
+            apply(replayed, lastEventId);
+        }
+        logger.info("Opened link replica of [{}] links up to event [{}], [{}] changes since",
+                snapshot.size(), lastEventId, overlay.size());
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        journal.close();
+    }
+
+    /**
+     * @param shortUrl alias for a long url
+     * @return the link as last replicated, expired or not, or null when there is none
+     */
+    public UrlRedirect find(String shortUrl) {
+        Optional<UrlRedirect> change = overlay.get(shortUrl);
+        if (change != null) {
+            return change.orElse(null);
+        }
+        return snapshot.find(shortUrl);
+    }
+
+    /**
+     * @return the last url_mapping_event reflected in the replica, -1 when there is no replica yet
+     */
+    public long getLastEventId() {
+        return lastEventId;
+    }
+
+    int size() {
+        return snapshot.size();
+    }
+
+    int changeCount() {
+        return overlay.size();
+    }
+
+    /**
+     * Journals a batch of changes, then applies it.
+     *
+     * @param links   the links as now stored, mapped to null for the removed ones
+     * @param eventId the last url_mapping_event reflected by the batch
+     * @throws IOException when the journal can not be written, the batch is not applied then
+     */
+    void apply(Map<String, UrlRedirect> links, long eventId) throws IOException {
+        for (Map.Entry<String, UrlRedirect> link : links.entrySet()) {
+            writeChange(link.getKey(), link.getValue());
+        }
+        journal.writeByte(END_OF_BATCH);
+        journal.writeLong(eventId);
+        journal.flush();
+        journalFile.getChannel().force(false);
+
+        links.forEach((shortUrl, redirect) -> overlay.put(shortUrl, Optional.ofNullable(redirect)));
+        lastEventId = eventId;
+    }
+
+    /**
+     * @param expectedEntries how many links are about to be added, sizes the snapshot
+     * @param eventId         the last url_mapping_event applied to the links about to be added
+     * @return a writer of the next snapshot, to be closed and passed to {@link #replaceSnapshot(long)}
+     */
+    RedirectSnapshot.Writer writeSnapshot(int expectedEntries, long eventId) throws IOException {
+        return RedirectSnapshot.writer(directory.resolve(SNAPSHOT_FILE + ".tmp"), expectedEntries, eventId);
+    }
+
+    /**
+     * Swaps in the snapshot last written, and starts a new journal. The journal is emptied
+     * first: after a crash in between, the previous snapshot is caught up on again from its
+     * own event id, the changes of the old journal are never replayed onto a newer snapshot.
+     *
+     * @param eventId the event id the snapshot was written with
+     */
+    void replaceSnapshot(long eventId) throws IOException {
+        journal.close();
+        openJournal();
+        Path file = directory.resolve(SNAPSHOT_FILE);
+        Files.move(directory.resolve(SNAPSHOT_FILE + ".tmp"), file,
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        snapshot = RedirectSnapshot.open(file);
+        overlay.clear();
+        lastEventId = eventId;
+    }
+
+    private void openJournal() throws IOException {
+        journalFile = new FileOutputStream(directory.resolve(JOURNAL_FILE).toFile());
+        journal = new DataOutputStream(new BufferedOutputStream(journalFile, 1 << 16));
+    }
+
+    private void writeChange(String shortUrl, UrlRedirect redirect) throws IOException {
+        if (redirect == null) {
+            journal.writeByte(REMOVE);
+            journal.writeUTF(shortUrl);
+            return;
+        }
+        journal.writeByte(PUT);
+        journal.writeUTF(shortUrl);
+        journal.writeUTF(redirect.getLongUrl());
+        journal.writeInt(redirect.getRedirectStatus() == null ? NO_VALUE : redirect.getRedirectStatus());
+        journal.writeInt(redirect.getCacheMaxAge() == null ? NO_VALUE : redirect.getCacheMaxAge());
+        Instant expiresAt = redirect.getExpiresAt();
+        journal.writeLong(expiresAt == null ? NO_EXPIRATION : expiresAt.getEpochSecond());
+        journal.writeInt(expiresAt == null ? 0 : expiresAt.getNano());
+    }
+
+    /**
+     * Applies the complete batches of the journal to the overlay.
+     */
+    private void replay(Path journalPath) throws IOException {
+        Map<String, Optional<UrlRedirect>> batch = new HashMap<>();
+        try (InputStream file = Files.newInputStream(journalPath);
+             DataInputStream input = new DataInputStream(new BufferedInputStream(file, 1 << 16))) {
+            while (true) {
+                byte type = input.readByte();
+                if (type == END_OF_BATCH) {
+                    lastEventId = input.readLong();
+                    overlay.putAll(batch);
+                    batch.clear();
+                } else if (type == REMOVE) {
+                    batch.put(input.readUTF(), Optional.empty());
+                } else if (type == PUT) {
+                    String shortUrl = input.readUTF();
+                    String longUrl = input.readUTF();
+                    int redirectStatus = input.readInt();
+                    int cacheMaxAge = input.readInt();
+                    long expiresAtSeconds = input.readLong();
+                    int expiresAtNanos = input.readInt();
+                    batch.put(shortUrl, Optional.of(new UrlRedirect(longUrl,
+                            redirectStatus == NO_VALUE ? null : redirectStatus,
+                            cacheMaxAge == NO_VALUE ? null : cacheMaxAge,
+                            expiresAtSeconds == NO_EXPIRATION ? null
+                                    : Instant.ofEpochSecond(expiresAtSeconds, expiresAtNanos))));
+                } else {
+                    throw new IOException("Corrupt link replica journal: " + journalPath);
+                }
+            }
+        } catch (EOFException exception) {
+            if (!batch.isEmpty()) {
+                logger.warn("Dropped [{}] changes of an incomplete batch at the end of the journal", batch.size());
+            }
+        }
+    }
+}
@@ -0,0 +1,278 @@
+package org.juliazo.url.shortener.degraded;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.juliazo.url.shortener.commons.archive.UrlCompression;
+import org.juliazo.url.shortener.commons.exception.DatabaseUnavailableException;
+import org.juliazo.url.shortener.commons.redirect.RedirectSnapshot;
+import org.juliazo.url.shortener.commons.redirect.UrlRedirect;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementSetter;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the {@link LinkReplica} up to date with the database, on the scheduler thread.
+ * <p>
+ * Like the snapshot updater of the edge servers, every refresh reads the url_mapping_event
+ * rows recorded since the last one applied, and reads the links they name again, from
+ * url_entity or else from url_archive. Every reconcile interval, and right after the
+ * {@link DatabaseCircuitBreaker} closes again, the links named by the events of the last
+ * reconcile window are read again as well, for the events that committed out of order.
+ * A new snapshot of both tables is written when there is none yet, when events not applied
+ * were already pruned, when the replica holds too many changes, and every rebuild interval.
+ * <p>
+ * Every query goes through the circuit breaker, one batch at a time: while it is open the
+ * replica is left as it is, and its refreshes are the probes that close it again when there
+ * is no traffic. Publishes the age of the replica in {@code url.shortener.degraded.replica.lag}.
+ */
+@Component
+@ConditionalOnProperty(name = "url-shortener.degraded.enabled", havingValue = "true")
+public class LinkReplicaUpdater {
+
+    private static final Logger logger = LoggerFactory.getLogger(LinkReplicaUpdater.class);
+
+    private static final String COLUMNS = "short_url, long_url, redirect_status, cache_max_age, expires_at";
+
+    private static final String CHANGES_AFTER =
+            "SELECT id, short_url FROM url_mapping_event WHERE id > ? ORDER BY id LIMIT ?";
+
+    private static final String CHANGED_WITHIN = "SELECT DISTINCT short_url FROM url_mapping_event"
+            + " WHERE created_at >= now() - (? * interval '1 second')";
+
+    private static final String FIND_LINKS = "SELECT " + COLUMNS + " FROM url_entity WHERE short_url = ANY (?)";
+
+    private static final String FIND_ARCHIVED = "SELECT " + COLUMNS + " FROM url_archive WHERE short_url = ANY (?)";
+
+    private static final String SCAN_LINKS = "SELECT " + COLUMNS + " FROM url_entity"
+            + " WHERE short_url > ? AND (expires_at IS NULL OR expires_at > now()) ORDER BY short_url LIMIT ?";
+
+    private static final String SCAN_ARCHIVED = "SELECT " + COLUMNS + " FROM url_archive"
+            + " WHERE short_url > ? AND (expires_at IS NULL OR expires_at > now()) ORDER BY short_url LIMIT ?";
+
+    /**
+     * Live rows of both tiers as counted by the statistics collector, to size a snapshot. The
+     * rows of a partitioned table are counted in its partitions.
+     */
+    private static final String ESTIMATED_LINKS = "SELECT COALESCE(SUM(n_live_tup), 0) FROM pg_stat_user_tables"
+            + " WHERE relid IN (to_regclass('url_entity'), to_regclass('url_archive'))"
+            + " OR relid IN (SELECT inhrelid FROM pg_inherits"
+            + " WHERE inhparent IN (to_regclass('url_entity'), to_regclass('url_archive')))";
+
+    private static final String LAST_EVENT_ID = "SELECT COALESCE(MAX(id), 0) FROM url_mapping_event";
+
+    private static final String FIRST_EVENT_ID = "SELECT COALESCE(MIN(id), 0) FROM url_mapping_event";
+
+    private static final int EVENT_BATCH_SIZE = 1000;
+
+    private static final int SCAN_BATCH_SIZE = 10000;
+
+    private final LinkReplica linkReplica;
+
+    private final DatabaseCircuitBreaker circuitBreaker;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final long reconcileIntervalMillis;
+
+    private final long reconcileWindowSeconds;
+
+    private final long rebuildIntervalMillis;
+
+    private final int rebuildChanges;
+
+    private volatile long lastSyncMillis;
+
+    private volatile boolean reconcileRequested;
+
+    private long lastReconcileMillis;
+
+    private long lastRebuildMillis;
+
+    @Autowired
+    public LinkReplicaUpdater(LinkReplica linkReplica, DatabaseCircuitBreaker circuitBreaker,
+                              JdbcTemplate jdbcTemplate, MeterRegistry meterRegistry,
+                              @Value("${url-shortener.degraded.reconcile-interval-millis:30000}")
+                                      long reconcileIntervalMillis,
+                              @Value("${url-shortener.degraded.reconcile-window-seconds:120}")
+                                      long reconcileWindowSeconds,
+                              @Value("${url-shortener.degraded.rebuild-interval-seconds:3600}")
+                                      long rebuildIntervalSeconds,
+                              @Value("${url-shortener.degraded.rebuild-changes:100000}") int rebuildChanges) {
+        this.linkReplica = linkReplica;
+        this.circuitBreaker = circuitBreaker;
+        this.jdbcTemplate = jdbcTemplate;
+        this.reconcileIntervalMillis = reconcileIntervalMillis;
+        this.reconcileWindowSeconds = reconcileWindowSeconds;
+        this.rebuildIntervalMillis = TimeUnit.SECONDS.toMillis(rebuildIntervalSeconds);
+        this.rebuildChanges = rebuildChanges;
+        this.lastReconcileMillis = System.currentTimeMillis();
+        this.lastRebuildMillis = lastReconcileMillis;
+        circuitBreaker.addRecoveryListener(() -> reconcileRequested = true);
+        Gauge.builder("url.shortener.degraded.replica.lag", this,
+                updater -> updater.lastSyncMillis == 0 ? Double.NaN
+                        : (System.currentTimeMillis() - updater.lastSyncMillis) / 1000.0)
+                .description("Seconds since the local link replica was last in sync with the database")
+                .baseUnit("seconds").register(meterRegistry);
+        Gauge.builder("url.shortener.degraded.replica.links", linkReplica, LinkReplica::size)
+                .description("Links in the snapshot of the local link replica").register(meterRegistry);
+    }
+
+    /**
+     * One refresh, failures are logged and retried on the next one.
+     */
+    @Scheduled(fixedDelayString = "${url-shortener.degraded.refresh-interval-millis:1000}",
+            initialDelayString = "${url-shortener.startup.background-delay-millis:0}")
+    public void refresh() {
+        try {
+            long now = System.currentTimeMillis();
+            if (needsRebuild(now)) {
+                rebuild();
+                lastRebuildMillis = now;
+                lastReconcileMillis = now;
+            } else {
+                catchUp();
+                if (reconcileRequested || now - lastReconcileMillis >= reconcileIntervalMillis) {
+                    reconcileRequested = false;
+                    reload(circuitBreaker.call(() -> jdbcTemplate.queryForList(CHANGED_WITHIN, String.class,
+                            reconcileWindowSeconds)));
+                    lastReconcileMillis = now;
+                }
+            }
+            lastSyncMillis = now;
+        } catch (DatabaseUnavailableException exception) {
+            logger.debug("Database unavailable, the local link replica is not refreshed");
+        } catch (IOException | RuntimeException exception) {
+            logger.warn("Failed to refresh the local link replica", exception);
+        }
+    }
+
+    private boolean needsRebuild(long now) {
+        return linkReplica.getLastEventId() < 0
+                || linkReplica.changeCount() > rebuildChanges
+                || now - lastRebuildMillis >= rebuildIntervalMillis
+                || queryForLong(FIRST_EVENT_ID) > linkReplica.getLastEventId() + 1;
+    }
+
+    private void catchUp() throws IOException {
+        while (true) {
+            long afterEventId = linkReplica.getLastEventId();
+            List<Map<String, Object>> events = circuitBreaker.call(() ->
+                    jdbcTemplate.queryForList(CHANGES_AFTER, afterEventId, EVENT_BATCH_SIZE));
+            if (events.isEmpty()) {
+                return;
+            }
+            List<String> shortUrls = new ArrayList<>(events.size());
+            for (Map<String, Object> event : events) {
+                shortUrls.add((String) event.get("short_url"));
+            }
+            long lastEventId = ((Number) events.get(events.size() - 1).get("id")).longValue();
+            linkReplica.apply(findAll(shortUrls), lastEventId);
+        }
+    }
+
+    /**
+     * Reads the links again, the ones that are gone are applied as removed.
+     */
+    private void reload(Collection<String> shortUrls) throws IOException {
+        if (!shortUrls.isEmpty()) {
+            linkReplica.apply(findAll(shortUrls), linkReplica.getLastEventId());
+        }
+    }
+
+    /**
+     * @return the links of the short urls, mapped to null for the ones without a link
+     */
+    private Map<String, UrlRedirect> findAll(Collection<String> shortUrls) {
+        Map<String, UrlRedirect> found = new LinkedHashMap<>();
+        shortUrls.forEach(shortUrl -> found.put(shortUrl, null));
+        String[] array = shortUrls.toArray(new String[0]);
+        PreparedStatementSetter shortUrlsParameter = statement ->
+                statement.setArray(1, statement.getConnection().createArrayOf("varchar", array));
+        circuitBreaker.call(() -> {
+            jdbcTemplate.query(FIND_LINKS, shortUrlsParameter,
+                    (RowCallbackHandler) resultSet -> found.put(resultSet.getString(1), toRedirect(resultSet, false)));
+            jdbcTemplate.query(FIND_ARCHIVED, shortUrlsParameter,
+                    (RowCallbackHandler) resultSet -> found.put(resultSet.getString(1), toRedirect(resultSet, true)));
+            return found;
+        });
+        return found;
+    }
+
+    /**
+     * Writes a new snapshot of both tiers and swaps it in. The event id is read first: the scan
+     * sees at least the changes up to it, the later ones are caught up on afterwards and applied
+     * again, which is harmless.
+     */
+    private void rebuild() throws IOException {
+        long startMillis = System.currentTimeMillis();
+        long eventId = queryForLong(LAST_EVENT_ID);
+        long expectedEntries = Math.max(queryForLong(ESTIMATED_LINKS), linkReplica.size() + linkReplica.changeCount());
+        boolean complete;
+        try (RedirectSnapshot.Writer writer = linkReplica.writeSnapshot(
+                (int) Math.min(Integer.MAX_VALUE, expectedEntries * 5 / 4 + 1024), eventId)) {
+            complete = scan(SCAN_LINKS, false, writer) && scan(SCAN_ARCHIVED, true, writer);
+        }
+        if (!complete) {
+            logger.warn("The local link replica is full, the links left out are not served while the database"
+                    + " is unavailable");
+        }
+        linkReplica.replaceSnapshot(eventId);
+        logger.info("Wrote local link replica of [{}] links in [{}] ms", linkReplica.size(),
+                System.currentTimeMillis() - startMillis);
+    }
+
+    /**
+     * Adds the links of a table to the snapshot, in short url order and in batches.
+     *
+     * @return false when the snapshot is full
+     */
+    private boolean scan(String sql, boolean archived, RedirectSnapshot.Writer writer) throws IOException {
+        String after = "";
+        while (true) {
+            String cursor = after;
+            List<Object[]> batch = circuitBreaker.call(() -> jdbcTemplate.query(sql,
+                    (resultSet, row) -> new Object[]{resultSet.getString(1), toRedirect(resultSet, archived)},
+                    cursor, SCAN_BATCH_SIZE));
+            for (Object[] link : batch) {
+                if (!writer.add((String) link[0], (UrlRedirect) link[1])) {
+                    return false;
+                }
+            }
+            if (batch.size() < SCAN_BATCH_SIZE) {
+                return true;
+            }
+            after = (String) batch.get(batch.size() - 1)[0];
+        }
+    }
+
+    private long queryForLong(String sql) {
+        Long value = circuitBreaker.call(() -> jdbcTemplate.queryForObject(sql, Long.class));
+        return value == null ? 0 : value;
+    }
+
+    private static UrlRedirect toRedirect(ResultSet resultSet, boolean archived) throws SQLException {
+        Timestamp expiresAt = resultSet.getTimestamp(5);
+        return new UrlRedirect(
+                archived ? UrlCompression.decompress(resultSet.getBytes(2)) : resultSet.getString(2),
+                (Integer) resultSet.getObject(3), (Integer) resultSet.getObject(4),
+                expiresAt == null ? null : expiresAt.toInstant());
+    }
+}
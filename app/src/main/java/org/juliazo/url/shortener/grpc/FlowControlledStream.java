@@ -0,0 +1,121 @@
+package org.juliazo.url.shortener.grpc;
+
+import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * Server side of a bidirectional stream answering each request with one response,
+ * with the requests handled concurrently and the responses sent as they complete.
+ * <p>
+ * Requests are read from the transport on demand: {@code maxInFlight} of them up front,
+ * then one more for each response sent. When the client stops reading the responses,
+ * the outbound buffer fills up and no more requests are read until it drains, so a slow
+ * client slows its own stream down instead of piling up work and responses in memory.
+ * Requests not yet read are held back by the HTTP/2 flow control window.
+ * <p>
+ * The stream completes once the client has half-closed it and every request has been answered.
+ *
+ * @param <Q> type of the requests
+ * @param <R> type of the responses
+ */
+final class FlowControlledStream<Q, R> implements StreamObserver<Q> {
+
+    private final ServerCallStreamObserver<R> responses;
+
+    private final Function<Q, CompletableFuture<R>> handler;
+
+    /**
+     * Requests read but not answered yet.
+     */
+    private int inFlight;
+
+    /**
+     * Requests to read once the client catches up with the responses.
+     */
+    private int deferredRequests;
+
+    private boolean halfClosed;
+
+    private boolean done;
+
+    /**
+     * Must be created while the call starts, within the service method.
+     *
+     * @param responses   the response side of the call
+     * @param maxInFlight how many requests are handled at most at the same time
+     * @param handler     answers a request; its future is expected to complete with a response, not to fail
+     */
+    FlowControlledStream(ServerCallStreamObserver<R> responses, int maxInFlight,
+                         Function<Q, CompletableFuture<R>> handler) {
+        this.responses = responses;
+        this.handler = handler;
+        responses.disableAutoRequest();
+        responses.setOnReadyHandler(this::onReady);
+        responses.setOnCancelHandler(this::onCancel);
+        responses.request(maxInFlight);
+    }
+
+    @Override
+    public void onNext(Q request) {
+        synchronized (this) {
+            inFlight++;
+        }
+        handler.apply(request).whenComplete(this::respond);
+    }
+
+    /**
+     * The client failed or cancelled the call, there is no one left to answer.
+     */
+    @Override
+    public synchronized void onError(Throwable failure) {
+        done = true;
+    }
+
+    @Override
+    public synchronized void onCompleted() {
+        halfClosed = true;
+        completeIfAnswered();
+    }
+
+    private synchronized void respond(R response, Throwable failure) {
+        inFlight--;
+        if (done) {
+            return;
+        }
+        if (failure != null) {
+            done = true;
+            responses.onError(Status.INTERNAL.withDescription(failure.getMessage()).asRuntimeException());
+            return;
+        }
+        responses.onNext(response);
+        if (halfClosed) {
+            completeIfAnswered();
+        } else if (responses.isReady()) {
+            responses.request(1);
+        } else {
+            deferredRequests++;
+        }
+    }
+
+    private synchronized void onReady() {
+        if (deferredRequests > 0 && !halfClosed && !done) {
+            responses.request(deferredRequests);
+            deferredRequests = 0;
+        }
+    }
+
+    private synchronized void onCancel() {
+        done = true;
+    }
+
+    private void completeIfAnswered() {
+        if (inFlight == 0 && !done) {
+            done = true;
+            responses.onCompleted();
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package org.juliazo.url.shortener.grpc;
+
+import io.grpc.Server;
+import io.grpc.netty.shaded.io.grpc.netty.NettyServerBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves {@link UrlShortenerGrpcService} on a port of its own, next to the REST API.
+ * Only started when {@code url-shortener.grpc.enabled} is set.
+ */
+@Component
+@ConditionalOnProperty(name = "url-shortener.grpc.enabled", havingValue = "true")
+public class GrpcServer {
+
+    private static final Logger logger = LoggerFactory.getLogger(GrpcServer.class);
+
+    /**
+     * How long calls in progress may take to complete on shutdown.
+     */
+    private static final long SHUTDOWN_GRACE_SECONDS = 10;
+
+    private final Server server;
+
+    @Autowired
+    public GrpcServer(UrlShortenerGrpcService grpcService,
+                      @Value("${url-shortener.grpc.port:9090}") int port,
+                      @Value("${url-shortener.grpc.flow-control-window-bytes:1048576}") int flowControlWindow) {
+        this.server = NettyServerBuilder.forPort(port)
+                .addService(grpcService)
+                .flowControlWindow(flowControlWindow)
+                .build();
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        server.start();
+        logger.info("gRPC server started on port {}", server.getPort());
+    }
+
+    /**
+     * Stops accepting calls, the calls in progress are given some time to complete.
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        server.shutdown();
+        if (!server.awaitTermination(SHUTDOWN_GRACE_SECONDS, TimeUnit.SECONDS)) {
+            server.shutdownNow();
+        }
+    }
+
+    /**
+     * @return the port the server listens on, useful when configured with port 0
+     */
+    public int getPort() {
+        return server.getPort();
+    }
+}
@@ -0,0 +1,246 @@
+package org.juliazo.url.shortener.grpc;
+
+import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+import org.juliazo.url.shortener.bulkhead.Bulkhead;
+import org.juliazo.url.shortener.bulkhead.Workload;
+import org.juliazo.url.shortener.commons.exception.ConflictingDataException;
+import org.juliazo.url.shortener.commons.exception.DatabaseUnavailableException;
+import org.juliazo.url.shortener.commons.exception.InvalidLinkOptionException;
+import org.juliazo.url.shortener.commons.exception.InvalidUrlException;
+import org.juliazo.url.shortener.commons.exception.ResourceNotFoundException;
+import org.juliazo.url.shortener.commons.exception.ServiceOverloadedException;
+import org.juliazo.url.shortener.commons.payload.UrlRequestPayload;
+import org.juliazo.url.shortener.commons.redirect.UrlRedirect;
+import org.juliazo.url.shortener.grpc.api.Outcome;
+import org.juliazo.url.shortener.grpc.api.ResolveRequest;
+import org.juliazo.url.shortener.grpc.api.ResolveResponse;
+import org.juliazo.url.shortener.grpc.api.ShortenRequest;
+import org.juliazo.url.shortener.grpc.api.ShortenResponse;
+import org.juliazo.url.shortener.grpc.api.UrlShortenerGrpc;
+import org.juliazo.url.shortener.limiter.ConcurrencyLimiter;
+import org.juliazo.url.shortener.service.UrlShortenerService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+
+/**
+ * gRPC counterpart of {@link org.juliazo.url.shortener.controller.UrlShortenerController},
+ * for internal callers: the same service behind the same concurrency limiters and bulkhead,
+ * without the JSON serialization and the servlet dispatch.
+ * <p>
+ * Resolving is not a click: short urls are resolved like {@code /resolve/batch} resolves
+ * them, without being logged, counted as hot or promoted from the archive.
+ * <p>
+ * Unary calls fail with the gRPC status matching the REST error status. Streamed
+ * requests are answered one by one with their outcome, see {@link FlowControlledStream}.
+ */
+@Component
+@ConditionalOnProperty(name = "url-shortener.grpc.enabled", havingValue = "true")
+public class UrlShortenerGrpcService extends UrlShortenerGrpc.UrlShortenerImplBase {
+
+    private static final Logger logger = LoggerFactory.getLogger(UrlShortenerGrpcService.class);
+
+    private final UrlShortenerService shortenerService;
+
+    private final ConcurrencyLimiter shortenLimiter;
+
+    private final ConcurrencyLimiter redirectLimiter;
+
+    private final Bulkhead bulkhead;
+
+    /**
+     * How many requests of one stream are handled at most at the same time.
+     */
+    private final int maxInFlightPerStream;
+
+    @Autowired
+    public UrlShortenerGrpcService(UrlShortenerService shortenerService,
+                                   @Qualifier("shortenLimiter") ConcurrencyLimiter shortenLimiter,
+                                   @Qualifier("redirectLimiter") ConcurrencyLimiter redirectLimiter,
+                                   Bulkhead bulkhead,
+                                   @Value("${url-shortener.grpc.max-in-flight-per-stream:16}") int maxInFlightPerStream) {
+        this.shortenerService = shortenerService;
+        this.shortenLimiter = shortenLimiter;
+        this.redirectLimiter = redirectLimiter;
+        this.bulkhead = bulkhead;
+        this.maxInFlightPerStream = maxInFlightPerStream;
+    }
+
+    @Override
+    public void shorten(ShortenRequest request, StreamObserver<ShortenResponse> responseObserver) {
+        complete(shorten(request), responseObserver);
+    }
+
+    @Override
+    public void resolve(ResolveRequest request, StreamObserver<ResolveResponse> responseObserver) {
+        complete(resolve(request), responseObserver);
+    }
+
+    @Override
+    public StreamObserver<ShortenRequest> shortenStream(StreamObserver<ShortenResponse> responseObserver) {
+        return new FlowControlledStream<>((ServerCallStreamObserver<ShortenResponse>) responseObserver,
+                maxInFlightPerStream, request -> shorten(request).exceptionally(failure -> {
+            Outcome outcome = outcomeOf(failure);
+            return ShortenResponse.newBuilder()
+                    .setId(request.getId())
+                    .setOutcome(outcome)
+                    .setErrorMessage(messageOf(outcome, failure))
+                    .build();
+        }));
+    }
+
+    @Override
+    public StreamObserver<ResolveRequest> resolveStream(StreamObserver<ResolveResponse> responseObserver) {
+        return new FlowControlledStream<>((ServerCallStreamObserver<ResolveResponse>) responseObserver,
+                maxInFlightPerStream, request -> resolve(request).exceptionally(failure -> {
+            Outcome outcome = outcomeOf(failure);
+            return ResolveResponse.newBuilder()
+                    .setId(request.getId())
+                    .setOutcome(outcome)
+                    .setErrorMessage(messageOf(outcome, failure))
+                    .build();
+        }));
+    }
+
+    private CompletableFuture<ShortenResponse> shorten(ShortenRequest request) {
+        logger.debug("Attempting to create short url for [{}]", request.getLongUrl());
+        UrlRequestPayload payload = new UrlRequestPayload(request.getLongUrl());
+        if (request.hasRedirectStatus()) {
+            payload.setRedirectStatus(request.getRedirectStatus());
+        }
+        if (request.hasCacheMaxAge()) {
+            payload.setCacheMaxAge(request.getCacheMaxAge());
+        }
+        if (request.hasExpiresIn()) {
+            payload.setExpiresIn(request.getExpiresIn());
+        }
+        return start(() -> shortenLimiter.executeAsync(() -> bulkhead.submit(Workload.SHORTEN,
+                () -> shortenerService.shortenUrl(payload))))
+                .thenApply(shortUrl -> ShortenResponse.newBuilder()
+                        .setId(request.getId())
+                        .setShortUrl(shortUrl)
+                        .setLongUrl(request.getLongUrl())
+                        .build());
+    }
+
+    private CompletableFuture<ResolveResponse> resolve(ResolveRequest request) {
+        logger.debug("Resolving short url [{}]", request.getShortUrl());
+        String shortUrl = request.getShortUrl();
+        return start(() -> redirectLimiter.executeAsync(() -> bulkhead.submit(Workload.REDIRECT,
+                () -> shortenerService.resolveUrls(List.of(shortUrl)))))
+                .thenApply(resolved -> toResponse(request.getId(), redirectOf(shortUrl, resolved)));
+    }
+
+    /**
+     * @return the redirect resolved for the short url
+     * @throws ResourceNotFoundException    when the short url is unknown or expired
+     * @throws DatabaseUnavailableException when it could not be looked up, like
+     *                                      {@link UrlShortenerService#lookupUrl(String)} fails
+     */
+    private static UrlRedirect redirectOf(String shortUrl, Map<String, Optional<UrlRedirect>> resolved) {
+        Optional<UrlRedirect> redirect = resolved.get(shortUrl);
+        if (redirect == null) {
+            throw new DatabaseUnavailableException(0, null);
+        }
+        return redirect.orElseThrow(ResourceNotFoundException::new);
+    }
+
+    private static ResolveResponse toResponse(long id, UrlRedirect redirect) {
+        ResolveResponse.Builder response = ResolveResponse.newBuilder()
+                .setId(id)
+                .setLongUrl(redirect.getLongUrl());
+        if (redirect.getRedirectStatus() != null) {
+            response.setRedirectStatus(redirect.getRedirectStatus());
+        }
+        if (redirect.getCacheMaxAge() != null) {
+            response.setCacheMaxAge(redirect.getCacheMaxAge());
+        }
+        if (redirect.getExpiresAt() != null) {
+            response.setExpiresAtEpochSeconds(redirect.getExpiresAt().getEpochSecond());
+        }
+        return response.build();
+    }
+
+    /**
+     * Turns the load shedding of the limiters and the bulkhead, thrown when the work is
+     * submitted, into a failed future like every other failure.
+     */
+    private static <T> CompletableFuture<T> start(Supplier<CompletableFuture<T>> work) {
+        try {
+            return work.get();
+        } catch (RuntimeException exception) {
+            return CompletableFuture.failedFuture(exception);
+        }
+    }
+
+    private static <T> void complete(CompletableFuture<T> result, StreamObserver<T> responseObserver) {
+        result.whenComplete((response, failure) -> {
+            if (failure != null) {
+                Outcome outcome = outcomeOf(failure);
+                responseObserver.onError(statusOf(outcome)
+                        .withDescription(messageOf(outcome, failure))
+                        .asRuntimeException());
+            } else {
+                responseObserver.onNext(response);
+                responseObserver.onCompleted();
+            }
+        });
+    }
+
+    private static Outcome outcomeOf(Throwable failure) {
+        Throwable cause = unwrap(failure);
+        if (cause instanceof InvalidUrlException || cause instanceof InvalidLinkOptionException) {
+            return Outcome.INVALID_ARGUMENT;
+        }
+        if (cause instanceof ResourceNotFoundException) {
+            return Outcome.NOT_FOUND;
+        }
+        if (cause instanceof ConflictingDataException) {
+            return Outcome.CONFLICT;
+        }
+        if (cause instanceof ServiceOverloadedException) {
+            return Outcome.OVERLOADED;
+        }
+        logger.error("Unexpected error while handling a gRPC request", cause);
+        return Outcome.INTERNAL;
+    }
+
+    private static Status statusOf(Outcome outcome) {
+        switch (outcome) {
+            case INVALID_ARGUMENT:
+                return Status.INVALID_ARGUMENT;
+            case NOT_FOUND:
+                return Status.NOT_FOUND;
+            case CONFLICT:
+                return Status.ABORTED;
+            case OVERLOADED:
+                return Status.UNAVAILABLE;
+            default:
+                return Status.INTERNAL;
+        }
+    }
+
+    /**
+     * @return the message of the service exception, unexpected errors are not detailed to the caller
+     */
+    private static String messageOf(Outcome outcome, Throwable failure) {
+        return outcome == Outcome.INTERNAL ? "Internal error" : unwrap(failure).getMessage();
+    }
+
+    private static Throwable unwrap(Throwable failure) {
+        return failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+    }
+}
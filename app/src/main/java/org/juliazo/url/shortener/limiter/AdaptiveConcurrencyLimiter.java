@@ -0,0 +1,77 @@
+package org.juliazo.url.shortener.limiter;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Concurrency limiter whose limit follows the observed latency, using a gradient
+ * between a long term and a short term average of the request latency.
+ * <p>
+ * While the short term latency stays close to the long term one, the limit grows
+ * by about its square root per adjustment. When requests start queueing, for
+ * threads, connections or locks, the short term latency rises above the long term
+ * one and the limit shrinks proportionally, by at most half per adjustment.
+ * The limit only grows while the service actually uses at least half of it.
+ */
+public class AdaptiveConcurrencyLimiter extends ConcurrencyLimiter {
+
+    /**
+     * How much the short term latency may exceed the long term one before the limit shrinks.
+     */
+    private static final double TOLERANCE = 1.5;
+
+    /**
+     * Weight of a new adjustment over the current limit.
+     */
+    private static final double SMOOTHING = 0.2;
+
+    private static final double SHORT_TERM_WEIGHT = 0.1;
+    private static final double LONG_TERM_WEIGHT = 0.005;
+
+    private final int minLimit;
+
+    private final int maxLimit;
+
+    private volatile double limit;
+
+    private double shortTermLatency;
+
+    private double longTermLatency;
+
+    public AdaptiveConcurrencyLimiter(String name, int initialLimit, int minLimit, int maxLimit,
+                                      long retryAfterSeconds, MeterRegistry meterRegistry) {
+        super(name, retryAfterSeconds, meterRegistry);
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+    }
+
+    @Override
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    @Override
+    protected synchronized void onSample(long latencyNanos, int inFlightAtAccept) {
+        if (longTermLatency == 0) {
+            shortTermLatency = latencyNanos;
+            longTermLatency = latencyNanos;
+            return;
+        }
+        shortTermLatency += (latencyNanos - shortTermLatency) * SHORT_TERM_WEIGHT;
+        longTermLatency += (latencyNanos - longTermLatency) * LONG_TERM_WEIGHT;
+
+        // After a period of overload the long term average is inflated,
+        // let it decay faster so the limit recovers in reasonable time.
+        if (longTermLatency > 2 * shortTermLatency) {
+            longTermLatency *= 0.95;
+        }
+        if (inFlightAtAccept < limit / 2) {
+            return;
+        }
+
+        double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * longTermLatency / shortTermLatency));
+        double adjusted = limit * gradient + Math.sqrt(limit);
+        double smoothed = limit * (1 - SMOOTHING) + adjusted * SMOOTHING;
+        limit = Math.max(minLimit, Math.min(maxLimit, smoothed));
+    }
+}
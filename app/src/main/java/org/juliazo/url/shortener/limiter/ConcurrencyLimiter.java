@@ -0,0 +1,131 @@
+package org.juliazo.url.shortener.limiter;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.juliazo.url.shortener.commons.exception.ServiceOverloadedException;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Caps the number of requests of one kind being processed at the same time.
+ * Requests beyond the limit are rejected right away instead of queueing for
+ * threads or database connections.
+ * <p>
+ * Publishes the gauges {@code url.shortener.limiter.limit} and
+ * {@code url.shortener.limiter.in.flight} and the counter
+ * {@code url.shortener.limiter.rejected}, all tagged with the limiter name.
+ */
+public abstract class ConcurrencyLimiter {
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private final long retryAfterSeconds;
+
+    private final Counter rejected;
+
+    protected ConcurrencyLimiter(String name, long retryAfterSeconds, MeterRegistry meterRegistry) {
+        this.retryAfterSeconds = retryAfterSeconds;
+        Gauge.builder("url.shortener.limiter.limit", this, ConcurrencyLimiter::getLimit)
+                .tag("name", name).register(meterRegistry);
+        Gauge.builder("url.shortener.limiter.in.flight", this, ConcurrencyLimiter::getInFlight)
+                .tag("name", name).register(meterRegistry);
+        this.rejected = Counter.builder("url.shortener.limiter.rejected")
+                .tag("name", name).register(meterRegistry);
+    }
+
+    /**
+     * @return the current number of requests allowed to be processed at the same time
+     */
+    public abstract int getLimit();
+
+    /**
+     * Called whenever a request completes, lets the implementation adapt its limit.
+     *
+     * @param latencyNanos     how long the request took
+     * @param inFlightAtAccept how many requests were in flight when it was accepted
+     */
+    protected abstract void onSample(long latencyNanos, int inFlightAtAccept);
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * Runs the task if the limit allows it.
+     *
+     * @param task the request processing
+     * @param <T>  type of the task result
+     * @return the task result
+     * @throws ServiceOverloadedException when the limit is reached
+     */
+    public <T> T execute(Supplier<T> task) {
+        Permit permit = acquire();
+        try {
+            return task.get();
+        } finally {
+            permit.release();
+        }
+    }
+
+    /**
+     * Starts the asynchronous task if the limit allows it. The slot is held
+     * until the future returned by the task completes.
+     *
+     * @param task starts the request processing
+     * @param <T>  type of the task result
+     * @return the future result of the task
+     * @throws ServiceOverloadedException when the limit is reached
+     */
+    public <T> CompletableFuture<T> executeAsync(Supplier<CompletableFuture<T>> task) {
+        Permit permit = acquire();
+        CompletableFuture<T> result;
+        try {
+            result = task.get();
+        } catch (RuntimeException exception) {
+            permit.release();
+            throw exception;
+        }
+        return result.whenComplete((value, failure) -> permit.release());
+    }
+
+    /**
+     * Takes one slot of the limit, to be released once the request completes.
+     *
+     * @return the permit holding the slot
+     * @throws ServiceOverloadedException when the limit is reached
+     */
+    public Permit acquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= getLimit()) {
+                rejected.increment();
+                throw new ServiceOverloadedException(retryAfterSeconds);
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return new Permit(current + 1);
+            }
+        }
+    }
+
+    /**
+     * One accepted request. Must be released exactly once.
+     */
+    public final class Permit {
+
+        private final long startNanos = System.nanoTime();
+
+        private final int inFlightAtAccept;
+
+        private Permit(int inFlightAtAccept) {
+            this.inFlightAtAccept = inFlightAtAccept;
+        }
+
+        public void release() {
+            inFlight.decrementAndGet();
+            onSample(System.nanoTime() - startNanos, inFlightAtAccept);
+        }
+    }
+}
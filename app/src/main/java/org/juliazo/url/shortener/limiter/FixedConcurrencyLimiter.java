@@ -0,0 +1,27 @@
+package org.juliazo.url.shortener.limiter;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Concurrency limiter with a constant limit, used to reserve a protected budget
+ * of concurrent requests for one kind of traffic.
+ */
+public class FixedConcurrencyLimiter extends ConcurrencyLimiter {
+
+    private final int limit;
+
+    public FixedConcurrencyLimiter(String name, int limit, long retryAfterSeconds, MeterRegistry meterRegistry) {
+        super(name, retryAfterSeconds, meterRegistry);
+        this.limit = limit;
+    }
+
+    @Override
+    public int getLimit() {
+        return limit;
+    }
+
+    @Override
+    protected void onSample(long latencyNanos, int inFlightAtAccept) {
+        // the limit does not adapt
+    }
+}
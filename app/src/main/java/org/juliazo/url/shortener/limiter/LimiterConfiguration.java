@@ -0,0 +1,36 @@
+package org.juliazo.url.shortener.limiter;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Concurrency limiters of the REST endpoints.
+ * <p>
+ * Shortening can take many queries when resolving conflicts, so its limit adapts to
+ * its latency and its maximum stays below the servlet thread pool size. Redirects get
+ * their own fixed budget, which shortening requests can never take over.
+ */
+@Configuration
+public class LimiterConfiguration {
+
+    @Bean
+    public ConcurrencyLimiter shortenLimiter(
+            @Value("${url-shortener.limiter.shorten.initial-limit:20}") int initialLimit,
+            @Value("${url-shortener.limiter.shorten.min-limit:4}") int minLimit,
+            @Value("${url-shortener.limiter.shorten.max-limit:50}") int maxLimit,
+            @Value("${url-shortener.limiter.retry-after-seconds:1}") long retryAfterSeconds,
+            MeterRegistry meterRegistry) {
+        return new AdaptiveConcurrencyLimiter("shorten", initialLimit, minLimit, maxLimit,
+                retryAfterSeconds, meterRegistry);
+    }
+
+    @Bean
+    public ConcurrencyLimiter redirectLimiter(
+            @Value("${url-shortener.limiter.redirect.limit:150}") int limit,
+            @Value("${url-shortener.limiter.retry-after-seconds:1}") long retryAfterSeconds,
+            MeterRegistry meterRegistry) {
+        return new FixedConcurrencyLimiter("redirect", limit, retryAfterSeconds, meterRegistry);
+    }
+}
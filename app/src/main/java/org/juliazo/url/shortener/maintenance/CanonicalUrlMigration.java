@@ -0,0 +1,144 @@
+package org.juliazo.url.shortener.maintenance;
+
+import org.juliazo.url.shortener.service.UrlCanonicalizer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ApplicationContext;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * One-off tool that finds the links stored before their long url was canonicalized,
+ * run with {@code url-shortener.canonicalization.migration.mode} set to:
+ * <p>
+ * report: logs how many long urls are not canonical and which of them are duplicates,
+ * i.e. share their canonical form with other stored long urls;
+ * <p>
+ * merge: additionally rewrites the long url of one link per canonical form, the one
+ * with the smallest long url, to that canonical form, unless a link already holds it.
+ * New requests for any of the equivalent long urls then all get that link.
+ * <p>
+ * Duplicate links are never deleted, their short urls were handed out and must keep
+ * redirecting. A rewrite is a delete and an insert of the same short url in one
+ * statement, so the caches of the running replicas follow it through the url_entity
+ * trigger.
+ * <p>
+ * The long urls are walked in keyset batches through url_long_url, only the long urls that are not canonical
+ * are kept in memory. Once done, the application shuts down.
+ */
+@Component
+@ConditionalOnProperty(name = "url-shortener.canonicalization.migration.mode")
+public class CanonicalUrlMigration implements ApplicationRunner {
+
+    private static final Logger logger = LoggerFactory.getLogger(CanonicalUrlMigration.class);
+
+    private static final int BATCH_SIZE = 1000;
+
+    private static final int REPORTED_DUPLICATES = 100;
+
+    private static final String REWRITE =
+            "WITH moved AS (DELETE FROM url_entity"
+                    + " WHERE short_url = (SELECT short_url FROM url_long_url WHERE long_url = ?) AND long_url = ?"
+                    + " RETURNING short_url, redirect_status, cache_max_age, expires_at)"
+                    + " INSERT INTO url_entity (short_url, long_url, redirect_status, cache_max_age, expires_at)"
+                    + " SELECT short_url, ?, redirect_status, cache_max_age, expires_at FROM moved";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final UrlCanonicalizer urlCanonicalizer;
+
+    private final ApplicationContext applicationContext;
+
+    private final boolean merge;
+
+    @Autowired
+    public CanonicalUrlMigration(JdbcTemplate jdbcTemplate, UrlCanonicalizer urlCanonicalizer,
+                                 ApplicationContext applicationContext,
+                                 @Value("${url-shortener.canonicalization.migration.mode}") String mode) {
+        if (!mode.equals("report") && !mode.equals("merge")) {
+            throw new IllegalArgumentException("Unsupported canonicalization migration mode " + mode);
+        }
+        this.jdbcTemplate = jdbcTemplate;
+        this.urlCanonicalizer = urlCanonicalizer;
+        this.applicationContext = applicationContext;
+        this.merge = mode.equals("merge");
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        Map<String, List<String>> nonCanonical = findNonCanonical();
+        int duplicates = 0;
+        int rewritten = 0;
+        for (Map.Entry<String, List<String>> entry : nonCanonical.entrySet()) {
+            String canonicalUrl = entry.getKey();
+            List<String> longUrls = entry.getValue();
+            boolean canonicalStored = isStored(canonicalUrl);
+            if (canonicalStored || longUrls.size() > 1) {
+                duplicates++;
+                if (duplicates <= REPORTED_DUPLICATES) {
+                    logger.info("Duplicate long urls {} for canonical url [{}], canonical url stored [{}]",
+                            longUrls, canonicalUrl, canonicalStored);
+                }
+            }
+            if (merge && !canonicalStored && rewrite(longUrls.get(0), canonicalUrl)) {
+                rewritten++;
+            }
+        }
+        logger.info("Found [{}] long urls that are not canonical, [{}] canonical urls with duplicates,"
+                        + " rewrote [{}] long urls to their canonical form",
+                nonCanonical.values().stream().mapToInt(List::size).sum(), duplicates, rewritten);
+        SpringApplication.exit(applicationContext, () -> 0);
+    }
+
+    /**
+     * @return the stored long urls that are not canonical, sorted, grouped by canonical form
+     */
+    private Map<String, List<String>> findNonCanonical() {
+        Map<String, List<String>> nonCanonical = new TreeMap<>();
+        String cursor = "";
+        List<String> batch;
+        do {
+            batch = jdbcTemplate.queryForList(
+                    "SELECT long_url FROM url_long_url WHERE long_url > ? ORDER BY long_url LIMIT ?",
+                    String.class, cursor, BATCH_SIZE);
+            for (String longUrl : batch) {
+                String canonicalUrl = urlCanonicalizer.canonicalize(longUrl);
+                if (!canonicalUrl.equals(longUrl)) {
+                    nonCanonical.computeIfAbsent(canonicalUrl, key -> new ArrayList<>()).add(longUrl);
+                }
+                cursor = longUrl;
+            }
+        } while (batch.size() == BATCH_SIZE);
+        return nonCanonical;
+    }
+
+    private boolean isStored(String longUrl) {
+        return Boolean.TRUE.equals(jdbcTemplate.queryForObject(
+                "SELECT EXISTS (SELECT 1 FROM url_long_url WHERE long_url = ?)", Boolean.class, longUrl));
+    }
+
+    /**
+     * Moves the link of {@code longUrl} to {@code canonicalUrl}, keeping its short url.
+     * Fails without changes when the canonical url was stored in the meantime.
+     */
+    private boolean rewrite(String longUrl, String canonicalUrl) {
+        try {
+            return jdbcTemplate.update(REWRITE, longUrl, longUrl, canonicalUrl) > 0;
+        } catch (DataAccessException exception) {
+            logger.warn("Could not rewrite long url [{}] to [{}]", longUrl, canonicalUrl, exception);
+            return false;
+        }
+    }
+}
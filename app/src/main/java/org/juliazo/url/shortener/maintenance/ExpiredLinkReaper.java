@@ -0,0 +1,133 @@
+package org.juliazo.url.shortener.maintenance;
+
+import org.juliazo.url.shortener.cache.UrlMappingCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Background job that deletes expired links from url_entity.
+ * <p>
+ * Rows are deleted in small batches, each one its own short transaction, walking the
+ * partial index on (expires_at, short_url) with a keyset cursor. Rows locked by a
+ * concurrent request are skipped and picked up by a later run. A batch can come back short
+ * while expired links are left, rows changed concurrently are dropped after the limit was
+ * applied, so a run only ends on an empty batch. A pause between batches keeps the write
+ * rate, and with it the replication lag, bounded.
+ * <p>
+ * Links are only reaped once they have been expired for a grace period. Until then
+ * their short url stays taken and resolves to 404 NOT FOUND, so a short url is only
+ * handed to a new long url after every cache had the chance to notice the expiration.
+ * Reaped links are invalidated in the local cache right away, other replicas are
+ * notified by the url_entity trigger.
+ */
+@Component
+@ConditionalOnProperty(name = "url-shortener.expiry.reaper.enabled", havingValue = "true")
+public class ExpiredLinkReaper {
+
+    private static final Logger logger = LoggerFactory.getLogger(ExpiredLinkReaper.class);
+
+    private static final String DELETE_BATCH =
+            "WITH batch AS ("
+                    + " SELECT short_url FROM url_entity"
+                    + " WHERE expires_at IS NOT NULL AND (expires_at, short_url) > (?, ?) AND expires_at < ?"
+                    + " ORDER BY expires_at, short_url LIMIT ? FOR UPDATE SKIP LOCKED)"
+                    + " DELETE FROM url_entity e USING batch WHERE e.short_url = batch.short_url"
+                    + " RETURNING e.expires_at, e.short_url, e.long_url";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final UrlMappingCache urlMappingCache;
+
+    private final int batchSize;
+
+    private final int maxBatchesPerRun;
+
+    private final long pauseMillis;
+
+    private final long graceSeconds;
+
+    @Autowired
+    public ExpiredLinkReaper(JdbcTemplate jdbcTemplate, UrlMappingCache urlMappingCache,
+                             @Value("${url-shortener.expiry.reaper.batch-size:500}") int batchSize,
+                             @Value("${url-shortener.expiry.reaper.max-batches-per-run:100}") int maxBatchesPerRun,
+                             @Value("${url-shortener.expiry.reaper.pause-millis:50}") long pauseMillis,
+                             @Value("${url-shortener.expiry.reaper.grace-seconds:3600}") long graceSeconds) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.urlMappingCache = urlMappingCache;
+        this.batchSize = batchSize;
+        this.maxBatchesPerRun = maxBatchesPerRun;
+        this.pauseMillis = pauseMillis;
+        this.graceSeconds = graceSeconds;
+    }
+
+    /**
+     * Deletes expired links, one batch at a time, until no expired link is left or
+     * the run reaches its maximum number of batches.
+     *
+     * @return the number of deleted links
+     */
+    @Scheduled(fixedDelayString = "${url-shortener.expiry.reaper.interval-millis:60000}",
+            initialDelayString = "${url-shortener.startup.background-delay-millis:0}")
+    public int reap() {
+        Timestamp cutoff = Timestamp.from(Instant.now().minusSeconds(graceSeconds));
+        Timestamp cursorExpiresAt = new Timestamp(0);
+        String cursorShortUrl = "";
+        int reaped = 0;
+
+        for (int batch = 0; batch < maxBatchesPerRun; batch++) {
+            List<ReapedLink> deleted = jdbcTemplate.query(DELETE_BATCH,
+                    (resultSet, row) -> new ReapedLink(resultSet.getTimestamp(1), resultSet.getString(2),
+                            resultSet.getString(3)),
+                    cursorExpiresAt, cursorShortUrl, cutoff, batchSize);
+            for (ReapedLink link : deleted) {
+                urlMappingCache.invalidate(link.shortUrl, link.longUrl);
+                if (link.expiresAt.after(cursorExpiresAt) || (link.expiresAt.equals(cursorExpiresAt)
+                        && link.shortUrl.compareTo(cursorShortUrl) > 0)) {
+                    cursorExpiresAt = link.expiresAt;
+                    cursorShortUrl = link.shortUrl;
+                }
+            }
+            reaped += deleted.size();
+            if (deleted.isEmpty() || !pause()) {
+                break;
+            }
+        }
+        if (reaped > 0) {
+            logger.info("Reaped [{}] expired links", reaped);
+        }
+        return reaped;
+    }
+
+    private boolean pause() {
+        try {
+            Thread.sleep(pauseMillis);
+            return true;
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static final class ReapedLink {
+
+        final Timestamp expiresAt;
+        final String shortUrl;
+        final String longUrl;
+
+        ReapedLink(Timestamp expiresAt, String shortUrl, String longUrl) {
+            this.expiresAt = expiresAt;
+            this.shortUrl = shortUrl;
+            this.longUrl = longUrl;
+        }
+    }
+}
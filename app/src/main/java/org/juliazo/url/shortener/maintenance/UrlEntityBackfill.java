@@ -0,0 +1,117 @@
+package org.juliazo.url.shortener.maintenance;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Map;
+
+/**
+ * One-off tool that copies the links to the hash partitioned copy of url_entity created by
+ * the V7 migration, run with {@code url-shortener.partitioning.backfill.enabled} against a
+ * database migrated up to version 7, while the other replicas serve traffic.
+ * <p>
+ * Links are copied in short url order, one batch per transaction. The rows of a batch are
+ * locked in share mode until it commits, so a concurrent change waits and is then mirrored
+ * by the trigger on url_entity; rows already copied, or inserted since V7, are left as they
+ * are. The progress is kept in url_entity_backfill, a stopped backfill resumes where it
+ * stopped, and the V8 migration copies whatever it did not reach. Once done, the
+ * application shuts down.
+ */
+@Component
+@ConditionalOnProperty(name = "url-shortener.partitioning.backfill.enabled", havingValue = "true")
+public class UrlEntityBackfill implements ApplicationRunner {
+
+    private static final Logger logger = LoggerFactory.getLogger(UrlEntityBackfill.class);
+
+    private static final int LOGGED_BATCHES = 100;
+
+    private static final String PROGRESS =
+            "SELECT last_short_url FROM url_entity_backfill WHERE NOT done FOR UPDATE";
+
+    private static final String COPY =
+            "WITH batch AS (SELECT short_url, long_url, redirect_status, cache_max_age, expires_at, last_accessed_at"
+                    + " FROM url_entity WHERE short_url > ? ORDER BY short_url LIMIT ? FOR SHARE),"
+                    + " copied AS (INSERT INTO url_entity_partitioned (short_url, long_url, redirect_status,"
+                    + " cache_max_age, expires_at, last_accessed_at) SELECT * FROM batch ON CONFLICT DO NOTHING"
+                    + " RETURNING 1)"
+                    + " SELECT (SELECT max(short_url) FROM batch) AS last_short_url,"
+                    + " (SELECT count(*) FROM batch) AS scanned, (SELECT count(*) FROM copied) AS copied";
+
+    private static final String SAVE_PROGRESS = "UPDATE url_entity_backfill SET last_short_url = ?, done = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final ApplicationContext applicationContext;
+
+    private final int batchSize;
+
+    private final long pauseMillis;
+
+    private long scanned;
+
+    private long copied;
+
+    @Autowired
+    public UrlEntityBackfill(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager,
+                             ApplicationContext applicationContext,
+                             @Value("${url-shortener.partitioning.backfill.batch-size:5000}") int batchSize,
+                             @Value("${url-shortener.partitioning.backfill.pause-millis:50}") long pauseMillis) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.applicationContext = applicationContext;
+        this.batchSize = batchSize;
+        this.pauseMillis = pauseMillis;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) throws InterruptedException {
+        if (Boolean.TRUE.equals(jdbcTemplate.queryForObject(
+                "SELECT to_regclass('url_entity_backfill') IS NOT NULL", Boolean.class))) {
+            int batches = 0;
+            while (Boolean.TRUE.equals(transactionTemplate.execute(status -> copyBatch()))) {
+                if (++batches % LOGGED_BATCHES == 0) {
+                    logger.info("Backfill of the partitioned url_entity: scanned [{}] links, copied [{}]",
+                            scanned, copied);
+                }
+                Thread.sleep(pauseMillis);
+            }
+            logger.info("Backfill of the partitioned url_entity done: scanned [{}] links, copied [{}]",
+                    scanned, copied);
+        } else {
+            logger.info("No backfill of the partitioned url_entity in progress, nothing to copy");
+        }
+        SpringApplication.exit(applicationContext, () -> 0);
+    }
+
+    /**
+     * Copies the batch after the saved progress and saves the new progress.
+     *
+     * @return true when more links may follow
+     */
+    private boolean copyBatch() {
+        String cursor = jdbcTemplate.queryForList(PROGRESS, String.class).stream().findFirst().orElse(null);
+        if (cursor == null) {
+            return false;
+        }
+        Map<String, Object> batch = jdbcTemplate.queryForMap(COPY, cursor, batchSize);
+        long batchScanned = ((Number) batch.get("scanned")).longValue();
+        scanned += batchScanned;
+        copied += ((Number) batch.get("copied")).longValue();
+        boolean more = batchScanned == batchSize;
+        jdbcTemplate.update(SAVE_PROGRESS, batchScanned == 0 ? cursor : batch.get("last_short_url"), !more);
+        return more;
+    }
+}
@@ -0,0 +1,33 @@
+package org.juliazo.url.shortener.model;
+
+public class HotLinkPayload {
+
+    private String shortUrl;
+
+    private int estimatedHits;
+
+    public HotLinkPayload(String shortUrl, int estimatedHits) {
+        this.shortUrl = shortUrl;
+        this.estimatedHits = estimatedHits;
+    }
+
+    public HotLinkPayload() {
+    }
+
+    public String getShortUrl() {
+        return shortUrl;
+    }
+
+    public void setShortUrl(String shortUrl) {
+        this.shortUrl = shortUrl;
+    }
+
+    public int getEstimatedHits() {
+        return estimatedHits;
+    }
+
+    public void setEstimatedHits(int estimatedHits) {
+        this.estimatedHits = estimatedHits;
+    }
+
+}
@@ -0,0 +1,57 @@
+package org.juliazo.url.shortener.model;
+
+import java.time.Instant;
+
+public class RecordingPayload {
+
+    private String profile;
+
+    private String state;
+
+    private Instant startTime;
+
+    private long durationSeconds;
+
+    public RecordingPayload(String profile, String state, Instant startTime, long durationSeconds) {
+        this.profile = profile;
+        this.state = state;
+        this.startTime = startTime;
+        this.durationSeconds = durationSeconds;
+    }
+
+    public RecordingPayload() {
+    }
+
+    public String getProfile() {
+        return profile;
+    }
+
+    public void setProfile(String profile) {
+        this.profile = profile;
+    }
+
+    public String getState() {
+        return state;
+    }
+
+    public void setState(String state) {
+        this.state = state;
+    }
+
+    public Instant getStartTime() {
+        return startTime;
+    }
+
+    public void setStartTime(Instant startTime) {
+        this.startTime = startTime;
+    }
+
+    public long getDurationSeconds() {
+        return durationSeconds;
+    }
+
+    public void setDurationSeconds(long durationSeconds) {
+        this.durationSeconds = durationSeconds;
+    }
+
+}
@@ -0,0 +1,99 @@
+package org.juliazo.url.shortener.model;
+
+import org.juliazo.url.shortener.commons.redirect.UrlRedirect;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.IdClass;
+import javax.persistence.Table;
+import javax.persistence.Column;
+import java.io.Serializable;
+import java.time.Instant;
+
+/**
+ * DTO representing the pair short url - long url
+ * Both values must be unique.
+ */
+@Entity
+@Table(name = "url_entity")
+@IdClass(UrlEntityId.class)
+public class UrlEntity implements Serializable {
+
+    @Id
+    @Column(unique = true)
+    private String shortUrl;
+
+    @Id
+    private String longUrl;
+
+    private Integer redirectStatus;
+
+    private Integer cacheMaxAge;
+
+    private Instant expiresAt;
+
+    public UrlEntity(String shortUrl, String longUrl) {
+        this.shortUrl = shortUrl;
+        this.longUrl = longUrl;
+    }
+
+    public UrlEntity(String shortUrl, String longUrl, Integer redirectStatus, Integer cacheMaxAge,
+                     Instant expiresAt) {
+        this.shortUrl = shortUrl;
+        this.longUrl = longUrl;
+        this.redirectStatus = redirectStatus;
+        this.cacheMaxAge = cacheMaxAge;
+        this.expiresAt = expiresAt;
+    }
+
+    public UrlEntity() {
+    }
+
+    public String getShortUrl() {
+        return shortUrl;
+    }
+
+    public void setShortUrl(String shortUrl) {
+        this.shortUrl = shortUrl;
+    }
+
+    public String getLongUrl() {
+        return longUrl;
+    }
+
+    public void setLongUrl(String longUrl) {
+        this.longUrl = longUrl;
+    }
+
+    public Integer getRedirectStatus() {
+        return redirectStatus;
+    }
+
+    public void setRedirectStatus(Integer redirectStatus) {
+        this.redirectStatus = redirectStatus;
+    }
+
+    public Integer getCacheMaxAge() {
+        return cacheMaxAge;
+    }
+
+    public void setCacheMaxAge(Integer cacheMaxAge) {
+        this.cacheMaxAge = cacheMaxAge;
+    }
+
+    public Instant getExpiresAt() {
+        return expiresAt;
+    }
+
+    public void setExpiresAt(Instant expiresAt) {
+        this.expiresAt = expiresAt;
+    }
+
+    /**
+     * @return the long url, redirect policy and expiration of this link
+     */
+    public UrlRedirect toRedirect() {
+        return new UrlRedirect(longUrl, redirectStatus, cacheMaxAge, expiresAt);
+    }
+
+}
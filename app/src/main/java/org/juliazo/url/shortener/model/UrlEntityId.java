@@ -0,0 +1,48 @@
+package org.juliazo.url.shortener.model;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * Identifier of {@link UrlEntity}: the pair short url - long url.
+ * The redirect policy and expiration of a link are not part of it.
+ */
+public class UrlEntityId implements Serializable {
+
+    private String shortUrl;
+
+    private String longUrl;
+
+    public UrlEntityId(String shortUrl, String longUrl) {
+        this.shortUrl = shortUrl;
+        this.longUrl = longUrl;
+    }
+
+    public UrlEntityId() {
+    }
+
+    public String getShortUrl() {
+        return shortUrl;
+    }
+
+    public String getLongUrl() {
+        return longUrl;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof UrlEntityId)) {
+            return false;
+        }
+        UrlEntityId that = (UrlEntityId) other;
+        return Objects.equals(shortUrl, that.shortUrl) && Objects.equals(longUrl, that.longUrl);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(shortUrl, longUrl);
+    }
+}
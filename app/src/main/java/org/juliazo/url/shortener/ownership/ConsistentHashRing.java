@@ -0,0 +1,94 @@
+package org.juliazo.url.shortener.ownership;
+
+import org.juliazo.url.shortener.service.ShortUrlGenerator;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Consistent hash ring of the replicas, immutable.
+ * <p>
+ * Every member is placed on the ring at {@code virtualNodes} points, the 64 bit MurmurHash3
+ * of its address and the index of the point. A key belongs to the first member at or after
+ * its own hash, clockwise. When a member joins or leaves, only the keys of the arcs it takes
+ * over or gives up change owner, about one in as many keys as there are members.
+ */
+public final class ConsistentHashRing {
+
+    private final long[] points;
+
+    private final String[] owners;
+
+    private final Set<String> members;
+
+    /**
+     * @param members      addresses of the replicas, duplicates are ignored
+     * @param virtualNodes points per member, more spread the keys more evenly
+     */
+    public ConsistentHashRing(Collection<String> members, int virtualNodes) {
+        Set<String> distinct = new TreeSet<>(members);
+        this.members = Collections.unmodifiableSet(distinct);
+        long[][] ring = new long[distinct.size() * virtualNodes][];
+        List<String> names = new ArrayList<>(distinct);
+        int point = 0;
+        for (int member = 0; member < names.size(); member++) {
+            for (int i = 0; i < virtualNodes; i++) {
+                ring[point++] = new long[]{hash(names.get(member) + "#" + i), member};
+            }
+        }
+        // ties broken by member, so that every replica builds the same ring
+        Arrays.sort(ring, (left, right) -> left[0] != right[0]
+                ? Long.compare(left[0], right[0]) : Long.compare(left[1], right[1]));
+        points = new long[ring.length];
+        owners = new String[ring.length];
+        for (int i = 0; i < ring.length; i++) {
+            points[i] = ring[i][0];
+            owners[i] = names.get((int) ring[i][1]);
+        }
+    }
+
+    /**
+     * @param key a canonical long url
+     * @return the members in the order they own the key: the owner first, then the members
+     * that take it over when the ones before them are gone. Empty for an empty ring
+     */
+    public List<String> owners(String key) {
+        Set<String> found = new LinkedHashSet<>();
+        if (points.length == 0) {
+            return new ArrayList<>(found);
+        }
+        int start = Arrays.binarySearch(points, hash(key));
+        if (start < 0) {
+            start = -start - 1;
+        }
+        for (int i = 0; i < points.length && found.size() < members.size(); i++) {
+            found.add(owners[(start + i) % points.length]);
+        }
+        return new ArrayList<>(found);
+    }
+
+    /**
+     * @return the distinct members, sorted
+     */
+    public Set<String> members() {
+        return members;
+    }
+
+    /**
+     * @return the number of distinct members
+     */
+    public int size() {
+        return members.size();
+    }
+
+    static long hash(String value) {
+        return ShortUrlGenerator.murmur3(value.getBytes(StandardCharsets.UTF_8))[0];
+    }
+}
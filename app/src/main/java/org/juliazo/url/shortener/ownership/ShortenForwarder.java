@@ -0,0 +1,155 @@
+package org.juliazo.url.shortener.ownership;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.juliazo.url.shortener.commons.exception.ConflictingDataException;
+import org.juliazo.url.shortener.commons.exception.ServiceOverloadedException;
+import org.juliazo.url.shortener.commons.payload.UrlRequestPayload;
+import org.juliazo.url.shortener.commons.payload.UrlResponsePayload;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpConnectTimeoutException;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Forwards the creation of a short url to the replica that owns its long url, so that
+ * concurrent requests for the same long url, received by different replicas, do not race
+ * to insert it.
+ * <p>
+ * The owner receives a regular {@code POST /shorten} carrying the {@value #FORWARDED_HEADER}
+ * header, and creates the short url itself whatever its own ring says: a request is forwarded
+ * at most once, also while the replicas disagree on the members. An owner that can not be
+ * reached is marked as such in the {@link ShortenOwnership}, and the next member on the ring
+ * is tried, up to this instance. An owner that is reached but does not answer in time is busy
+ * rather than gone: like other failures of the owner, it falls back to creating the short url
+ * locally, the database still keeps long urls unique.
+ * <p>
+ * Counts the forwarded requests in {@code url.shortener.ownership.forwards} by {@code result}:
+ * forwarded, unreachable, timeout, or fallback.
+ */
+@Component
+@ConditionalOnProperty(name = "url-shortener.ownership.enabled", havingValue = "true")
+public class ShortenForwarder {
+
+    /**
+     * Marks a shorten request forwarded by another replica, holds the address of that replica.
+     */
+    public static final String FORWARDED_HEADER = "X-Url-Shortener-Forwarded-By";
+
+    private static final Logger logger = LoggerFactory.getLogger(ShortenForwarder.class);
+
+    private static final long DEFAULT_RETRY_AFTER_SECONDS = 1;
+
+    private final ShortenOwnership shortenOwnership;
+
+    private final ObjectMapper objectMapper;
+
+    private final MeterRegistry meterRegistry;
+
+    private final HttpClient httpClient;
+
+    private final Duration timeout;
+
+    @Autowired
+    public ShortenForwarder(ShortenOwnership shortenOwnership, ObjectMapper objectMapper,
+                            MeterRegistry meterRegistry,
+                            @Value("${url-shortener.ownership.forward-timeout-millis:2000}") long timeoutMillis) {
+        this.shortenOwnership = shortenOwnership;
+        this.objectMapper = objectMapper;
+        this.meterRegistry = meterRegistry;
+        this.timeout = Duration.ofMillis(timeoutMillis);
+        this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(timeout)
+                .build();
+    }
+
+    /**
+     * @param requestPayload the shorten request as received
+     * @param canonicalUrl   its long url, canonicalized
+     * @return the short url answered by the owner, empty when this instance must create it:
+     * when it owns the long url, or the owners before it failed
+     * @throws ConflictingDataException    when the owner could not create a short url either
+     * @throws ServiceOverloadedException  when the owner shed the request
+     */
+    public Optional<String> forward(UrlRequestPayload requestPayload, String canonicalUrl) {
+        List<String> owners = shortenOwnership.owners(canonicalUrl);
+        for (String owner : owners) {
+            if (owner.equals(shortenOwnership.getSelfAddress())) {
+                return Optional.empty();
+            }
+            try {
+                Optional<String> shortUrl = send(owner, requestPayload, canonicalUrl);
+                count(shortUrl.isPresent() ? "forwarded" : "fallback");
+                return shortUrl;
+            } catch (HttpTimeoutException exception) {
+                if (!(exception instanceof HttpConnectTimeoutException)) {
+                    count("timeout");
+                    logger.warn("Owner [{}] did not answer for longUrl [{}] in time, creating it here", owner,
+                            canonicalUrl);
+                    return Optional.empty();
+                }
+                count("unreachable");
+                shortenOwnership.markUnreachable(owner);
+            } catch (IOException exception) {
+                count("unreachable");
+                logger.debug("Could not forward longUrl [{}] to [{}]", canonicalUrl, owner, exception);
+                shortenOwnership.markUnreachable(owner);
+            } catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+                return Optional.empty();
+            }
+        }
+        return Optional.empty();
+    }
+
+    private Optional<String> send(String owner, UrlRequestPayload requestPayload, String canonicalUrl)
+            throws IOException, InterruptedException {
+        UrlRequestPayload forwarded = new UrlRequestPayload(canonicalUrl);
+        forwarded.setRedirectStatus(requestPayload.getRedirectStatus());
+        forwarded.setCacheMaxAge(requestPayload.getCacheMaxAge());
+        forwarded.setExpiresIn(requestPayload.getExpiresIn());
+        HttpRequest request = HttpRequest.newBuilder(URI.create(owner + "/shorten"))
+                .timeout(timeout)
+                .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                .header(FORWARDED_HEADER, shortenOwnership.getSelfAddress())
+                .POST(HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(forwarded)))
+                .build();
+        HttpResponse<byte[]> response = httpClient.send(request, HttpResponse.BodyHandlers.ofByteArray());
+        if (response.statusCode() == HttpStatus.OK.value()) {
+            String shortUrl = objectMapper.readValue(response.body(), UrlResponsePayload.class).getShortUrl();
+            logger.info("Forwarded longUrl [{}] to its owner [{}]", canonicalUrl, owner);
+            return Optional.of(URI.create(shortUrl).getPath().substring(1));
+        }
+        if (response.statusCode() == HttpStatus.CONFLICT.value()) {
+            throw new ConflictingDataException();
+        }
+        if (response.statusCode() == HttpStatus.SERVICE_UNAVAILABLE.value()) {
+            throw new ServiceOverloadedException(response.headers().firstValueAsLong(HttpHeaders.RETRY_AFTER)
+                    .orElse(DEFAULT_RETRY_AFTER_SECONDS));
+        }
+        logger.warn("Owner [{}] answered [{}] for longUrl [{}], creating it here", owner, response.statusCode(),
+                canonicalUrl);
+        return Optional.empty();
+    }
+
+    private void count(String result) {
+        meterRegistry.counter("url.shortener.ownership.forwards", "result", result).increment();
+    }
+}
@@ -0,0 +1,194 @@
+package org.juliazo.url.shortener.ownership;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Membership of the replicas in the {@link ConsistentHashRing} that decides which replica
+ * creates the short url of a long url.
+ * <p>
+ * The members are either listed in {@code url-shortener.ownership.members}, the same list on
+ * every replica, or else found in the shortener_member table: every replica refreshes its
+ * heartbeat there on the scheduler thread, reads the members whose heartbeat is younger than
+ * the member timeout, and deletes its row when it stops. This instance is always a member.
+ * <p>
+ * A member that could not be reached is skipped for a member timeout, its long urls then
+ * belong to the next members on the ring. Publishes the size of the ring in
+ * {@code url.shortener.ownership.members}.
+ */
+@Component
+@ConditionalOnProperty(name = "url-shortener.ownership.enabled", havingValue = "true")
+public class ShortenOwnership {
+
+    private static final Logger logger = LoggerFactory.getLogger(ShortenOwnership.class);
+
+    private static final String HEARTBEAT = "INSERT INTO shortener_member (address, heartbeat_at) VALUES (?, now())"
+            + " ON CONFLICT (address) DO UPDATE SET heartbeat_at = now()";
+
+    private static final String LIVE_MEMBERS = "SELECT address FROM shortener_member"
+            + " WHERE heartbeat_at > now() - (? * interval '1 millisecond')";
+
+    /**
+     * Rows of replicas that stopped without deleting theirs, e.g. killed, once they are long gone.
+     */
+    private static final String PRUNE = "DELETE FROM shortener_member"
+            + " WHERE heartbeat_at < now() - (? * interval '1 millisecond')";
+
+    private static final String LEAVE = "DELETE FROM shortener_member WHERE address = ?";
+
+    private static final int PRUNED_TIMEOUTS = 100;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final String selfAddress;
+
+    private final List<String> staticMembers;
+
+    private final int virtualNodes;
+
+    private final long memberTimeoutMillis;
+
+    /**
+     * Members that could not be reached, with the time they are skipped until.
+     */
+    private final Map<String, Long> unreachableUntil = new ConcurrentHashMap<>();
+
+    private volatile ConsistentHashRing ring;
+
+    @Autowired
+    public ShortenOwnership(JdbcTemplate jdbcTemplate, MeterRegistry meterRegistry,
+                            @Value("${url-shortener.ownership.self-address:}") String selfAddress,
+                            @Value("${url-shortener.ownership.members:}") List<String> staticMembers,
+                            @Value("${url-shortener.ownership.virtual-nodes:64}") int virtualNodes,
+                            @Value("${url-shortener.ownership.member-timeout-millis:6000}") long memberTimeoutMillis,
+                            @Value("${server.port:8080}") int serverPort) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.selfAddress = selfAddress.isBlank() ? localAddress(serverPort) : selfAddress;
+        this.staticMembers = staticMembers.stream().map(String::trim).filter(member -> !member.isEmpty())
+                .collect(Collectors.toList());
+        this.virtualNodes = virtualNodes;
+        this.memberTimeoutMillis = memberTimeoutMillis;
+        if (!this.staticMembers.isEmpty() && !this.staticMembers.contains(this.selfAddress)) {
+            logger.warn("This instance [{}] is not one of the members {}, added it", this.selfAddress,
+                    this.staticMembers);
+        }
+        updateRing(this.staticMembers);
+        Gauge.builder("url.shortener.ownership.members", this, ownership -> ownership.ring.size())
+                .description("Replicas in the shorten ownership ring").register(meterRegistry);
+    }
+
+    private static String localAddress(int serverPort) {
+        try {
+            return "http://" + InetAddress.getLocalHost().getHostAddress() + ":" + serverPort;
+        } catch (UnknownHostException exception) {
+            throw new IllegalStateException("Could not determine the address of this instance,"
+                    + " set url-shortener.ownership.self-address", exception);
+        }
+    }
+
+    /**
+     * Refreshes the heartbeat of this instance and the members of the ring, when the members
+     * are not listed. Failures are logged, the ring is left as it is until the next refresh.
+     */
+    @Scheduled(fixedDelayString = "${url-shortener.ownership.heartbeat-interval-millis:2000}")
+    public void heartbeat() {
+        if (!staticMembers.isEmpty()) {
+            return;
+        }
+        try {
+            jdbcTemplate.update(HEARTBEAT, selfAddress);
+            jdbcTemplate.update(PRUNE, memberTimeoutMillis * PRUNED_TIMEOUTS);
+            updateRing(jdbcTemplate.queryForList(LIVE_MEMBERS, String.class, memberTimeoutMillis));
+        } catch (DataAccessException exception) {
+            logger.warn("Could not refresh the shorten ownership ring", exception);
+        }
+    }
+
+    @PreDestroy
+    public void leave() {
+        if (!staticMembers.isEmpty()) {
+            return;
+        }
+        try {
+            jdbcTemplate.update(LEAVE, selfAddress);
+        } catch (DataAccessException exception) {
+            logger.warn("Could not leave the shorten ownership ring, the other members drop this instance"
+                    + " after [{}] ms", memberTimeoutMillis, exception);
+        }
+    }
+
+    private void updateRing(List<String> members) {
+        Set<String> distinct = new TreeSet<>(members);
+        distinct.add(selfAddress);
+        ConsistentHashRing current = ring;
+        if (current == null || !distinct.equals(current.members())) {
+            ring = new ConsistentHashRing(distinct, virtualNodes);
+            logger.info("Shorten ownership ring of [{}] members: {}", distinct.size(), distinct);
+        }
+    }
+
+    /**
+     * @param longUrl a canonical long url
+     * @return the reachable members in the order they own the long url, up to this instance,
+     * which is the last one: a list of this instance only when it owns the long url
+     */
+    public List<String> owners(String longUrl) {
+        long now = System.currentTimeMillis();
+        List<String> owners = new ArrayList<>();
+        for (String member : ring.owners(longUrl)) {
+            if (member.equals(selfAddress)) {
+                owners.add(member);
+                return owners;
+            }
+            Long skippedUntil = unreachableUntil.get(member);
+            if (skippedUntil == null || skippedUntil < now) {
+                owners.add(member);
+            }
+        }
+        return owners;
+    }
+
+    /**
+     * Skips a member for a member timeout, its long urls belong to the next members meanwhile.
+     *
+     * @param member the address of a member that could not be reached
+     */
+    public void markUnreachable(String member) {
+        unreachableUntil.put(member, System.currentTimeMillis() + memberTimeoutMillis);
+        logger.warn("Shorten owner [{}] unreachable, skipped for [{}] ms", member, memberTimeoutMillis);
+    }
+
+    /**
+     * @return the members of the current ring
+     */
+    Set<String> members() {
+        return ring.members();
+    }
+
+    /**
+     * @return the address the other members reach this instance at
+     */
+    public String getSelfAddress() {
+        return selfAddress;
+    }
+}
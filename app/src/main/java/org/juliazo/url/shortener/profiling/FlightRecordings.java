@@ -0,0 +1,139 @@
+package org.juliazo.url.shortener.profiling;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+import org.juliazo.url.shortener.commons.exception.InvalidRecordingOptionException;
+import org.juliazo.url.shortener.commons.exception.RecordingStateException;
+import org.juliazo.url.shortener.model.RecordingPayload;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.time.Duration;
+import java.util.Set;
+
+/**
+ * Starts and stops Java Flight Recorder recordings on demand, one at a time.
+ * <p>
+ * A recording runs with one of the configurations shipped with the JDK: {@code default},
+ * about 1% overhead, or {@code profile}, about 2%, which adds more method sampling and
+ * allocation data. It stops by itself once its duration elapses, bounded by
+ * {@code url-shortener.admin.jfr.max-duration-seconds}, and is kept until it is
+ * downloaded, so a recording left behind holds on to disk space rather than memory.
+ * The events of the url shortener itself, see {@code ShortenerEvents}, are
+ * recorded with both configurations.
+ */
+@Component
+@ConditionalOnProperty(name = "url-shortener.admin.jfr.enabled", havingValue = "true")
+public class FlightRecordings {
+
+    static final Set<String> PROFILES = Set.of("default", "profile");
+
+    private static final String RECORDING_NAME = "url-shortener";
+
+    private static final Logger logger = LoggerFactory.getLogger(FlightRecordings.class);
+
+    private final long maxDurationSeconds;
+
+    private Recording recording;
+
+    private String recordingProfile;
+
+    public FlightRecordings(@Value("${url-shortener.admin.jfr.max-duration-seconds:600}") long maxDurationSeconds) {
+        this.maxDurationSeconds = maxDurationSeconds;
+    }
+
+    /**
+     * Starts a new recording, dropping a previous one that was not downloaded.
+     *
+     * @param profile         the JDK configuration to record with, default or profile
+     * @param durationSeconds seconds after which the recording stops by itself
+     * @return the state of the started recording
+     * @throws InvalidRecordingOptionException for unknown profiles or durations out of range
+     * @throws RecordingStateException         when a recording is already running
+     */
+    public synchronized RecordingPayload start(String profile, long durationSeconds) {
+        if (!PROFILES.contains(profile)) {
+            throw new InvalidRecordingOptionException("The profile must be one of " + PROFILES + ".");
+        }
+        if (durationSeconds <= 0 || durationSeconds > maxDurationSeconds) {
+            throw new InvalidRecordingOptionException(
+                    "The duration must be between 1 and " + maxDurationSeconds + " seconds.");
+        }
+        if (recording != null && recording.getState() == RecordingState.RUNNING) {
+            throw new RecordingStateException("A recording is already running, stop it first.");
+        }
+        close();
+        Configuration configuration;
+        try {
+            configuration = Configuration.getConfiguration(profile);
+        } catch (IOException | ParseException exception) {
+            throw new IllegalStateException("Could not read the JDK flight recorder configuration " + profile,
+                    exception);
+        }
+        recording = new Recording(configuration);
+        recording.setName(RECORDING_NAME);
+        recording.setToDisk(true);
+        recording.setDuration(Duration.ofSeconds(durationSeconds));
+        recording.start();
+        recordingProfile = profile;
+        logger.info("Started flight recording with profile [{}] for [{}] seconds", profile, durationSeconds);
+        return status();
+    }
+
+    /**
+     * @return the state of the last recording
+     * @throws RecordingStateException when no recording was started
+     */
+    public synchronized RecordingPayload status() {
+        if (recording == null) {
+            throw new RecordingStateException("No recording was started.");
+        }
+        return new RecordingPayload(recordingProfile, recording.getState().name(), recording.getStartTime(),
+                recording.getDuration().getSeconds());
+    }
+
+    /**
+     * Stops the last recording, if still running, and hands it over as a file. The
+     * recording is then dropped, the caller owns the file.
+     *
+     * @return a temporary .jfr file holding the recording
+     * @throws RecordingStateException when no recording was started
+     */
+    public synchronized Path stop() {
+        if (recording == null) {
+            throw new RecordingStateException("No recording was started.");
+        }
+        try {
+            if (recording.getState() == RecordingState.RUNNING) {
+                recording.stop();
+            }
+            Path file = Files.createTempFile(RECORDING_NAME + "-", ".jfr");
+            recording.dump(file);
+            logger.info("Stopped flight recording, [{}] bytes", Files.size(file));
+            return file;
+        } catch (IOException exception) {
+            throw new UncheckedIOException(exception);
+        } finally {
+            close();
+        }
+    }
+
+    @PreDestroy
+    synchronized void close() {
+        if (recording != null) {
+            recording.close();
+            recording = null;
+            recordingProfile = null;
+        }
+    }
+}
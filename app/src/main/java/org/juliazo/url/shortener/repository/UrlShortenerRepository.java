@@ -0,0 +1,32 @@
+package org.juliazo.url.shortener.repository;
+
+import org.juliazo.url.shortener.model.UrlEntity;
+import org.juliazo.url.shortener.model.UrlEntityId;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface UrlShortenerRepository extends JpaRepository<UrlEntity, UrlEntityId> {
+
+    /**
+     * url_entity is partitioned by short url: the short url of the long url is read from
+     * url_long_url first, so that both lookups are planned against a single partition.
+     */
+    default Optional<UrlEntity> findByLongUrl(String longUrl) {
+        return findShortUrlByLongUrl(longUrl).flatMap(this::findByShortUrl)
+                .filter(link -> link.getLongUrl().equals(longUrl));
+    }
+
+    @Query(value = "SELECT short_url FROM url_long_url WHERE long_url = :longUrl", nativeQuery = true)
+    Optional<String> findShortUrlByLongUrl(@Param("longUrl") String longUrl);
+
+    Optional<UrlEntity> findByShortUrl(String shortUrl);
+
+    List<UrlEntity> findByShortUrlIn(Collection<String> shortUrls);
+}
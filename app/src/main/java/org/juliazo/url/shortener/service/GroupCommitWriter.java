@@ -0,0 +1,398 @@
+package org.juliazo.url.shortener.service;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.juliazo.url.shortener.commons.exception.ConflictingDataException;
+import org.juliazo.url.shortener.commons.exception.ServiceOverloadedException;
+import org.juliazo.url.shortener.degraded.DatabaseCircuitBreaker;
+import org.juliazo.url.shortener.model.UrlEntity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+
+/**
+ * Write pipeline that stores new links in groups, one transaction per group.
+ * <p>
+ * Callers queue a new link and receive a future. A single writer thread collects the
+ * queued links until {@link #batchSize} of them accumulate or {@link #flushIntervalMillis}
+ * pass, then inserts them all in one transaction with {@code ON CONFLICT DO NOTHING}.
+ * The futures complete only after that transaction commits, so a caller never receives
+ * a short url that is not durably stored.
+ * <p>
+ * Rows that were not inserted are resolved inside the same transaction, like
+ * {@link UrlShortenerService} does for a single link: when the long url is already
+ * stored, by another caller or by an earlier link of the same group, its short url
+ * is used; otherwise the short url is taken, a new one is generated and inserted again.
+ * Short urls of archived links and long urls already stored count as taken, they are
+ * skipped rather than rejected, which would abort the whole group. Only a long url stored
+ * by a concurrent transaction still is, the group is then stored again once.
+ * <p>
+ * Callers wait at most {@link #resultTimeoutMillis} for their group, a link may still be
+ * stored after its caller gave up. Should the writer thread die, e.g. on an {@link Error},
+ * its group and the links queued are rejected, and so is every link submitted afterwards.
+ * <p>
+ * With the degraded mode enabled, each group's transaction goes through the
+ * {@link DatabaseCircuitBreaker}: the breaker times the database work only, not the wait
+ * of the links in the queue, and while it is open the groups fail right away.
+ */
+@Component
+@ConditionalOnProperty(name = "url-shortener.write-pipeline.enabled", havingValue = "true")
+public class GroupCommitWriter {
+
+    private static final Logger logger = LoggerFactory.getLogger(GroupCommitWriter.class);
+
+    private static final long POLL_TIMEOUT_MILLIS = 100;
+
+    private static final String INSERT =
+            "INSERT INTO url_entity (short_url, long_url, redirect_status, cache_max_age, expires_at)"
+                    + " SELECT :shortUrl, :longUrl, :redirectStatus, :cacheMaxAge, :expiresAt"
+                    + " WHERE NOT EXISTS (SELECT 1 FROM url_archive WHERE short_url = :shortUrl)"
+                    + " AND NOT EXISTS (SELECT 1 FROM url_long_url WHERE long_url = :longUrl)"
+                    + " ON CONFLICT DO NOTHING";
+
+    private static final String SELECT_SHORT_URLS =
+            "SELECT short_url FROM url_long_url WHERE long_url IN (:longUrls)";
+
+    private static final String SELECT_BY_SHORT_URLS =
+            "SELECT short_url, long_url, redirect_status, cache_max_age, expires_at"
+                    + " FROM url_entity WHERE short_url IN (:shortUrls)";
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final ShortUrlGenerator shortUrlGenerator;
+
+    private final BlockingQueue<PendingLink> queue;
+
+    private final int batchSize;
+
+    private final long flushIntervalMillis;
+
+    private final long resultTimeoutMillis;
+
+    private final long retryAfterSeconds;
+
+    private final DistributionSummary batchSizes;
+
+    /**
+     * Present when the degraded mode is enabled, every group is then stored through it.
+     */
+    @Autowired(required = false)
+    private DatabaseCircuitBreaker circuitBreaker;
+
+    private volatile boolean running;
+
+    private Thread writerThread;
+
+    @Autowired
+    public GroupCommitWriter(NamedParameterJdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager,
+                             ShortUrlGenerator shortUrlGenerator, MeterRegistry meterRegistry,
+                             @Value("${url-shortener.write-pipeline.queue-size:1000}") int queueSize,
+                             @Value("${url-shortener.write-pipeline.batch-size:100}") int batchSize,
+                             @Value("${url-shortener.write-pipeline.flush-interval-millis:5}") long flushIntervalMillis,
+                             @Value("${url-shortener.write-pipeline.result-timeout-millis:10000}") long resultTimeoutMillis,
+                             @Value("${url-shortener.limiter.retry-after-seconds:1}") long retryAfterSeconds) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.shortUrlGenerator = shortUrlGenerator;
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.batchSize = batchSize;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.resultTimeoutMillis = resultTimeoutMillis;
+        this.retryAfterSeconds = retryAfterSeconds;
+        this.batchSizes = DistributionSummary.builder("url.shortener.write.pipeline.batch.size")
+                .description("Links stored per transaction").register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        running = true;
+        writerThread = new Thread(this::write, "group-commit-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Stops accepting links, the links already queued are still stored. The writer is given
+     * {@link #resultTimeoutMillis} to store them, their callers have given up by then: it is
+     * interrupted and the links still queued are rejected.
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        writerThread.join(resultTimeoutMillis);
+        if (writerThread.isAlive()) {
+            writerThread.interrupt();
+            List<PendingLink> abandoned = new ArrayList<>();
+            queue.drainTo(abandoned);
+            long dropped = abandoned.stream().filter(pending -> pending.result.completeExceptionally(
+                    new ServiceOverloadedException(retryAfterSeconds))).count();
+            logger.warn("Write pipeline still storing a group after [{}] ms, dropped [{}] queued links",
+                    resultTimeoutMillis, dropped);
+        }
+    }
+
+    /**
+     * Queues a new link to be stored with the next group.
+     *
+     * @param newUrl the link to be stored, holding its first candidate short url
+     * @return a future completed with the stored link once its group commits: either
+     * {@code newUrl}, possibly with a new short url, or the link already stored for the
+     * same long url. Completed with a {@link ServiceOverloadedException} when the group is
+     * not committed within {@link #resultTimeoutMillis}
+     * @throws ServiceOverloadedException when the queue is full or the writer stopped
+     */
+    public CompletableFuture<UrlEntity> submit(UrlEntity newUrl) {
+        PendingLink pending = new PendingLink(newUrl);
+        if (!running || !queue.offer(pending)) {
+            logger.warn("Write pipeline is full or stopped, rejecting longUrl [{}]", newUrl.getLongUrl());
+            throw new ServiceOverloadedException(retryAfterSeconds);
+        }
+        CompletableFuture<UrlEntity> result = new CompletableFuture<>();
+        pending.result.orTimeout(resultTimeoutMillis, TimeUnit.MILLISECONDS).whenComplete((link, failure) -> {
+            if (failure == null) {
+                result.complete(link);
+            } else if (failure instanceof TimeoutException) {
+                logger.warn("Group of longUrl [{}] not committed within [{}] ms", newUrl.getLongUrl(),
+                        resultTimeoutMillis);
+                result.completeExceptionally(new ServiceOverloadedException(retryAfterSeconds));
+            } else {
+                result.completeExceptionally(failure);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Main loop of the writer thread. However it ends, the writer stops accepting links
+     * and rejects those it did not store.
+     */
+    private void write() {
+        List<PendingLink> batch = new ArrayList<>(batchSize);
+        try {
+            while (running || !queue.isEmpty()) {
+                collect(batch);
+                if (!batch.isEmpty()) {
+                    flush(batch);
+                    batch.clear();
+                }
+            }
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            logger.warn("Write pipeline interrupted");
+        } catch (Error error) {
+            logger.error("Write pipeline stopped", error);
+            throw error;
+        } finally {
+            running = false;
+            queue.drainTo(batch);
+            long rejected = batch.stream().filter(pending -> pending.result.completeExceptionally(
+                    new ServiceOverloadedException(retryAfterSeconds))).count();
+            if (rejected > 0) {
+                logger.warn("Write pipeline stopped, rejected [{}] links", rejected);
+            }
+        }
+    }
+
+    /**
+     * Waits for the first link, then for more until the group is full or the flush interval passed.
+     */
+    private void collect(List<PendingLink> batch) throws InterruptedException {
+        PendingLink first = queue.poll(POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        if (first == null) {
+            return;
+        }
+        batch.add(first);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+        while (batch.size() < batchSize) {
+            queue.drainTo(batch, batchSize - batch.size());
+            long remaining = deadline - System.nanoTime();
+            if (batch.size() >= batchSize || remaining <= 0) {
+                return;
+            }
+            PendingLink next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                return;
+            }
+            batch.add(next);
+        }
+    }
+
+    /**
+     * Stores one group in a single transaction, then completes the futures of its links.
+     * A failure of any kind completes them all, an {@link Error} is then thrown again.
+     */
+    void flush(List<PendingLink> batch) {
+        batchSizes.record(batch.size());
+        Map<PendingLink, UrlEntity> stored = new HashMap<>();
+        try {
+            if (circuitBreaker != null) {
+                circuitBreaker.call(() -> {
+                    storeGroup(batch, stored);
+                    return null;
+                });
+            } else {
+                storeGroup(batch, stored);
+            }
+        } catch (RuntimeException | Error failure) {
+            logger.error("Could not store a group of [{}] links", batch.size(), failure);
+            batch.forEach(pending -> pending.result.completeExceptionally(failure));
+            if (failure instanceof Error) {
+                throw (Error) failure;
+            }
+            return;
+        }
+        for (PendingLink pending : batch) {
+            UrlEntity link = stored.get(pending);
+            if (link != null) {
+                pending.result.complete(link);
+            } else {
+                logger.error("Unsolvable conflict. Unable to create short url for [{}]", pending.link.getLongUrl());
+                pending.result.completeExceptionally(new ConflictingDataException());
+            }
+        }
+    }
+
+    /**
+     * Stores the group, once more when a long url was stored by a concurrent transaction. The
+     * short urls and attempts changed by the rolled back transaction are restored first, the
+     * second one starts over from the same links.
+     */
+    private void storeGroup(List<PendingLink> batch, Map<PendingLink, UrlEntity> stored) {
+        String[] shortUrls = new String[batch.size()];
+        int[] attempts = new int[batch.size()];
+        for (int i = 0; i < batch.size(); i++) {
+            shortUrls[i] = batch.get(i).link.getShortUrl();
+            attempts[i] = batch.get(i).attempts;
+        }
+        try {
+            store(batch, stored);
+        } catch (DuplicateKeyException exception) {
+            logger.debug("Long url stored concurrently, storing the group of [{}] links again", batch.size());
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).link.setShortUrl(shortUrls[i]);
+                batch.get(i).attempts = attempts[i];
+            }
+            store(batch, stored);
+        }
+    }
+
+    private void store(List<PendingLink> batch, Map<PendingLink, UrlEntity> stored) {
+        transactionTemplate.executeWithoutResult(status -> {
+            stored.clear();
+            List<PendingLink> round = new ArrayList<>(batch);
+            while (!round.isEmpty()) {
+                round = insert(round, stored);
+            }
+        });
+    }
+
+    /**
+     * Inserts one round of links and resolves the rows that were not inserted.
+     *
+     * @param round  links to insert
+     * @param stored receives the stored link of every resolved pending link
+     * @return the links that got a new short url and must be inserted again
+     */
+    private List<PendingLink> insert(List<PendingLink> round, Map<PendingLink, UrlEntity> stored) {
+        SqlParameterSource[] rows = round.stream().map(pending -> {
+            UrlEntity link = pending.link;
+            return new MapSqlParameterSource()
+                    .addValue("shortUrl", link.getShortUrl())
+                    .addValue("longUrl", link.getLongUrl())
+                    .addValue("redirectStatus", link.getRedirectStatus(), Types.INTEGER)
+                    .addValue("cacheMaxAge", link.getCacheMaxAge(), Types.INTEGER)
+                    .addValue("expiresAt", link.getExpiresAt() == null ? null : Timestamp.from(link.getExpiresAt()),
+                            Types.TIMESTAMP);
+        }).toArray(SqlParameterSource[]::new);
+        int[] counts = jdbcTemplate.batchUpdate(INSERT, rows);
+
+        List<PendingLink> notInserted = new ArrayList<>();
+        for (int i = 0; i < round.size(); i++) {
+            if (counts[i] > 0) {
+                stored.put(round.get(i), round.get(i).link);
+            } else {
+                notInserted.add(round.get(i));
+            }
+        }
+        if (notInserted.isEmpty()) {
+            return notInserted;
+        }
+
+        Map<String, UrlEntity> existing = findByLongUrls(notInserted);
+        List<PendingLink> retries = new ArrayList<>();
+        for (PendingLink pending : notInserted) {
+            UrlEntity existingLink = existing.get(pending.link.getLongUrl());
+            if (existingLink != null) {
+                stored.put(pending, existingLink);
+            } else if (pending.attempts < UrlShortenerService.MAX_CONFLICT_SOLVING_ATTEMPTS) {
+                pending.attempts++;
+                pending.link.setShortUrl(shortUrlGenerator.generate(pending.link.getLongUrl(),
+                        pending.attempts));
+                logger.debug("Conflict detected for longUrl [{}], attempt [{}] to create a new shortUrl",
+                        pending.link.getLongUrl(), pending.attempts);
+                retries.add(pending);
+            }
+        }
+        return retries;
+    }
+
+    /**
+     * Reads the short urls of the long urls first: url_entity is partitioned by short url, and
+     * Postgres only prunes its partitions for a list of known short urls, not for a join.
+     */
+    private Map<String, UrlEntity> findByLongUrls(List<PendingLink> links) {
+        List<String> shortUrls = jdbcTemplate.queryForList(SELECT_SHORT_URLS, new MapSqlParameterSource("longUrls",
+                        links.stream().map(pending -> pending.link.getLongUrl()).distinct().collect(Collectors.toList())),
+                String.class);
+        if (shortUrls.isEmpty()) {
+            return Map.of();
+        }
+        MapSqlParameterSource parameters = new MapSqlParameterSource("shortUrls", shortUrls);
+        return jdbcTemplate.query(SELECT_BY_SHORT_URLS, parameters, (resultSet, row) -> {
+            Timestamp expiresAt = resultSet.getTimestamp(5);
+            return new UrlEntity(resultSet.getString(1), resultSet.getString(2),
+                    (Integer) resultSet.getObject(3), (Integer) resultSet.getObject(4),
+                    expiresAt == null ? null : expiresAt.toInstant());
+        }).stream().collect(Collectors.toMap(UrlEntity::getLongUrl, link -> link));
+    }
+
+    /**
+     * A queued link and the future of its caller.
+     */
+    static final class PendingLink {
+
+        final UrlEntity link;
+        final CompletableFuture<UrlEntity> result = new CompletableFuture<>();
+        int attempts;
+
+        PendingLink(UrlEntity link) {
+            this.link = link;
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package org.juliazo.url.shortener.service;
+
+import org.juliazo.url.shortener.commons.redirect.ShortUrls;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.DigestUtils;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Derives the short urls of a long url, always the same ones for the same long url.
+ * <p>
+ * Two algorithms are supported:
+ * <ul>
+ * <li>{@code md5}, the original one: a window of the MD5 hex digest of the url, slid by one
+ * character per attempt. Only 16 characters are used per position, 6 characters give
+ * 16.7 million short urls;</li>
+ * <li>{@code murmur3}: the 128 bit MurmurHash3 of the url, encoded in base 62. The attempts
+ * are derived from both halves of the hash by double hashing, {@code h1 + attempt * h2},
+ * so every attempt is a fresh, independent code. 6 characters give 56.8 billion short urls.</li>
+ * </ul>
+ * Switching algorithms keeps existing links: a long url already shortened is found by its
+ * long url and keeps its short url, and short urls of every supported length are looked up.
+ *
+ * @see ShortUrls#isWellFormed
+ */
+@Component
+public class ShortUrlGenerator {
+
+    private static final char[] BASE62_DIGITS =
+            "0123456789abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ".toCharArray();
+
+    private static final VarHandle LONG_LE =
+            MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    private final boolean murmur3;
+
+    private final int length;
+
+    /**
+     * 62 to the power of {@link #length}, the number of base 62 short urls.
+     */
+    private final long codeSpace;
+
+    @Autowired
+    public ShortUrlGenerator(@Value("${url-shortener.short-url.algorithm:md5}") String algorithm,
+                             @Value("${url-shortener.short-url.length:6}") int length) {
+        if (!algorithm.equals("md5") && !algorithm.equals("murmur3")) {
+            throw new IllegalArgumentException("Unsupported short url algorithm " + algorithm);
+        }
+        if (length < ShortUrls.MIN_SIZE || length > ShortUrls.MAX_SIZE) {
+            throw new IllegalArgumentException("The short url length must be between "
+                    + ShortUrls.MIN_SIZE + " and " + ShortUrls.MAX_SIZE);
+        }
+        this.murmur3 = algorithm.equals("murmur3");
+        this.length = length;
+        long space = 1;
+        for (int i = 0; i < length; i++) {
+            space *= BASE62_DIGITS.length;
+        }
+        this.codeSpace = space;
+    }
+
+    /**
+     * @param validUrl an already validated long url
+     * @param attempt  0 for the first short url of the long url, then one more per conflict
+     * @return the short url of the given attempt
+     */
+    public String generate(String validUrl, int attempt) {
+        if (!murmur3) {
+            String urlHash = DigestUtils.md5DigestAsHex(validUrl.getBytes());
+            return urlHash.substring(attempt, attempt + length);
+        }
+        byte[] data = validUrl.getBytes(StandardCharsets.UTF_8);
+        long[] hash = murmur3(data);
+        long code = Long.remainderUnsigned(hash[0] + attempt * hash[1], codeSpace);
+        char[] shortUrl = new char[length];
+        for (int i = length - 1; i >= 0; i--) {
+            shortUrl[i] = BASE62_DIGITS[(int) (code % BASE62_DIGITS.length)];
+            code /= BASE62_DIGITS.length;
+        }
+        return new String(shortUrl);
+    }
+
+    /**
+     * MurmurHash3 x64 128 bit, seed 0, as published by Austin Appleby.
+     *
+     * @param data the bytes to hash
+     * @return both 64 bit halves of the hash, {@code h1} first
+     */
+    public static long[] murmur3(byte[] data) {
+        long h1 = 0;
+        long h2 = 0;
+        int blocks = data.length / 16;
+        for (int i = 0; i < blocks; i++) {
+            long k1 = (long) LONG_LE.get(data, i * 16);
+            long k2 = (long) LONG_LE.get(data, i * 16 + 8);
+
+            h1 ^= mixK1(k1);
+            h1 = Long.rotateLeft(h1, 27);
+            h1 += h2;
+            h1 = h1 * 5 + 0x52dce729;
+
+            h2 ^= mixK2(k2);
+            h2 = Long.rotateLeft(h2, 31);
+            h2 += h1;
+            h2 = h2 * 5 + 0x38495ab5;
+        }
+
+        int tail = blocks * 16;
+        long k1 = 0;
+        long k2 = 0;
+        switch (data.length & 15) {
+            case 15:
+                k2 ^= (data[tail + 14] & 0xffL) << 48;
+            case 14:
+                k2 ^= (data[tail + 13] & 0xffL) << 40;
+            case 13:
+                k2 ^= (data[tail + 12] & 0xffL) << 32;
+            case 12:
+                k2 ^= (data[tail + 11] & 0xffL) << 24;
+            case 11:
+                k2 ^= (data[tail + 10] & 0xffL) << 16;
+            case 10:
+                k2 ^= (data[tail + 9] & 0xffL) << 8;
+            case 9:
+                k2 ^= data[tail + 8] & 0xffL;
+                h2 ^= mixK2(k2);
+            case 8:
+                k1 ^= (data[tail + 7] & 0xffL) << 56;
+            case 7:
+                k1 ^= (data[tail + 6] & 0xffL) << 48;
+            case 6:
+                k1 ^= (data[tail + 5] & 0xffL) << 40;
+            case 5:
+                k1 ^= (data[tail + 4] & 0xffL) << 32;
+            case 4:
+                k1 ^= (data[tail + 3] & 0xffL) << 24;
+            case 3:
+                k1 ^= (data[tail + 2] & 0xffL) << 16;
+            case 2:
+                k1 ^= (data[tail + 1] & 0xffL) << 8;
+            case 1:
+                k1 ^= data[tail] & 0xffL;
+                h1 ^= mixK1(k1);
+            default:
+        }
+
+        h1 ^= data.length;
+        h2 ^= data.length;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix(h1);
+        h2 = fmix(h2);
+        h1 += h2;
+        h2 += h1;
+        return new long[]{h1, h2};
+    }
+
+    private static long mixK1(long k1) {
+        return Long.rotateLeft(k1 * C1, 31) * C2;
+    }
+
+    private static long mixK2(long k2) {
+        return Long.rotateLeft(k2 * C2, 33) * C1;
+    }
+
+    private static long fmix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+}
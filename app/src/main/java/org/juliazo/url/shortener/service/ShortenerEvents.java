@@ -0,0 +1,111 @@
+package org.juliazo.url.shortener.service;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+import java.util.function.Supplier;
+
+/**
+ * Java Flight Recorder events of the {@link UrlShortenerService}, so shorten requests,
+ * lookups and conflict resolutions line up with the GC, lock and I/O events of a recording.
+ * <p>
+ * Events are only committed while a recording enables them, e.g. one started from
+ * the admin endpoint. Otherwise they cost an allocation the JIT usually removes and
+ * a {@link System#nanoTime()} pair per database call.
+ */
+final class ShortenerEvents {
+
+    private static final String CATEGORY = "Url Shortener";
+
+    private ShortenerEvents() {
+    }
+
+    /**
+     * Fields shared by the events: the short url involved and the time spent on the database.
+     */
+    @Category(CATEGORY)
+    @StackTrace(false)
+    abstract static class ShortenerEvent extends Event {
+
+        @Label("Short Url")
+        String shortUrl;
+
+        @Label("Database Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long databaseTime;
+
+        /**
+         * Runs the given database call, adding its duration to {@link #databaseTime}.
+         */
+        <T> T queryDatabase(Supplier<T> query) {
+            long start = System.nanoTime();
+            try {
+                return query.get();
+            } finally {
+                databaseTime += System.nanoTime() - start;
+            }
+        }
+    }
+
+    @Name("org.juliazo.url.shortener.Shorten")
+    @Label("Shorten")
+    @Description("POST /shorten, from validation to the returned short url")
+    static final class ShortenEvent extends ShortenerEvent {
+
+        @Label("Attempts")
+        @Description("Short urls tried, 0 when the long url was already shortened")
+        int attempts;
+
+        @Label("Source")
+        @Description("Where the short url came from: cache, database, created, owner or coalesced")
+        String source;
+    }
+
+    @Name("org.juliazo.url.shortener.Lookup")
+    @Label("Lookup")
+    @Description("GET /{shortUrl}, the search for the long url of a short url")
+    static final class LookupEvent extends ShortenerEvent {
+
+        @Label("Found")
+        boolean found;
+
+        @Label("Source")
+        @Description("Where the long url came from: cache, database or replica")
+        String source;
+    }
+
+    @Name("org.juliazo.url.shortener.ResolveBatch")
+    @Label("Resolve Batch")
+    @Description("POST /resolve/batch, the search for the long urls of one chunk of short urls")
+    static final class ResolveBatchEvent extends ShortenerEvent {
+
+        @Label("Short Urls")
+        int shortUrls;
+
+        @Label("Cached")
+        @Description("Short urls found in the cache")
+        int cached;
+
+        @Label("Found")
+        @Description("Short urls found, in the cache or the database")
+        int found;
+    }
+
+    @Name("org.juliazo.url.shortener.ConflictResolution")
+    @Label("Conflict Resolution")
+    @Description("Resolution of a short url that could not be stored")
+    static final class ConflictEvent extends ShortenerEvent {
+
+        @Label("Attempt")
+        int attempt;
+
+        @Label("Resolution")
+        @Description("existing when the long url was stored meanwhile, retry or unsolvable")
+        String resolution;
+    }
+}
@@ -0,0 +1,176 @@
+package org.juliazo.url.shortener.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Collectors;
+
+/**
+ * Rewrites equivalent long urls into a single canonical form, so they share
+ * one row, one short url and one cache entry.
+ * <p>
+ * Following RFC 3986, section 6: the scheme and host are lowercased, the default
+ * port is dropped, an empty path becomes "/", dot segments are removed, percent-encoded
+ * unreserved characters are decoded and the remaining escapes are uppercased.
+ * Query parameters whose names match {@link #strippedParameters} are removed, e.g.
+ * tracking parameters such as {@code utm_*}, and the remaining ones may be sorted by name.
+ * <p>
+ * Urls without a host, which {@link URI} accepts as registry based authorities,
+ * are left as they are.
+ */
+@Component
+public class UrlCanonicalizer {
+
+    private static final String HEX_DIGITS = "0123456789ABCDEF";
+
+    private final boolean enabled;
+
+    /**
+     * Lowercase names of the query parameters to drop, a trailing '*' matches any suffix.
+     */
+    private final List<String> strippedParameters;
+
+    private final boolean sortParameters;
+
+    public UrlCanonicalizer(@Value("${url-shortener.canonicalization.enabled:true}") boolean enabled,
+                            @Value("${url-shortener.canonicalization.strip-query-parameters:}")
+                                    List<String> strippedParameters,
+                            @Value("${url-shortener.canonicalization.sort-query-parameters:false}")
+                                    boolean sortParameters) {
+        this.enabled = enabled;
+        this.strippedParameters = strippedParameters.stream()
+                .map(String::trim)
+                .filter(name -> !name.isEmpty())
+                .map(name -> name.toLowerCase(Locale.ROOT))
+                .collect(Collectors.toList());
+        this.sortParameters = sortParameters;
+    }
+
+    /**
+     * @param validUrl an already validated, absolute long url
+     * @return the canonical form of the url
+     */
+    public String canonicalize(String validUrl) {
+        if (!enabled) {
+            return validUrl;
+        }
+        URI uri;
+        try {
+            uri = new URI(validUrl).normalize();
+        } catch (URISyntaxException exception) {
+            return validUrl;
+        }
+        if (uri.isOpaque() || uri.getHost() == null) {
+            return validUrl;
+        }
+
+        String scheme = uri.getScheme().toLowerCase(Locale.ROOT);
+        StringBuilder canonical = new StringBuilder(validUrl.length());
+        canonical.append(scheme).append("://");
+        if (uri.getRawUserInfo() != null) {
+            canonical.append(normalizeEscapes(uri.getRawUserInfo())).append('@');
+        }
+        canonical.append(uri.getHost().toLowerCase(Locale.ROOT));
+        if (uri.getPort() != -1 && uri.getPort() != defaultPort(scheme)) {
+            canonical.append(':').append(uri.getPort());
+        }
+
+        String path = uri.getRawPath();
+        canonical.append(path == null || path.isEmpty() ? "/" : normalizeEscapes(path));
+
+        if (uri.getRawQuery() != null) {
+            String query = canonicalQuery(uri.getRawQuery());
+            if (!query.isEmpty()) {
+                canonical.append('?').append(query);
+            }
+        }
+        if (uri.getRawFragment() != null) {
+            canonical.append('#').append(normalizeEscapes(uri.getRawFragment()));
+        }
+        return canonical.toString();
+    }
+
+    private static int defaultPort(String scheme) {
+        switch (scheme) {
+            case "http":
+                return 80;
+            case "https":
+                return 443;
+            default:
+                return -1;
+        }
+    }
+
+    private String canonicalQuery(String rawQuery) {
+        List<String> parameters = new ArrayList<>();
+        for (String parameter : rawQuery.split("&")) {
+            if (!parameter.isEmpty() && !isStripped(parameterName(parameter))) {
+                parameters.add(normalizeEscapes(parameter));
+            }
+        }
+        if (sortParameters) {
+            parameters.sort(Comparator.comparing(UrlCanonicalizer::parameterName));
+        }
+        return String.join("&", parameters);
+    }
+
+    private static String parameterName(String parameter) {
+        int separator = parameter.indexOf('=');
+        return separator < 0 ? parameter : parameter.substring(0, separator);
+    }
+
+    private boolean isStripped(String name) {
+        String lowercaseName = name.toLowerCase(Locale.ROOT);
+        for (String stripped : strippedParameters) {
+            if (stripped.endsWith("*")
+                    ? lowercaseName.startsWith(stripped.substring(0, stripped.length() - 1))
+                    : lowercaseName.equals(stripped)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Decodes the escapes of unreserved characters and uppercases the hex digits of the others.
+     */
+    static String normalizeEscapes(String raw) {
+        if (raw.indexOf('%') < 0) {
+            return raw;
+        }
+        StringBuilder normalized = new StringBuilder(raw.length());
+        for (int i = 0; i < raw.length(); i++) {
+            char current = raw.charAt(i);
+            if (current == '%' && i + 2 < raw.length() && isHex(raw.charAt(i + 1)) && isHex(raw.charAt(i + 2))) {
+                char decoded = (char) Integer.parseInt(raw.substring(i + 1, i + 3), 16);
+                if (isUnreserved(decoded)) {
+                    normalized.append(decoded);
+                } else {
+                    normalized.append('%')
+                            .append(Character.toUpperCase(raw.charAt(i + 1)))
+                            .append(Character.toUpperCase(raw.charAt(i + 2)));
+                }
+                i += 2;
+            } else {
+                normalized.append(current);
+            }
+        }
+        return normalized.toString();
+    }
+
+    private static boolean isHex(char character) {
+        return HEX_DIGITS.indexOf(Character.toUpperCase(character)) >= 0;
+    }
+
+    private static boolean isUnreserved(char character) {
+        return (character >= 'a' && character <= 'z') || (character >= 'A' && character <= 'Z')
+                || (character >= '0' && character <= '9')
+                || character == '-' || character == '.' || character == '_' || character == '~';
+    }
+}
@@ -0,0 +1,714 @@
+package org.juliazo.url.shortener.service;
+
+import org.juliazo.url.shortener.cache.HotLinkTracker;
+import org.juliazo.url.shortener.clicks.ClickEventLog;
+import org.juliazo.url.shortener.cache.UrlMappingCache;
+import org.juliazo.url.shortener.commons.exception.ConflictingDataException;
+import org.juliazo.url.shortener.commons.exception.DatabaseUnavailableException;
+import org.juliazo.url.shortener.commons.exception.InvalidLinkOptionException;
+import org.juliazo.url.shortener.commons.exception.InvalidUrlException;
+import org.juliazo.url.shortener.commons.exception.ResourceNotFoundException;
+import org.juliazo.url.shortener.commons.payload.UrlRequestPayload;
+import org.juliazo.url.shortener.commons.redirect.ShortUrls;
+import org.juliazo.url.shortener.commons.redirect.UrlRedirect;
+import org.juliazo.url.shortener.degraded.DatabaseCircuitBreaker;
+import org.juliazo.url.shortener.degraded.LinkReplica;
+import org.juliazo.url.shortener.model.UrlEntity;
+import org.juliazo.url.shortener.ownership.ShortenForwarder;
+import org.juliazo.url.shortener.repository.UrlShortenerRepository;
+import org.juliazo.url.shortener.service.ShortenerEvents.ConflictEvent;
+import org.juliazo.url.shortener.service.ShortenerEvents.LookupEvent;
+import org.juliazo.url.shortener.service.ShortenerEvents.ResolveBatchEvent;
+import org.juliazo.url.shortener.service.ShortenerEvents.ShortenEvent;
+import org.juliazo.url.shortener.service.ShortenerEvents.ShortenerEvent;
+import org.juliazo.url.shortener.startup.StartupRedirectLookup;
+import org.juliazo.url.shortener.tiering.LinkArchive;
+import org.juliazo.url.shortener.timing.RequestTimings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+/**
+ * Business logic of the REST Service. This class holds the implementation of all
+ * REST operations accepted by the Url Shortener Application.
+ * <p>
+ * In case the application gets too big and or complex, validation and auxiliary
+ * methods can be moved to a separated class and package to improve readability.
+ */
+@Service
+public class UrlShortenerService {
+
+    private static final int FIRST_ATTEMPT = 0;
+    static final int MAX_CONFLICT_SOLVING_ATTEMPTS = 10;
+    private static final Logger logger = LoggerFactory.getLogger(UrlShortenerService.class);
+
+
+    @Autowired
+    private UrlShortenerRepository urlShortenerRepository;
+
+    @Autowired
+    private UrlMappingCache urlMappingCache;
+
+    @Autowired
+    private UrlCanonicalizer urlCanonicalizer;
+
+    @Autowired
+    private ShortUrlGenerator shortUrlGenerator;
+
+    @Autowired
+    private HotLinkTracker hotLinkTracker;
+
+    /**
+     * Present when the write pipeline is enabled, new links are then stored in groups.
+     */
+    @Autowired(required = false)
+    private GroupCommitWriter groupCommitWriter;
+
+    /**
+     * Present when tiered storage is enabled, links missing from url_entity may then be archived.
+     */
+    @Autowired(required = false)
+    private LinkArchive linkArchive;
+
+    /**
+     * Present when the click log is enabled, every redirect is then logged for analytics.
+     */
+    @Autowired(required = false)
+    private ClickEventLog clickEventLog;
+
+    /**
+     * Present when the degraded mode is enabled, every database call then goes through it,
+     * except the group commits, which the {@link GroupCommitWriter} sends through it itself.
+     */
+    @Autowired(required = false)
+    private DatabaseCircuitBreaker circuitBreaker;
+
+    /**
+     * Present when the degraded mode is enabled, redirects are then served from it while
+     * the database is unavailable.
+     */
+    @Autowired(required = false)
+    private LinkReplica linkReplica;
+
+    /**
+     * Present in fast-start mode, redirects are then looked up through it until the
+     * application is ready, without waiting for JPA.
+     */
+    @Autowired(required = false)
+    private StartupRedirectLookup startupRedirectLookup;
+
+    /**
+     * Present when shorten ownership is enabled, new links are then created by the replica
+     * that owns their long url.
+     */
+    @Autowired(required = false)
+    private ShortenForwarder shortenForwarder;
+
+    /**
+     * Short urls being created, by long url, for links without expiration.
+     */
+    private final ConcurrentMap<String, CompletableFuture<String>> creations = new ConcurrentHashMap<>();
+
+    /**
+     * Shortens the given long url using the deployment default redirect policy.
+     *
+     * @param longUrl the long url to be shortened
+     * @return a corresponding short url
+     * @see #shortenUrl(UrlRequestPayload)
+     */
+    public String shortenUrl(String longUrl) {
+        return shortenUrl(new UrlRequestPayload(longUrl));
+    }
+
+    /**
+     * Processes a POST request to /shorten which receives a long url
+     * and optionally its redirect policy and expiration in the request payload.
+     * <p>
+     * The long url is canonicalized first, so equivalent urls share one short url.
+     * Searches the local cache, then the database, for a short url already
+     * associated with the canonical long url. If found, returns it to the caller. If
+     * no corresponding short url is found, generates one and save
+     * it to the database, returning it to the caller after a successful
+     * storage.
+     * <p>
+     * The redirect policy is only stored when the short url is created, a long url
+     * that was already shortened keeps the policy it was created with. The expiration
+     * of an already shortened long url is extended when the request asks for a later
+     * one, which also revives expired links that were not reaped yet.
+     * <p>
+     * Every request emits a {@link ShortenEvent} to the flight recorder, when enabled.
+     * With the degraded mode enabled, requests that need the database while it is unavailable
+     * fail fast with a {@link DatabaseUnavailableException}. With shorten ownership enabled, a
+     * long url that is neither cached nor stored is shortened by the replica that owns it,
+     * through the {@link ShortenForwarder}. Concurrent requests for the same long url, without
+     * expiration, share a single creation of its short url.
+     *
+     * @param requestPayload the long url, optional redirect policy and expiration from the request
+     * @return a corresponding short url
+     * @throws InvalidUrlException        in case the provided long url is invalid
+     * @throws InvalidLinkOptionException in case the provided redirect policy is invalid
+     * @throws ConflictingDataException in case all the attempts to crate a
+     *                                  short url did not result in a successful storage of the short url -
+     *                                  long url pair.
+     * @see UrlCanonicalizer
+     * @see ShortUrlGenerator
+     * @see #createAndSaveShortUrl
+     * @see #handleConflicts
+     */
+    public String shortenUrl(UrlRequestPayload requestPayload) {
+        return shortenUrl(requestPayload, false);
+    }
+
+    /**
+     * Processes a POST request to /shorten forwarded by another replica, which found this
+     * instance owns the long url: it is shortened like {@link #shortenUrl(UrlRequestPayload)}
+     * does, without being forwarded again.
+     *
+     * @param requestPayload the long url, optional redirect policy and expiration from the request
+     * @return a corresponding short url
+     */
+    public String shortenUrlAsOwner(UrlRequestPayload requestPayload) {
+        return shortenUrl(requestPayload, true);
+    }
+
+    private String shortenUrl(UrlRequestPayload requestPayload, boolean owner) {
+        ShortenEvent event = new ShortenEvent();
+        event.begin();
+        try {
+            String shortUrl = findOrCreateShortUrl(requestPayload, owner, event);
+            event.shortUrl = shortUrl;
+            return shortUrl;
+        } finally {
+            event.commit();
+        }
+    }
+
+    private String findOrCreateShortUrl(UrlRequestPayload requestPayload, boolean owner, ShortenEvent event) {
+        String validUrl = RequestTimings.time("validate", () -> {
+            String absoluteUrl = urlCanonicalizer.canonicalize(validateUrl(requestPayload.getLongUrl()));
+            validateLinkOptions(requestPayload);
+            return absoluteUrl;
+        });
+        Instant expiresAt = requestPayload.getExpiresIn() == null
+                ? null : Instant.now().plusSeconds(requestPayload.getExpiresIn());
+
+        // only links without expiration are cached by long url, they outlive any request
+        Optional<String> cachedShortUrl = RequestTimings.time("cache", () -> urlMappingCache.findShortUrl(validUrl));
+        if (cachedShortUrl.isPresent()) {
+            logger.info("Found longUrl [{}], using shortUrl [{}] from cache", validUrl, cachedShortUrl.get());
+            event.source = "cache";
+            recordAccess(cachedShortUrl.get());
+            return cachedShortUrl.get();
+        }
+
+        long cacheStamp = urlMappingCache.stamp();
+        Optional<UrlEntity> foundEntity = queryDatabase("db-find", event,
+                () -> urlShortenerRepository.findByLongUrl(validUrl));
+        if (foundEntity.isEmpty() && linkArchive != null) {
+            foundEntity = queryDatabase("archive", event, () -> linkArchive.findByLongUrl(validUrl));
+        }
+
+        if (foundEntity.isEmpty()) {
+            UrlEntity newUrl = new UrlEntity(null, validUrl, requestPayload.getRedirectStatus(),
+                    requestPayload.getCacheMaxAge(), expiresAt);
+            if (expiresAt != null) {
+                return createShortUrl(requestPayload, newUrl, owner, event);
+            }
+            return createOnce(validUrl, event, () -> createShortUrl(requestPayload, newUrl, owner, event));
+        }
+        UrlEntity existingUrl = foundEntity.get();
+        if (!outlives(existingUrl.toRedirect(), expiresAt)) {
+            existingUrl.setExpiresAt(expiresAt);
+            UrlEntity extendedUrl = existingUrl;
+            existingUrl = queryDatabase("db-update", event, () -> urlShortenerRepository.save(extendedUrl));
+            logger.info("Extended expiration of shortUrl [{}] to [{}]", existingUrl.getShortUrl(), expiresAt);
+        }
+        String foundShortUrl = existingUrl.getShortUrl();
+        urlMappingCache.putIfUnchanged(cacheStamp, foundShortUrl, existingUrl.toRedirect());
+        logger.info("Found longUrl [{}], using shortUrl [{}] from database", validUrl, foundShortUrl);
+        event.source = "database";
+        recordAccess(foundShortUrl);
+        return foundShortUrl;
+    }
+
+    /**
+     * Creates the short url of a long url that is neither cached nor stored, or has the replica
+     * that owns the long url create it, when shorten ownership is enabled.
+     */
+    private String createShortUrl(UrlRequestPayload requestPayload, UrlEntity newUrl, boolean owner,
+                                  ShortenEvent event) {
+        if (shortenForwarder != null && !owner) {
+            Optional<String> ownerShortUrl = RequestTimings.time("forward",
+                    () -> shortenForwarder.forward(requestPayload, newUrl.getLongUrl()));
+            if (ownerShortUrl.isPresent()) {
+                event.source = "owner";
+                return ownerShortUrl.get();
+            }
+        }
+        return createAndSaveShortUrl(newUrl, FIRST_ATTEMPT, event);
+    }
+
+    /**
+     * Runs the creation of the short url of a long url once for all the requests that
+     * need it at the same time: the first request creates it, the others wait for its
+     * result, instead of racing it to the database and solving the conflict.
+     */
+    private String createOnce(String longUrl, ShortenEvent event, Supplier<String> creation) {
+        CompletableFuture<String> created = new CompletableFuture<>();
+        CompletableFuture<String> inFlight = creations.putIfAbsent(longUrl, created);
+        if (inFlight != null) {
+            event.source = "coalesced";
+            try {
+                return RequestTimings.time("coalesced", inFlight::join);
+            } catch (CompletionException exception) {
+                if (exception.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) exception.getCause();
+                }
+                throw exception;
+            }
+        }
+        try {
+            String shortUrl = creation.get();
+            created.complete(shortUrl);
+            return shortUrl;
+        } catch (RuntimeException exception) {
+            created.completeExceptionally(exception);
+            throw exception;
+        } finally {
+            creations.remove(longUrl, created);
+        }
+    }
+
+    /**
+     * Keeps an accessed link in the hot tier, when tiered storage is enabled.
+     */
+    private void recordAccess(String shortUrl) {
+        if (linkArchive != null) {
+            linkArchive.recordAccess(shortUrl);
+        }
+    }
+
+    /**
+     * Runs a repository call as a timed phase of the request, adding its duration
+     * to the database time of the given flight recorder event. With the degraded mode
+     * enabled, the call goes through the {@link DatabaseCircuitBreaker}.
+     *
+     * @throws DatabaseUnavailableException when the database is unavailable, in degraded mode
+     */
+    private <T> T queryDatabase(String phase, ShortenerEvent event, Supplier<T> query) {
+        if (circuitBreaker != null) {
+            return RequestTimings.time(phase, () -> event.queryDatabase(() -> circuitBreaker.call(query)));
+        }
+        return RequestTimings.time(phase, () -> event.queryDatabase(query));
+    }
+
+    /**
+     * @param existing  an already stored link
+     * @param expiresAt the expiration requested for the same long url, null for never
+     * @return true when the stored link lives at least as long as requested
+     */
+    private static boolean outlives(UrlRedirect existing, Instant expiresAt) {
+        return existing.getExpiresAt() == null
+                || (expiresAt != null && !expiresAt.isAfter(existing.getExpiresAt()));
+    }
+
+    /**
+     * Method to generate a short url and store the pair short url - long url
+     * in the database in the form of {@link UrlEntity}.
+     * <p>
+     * The short url will be returned to the caller when a successful storage
+     * occurs.
+     * If the storage is not possible due to database constraints, a
+     * call to {@link #handleConflicts} will be made in an attempt to solve
+     * the conflict.
+     * <p>
+     * With the write pipeline enabled, the link is handed to the {@link GroupCommitWriter}
+     * instead, see {@link #storeWithGroup}.
+     *
+     * @param newUrl     the link to be stored: the validated long url, its redirect policy and expiration
+     * @param attempt    0 for the first short url of the long url, then one more per conflict
+     * @param event      the flight recorder event of the request
+     * @return the created short url after successful storage of the url pair
+     */
+    private String createAndSaveShortUrl(UrlEntity newUrl, int attempt, ShortenEvent event) {
+        String validUrl = newUrl.getLongUrl();
+        String shortUrl = RequestTimings.time("hash", () -> shortUrlGenerator.generate(validUrl, attempt));
+        newUrl.setShortUrl(shortUrl);
+        event.attempts = attempt + 1;
+        if (groupCommitWriter != null) {
+            return storeWithGroup(newUrl, event);
+        }
+        try {
+            UrlEntity foundUrl = queryDatabase("db-insert", event, () -> urlShortenerRepository.save(newUrl));
+            urlMappingCache.put(foundUrl.getShortUrl(), newUrl.toRedirect());
+            logger.info("Created shortUrl [{}] for longUrl [{}]", shortUrl, validUrl);
+            event.source = "created";
+            return foundUrl.getShortUrl();
+        } catch (DataIntegrityViolationException exception) {
+            logger.debug("Conflict detected for shortUrl [{}] + longUrl [{}]", shortUrl, validUrl);
+            return handleConflicts(newUrl, attempt, event);
+        }
+    }
+
+    /**
+     * Stores a new link through the {@link GroupCommitWriter} and waits until its group
+     * is committed. Conflicts are solved by the writer, the same way {@link #handleConflicts}
+     * does.
+     *
+     * With the degraded mode enabled, the writer stores each group through the
+     * {@link DatabaseCircuitBreaker}, so the time spent waiting in its queue is not held
+     * against the database.
+     *
+     * @param newUrl the link to be stored, holding its first candidate short url
+     * @param event  the flight recorder event of the request, the wait counts as database time
+     * @return the short url stored for the long url of the link
+     */
+    private String storeWithGroup(UrlEntity newUrl, ShortenEvent event) {
+        long cacheStamp = urlMappingCache.stamp();
+        UrlEntity storedUrl;
+        try {
+            storedUrl = RequestTimings.time("group-commit",
+                    () -> event.queryDatabase(() -> groupCommitWriter.submit(newUrl).join()));
+        } catch (CompletionException exception) {
+            if (exception.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) exception.getCause();
+            }
+            throw exception;
+        }
+        urlMappingCache.putIfUnchanged(cacheStamp, storedUrl.getShortUrl(), storedUrl.toRedirect());
+        logger.info("Stored shortUrl [{}] for longUrl [{}]", storedUrl.getShortUrl(), storedUrl.getLongUrl());
+        event.source = "created";
+        return storedUrl.getShortUrl();
+    }
+
+    /**
+     * Method to analise {@link DataIntegrityViolationException} from the database.
+     * This exceptions can happen in two cases:
+     * 1: Multiple simultaneous requests attempted to add the same pair of short
+     * url - long url, one was successful, the others resulted in conflict.
+     * 2: The short url generated was already in use and associated with a different
+     * long url. This hash conflict is more frequent than the expected for the chosen
+     * algorithm because only a few characters of the resulting hash are kept, see
+     * {@link ShortUrlGenerator}.
+     * <p>
+     * Resolutions:
+     * 1: Read from the database the short url that matches the provided valid long url.
+     * 2: Change the short url and retry the saving process. There is an arbitrary limit
+     * of {@value MAX_CONFLICT_SOLVING_ATTEMPTS} for how many retries the system supports
+     * before aborting the process.
+     * <p>
+     * Each resolution emits a {@link ConflictEvent} to the flight recorder, when enabled.
+     *
+     * @param newUrl              the link to be stored, holding an already validated long url
+     * @param conflictingAttempts number of attempts to create a short url that resulted in conflict
+     * @param event               the flight recorder event of the request
+     * @return a short url corresponding to the given valid long url
+     * @throws ConflictingDataException when the number of {@code conflictingAttempts} exceeds
+     *                                  {@value MAX_CONFLICT_SOLVING_ATTEMPTS}
+     */
+    private String handleConflicts(UrlEntity newUrl, int conflictingAttempts, ShortenEvent event) {
+        String validUrl = newUrl.getLongUrl();
+        ConflictEvent conflictEvent = new ConflictEvent();
+        conflictEvent.begin();
+        conflictEvent.shortUrl = newUrl.getShortUrl();
+        conflictEvent.attempt = conflictingAttempts + 1;
+        long cacheStamp = urlMappingCache.stamp();
+        Optional<UrlEntity> conflictingEntity = queryDatabase("db-find", conflictEvent,
+                () -> urlShortenerRepository.findByLongUrl(validUrl));
+        event.databaseTime += conflictEvent.databaseTime;
+        if (conflictingEntity.isPresent()) {
+            String foundShortUrl = conflictingEntity.get().getShortUrl();
+            urlMappingCache.putIfUnchanged(cacheStamp, foundShortUrl, conflictingEntity.get().toRedirect());
+            logger.info("Found longUrl[{}], using shortUrl [{}] from database", validUrl, foundShortUrl);
+            conflictEvent.resolution = "existing";
+            conflictEvent.commit();
+            event.source = "database";
+            return foundShortUrl;
+        } else {
+            if (conflictingAttempts > MAX_CONFLICT_SOLVING_ATTEMPTS) {
+                logger.error("Unsolvable conflict. Unable to create short url for [{}]", validUrl);
+                conflictEvent.resolution = "unsolvable";
+                conflictEvent.commit();
+                throw new ConflictingDataException();
+            }
+            int index = conflictingAttempts + 1;
+            logger.debug("Could not store longUrl [{}], attempt [{}] to create a new shortUrl", validUrl, index);
+            conflictEvent.resolution = "retry";
+            conflictEvent.commit();
+            return RequestTimings.time("retry", () -> createAndSaveShortUrl(newUrl, index, event));
+        }
+    }
+
+    /**
+     * Validates given url according to the RFC 2396.
+     * Makes the url absolute by adding the http schema to
+     * urls without any schema.
+     *
+     * @param longUrl the url to be validated
+     * @return the absolute url, valid
+     * @throws InvalidUrlException for invalid urls
+     */
+    private static String validateUrl(String longUrl) {
+        try {
+            String absoluteUrl = longUrl;
+            if (!longUrl.regionMatches(true, 0, "http://", 0, 7)
+                    && !longUrl.regionMatches(true, 0, "https://", 0, 8)) {
+                absoluteUrl = "http://" + longUrl;
+            }
+            return new URI(absoluteUrl).toString();
+        } catch (URISyntaxException | NullPointerException exception) {
+            logger.info("Malformed url, or otherwise invalid");
+            throw new InvalidUrlException(exception);
+        }
+    }
+
+    /**
+     * Validates the optional redirect policy and expiration of a new link.
+     *
+     * @param linkOptions the request holding the redirect status, cache max age and expiration
+     * @throws InvalidLinkOptionException for unsupported redirect statuses, negative max ages
+     *                                    or expirations that are not in the future
+     */
+    private static void validateLinkOptions(UrlRequestPayload linkOptions) {
+        Integer redirectStatus = linkOptions.getRedirectStatus();
+        if (redirectStatus != null && !UrlRedirect.SUPPORTED_STATUSES.contains(redirectStatus)) {
+            logger.info("Unsupported redirect status [{}]", redirectStatus);
+            throw new InvalidLinkOptionException("The redirect status must be one of 301, 302, 307 or 308.");
+        }
+        Integer cacheMaxAge = linkOptions.getCacheMaxAge();
+        if (cacheMaxAge != null && cacheMaxAge < 0) {
+            logger.info("Negative cache max age [{}]", cacheMaxAge);
+            throw new InvalidLinkOptionException("The cache max age must not be negative.");
+        }
+        Long expiresIn = linkOptions.getExpiresIn();
+        if (expiresIn != null && expiresIn <= 0) {
+            logger.info("Non positive expiration [{}]", expiresIn);
+            throw new InvalidLinkOptionException("The expiration must be a positive number of seconds.");
+        }
+    }
+
+    /**
+     * Looks up a short url on behalf of a caller that sends no click details.
+     *
+     * @param shortUrl alias for the long url
+     * @return the corresponding long url and its redirect policy
+     * @see #lookupUrl(String, String, String)
+     */
+    public UrlRedirect lookupUrl(String shortUrl) {
+        return lookupUrl(shortUrl, null, null);
+    }
+
+    /**
+     * Processes a GET request to /{shortUrl}, searching the local cache, then
+     * the database, for a corresponding {@link UrlEntity} based on the short url alias.
+     * <p>
+     * With tiered storage enabled, a short url missing from the database is looked up in
+     * the {@link LinkArchive}, which promotes the link back to the database when found.
+     * With the degraded mode enabled, a short url that can not be looked up because the
+     * database is unavailable is served from the {@link LinkReplica}. In fast-start mode,
+     * the database is queried through the {@link StartupRedirectLookup} until the
+     * application is ready.
+     * <p>
+     * Expired links are not found. The expiration is checked on the row that was read,
+     * no extra query is needed. An expired cache entry is read again from the database,
+     * since its expiration may have been extended in the meantime.
+     * <p>
+     * Every lookup, found or not, is counted by the {@link HotLinkTracker} and emits a
+     * {@link LookupEvent} to the flight recorder, when enabled. Every link found is a click,
+     * queued to the {@link ClickEventLog} when enabled.
+     *
+     * @param shortUrl  alias for the long url
+     * @param referrer  the Referer header of the request, may be null
+     * @param userAgent the User-Agent header of the request, may be null
+     * @return the corresponding long url and its redirect policy
+     * @throws ResourceNotFoundException    when there is no corresponding long url, or the link expired
+     * @throws DatabaseUnavailableException when the database is unavailable and the replica
+     *                                      does not hold the short url, in degraded mode
+     */
+    public UrlRedirect lookupUrl(String shortUrl, String referrer, String userAgent) {
+        hotLinkTracker.record(shortUrl);
+        LookupEvent event = new LookupEvent();
+        event.begin();
+        event.shortUrl = shortUrl;
+        try {
+            UrlRedirect redirect = findRedirect(shortUrl, event);
+            event.found = true;
+            if (clickEventLog != null) {
+                clickEventLog.record(shortUrl, referrer, userAgent);
+            }
+            return redirect;
+        } finally {
+            event.commit();
+        }
+    }
+
+    private UrlRedirect findRedirect(String shortUrl, LookupEvent event) {
+        if (ShortUrls.isWellFormed(shortUrl)) {
+            Instant now = Instant.now();
+            Optional<UrlRedirect> cachedRedirect = RequestTimings.time("cache",
+                    () -> urlMappingCache.findRedirect(shortUrl));
+            if (cachedRedirect.isPresent() && !cachedRedirect.get().isExpired(now)) {
+                event.source = "cache";
+                recordAccess(shortUrl);
+                return cachedRedirect.get();
+            }
+            long cacheStamp = urlMappingCache.stamp();
+            Optional<UrlEntity> foundEntity;
+            try {
+                foundEntity = queryDatabase("db-find", event, () -> findByShortUrl(shortUrl));
+                if (foundEntity.isEmpty() && linkArchive != null) {
+                    foundEntity = queryDatabase("archive", event, () -> linkArchive.findByShortUrl(shortUrl));
+                }
+            } catch (DatabaseUnavailableException exception) {
+                if (linkReplica == null) {
+                    throw exception;
+                }
+                return findReplicatedRedirect(shortUrl, now, event, exception);
+            }
+            Optional<UrlRedirect> foundRedirect = foundEntity.map(UrlEntity::toRedirect);
+            if (foundRedirect.isPresent() && !foundRedirect.get().isExpired(now)) {
+                urlMappingCache.putIfUnchanged(cacheStamp, shortUrl, foundRedirect.get());
+                event.source = "database";
+                recordAccess(shortUrl);
+                return foundRedirect.get();
+            }
+        }
+        logger.info("Could not find longUrl associated with shortUrl [{}]", shortUrl);
+        throw new ResourceNotFoundException();
+    }
+
+    private Optional<UrlEntity> findByShortUrl(String shortUrl) {
+        if (startupRedirectLookup != null && startupRedirectLookup.isActive()) {
+            return startupRedirectLookup.findByShortUrl(shortUrl);
+        }
+        return urlShortenerRepository.findByShortUrl(shortUrl);
+    }
+
+    /**
+     * Processes one chunk of a POST request to /resolve/batch: searches the local cache for
+     * the redirects of the given short urls, then the database, in one query for all the
+     * short urls the cache missed.
+     * <p>
+     * Links are found and expire like {@link #lookupUrl(String, String, String)} finds them,
+     * but resolving is not a click: the lookups are neither logged nor counted by the
+     * {@link HotLinkTracker}, and archived links are read without being promoted back to the
+     * hot tier. With the degraded mode enabled, short urls that can not be looked up because
+     * the database is unavailable are served from the {@link LinkReplica}.
+     * <p>
+     * Every chunk emits a {@link ResolveBatchEvent} to the flight recorder, when enabled.
+     *
+     * @param shortUrls aliases of long urls, duplicates are resolved once
+     * @return the redirect of every short url, empty for unknown or expired ones; short urls
+     * that could not be looked up, because the database is unavailable and the replica does
+     * not hold them, are left out
+     * @throws DatabaseUnavailableException when the database is unavailable, in degraded mode
+     *                                      without a replica
+     */
+    public Map<String, Optional<UrlRedirect>> resolveUrls(Collection<String> shortUrls) {
+        ResolveBatchEvent event = new ResolveBatchEvent();
+        event.begin();
+        event.shortUrls = shortUrls.size();
+        try {
+            Map<String, Optional<UrlRedirect>> resolved = findRedirects(shortUrls, event);
+            event.found = (int) resolved.values().stream().filter(Optional::isPresent).count();
+            return resolved;
+        } finally {
+            event.commit();
+        }
+    }
+
+    private Map<String, Optional<UrlRedirect>> findRedirects(Collection<String> shortUrls,
+                                                             ResolveBatchEvent event) {
+        Instant now = Instant.now();
+        Map<String, Optional<UrlRedirect>> resolved = new HashMap<>();
+        Set<String> misses = new LinkedHashSet<>();
+        for (String shortUrl : shortUrls) {
+            if (!ShortUrls.isWellFormed(shortUrl)) {
+                resolved.put(shortUrl, Optional.empty());
+                continue;
+            }
+            Optional<UrlRedirect> cachedRedirect = urlMappingCache.findRedirect(shortUrl);
+            if (cachedRedirect.isPresent() && !cachedRedirect.get().isExpired(now)) {
+                resolved.put(shortUrl, cachedRedirect);
+                event.cached++;
+            } else {
+                misses.add(shortUrl);
+            }
+        }
+        if (misses.isEmpty()) {
+            return resolved;
+        }
+        long cacheStamp = urlMappingCache.stamp();
+        List<UrlEntity> foundEntities = new ArrayList<>();
+        try {
+            foundEntities.addAll(queryDatabase("db-find", event,
+                    () -> urlShortenerRepository.findByShortUrlIn(misses)));
+            if (linkArchive != null && foundEntities.size() < misses.size()) {
+                Set<String> archiveMisses = new LinkedHashSet<>(misses);
+                foundEntities.forEach(entity -> archiveMisses.remove(entity.getShortUrl()));
+                foundEntities.addAll(queryDatabase("archive", event, () -> linkArchive.findArchived(archiveMisses)));
+            }
+        } catch (DatabaseUnavailableException exception) {
+            if (linkReplica == null) {
+                throw exception;
+            }
+            for (String shortUrl : misses) {
+                UrlRedirect replicated = linkReplica.find(shortUrl);
+                if (replicated != null) {
+                    resolved.put(shortUrl, Optional.of(replicated).filter(redirect -> !redirect.isExpired(now)));
+                }
+            }
+            return resolved;
+        }
+        for (UrlEntity foundEntity : foundEntities) {
+            UrlRedirect foundRedirect = foundEntity.toRedirect();
+            if (!foundRedirect.isExpired(now)) {
+                urlMappingCache.putIfUnchanged(cacheStamp, foundEntity.getShortUrl(), foundRedirect);
+                resolved.put(foundEntity.getShortUrl(), Optional.of(foundRedirect));
+            }
+        }
+        misses.forEach(shortUrl -> resolved.putIfAbsent(shortUrl, Optional.empty()));
+        return resolved;
+    }
+
+    /**
+     * Serves a redirect from the {@link LinkReplica} while the database is unavailable. A short
+     * url missing from the replica may have been created since it was last refreshed: it is
+     * answered as unavailable, not as not found.
+     *
+     * @throws DatabaseUnavailableException when the replica does not hold the short url
+     */
+    private UrlRedirect findReplicatedRedirect(String shortUrl, Instant now, LookupEvent event,
+                                               DatabaseUnavailableException unavailable) {
+        UrlRedirect replicated = RequestTimings.time("replica", () -> linkReplica.find(shortUrl));
+        if (replicated == null) {
+            logger.warn("Database unavailable and shortUrl [{}] not in the local replica", shortUrl);
+            throw unavailable;
+        }
+        if (replicated.isExpired(now)) {
+            logger.info("Could not find longUrl associated with shortUrl [{}]", shortUrl);
+            throw new ResourceNotFoundException();
+        }
+        event.source = "replica";
+        return replicated;
+    }
+}
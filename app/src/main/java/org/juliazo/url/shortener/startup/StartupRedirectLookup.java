@@ -0,0 +1,73 @@
+package org.juliazo.url.shortener.startup;
+
+import org.juliazo.url.shortener.model.UrlEntity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Optional;
+
+/**
+ * Redirect lookups answered with plain JDBC while the application starts, in fast-start mode.
+ * <p>
+ * With the JPA repositories bootstrapped in deferred mode, Hibernate builds its metamodel in
+ * the background, and the web server accepts requests before it is done: the first repository
+ * call waits for it. Until the application is ready, lookups by short url go through this
+ * class instead, so redirects are served as soon as the connection pool is up, and only the
+ * write path waits for JPA.
+ */
+@Component
+@ConditionalOnProperty(name = "url-shortener.startup.jdbc-redirects.enabled", havingValue = "true")
+public class StartupRedirectLookup {
+
+    private static final Logger logger = LoggerFactory.getLogger(StartupRedirectLookup.class);
+
+    private static final String FIND_BY_SHORT_URL =
+            "SELECT short_url, long_url, redirect_status, cache_max_age, expires_at"
+                    + " FROM url_entity WHERE short_url = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private volatile boolean ready;
+
+    @Autowired
+    public StartupRedirectLookup(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * @return true until the application is ready, lookups should go through {@link #findByShortUrl} then
+     */
+    public boolean isActive() {
+        return !ready;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void applicationReady() {
+        ready = true;
+        logger.info("Application ready, redirects looked up through JPA from now on");
+    }
+
+    /**
+     * @param shortUrl alias for a long url
+     * @return the link stored in url_entity, expired or not
+     */
+    public Optional<UrlEntity> findByShortUrl(String shortUrl) {
+        return jdbcTemplate.query(FIND_BY_SHORT_URL, StartupRedirectLookup::toEntity, shortUrl).stream().findFirst();
+    }
+
+    private static UrlEntity toEntity(ResultSet resultSet, int row) throws SQLException {
+        Timestamp expiresAt = resultSet.getTimestamp(5);
+        return new UrlEntity(resultSet.getString(1), resultSet.getString(2),
+                (Integer) resultSet.getObject(3), (Integer) resultSet.getObject(4),
+                expiresAt == null ? null : expiresAt.toInstant());
+    }
+}
@@ -0,0 +1,254 @@
+package org.juliazo.url.shortener.tiering;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.juliazo.url.shortener.commons.archive.UrlCompression;
+import org.juliazo.url.shortener.model.UrlEntity;
+import org.juliazo.url.shortener.service.ShortUrlGenerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.SqlParameterValue;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cold tier of the links: links without recent access are moved by the {@link LinkTieringJob}
+ * from url_entity to url_archive, with their long url compressed.
+ * <p>
+ * Lookups that miss url_entity fall back to the archive. An archived link found again is
+ * promoted back to url_entity in one transaction, so it is served from the hot tier, and
+ * its caches, from then on. The insert notifies the peers and the edge servers like any
+ * new link does.
+ * <p>
+ * Accesses to hot links are collected in memory and written in batches, refreshing the
+ * last access time of a link at most once per {@link #accessResolutionSeconds}. Links
+ * accessed between two flushes may look colder than they are for a moment, the worst
+ * outcome is an archived link promoted on its next access.
+ */
+@Component
+@ConditionalOnProperty(name = "url-shortener.tiering.enabled", havingValue = "true")
+public class LinkArchive {
+
+    private static final Logger logger = LoggerFactory.getLogger(LinkArchive.class);
+
+    private static final String ARCHIVE_COLUMNS = "short_url, long_url, redirect_status, cache_max_age, expires_at";
+
+    private static final String FIND_BY_SHORT_URL = "SELECT 1 FROM url_archive WHERE short_url = ?";
+
+    private static final String FIND_ARCHIVED =
+            "SELECT " + ARCHIVE_COLUMNS + " FROM url_archive WHERE short_url = ANY (?)";
+
+    private static final String FIND_BY_HASH = "SELECT short_url, long_url FROM url_archive WHERE long_url_hash = ?";
+
+    private static final String DELETE_ARCHIVED =
+            "DELETE FROM url_archive WHERE short_url = ? RETURNING " + ARCHIVE_COLUMNS;
+
+    private static final String RESTORE =
+            "INSERT INTO url_entity (short_url, long_url, redirect_status, cache_max_age, expires_at)"
+                    + " SELECT ?, ?, ?, ?, ? WHERE NOT EXISTS (SELECT 1 FROM url_long_url WHERE long_url = ?)"
+                    + " ON CONFLICT DO NOTHING";
+
+    private static final String FIND_HOT =
+            "SELECT short_url, long_url, redirect_status, cache_max_age, expires_at"
+                    + " FROM url_entity WHERE short_url = ?";
+
+    private static final String TOUCH =
+            "UPDATE url_entity SET last_accessed_at = now()"
+                    + " WHERE short_url = ANY (?) AND last_accessed_at < now() - (? * interval '1 second')";
+
+    private static final int TOUCH_BATCH_SIZE = 1000;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final long accessResolutionSeconds;
+
+    private final int maxPendingAccesses;
+
+    private final Set<String> accessed = ConcurrentHashMap.newKeySet();
+
+    private final MeterRegistry meterRegistry;
+
+    private final Counter promoted;
+
+    @Autowired
+    public LinkArchive(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager,
+                       MeterRegistry meterRegistry,
+                       @Value("${url-shortener.tiering.access-resolution-seconds:3600}") long accessResolutionSeconds,
+                       @Value("${url-shortener.tiering.max-pending-accesses:100000}") int maxPendingAccesses) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.meterRegistry = meterRegistry;
+        this.accessResolutionSeconds = accessResolutionSeconds;
+        this.maxPendingAccesses = maxPendingAccesses;
+        this.promoted = Counter.builder("url.shortener.tier.promoted")
+                .description("Archived links moved back to url_entity").register(meterRegistry);
+    }
+
+    /**
+     * Notes an access to a hot link, written by the next {@link #flushAccesses}. Accesses
+     * beyond {@link #maxPendingAccesses} are dropped, their links are promoted back if
+     * they get archived.
+     *
+     * @param shortUrl alias of a link just resolved or handed out
+     */
+    public void recordAccess(String shortUrl) {
+        if (accessed.size() < maxPendingAccesses) {
+            accessed.add(shortUrl);
+        }
+    }
+
+    /**
+     * Writes the accesses recorded since the last flush, in batches.
+     *
+     * @return the number of links whose last access time was refreshed
+     */
+    @Scheduled(fixedDelayString = "${url-shortener.tiering.access-flush-interval-millis:10000}")
+    public int flushAccesses() {
+        int touched = 0;
+        List<String> batch = new ArrayList<>(TOUCH_BATCH_SIZE);
+        Iterator<String> iterator = accessed.iterator();
+        while (iterator.hasNext()) {
+            batch.add(iterator.next());
+            iterator.remove();
+            if (batch.size() == TOUCH_BATCH_SIZE || !iterator.hasNext()) {
+                String[] shortUrls = batch.toArray(new String[0]);
+                touched += jdbcTemplate.update(TOUCH, statement -> {
+                    statement.setArray(1, statement.getConnection().createArrayOf("varchar", shortUrls));
+                    statement.setLong(2, accessResolutionSeconds);
+                });
+                batch.clear();
+            }
+        }
+        return touched;
+    }
+
+    /**
+     * Looks up an archived link by its short url, promoting it back to url_entity when found.
+     *
+     * @param shortUrl alias of a link missing from url_entity
+     * @return the promoted link, or empty when the short url is not archived
+     */
+    public Optional<UrlEntity> findByShortUrl(String shortUrl) {
+        boolean archived = !jdbcTemplate.queryForList(FIND_BY_SHORT_URL, Integer.class, shortUrl).isEmpty();
+        countLookup("lookup", archived);
+        return archived ? promote(shortUrl) : Optional.empty();
+    }
+
+    /**
+     * Reads archived links by their short urls, without promoting them: resolving a link in
+     * bulk is no sign it will be requested again.
+     *
+     * @param shortUrls aliases of links missing from url_entity
+     * @return the archived links among them
+     */
+    public List<UrlEntity> findArchived(Collection<String> shortUrls) {
+        String[] keys = shortUrls.toArray(new String[0]);
+        List<UrlEntity> archived = jdbcTemplate.query(FIND_ARCHIVED, statement ->
+                statement.setArray(1, statement.getConnection().createArrayOf("varchar", keys)),
+                LinkArchive::toArchivedEntity);
+        meterRegistry.counter("url.shortener.tier.archive.lookups", "operation", "resolve", "result", "hit")
+                .increment(archived.size());
+        meterRegistry.counter("url.shortener.tier.archive.lookups", "operation", "resolve", "result", "miss")
+                .increment(keys.length - archived.size());
+        return archived;
+    }
+
+    /**
+     * Looks up an archived link by its long url, promoting it back to url_entity when found.
+     *
+     * @param longUrl a canonical long url missing from url_entity
+     * @return the promoted link, or empty when the long url is not archived
+     */
+    public Optional<UrlEntity> findByLongUrl(String longUrl) {
+        List<String> shortUrls = new ArrayList<>(1);
+        jdbcTemplate.query(FIND_BY_HASH, (RowCallbackHandler) resultSet -> {
+            if (longUrl.equals(UrlCompression.decompress(resultSet.getBytes(2)))) {
+                shortUrls.add(resultSet.getString(1));
+            }
+        }, hash(longUrl));
+        countLookup("shorten", !shortUrls.isEmpty());
+        return shortUrls.isEmpty() ? Optional.empty() : promote(shortUrls.get(0));
+    }
+
+    /**
+     * @param longUrl a canonical long url
+     * @return the key of the long url in url_archive
+     */
+    static long hash(String longUrl) {
+        return ShortUrlGenerator.murmur3(longUrl.getBytes(StandardCharsets.UTF_8))[0];
+    }
+
+    /**
+     * Moves an archived link back to url_entity. When a concurrent request promoted it
+     * first, or the same link was stored again meanwhile, the link in url_entity is read instead.
+     * When only its long url was stored again, under another short url, the link stays archived
+     * and is served from the archive.
+     */
+    private Optional<UrlEntity> promote(String shortUrl) {
+        Optional<UrlEntity> restored = transactionTemplate.execute(status -> {
+            List<UrlEntity> deleted = jdbcTemplate.query(DELETE_ARCHIVED, LinkArchive::toArchivedEntity, shortUrl);
+            if (!deleted.isEmpty() && restore(deleted.get(0))) {
+                return Optional.of(deleted.get(0));
+            }
+            status.setRollbackOnly();
+            Optional<UrlEntity> hot = jdbcTemplate.query(FIND_HOT, LinkArchive::toEntity, shortUrl).stream().findFirst();
+            return hot.isPresent() || deleted.isEmpty() ? hot : Optional.of(deleted.get(0));
+        });
+        return restored == null ? Optional.empty() : restored;
+    }
+
+    private boolean restore(UrlEntity link) {
+        int inserted = jdbcTemplate.update(RESTORE, link.getShortUrl(), link.getLongUrl(),
+                new SqlParameterValue(Types.INTEGER, link.getRedirectStatus()),
+                new SqlParameterValue(Types.INTEGER, link.getCacheMaxAge()),
+                new SqlParameterValue(Types.TIMESTAMP,
+                        link.getExpiresAt() == null ? null : Timestamp.from(link.getExpiresAt())),
+                link.getLongUrl());
+        if (inserted > 0) {
+            promoted.increment();
+            logger.info("Promoted archived shortUrl [{}] back to the hot tier", link.getShortUrl());
+        }
+        return inserted > 0;
+    }
+
+    private void countLookup(String operation, boolean hit) {
+        meterRegistry.counter("url.shortener.tier.archive.lookups",
+                "operation", operation, "result", hit ? "hit" : "miss").increment();
+    }
+
+    static UrlEntity toArchivedEntity(ResultSet resultSet, int row) throws SQLException {
+        Timestamp expiresAt = resultSet.getTimestamp(5);
+        return new UrlEntity(resultSet.getString(1), UrlCompression.decompress(resultSet.getBytes(2)),
+                (Integer) resultSet.getObject(3), (Integer) resultSet.getObject(4),
+                expiresAt == null ? null : expiresAt.toInstant());
+    }
+
+    static UrlEntity toEntity(ResultSet resultSet, int row) throws SQLException {
+        Timestamp expiresAt = resultSet.getTimestamp(5);
+        return new UrlEntity(resultSet.getString(1), resultSet.getString(2),
+                (Integer) resultSet.getObject(3), (Integer) resultSet.getObject(4),
+                expiresAt == null ? null : expiresAt.toInstant());
+    }
+}
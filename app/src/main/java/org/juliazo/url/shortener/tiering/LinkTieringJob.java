@@ -0,0 +1,209 @@
+package org.juliazo.url.shortener.tiering;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.juliazo.url.shortener.cache.UrlMappingCache;
+import org.juliazo.url.shortener.commons.archive.UrlCompression;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.SqlParameterValue;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Background job that moves links without recent access from url_entity to the
+ * {@link LinkArchive}.
+ * <p>
+ * Like the expired link reaper, it walks an index on (last_accessed_at, short_url) with a
+ * keyset cursor, in small batches, each one its own short transaction, skipping rows locked
+ * by a concurrent request and pausing between batches. Links with an expiration are left
+ * to the reaper.
+ * <p>
+ * Archived links are deleted from url_entity, which notifies the other replicas and the
+ * edge servers through the url_entity trigger, and are invalidated in the local cache right
+ * away. Publishes the estimated number of links of each tier in {@code url.shortener.tier.links}.
+ */
+@Component
+@ConditionalOnProperty(name = "url-shortener.tiering.enabled", havingValue = "true")
+public class LinkTieringJob {
+
+    private static final Logger logger = LoggerFactory.getLogger(LinkTieringJob.class);
+
+    private static final String SELECT_BATCH =
+            "SELECT last_accessed_at, short_url, long_url, redirect_status, cache_max_age FROM url_entity"
+                    + " WHERE expires_at IS NULL AND (last_accessed_at, short_url) > (?, ?) AND last_accessed_at < ?"
+                    + " ORDER BY last_accessed_at, short_url LIMIT ? FOR UPDATE SKIP LOCKED";
+
+    private static final String ARCHIVE =
+            "INSERT INTO url_archive (short_url, long_url_hash, long_url, redirect_status, cache_max_age)"
+                    + " VALUES (?, ?, ?, ?, ?)";
+
+    private static final String DELETE_BATCH = "DELETE FROM url_entity WHERE short_url = ANY (?)";
+
+    /**
+     * Live rows of a table as counted by the statistics collector, exact counts would scan
+     * both tiers on every run. The rows of a partitioned table are counted in its partitions.
+     */
+    private static final String ESTIMATED_ROWS =
+            "SELECT COALESCE(SUM(n_live_tup), 0) FROM pg_stat_user_tables WHERE relid = to_regclass(?)"
+                    + " OR relid IN (SELECT inhrelid FROM pg_inherits WHERE inhparent = to_regclass(?))";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final UrlMappingCache urlMappingCache;
+
+    private final Duration idleTime;
+
+    private final int batchSize;
+
+    private final int maxBatchesPerRun;
+
+    private final long pauseMillis;
+
+    private final Counter archived;
+
+    private final AtomicLong hotLinks = new AtomicLong();
+
+    private final AtomicLong archivedLinks = new AtomicLong();
+
+    @Autowired
+    public LinkTieringJob(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager,
+                          UrlMappingCache urlMappingCache, MeterRegistry meterRegistry,
+                          @Value("${url-shortener.tiering.idle-days:30}") long idleDays,
+                          @Value("${url-shortener.tiering.batch-size:500}") int batchSize,
+                          @Value("${url-shortener.tiering.max-batches-per-run:100}") int maxBatchesPerRun,
+                          @Value("${url-shortener.tiering.pause-millis:50}") long pauseMillis) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.urlMappingCache = urlMappingCache;
+        this.idleTime = Duration.ofDays(idleDays);
+        this.batchSize = batchSize;
+        this.maxBatchesPerRun = maxBatchesPerRun;
+        this.pauseMillis = pauseMillis;
+        this.archived = Counter.builder("url.shortener.tier.archived")
+                .description("Links moved from url_entity to url_archive").register(meterRegistry);
+        Gauge.builder("url.shortener.tier.links", hotLinks, AtomicLong::get)
+                .description("Estimated number of links per storage tier").tag("tier", "hot")
+                .register(meterRegistry);
+        Gauge.builder("url.shortener.tier.links", archivedLinks, AtomicLong::get)
+                .description("Estimated number of links per storage tier").tag("tier", "archive")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Archives idle links, one batch at a time, until no idle link is left or the run
+     * reaches its maximum number of batches.
+     *
+     * @return the number of archived links
+     */
+    @Scheduled(fixedDelayString = "${url-shortener.tiering.interval-millis:3600000}",
+            initialDelayString = "${url-shortener.startup.background-delay-millis:0}")
+    public int archiveIdleLinks() {
+        Timestamp cutoff = Timestamp.from(Instant.now().minus(idleTime));
+        Timestamp cursorAccessedAt = new Timestamp(0);
+        String cursorShortUrl = "";
+        int moved = 0;
+
+        for (int batch = 0; batch < maxBatchesPerRun; batch++) {
+            List<IdleLink> links = archiveBatch(cursorAccessedAt, cursorShortUrl, cutoff);
+            for (IdleLink link : links) {
+                urlMappingCache.invalidate(link.shortUrl, link.longUrl);
+            }
+            if (!links.isEmpty()) {
+                IdleLink last = links.get(links.size() - 1);
+                cursorAccessedAt = last.lastAccessedAt;
+                cursorShortUrl = last.shortUrl;
+            }
+            moved += links.size();
+            if (links.size() < batchSize || !pause()) {
+                break;
+            }
+        }
+        archived.increment(moved);
+        if (moved > 0) {
+            logger.info("Archived [{}] idle links", moved);
+        }
+        refreshTierSizes();
+        return moved;
+    }
+
+    private List<IdleLink> archiveBatch(Timestamp cursorAccessedAt, String cursorShortUrl, Timestamp cutoff) {
+        List<IdleLink> links = transactionTemplate.execute(status -> {
+            List<IdleLink> batch = jdbcTemplate.query(SELECT_BATCH,
+                    (resultSet, row) -> new IdleLink(resultSet.getTimestamp(1), resultSet.getString(2),
+                            resultSet.getString(3), (Integer) resultSet.getObject(4),
+                            (Integer) resultSet.getObject(5)),
+                    cursorAccessedAt, cursorShortUrl, cutoff, batchSize);
+            if (batch.isEmpty()) {
+                return batch;
+            }
+            jdbcTemplate.batchUpdate(ARCHIVE, batch.stream()
+                    .map(link -> new Object[]{link.shortUrl, LinkArchive.hash(link.longUrl),
+                            UrlCompression.compress(link.longUrl),
+                            new SqlParameterValue(Types.INTEGER, link.redirectStatus),
+                            new SqlParameterValue(Types.INTEGER, link.cacheMaxAge)})
+                    .collect(Collectors.toList()));
+            String[] shortUrls = batch.stream().map(link -> link.shortUrl).toArray(String[]::new);
+            jdbcTemplate.update(DELETE_BATCH, statement ->
+                    statement.setArray(1, statement.getConnection().createArrayOf("varchar", shortUrls)));
+            return batch;
+        });
+        return links == null ? Collections.emptyList() : links;
+    }
+
+    private void refreshTierSizes() {
+        hotLinks.set(estimatedRows("url_entity"));
+        archivedLinks.set(estimatedRows("url_archive"));
+    }
+
+    private long estimatedRows(String table) {
+        Long rows = jdbcTemplate.queryForObject(ESTIMATED_ROWS, Long.class, table, table);
+        return rows == null ? 0 : rows;
+    }
+
+    private boolean pause() {
+        try {
+            Thread.sleep(pauseMillis);
+            return true;
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static final class IdleLink {
+
+        final Timestamp lastAccessedAt;
+        final String shortUrl;
+        final String longUrl;
+        final Integer redirectStatus;
+        final Integer cacheMaxAge;
+
+        IdleLink(Timestamp lastAccessedAt, String shortUrl, String longUrl, Integer redirectStatus,
+                 Integer cacheMaxAge) {
+            this.lastAccessedAt = lastAccessedAt;
+            this.shortUrl = shortUrl;
+            this.longUrl = longUrl;
+            this.redirectStatus = redirectStatus;
+            this.cacheMaxAge = cacheMaxAge;
+        }
+    }
+}
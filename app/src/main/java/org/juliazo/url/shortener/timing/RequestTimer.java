@@ -0,0 +1,106 @@
+package org.juliazo.url.shortener.timing;
+
+import io.opentelemetry.api.GlobalOpenTelemetry;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.context.Context;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.servlet.http.HttpServletResponse;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Times the requests handled by the controller, when enabled. The phases and total
+ * duration of each request come back in its {@code Server-Timing} header, errors
+ * included, and are optionally exported as trace spans: one span per request with
+ * a child span per phase, through the OpenTelemetry api. Spans are dropped unless an
+ * OpenTelemetry agent or sdk is installed, the request span then joins the trace of
+ * the incoming request.
+ * <p>
+ * When disabled the requests get {@link RequestTimings#disabled()}, which neither
+ * records nor binds anything.
+ */
+@Component
+public class RequestTimer {
+
+    public static final String SERVER_TIMING = "Server-Timing";
+
+    private static final String INSTRUMENTATION_NAME = "org.juliazo.url.shortener";
+
+    private final boolean enabled;
+
+    private final Tracer tracer;
+
+    @Autowired
+    public RequestTimer(@Value("${url-shortener.timing.enabled:false}") boolean enabled,
+                        @Value("${url-shortener.timing.trace-spans.enabled:false}") boolean traceSpansEnabled) {
+        this(enabled, traceSpansEnabled ? GlobalOpenTelemetry.getTracer(INSTRUMENTATION_NAME) : null);
+    }
+
+    RequestTimer(boolean enabled, Tracer tracer) {
+        this.enabled = enabled;
+        this.tracer = tracer;
+    }
+
+    /**
+     * @param name     name of the request, used for its span
+     * @param response the response to receive the {@code Server-Timing} header
+     * @param request  the asynchronous handling of the request, given the timings to record into
+     * @param <T>      type of the response
+     * @return the response, completing once the timings are written
+     */
+    public <T> CompletableFuture<T> time(String name, HttpServletResponse response,
+                                         Function<RequestTimings, CompletableFuture<T>> request) {
+        if (!enabled) {
+            return request.apply(RequestTimings.disabled());
+        }
+        RequestTimings timings = RequestTimings.start();
+        Context parent = tracer == null ? null : Context.current();
+        CompletableFuture<T> result;
+        try {
+            result = request.apply(timings);
+        } catch (RuntimeException exception) {
+            finish(name, timings, parent, response, exception);
+            throw exception;
+        }
+        return result.whenComplete((value, exception) -> finish(name, timings, parent, response, exception));
+    }
+
+    private void finish(String name, RequestTimings timings, Context parent, HttpServletResponse response,
+                        Throwable exception) {
+        long totalNanos = timings.elapsedNanos();
+        response.setHeader(SERVER_TIMING, timings.toServerTiming(totalNanos));
+        if (tracer != null) {
+            export(name, timings, totalNanos, parent, exception);
+        }
+    }
+
+    private void export(String name, RequestTimings timings, long totalNanos, Context parent, Throwable exception) {
+        long start = timings.getStartEpochNanos();
+        Span requestSpan = tracer.spanBuilder(name)
+                .setParent(parent)
+                .setStartTimestamp(start, TimeUnit.NANOSECONDS)
+                .startSpan();
+        Context requestContext = parent.with(requestSpan);
+        for (RequestTimings.Phase phase : timings.getPhases()) {
+            long phaseStart = start + phase.getOffsetNanos();
+            tracer.spanBuilder(phase.getName())
+                    .setParent(requestContext)
+                    .setStartTimestamp(phaseStart, TimeUnit.NANOSECONDS)
+                    .startSpan()
+                    .end(phaseStart + phase.getDurationNanos(), TimeUnit.NANOSECONDS);
+        }
+        if (exception != null) {
+            requestSpan.setStatus(StatusCode.ERROR);
+            requestSpan.recordException(exception instanceof CompletionException && exception.getCause() != null
+                    ? exception.getCause() : exception);
+        }
+        requestSpan.end(start + totalNanos, TimeUnit.NANOSECONDS);
+    }
+}
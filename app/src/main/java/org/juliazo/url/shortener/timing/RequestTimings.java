@@ -0,0 +1,197 @@
+package org.juliazo.url.shortener.timing;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Supplier;
+
+/**
+ * Durations of the phases of a single request: validation, hashing, each repository
+ * call and so on. Phases are recorded through {@link #time}, against the timings
+ * bound to the current thread with {@link #bind}; with no timings bound, as when
+ * timing is disabled, the phase is just run.
+ * <p>
+ * A request hops threads, from the servlet container to its bulkhead executor, so
+ * the timings are bound to each task rather than to the request thread. Phases may
+ * nest, e.g. the database calls of a conflict retry.
+ */
+public final class RequestTimings {
+
+    private static final ThreadLocal<RequestTimings> CURRENT = new ThreadLocal<>();
+
+    /**
+     * Timings that record nothing, for requests that are not timed.
+     */
+    private static final RequestTimings DISABLED = new RequestTimings(0, 0);
+
+    private final long startEpochNanos;
+
+    private final long startNanos;
+
+    private final List<Phase> phases = new ArrayList<>();
+
+    private RequestTimings(long startEpochNanos, long startNanos) {
+        this.startEpochNanos = startEpochNanos;
+        this.startNanos = startNanos;
+    }
+
+    /**
+     * @return new timings, starting now
+     */
+    public static RequestTimings start() {
+        return new RequestTimings(System.currentTimeMillis() * 1_000_000L, System.nanoTime());
+    }
+
+    /**
+     * @return timings that record nothing and bind nothing
+     */
+    public static RequestTimings disabled() {
+        return DISABLED;
+    }
+
+    /**
+     * Runs the given phase, recording its duration in the timings bound to the current thread.
+     *
+     * @param name the phase name, a token as defined by RFC 7230
+     * @param task the work of the phase
+     * @param <T>  type of the task result
+     * @return the task result
+     */
+    public static <T> T time(String name, Supplier<T> task) {
+        RequestTimings timings = CURRENT.get();
+        return timings == null ? task.get() : timings.record(name, task);
+    }
+
+    /**
+     * Runs the given phase, recording its duration in these timings, whatever the current thread.
+     *
+     * @see #time(String, Supplier)
+     */
+    public <T> T record(String name, Supplier<T> task) {
+        if (this == DISABLED) {
+            return task.get();
+        }
+        long phaseStart = System.nanoTime();
+        try {
+            return task.get();
+        } finally {
+            add(new Phase(name, phaseStart - startNanos, System.nanoTime() - phaseStart));
+        }
+    }
+
+    /**
+     * Wraps the given task so it runs with these timings bound to its thread. The time
+     * between the wrapping and the start of the task is recorded as the {@code queue} phase.
+     *
+     * @param task the work to be run, possibly on another thread
+     * @param <T>  type of the task result
+     * @return the wrapped task
+     */
+    public <T> Supplier<T> bind(Supplier<T> task) {
+        if (this == DISABLED) {
+            return task;
+        }
+        long queuedAt = System.nanoTime();
+        return () -> {
+            long taskStart = System.nanoTime();
+            add(new Phase("queue", queuedAt - startNanos, taskStart - queuedAt));
+            RequestTimings previous = CURRENT.get();
+            CURRENT.set(this);
+            try {
+                return task.get();
+            } finally {
+                if (previous == null) {
+                    CURRENT.remove();
+                } else {
+                    CURRENT.set(previous);
+                }
+            }
+        };
+    }
+
+    /**
+     * @return false for the timings of requests that are not timed
+     */
+    public boolean isEnabled() {
+        return this != DISABLED;
+    }
+
+    /**
+     * @return wall clock time of the request start, in nanoseconds since the epoch
+     */
+    public long getStartEpochNanos() {
+        return startEpochNanos;
+    }
+
+    /**
+     * @return nanoseconds elapsed since the request start
+     */
+    public long elapsedNanos() {
+        return System.nanoTime() - startNanos;
+    }
+
+    /**
+     * @return the recorded phases, ordered by start
+     */
+    public synchronized List<Phase> getPhases() {
+        List<Phase> ordered = new ArrayList<>(phases);
+        ordered.sort(Comparator.comparingLong(Phase::getOffsetNanos));
+        return ordered;
+    }
+
+    /**
+     * Formats the recorded phases and the total duration of the request as the value of a
+     * {@code Server-Timing} header, durations in milliseconds, e.g.
+     * {@code validate;dur=0.041, db-find;dur=1.305, total;dur=1.602}.
+     *
+     * @param totalNanos the duration of the whole request
+     * @return the header value
+     */
+    public String toServerTiming(long totalNanos) {
+        StringBuilder header = new StringBuilder();
+        for (Phase phase : getPhases()) {
+            appendMetric(header, phase.getName(), phase.getDurationNanos()).append(", ");
+        }
+        return appendMetric(header, "total", totalNanos).toString();
+    }
+
+    private static StringBuilder appendMetric(StringBuilder header, String name, long durationNanos) {
+        return header.append(name).append(";dur=")
+                .append(String.format(Locale.ROOT, "%.3f", durationNanos / 1_000_000.0));
+    }
+
+    private synchronized void add(Phase phase) {
+        phases.add(phase);
+    }
+
+    /**
+     * A recorded phase, with its start relative to the request start.
+     */
+    public static final class Phase {
+
+        private final String name;
+
+        private final long offsetNanos;
+
+        private final long durationNanos;
+
+        Phase(String name, long offsetNanos, long durationNanos) {
+            this.name = name;
+            this.offsetNanos = offsetNanos;
+            this.durationNanos = durationNanos;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getOffsetNanos() {
+            return offsetNanos;
+        }
+
+        public long getDurationNanos() {
+            return durationNanos;
+        }
+    }
+}
@@ -0,0 +1,40 @@
+-- Append-only log of changes to url_entity. Every instance keeps a local cache of the
+-- mappings, the log lets them catch up on changes whose notification they have missed.
+CREATE TABLE url_mapping_event (
+  id BIGSERIAL NOT NULL,
+  event_type CHAR(1) NOT NULL,
+  short_url VARCHAR(6) NOT NULL,
+  long_url VARCHAR(400) NOT NULL,
+  created_at TIMESTAMP NOT NULL DEFAULT now(),
+  PRIMARY KEY (id)
+);
+
+CREATE INDEX url_mapping_event_created_at_idx ON url_mapping_event (created_at);
+
+-- Records the change and notifies the listening instances once the transaction commits.
+-- Payload format: <event id>|<event type>|<short url>|<long url>
+CREATE FUNCTION publish_url_mapping_event() RETURNS TRIGGER AS $$
+DECLARE
+  changed url_entity;
+  type CHAR(1);
+  event_id BIGINT;
+BEGIN
+  IF TG_OP = 'INSERT' THEN
+    changed := NEW;
+    type := 'I';
+  ELSE
+    changed := OLD;
+    type := 'D';
+  END IF;
+  INSERT INTO url_mapping_event (event_type, short_url, long_url)
+    VALUES (type, changed.short_url, changed.long_url)
+    RETURNING id INTO event_id;
+  PERFORM pg_notify('url_mapping_events',
+    event_id || '|' || type || '|' || changed.short_url || '|' || changed.long_url);
+  RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER url_entity_mapping_event
+  AFTER INSERT OR DELETE ON url_entity
+  FOR EACH ROW EXECUTE PROCEDURE publish_url_mapping_event();
@@ -0,0 +1,30 @@
+-- Optional per link redirect policy, NULL means the deployment default is used.
+ALTER TABLE url_entity ADD COLUMN redirect_status INTEGER;
+ALTER TABLE url_entity ADD COLUMN cache_max_age INTEGER;
+
+-- Inserts now announce the redirect policy of the new link, so the peers can pre-warm it.
+-- Payload format: <event id>|<event type>|<short url>|<redirect status>|<cache max age>|<long url>
+CREATE OR REPLACE FUNCTION publish_url_mapping_event() RETURNS TRIGGER AS $$
+DECLARE
+  changed url_entity;
+  type CHAR(1);
+  event_id BIGINT;
+BEGIN
+  IF TG_OP = 'INSERT' THEN
+    changed := NEW;
+    type := 'I';
+  ELSE
+    changed := OLD;
+    type := 'D';
+  END IF;
+  INSERT INTO url_mapping_event (event_type, short_url, long_url)
+    VALUES (type, changed.short_url, changed.long_url)
+    RETURNING id INTO event_id;
+  PERFORM pg_notify('url_mapping_events',
+    event_id || '|' || type || '|' || changed.short_url
+      || '|' || COALESCE(changed.redirect_status::TEXT, '')
+      || '|' || COALESCE(changed.cache_max_age::TEXT, '')
+      || '|' || changed.long_url);
+  RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
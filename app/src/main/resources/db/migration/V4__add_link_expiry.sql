@@ -0,0 +1,33 @@
+-- Optional expiration of a link, NULL means the link never expires.
+ALTER TABLE url_entity ADD COLUMN expires_at TIMESTAMP WITH TIME ZONE;
+
+-- Only expiring links are indexed, the reaper walks this index in (expires_at, short_url) order.
+CREATE INDEX url_entity_expires_at_idx ON url_entity (expires_at, short_url) WHERE expires_at IS NOT NULL;
+
+-- Inserts now announce the expiration of the new link as epoch milliseconds.
+-- Payload format: <event id>|<event type>|<short url>|<redirect status>|<cache max age>|<expires at>|<long url>
+CREATE OR REPLACE FUNCTION publish_url_mapping_event() RETURNS TRIGGER AS $$
+DECLARE
+  changed url_entity;
+  type CHAR(1);
+  event_id BIGINT;
+BEGIN
+  IF TG_OP = 'INSERT' THEN
+    changed := NEW;
+    type := 'I';
+  ELSE
+    changed := OLD;
+    type := 'D';
+  END IF;
+  INSERT INTO url_mapping_event (event_type, short_url, long_url)
+    VALUES (type, changed.short_url, changed.long_url)
+    RETURNING id INTO event_id;
+  PERFORM pg_notify('url_mapping_events',
+    event_id || '|' || type || '|' || changed.short_url
+      || '|' || COALESCE(changed.redirect_status::TEXT, '')
+      || '|' || COALESCE(changed.cache_max_age::TEXT, '')
+      || '|' || COALESCE((EXTRACT(EPOCH FROM changed.expires_at) * 1000)::BIGINT::TEXT, '')
+      || '|' || changed.long_url);
+  RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
@@ -0,0 +1,4 @@
+-- Base 62 short urls may be configured up to 10 characters, the original hex ones stay 6.
+-- Raising a VARCHAR limit only changes the catalog, neither the tables nor their indexes are rewritten.
+ALTER TABLE url_entity ALTER COLUMN short_url TYPE VARCHAR(10);
+ALTER TABLE url_mapping_event ALTER COLUMN short_url TYPE VARCHAR(10);
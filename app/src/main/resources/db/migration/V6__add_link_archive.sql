@@ -0,0 +1,36 @@
+-- When a link was last resolved or handed out again, refreshed at a coarse resolution by the application.
+-- The default is evaluated once and kept in the catalog, existing rows are not rewritten.
+ALTER TABLE url_entity ADD COLUMN last_accessed_at TIMESTAMP WITH TIME ZONE NOT NULL DEFAULT now();
+
+-- Cold tier of links without recent access. The long url is compressed, and looked up through a
+-- 64 bit hash of it rather than a unique index on the url, the largest index of url_entity.
+CREATE TABLE url_archive (
+  short_url VARCHAR(10) NOT NULL,
+  long_url_hash BIGINT NOT NULL,
+  long_url BYTEA NOT NULL,
+  redirect_status INTEGER,
+  cache_max_age INTEGER,
+  expires_at TIMESTAMP WITH TIME ZONE,
+  archived_at TIMESTAMP WITH TIME ZONE NOT NULL DEFAULT now(),
+  PRIMARY KEY (short_url)
+);
+
+CREATE INDEX url_archive_long_url_hash_idx ON url_archive (long_url_hash);
+
+-- A short url stays taken while its link is archived: inserting it again in url_entity fails
+-- like a duplicate would, and the application tries the next short url of the long url.
+CREATE FUNCTION reject_archived_short_url() RETURNS TRIGGER AS $$
+BEGIN
+  IF EXISTS (SELECT 1 FROM url_archive WHERE short_url = NEW.short_url) THEN
+    RAISE unique_violation USING MESSAGE = 'short url ' || NEW.short_url || ' is archived';
+  END IF;
+  RETURN NEW;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER url_entity_archived_short_url
+  BEFORE INSERT ON url_entity
+  FOR EACH ROW EXECUTE PROCEDURE reject_archived_short_url();
+
+-- Walked by the tiering job, coldest links first.
+CREATE INDEX url_entity_last_accessed_at_idx ON url_entity (last_accessed_at, short_url);
@@ -0,0 +1,94 @@
+-- First step of the move of url_entity to a hash partitioned layout, completed by V8. It only creates
+-- tables and triggers, and can be applied while the application serves traffic: deploy with
+-- spring.flyway.target=7, copy the existing links with url-shortener.partitioning.backfill.enabled,
+-- then deploy without the target.
+
+-- The links, partitioned by a hash of the short url: every lookup by short url reads one partition,
+-- and vacuum, index maintenance and backups work on partitions of a sixteenth of the links.
+CREATE TABLE url_entity_partitioned (
+  short_url VARCHAR(10) NOT NULL,
+  long_url VARCHAR(400) NOT NULL,
+  redirect_status INTEGER,
+  cache_max_age INTEGER,
+  expires_at TIMESTAMP WITH TIME ZONE,
+  last_accessed_at TIMESTAMP WITH TIME ZONE NOT NULL DEFAULT now(),
+  PRIMARY KEY (short_url)
+) PARTITION BY HASH (short_url);
+
+CREATE INDEX url_entity_partitioned_expires_at_idx
+  ON url_entity_partitioned (expires_at, short_url) WHERE expires_at IS NOT NULL;
+CREATE INDEX url_entity_partitioned_last_accessed_at_idx ON url_entity_partitioned (last_accessed_at, short_url);
+
+-- A unique constraint of a partitioned table must contain the partition key. The long urls are unique
+-- in a table of their own, partitioned by a hash of the long url, that maps them to their short url.
+CREATE TABLE url_long_url_partitioned (
+  long_url VARCHAR(400) NOT NULL,
+  short_url VARCHAR(10) NOT NULL,
+  PRIMARY KEY (long_url)
+) PARTITION BY HASH (long_url);
+
+DO $$
+BEGIN
+  FOR remainder IN 0..15 LOOP
+    EXECUTE format('CREATE TABLE url_entity_p%s PARTITION OF url_entity_partitioned'
+      || ' FOR VALUES WITH (MODULUS 16, REMAINDER %s)', lpad(remainder::TEXT, 2, '0'), remainder);
+    EXECUTE format('CREATE TABLE url_long_url_p%s PARTITION OF url_long_url_partitioned'
+      || ' FOR VALUES WITH (MODULUS 16, REMAINDER %s)', lpad(remainder::TEXT, 2, '0'), remainder);
+  END LOOP;
+END;
+$$;
+
+-- Keeps the long urls in step with the links. Storing a long url twice fails with a unique violation,
+-- like the primary key of the unpartitioned table did.
+CREATE FUNCTION index_long_url() RETURNS TRIGGER AS $$
+BEGIN
+  IF TG_OP IN ('UPDATE', 'DELETE') THEN
+    DELETE FROM url_long_url_partitioned WHERE long_url = OLD.long_url AND short_url = OLD.short_url;
+  END IF;
+  IF TG_OP IN ('UPDATE', 'INSERT') THEN
+    INSERT INTO url_long_url_partitioned (long_url, short_url) VALUES (NEW.long_url, NEW.short_url);
+  END IF;
+  RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER url_entity_long_url
+  AFTER INSERT OR DELETE OR UPDATE OF short_url, long_url ON url_entity_partitioned
+  FOR EACH ROW EXECUTE PROCEDURE index_long_url();
+
+-- Until V8, every change to url_entity is repeated on the partitioned copy. Links the backfill has
+-- not copied yet are not there to update or delete, it copies their latest version later.
+CREATE FUNCTION mirror_url_entity() RETURNS TRIGGER AS $$
+BEGIN
+  IF TG_OP = 'INSERT' THEN
+    INSERT INTO url_entity_partitioned (short_url, long_url, redirect_status, cache_max_age, expires_at,
+        last_accessed_at)
+      VALUES (NEW.short_url, NEW.long_url, NEW.redirect_status, NEW.cache_max_age, NEW.expires_at,
+        NEW.last_accessed_at)
+      ON CONFLICT DO NOTHING;
+  ELSIF TG_OP = 'UPDATE' THEN
+    UPDATE url_entity_partitioned SET short_url = NEW.short_url, long_url = NEW.long_url,
+        redirect_status = NEW.redirect_status, cache_max_age = NEW.cache_max_age, expires_at = NEW.expires_at,
+        last_accessed_at = NEW.last_accessed_at
+      WHERE short_url = OLD.short_url;
+  ELSE
+    DELETE FROM url_entity_partitioned WHERE short_url = OLD.short_url;
+  END IF;
+  RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER url_entity_mirror
+  AFTER INSERT OR UPDATE OR DELETE ON url_entity
+  FOR EACH ROW EXECUTE PROCEDURE mirror_url_entity();
+
+-- The application looks long urls up through url_long_url, a view of url_entity until V8 replaces it.
+CREATE VIEW url_long_url AS SELECT long_url, short_url FROM url_entity;
+
+-- Progress of the backfill: the links up to this short url, in short url order, were copied.
+CREATE TABLE url_entity_backfill (
+  last_short_url VARCHAR(10) NOT NULL,
+  done BOOLEAN NOT NULL
+);
+
+INSERT INTO url_entity_backfill (last_short_url, done) VALUES ('', false);
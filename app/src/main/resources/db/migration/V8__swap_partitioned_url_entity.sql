@@ -0,0 +1,73 @@
+-- Second step of the move of url_entity to a hash partitioned layout: the partitioned copy created by V7
+-- replaces url_entity. Writes wait for the lock until the migration commits, reads go on until the drop.
+LOCK TABLE url_entity IN EXCLUSIVE MODE;
+
+-- Copies the links the backfill has not reached: none once it is done, all of them when it never ran.
+INSERT INTO url_entity_partitioned (short_url, long_url, redirect_status, cache_max_age, expires_at,
+    last_accessed_at)
+  SELECT short_url, long_url, redirect_status, cache_max_age, expires_at, last_accessed_at
+  FROM url_entity
+  WHERE short_url > (SELECT last_short_url FROM url_entity_backfill)
+  ON CONFLICT DO NOTHING;
+
+DROP VIEW url_long_url;
+DROP TABLE url_entity;
+DROP FUNCTION mirror_url_entity();
+DROP TABLE url_entity_backfill;
+
+ALTER TABLE url_entity_partitioned RENAME TO url_entity;
+ALTER INDEX url_entity_partitioned_pkey RENAME TO url_entity_pkey;
+ALTER INDEX url_entity_partitioned_expires_at_idx RENAME TO url_entity_expires_at_idx;
+ALTER INDEX url_entity_partitioned_last_accessed_at_idx RENAME TO url_entity_last_accessed_at_idx;
+ALTER TABLE url_long_url_partitioned RENAME TO url_long_url;
+ALTER INDEX url_long_url_partitioned_pkey RENAME TO url_long_url_pkey;
+
+CREATE OR REPLACE FUNCTION index_long_url() RETURNS TRIGGER AS $$
+BEGIN
+  IF TG_OP IN ('UPDATE', 'DELETE') THEN
+    DELETE FROM url_long_url WHERE long_url = OLD.long_url AND short_url = OLD.short_url;
+  END IF;
+  IF TG_OP IN ('UPDATE', 'INSERT') THEN
+    INSERT INTO url_long_url (long_url, short_url) VALUES (NEW.long_url, NEW.short_url);
+  END IF;
+  RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+-- The changed row is a row of a partition now, its type is no longer that of url_entity.
+-- Payload format unchanged: <event id>|<event type>|<short url>|<redirect status>|<cache max age>|<expires at>|<long url>
+CREATE OR REPLACE FUNCTION publish_url_mapping_event() RETURNS TRIGGER AS $$
+DECLARE
+  changed RECORD;
+  type CHAR(1);
+  event_id BIGINT;
+BEGIN
+  IF TG_OP = 'INSERT' THEN
+    changed := NEW;
+    type := 'I';
+  ELSE
+    changed := OLD;
+    type := 'D';
+  END IF;
+  INSERT INTO url_mapping_event (event_type, short_url, long_url)
+    VALUES (type, changed.short_url, changed.long_url)
+    RETURNING id INTO event_id;
+  PERFORM pg_notify('url_mapping_events',
+    event_id || '|' || type || '|' || changed.short_url
+      || '|' || COALESCE(changed.redirect_status::TEXT, '')
+      || '|' || COALESCE(changed.cache_max_age::TEXT, '')
+      || '|' || COALESCE((EXTRACT(EPOCH FROM changed.expires_at) * 1000)::BIGINT::TEXT, '')
+      || '|' || changed.long_url);
+  RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER url_entity_mapping_event
+  AFTER INSERT OR DELETE ON url_entity
+  FOR EACH ROW EXECUTE PROCEDURE publish_url_mapping_event();
+
+-- Postgres 11 has no BEFORE row triggers on partitioned tables, archived short urls are rejected after
+-- the insert, which aborts it all the same.
+CREATE TRIGGER url_entity_archived_short_url
+  AFTER INSERT ON url_entity
+  FOR EACH ROW EXECUTE PROCEDURE reject_archived_short_url();
@@ -0,0 +1,6 @@
+-- Replicas in the ring that decides which one creates the short url of a long url. Every replica
+-- refreshes its heartbeat while it runs and deletes its row when it stops.
+CREATE TABLE shortener_member (
+  address VARCHAR(200) PRIMARY KEY,
+  heartbeat_at TIMESTAMP WITH TIME ZONE NOT NULL
+);
@@ -0,0 +1,299 @@
+package org.juliazo.url.shortener;
+
+import io.grpc.ManagedChannel;
+import io.grpc.StatusRuntimeException;
+import io.grpc.netty.shaded.io.grpc.netty.NettyChannelBuilder;
+import io.grpc.stub.StreamObserver;
+import org.juliazo.url.shortener.grpc.GrpcServer;
+import org.juliazo.url.shortener.grpc.api.Outcome;
+import org.juliazo.url.shortener.grpc.api.ResolveRequest;
+import org.juliazo.url.shortener.grpc.api.ShortenRequest;
+import org.juliazo.url.shortener.grpc.api.UrlShortenerGrpc;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntPredicate;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Throughput and latency of the REST API against the gRPC endpoint, on the same
+ * application and database. Results are logged, nothing is asserted about them.
+ * <p>
+ * Not part of the regular test run, run with the benchmark profile:
+ * mvn test -Pbenchmark
+ * <p>
+ * Like the integration tests, it requires the docker environment to be up and running.
+ */
+@Tag("benchmark")
+@RunWith(JUnitPlatform.class)
+@ActiveProfiles("integration-test")
+@SpringBootTest(classes = UrlShortenerApp.class, webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {
+                "url-shortener.grpc.enabled=true",
+                "url-shortener.grpc.port=0",
+                "logging.level.org.juliazo.url.shortener.controller=WARN"
+        })
+public class UrlShortenerAppBenchmarkTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(UrlShortenerAppBenchmarkTest.class);
+
+    private static final int CLIENT_THREADS = 16;
+
+    private static final int LINKS = 1_000;
+
+    private static final int RESOLVES = 20_000;
+
+    private static final int SHORTENS = 5_000;
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private GrpcServer grpcServer;
+
+    private final HttpClient httpClient = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .followRedirects(HttpClient.Redirect.NEVER)
+            .build();
+
+    private ManagedChannel channel;
+
+    private final List<String> shortUrls = new ArrayList<>();
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        channel = NettyChannelBuilder.forAddress("localhost", grpcServer.getPort()).usePlaintext().build();
+        UrlShortenerGrpc.UrlShortenerBlockingStub stub = UrlShortenerGrpc.newBlockingStub(channel);
+        for (int i = 0; i < LINKS; i++) {
+            shortUrls.add(stub.shorten(ShortenRequest.newBuilder()
+                    .setLongUrl(uniqueUrl()).build()).getShortUrl());
+        }
+    }
+
+    @AfterEach
+    public void tearDown() {
+        channel.shutdownNow();
+    }
+
+    /**
+     * Benchmark: resolve existing short urls over REST, gRPC unary calls and one gRPC stream
+     */
+    @Test
+    public void benchmarkResolve() throws Exception {
+        UrlShortenerGrpc.UrlShortenerBlockingStub stub = UrlShortenerGrpc.newBlockingStub(channel);
+        IntPredicate rest = i -> {
+            HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl() + shortUrl(i))).GET().build();
+            return send(request) == 302;
+        };
+        IntPredicate grpcUnary = i -> stub.resolve(ResolveRequest.newBuilder()
+                .setShortUrl(shortUrl(i)).build()).getOutcome() == Outcome.OK;
+
+        // warm up both paths before measuring
+        measure("warm up", RESOLVES / 4, rest);
+        measure("warm up", RESOLVES / 4, grpcUnary);
+
+        logger.info("Resolve, {} requests, {} client threads", RESOLVES, CLIENT_THREADS);
+        assertEquals(RESOLVES, measure("REST GET /{shortUrl}", RESOLVES, rest));
+        assertEquals(RESOLVES, measure("gRPC Resolve", RESOLVES, grpcUnary));
+        assertEquals(RESOLVES, measureResolveStream(RESOLVES));
+    }
+
+    /**
+     * Benchmark: shorten new long urls over REST, gRPC unary calls and one gRPC stream
+     */
+    @Test
+    public void benchmarkShorten() throws Exception {
+        UrlShortenerGrpc.UrlShortenerBlockingStub stub = UrlShortenerGrpc.newBlockingStub(channel);
+        IntPredicate rest = i -> {
+            HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl() + "shorten"))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString("{\"longUrl\":\"" + uniqueUrl() + "\"}"))
+                    .build();
+            return send(request) == 200;
+        };
+        IntPredicate grpcUnary = i -> stub.shorten(ShortenRequest.newBuilder()
+                .setLongUrl(uniqueUrl()).build()).getOutcome() == Outcome.OK;
+
+        measure("warm up", SHORTENS / 4, rest);
+        measure("warm up", SHORTENS / 4, grpcUnary);
+
+        logger.info("Shorten, {} requests, {} client threads", SHORTENS, CLIENT_THREADS);
+        assertTrue(measure("REST POST /shorten", SHORTENS, rest) > 0);
+        assertTrue(measure("gRPC Shorten", SHORTENS, grpcUnary) > 0);
+        assertTrue(measureShortenStream(SHORTENS) > 0);
+    }
+
+    /**
+     * Runs the operations on {@link #CLIENT_THREADS} threads, each waiting for its
+     * response before sending its next request, and logs throughput and latencies.
+     *
+     * @return how many operations succeeded
+     */
+    private int measure(String name, int operations, IntPredicate operation) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(CLIENT_THREADS);
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger succeeded = new AtomicInteger();
+        long[] latencies = new long[operations];
+        long start = System.nanoTime();
+        try {
+            List<Future<?>> clients = new ArrayList<>();
+            for (int thread = 0; thread < CLIENT_THREADS; thread++) {
+                clients.add(executor.submit(() -> {
+                    for (int i = next.getAndIncrement(); i < operations; i = next.getAndIncrement()) {
+                        long operationStart = System.nanoTime();
+                        try {
+                            if (operation.test(i)) {
+                                succeeded.incrementAndGet();
+                            }
+                        } catch (StatusRuntimeException exception) {
+                            // counted as failed, e.g. when shed by the concurrency limiter
+                        }
+                        latencies[i] = System.nanoTime() - operationStart;
+                    }
+                }));
+            }
+            for (Future<?> client : clients) {
+                client.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        report(name, operations, succeeded.get(), System.nanoTime() - start, latencies);
+        return succeeded.get();
+    }
+
+    /**
+     * Sends every request on a single stream, as fast as the flow control allows.
+     *
+     * @return how many requests succeeded
+     */
+    private int measureResolveStream(int operations) throws InterruptedException {
+        AtomicInteger succeeded = new AtomicInteger();
+        CountDownLatch completed = new CountDownLatch(1);
+        long start = System.nanoTime();
+        StreamObserver<ResolveRequest> requests = UrlShortenerGrpc.newStub(channel)
+                .resolveStream(new CountingObserver<>(completed,
+                        response -> response.getOutcome() == Outcome.OK, succeeded));
+        for (int i = 0; i < operations; i++) {
+            requests.onNext(ResolveRequest.newBuilder().setId(i).setShortUrl(shortUrl(i)).build());
+        }
+        requests.onCompleted();
+        assertTrue(completed.await(5, TimeUnit.MINUTES));
+        report("gRPC ResolveStream", operations, succeeded.get(), System.nanoTime() - start, null);
+        return succeeded.get();
+    }
+
+    private int measureShortenStream(int operations) throws InterruptedException {
+        AtomicInteger succeeded = new AtomicInteger();
+        CountDownLatch completed = new CountDownLatch(1);
+        long start = System.nanoTime();
+        StreamObserver<ShortenRequest> requests = UrlShortenerGrpc.newStub(channel)
+                .shortenStream(new CountingObserver<>(completed,
+                        response -> response.getOutcome() == Outcome.OK, succeeded));
+        for (int i = 0; i < operations; i++) {
+            requests.onNext(ShortenRequest.newBuilder().setId(i).setLongUrl(uniqueUrl()).build());
+        }
+        requests.onCompleted();
+        assertTrue(completed.await(5, TimeUnit.MINUTES));
+        report("gRPC ShortenStream", operations, succeeded.get(), System.nanoTime() - start, null);
+        return succeeded.get();
+    }
+
+    private static void report(String name, int operations, int succeeded, long elapsedNanos, long[] latencies) {
+        double seconds = elapsedNanos / 1e9;
+        if (latencies == null) {
+            logger.info(String.format("%-22s %9.0f ops/s  %6d failed", name, operations / seconds,
+                    operations - succeeded));
+            return;
+        }
+        Arrays.sort(latencies);
+        logger.info(String.format("%-22s %9.0f ops/s  %6d failed  p50 %7.3f ms  p99 %7.3f ms  max %7.3f ms",
+                name, operations / seconds, operations - succeeded,
+                latencies[operations / 2] / 1e6, latencies[operations * 99 / 100] / 1e6,
+                latencies[operations - 1] / 1e6));
+    }
+
+    private int send(HttpRequest request) {
+        try {
+            return httpClient.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+        } catch (Exception exception) {
+            return -1;
+        }
+    }
+
+    private String baseUrl() {
+        return "http://localhost:" + port + "/";
+    }
+
+    private String shortUrl(int i) {
+        return shortUrls.get(i % shortUrls.size());
+    }
+
+    private static String uniqueUrl() {
+        return "https://benchmark.example.com/" + UUID.randomUUID();
+    }
+
+    /**
+     * Counts the successful responses of a stream and signals its completion.
+     */
+    private static final class CountingObserver<T> implements StreamObserver<T> {
+
+        private final CountDownLatch completed;
+
+        private final Predicate<T> success;
+
+        private final AtomicInteger succeeded;
+
+        private CountingObserver(CountDownLatch completed, Predicate<T> success,
+                                 AtomicInteger succeeded) {
+            this.completed = completed;
+            this.success = success;
+            this.succeeded = succeeded;
+        }
+
+        @Override
+        public void onNext(T response) {
+            if (success.test(response)) {
+                succeeded.incrementAndGet();
+            }
+        }
+
+        @Override
+        public void onError(Throwable failure) {
+            logger.error("Stream failed", failure);
+            completed.countDown();
+        }
+
+        @Override
+        public void onCompleted() {
+            completed.countDown();
+        }
+    }
+}
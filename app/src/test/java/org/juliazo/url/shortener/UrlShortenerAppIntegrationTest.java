@@ -0,0 +1,723 @@
+package org.juliazo.url.shortener;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.flywaydb.core.Flyway;
+import org.juliazo.url.shortener.commons.payload.ErrorResponsePayload;
+import org.juliazo.url.shortener.commons.payload.ResolveBatchItemPayload;
+import org.juliazo.url.shortener.commons.payload.UrlBatchItemPayload;
+import org.juliazo.url.shortener.commons.payload.UrlRequestPayload;
+import org.juliazo.url.shortener.commons.payload.UrlResponsePayload;
+import org.juliazo.url.shortener.controller.UrlShortenerController;
+import org.juliazo.url.shortener.maintenance.CanonicalUrlMigration;
+import org.juliazo.url.shortener.maintenance.UrlEntityBackfill;
+import org.juliazo.url.shortener.model.UrlEntity;
+import org.juliazo.url.shortener.repository.UrlShortenerRepository;
+import org.juliazo.url.shortener.service.UrlCanonicalizer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.NullSource;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.context.ApplicationContext;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.util.DigestUtils;
+import org.testcontainers.shaded.org.apache.commons.lang.RandomStringUtils;
+
+import javax.sql.DataSource;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Integration tests for Url Shortener Application
+ * The integration tests required the docker environment
+ * to be up and running.
+ * <p>
+ * To run only integration tests use command line:
+ * mvn clean test -Dtest=UrlShortenerAppIntegrationTest
+ * <p>
+ * To run all tests except this one (only unit tests)
+ * use command line:
+ * mvn clean test -Dtest=!UrlShortenerAppIntegrationTest
+ * <p>
+ * Coverage report will be in ./target/jacoco-coverage/index.html
+ */
+@RunWith(JUnitPlatform.class)
+@ActiveProfiles("integration-test")
+@SpringBootTest(classes = UrlShortenerApp.class, webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+public class UrlShortenerAppIntegrationTest {
+
+    private static final int SHORT_URL_SIZE = 6;
+    private static final String PARTITIONING_SCHEMA = "partitioning_test";
+    private static final String CANONICALIZATION_SCHEMA = "canonicalization_test";
+    private static final Logger logger = LoggerFactory.getLogger(UrlShortenerApp.class);
+
+    @LocalServerPort
+    private int port;
+
+    private final TestRestTemplate restTemplate = new TestRestTemplate();
+
+    private final HttpHeaders headers = new HttpHeaders();
+
+    @Autowired
+    private UrlShortenerController urlShortenerController;
+
+    @Autowired
+    private UrlShortenerRepository urlShortenerRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private DataSourceProperties dataSourceProperties;
+
+    /**
+     * Creates the service URL using localhost and a dynamic port provided by Springboot
+     *
+     * @param uri the query parameters and endpoint to be used
+     * @return the compound URI
+     */
+    private String createURLWithPort(String uri) {
+        return "http://localhost:" + port + "/" + uri;
+    }
+
+    /**
+     * POST Operation to shorten a valid url
+     *
+     * @param requestPayload the input data as a {@link UrlRequestPayload}
+     * @return the response of the request as a {@link UrlResponsePayload}
+     */
+    private ResponseEntity<UrlResponsePayload> shortenValidUrl(UrlRequestPayload requestPayload) {
+        HttpEntity<UrlRequestPayload> entity = new HttpEntity<>(requestPayload, headers);
+
+        return restTemplate.exchange(
+                createURLWithPort("shorten"),
+                HttpMethod.POST, entity, UrlResponsePayload.class);
+    }
+
+    /**
+     * All long urls must be absolute (start with http or https).
+     * Relative urls are interpreted as being relative to this service,
+     * not separate urls.
+     *
+     * @param longUrl user provided url
+     * @return the url with http protocol
+     */
+    private static String makeAbsoluteUrl(String longUrl) {
+        String absoluteUrl = longUrl;
+        if (!longUrl.startsWith("http")) {
+            absoluteUrl = "http://" + longUrl;
+        }
+        return absoluteUrl;
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"https://google.com", "https://www.google.com,", "httpforever.com",
+            "http://google.com", "http://www.google.com", "google.com", "www.google.com",
+            "https://www.google.com/search?q=Grandparents%27+Day&oi=ddle&ct=119275999&hl=en-GB&sa=X&ved=0ahUKEwi8rY3qvIflAhWPRMAKHXkaDJsQPQgL&biw=1191&bih=634&dpr=1"})
+    public void testShortenValidUrl(String longUrl) {
+        var randomString = RandomStringUtils.randomAlphabetic(10);
+        logger.debug("Running test for url: [{}]", longUrl + randomString);
+        UrlRequestPayload requestPayload = new UrlRequestPayload();
+        requestPayload.setLongUrl(longUrl + randomString);
+
+        ResponseEntity<UrlResponsePayload> response = shortenValidUrl(requestPayload);
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+
+        UrlResponsePayload responsePayload = response.getBody();
+        assertNotNull(responsePayload);
+        assertEquals(longUrl + randomString, responsePayload.getLongUrl());
+        var shortUrl = responsePayload.getShortUrl();
+        assertNotNull(shortUrl);
+        assertFalse(shortUrl.isEmpty());
+    }
+
+    /**
+     * Test POST /shorten for the same url.
+     * With or without http protocol = same.
+     */
+    @Test
+    public void testShortenTheSameValidUrl() {
+        var randomString = RandomStringUtils.randomAlphabetic(10);
+        var longUrl = "http://google.com" + randomString;
+        UrlRequestPayload requestPayload1 = new UrlRequestPayload();
+        requestPayload1.setLongUrl(longUrl);
+        UrlRequestPayload requestPayload2 = new UrlRequestPayload();
+        requestPayload2.setLongUrl("google.com" + randomString);
+
+        ResponseEntity<UrlResponsePayload> response1 = shortenValidUrl(requestPayload1);
+        assertEquals(HttpStatus.OK, response1.getStatusCode());
+
+        ResponseEntity<UrlResponsePayload> response2 = shortenValidUrl(requestPayload2);
+        assertEquals(HttpStatus.OK, response2.getStatusCode());
+
+        UrlResponsePayload responsePayload1 = response1.getBody();
+        UrlResponsePayload responsePayload2 = response2.getBody();
+        assertNotNull(responsePayload1);
+        assertNotNull(responsePayload2);
+        var shortUrl1 = responsePayload1.getShortUrl();
+        var shortUrl2 = responsePayload2.getShortUrl();
+
+        assertShortUrlOk(shortUrl1, shortUrl2);
+        assertEquals(shortUrl1, shortUrl2);
+    }
+
+    /**
+     * Test POST /shorten for the "same" url.
+     * Http and https protocols = different
+     * With or without www = different
+     */
+    @Test
+    public void testShortenDifferentValidUrl() {
+        var randomString = RandomStringUtils.randomAlphabetic(10);
+        var longUrl = "http://google.com" + randomString;
+        UrlRequestPayload requestPayload1 = new UrlRequestPayload();
+        requestPayload1.setLongUrl(longUrl);
+        UrlRequestPayload requestPayload2 = new UrlRequestPayload();
+        requestPayload2.setLongUrl("http://www.google.com" + randomString);
+
+        ResponseEntity<UrlResponsePayload> response1 = shortenValidUrl(requestPayload1);
+        assertEquals(HttpStatus.OK, response1.getStatusCode());
+
+        ResponseEntity<UrlResponsePayload> response2 = shortenValidUrl(requestPayload2);
+        assertEquals(HttpStatus.OK, response2.getStatusCode());
+
+        UrlResponsePayload responsePayload1 = response1.getBody();
+        UrlResponsePayload responsePayload2 = response2.getBody();
+        assertNotNull(responsePayload1);
+        assertNotNull(responsePayload2);
+        var shortUrl1 = responsePayload1.getShortUrl();
+        var shortUrl2 = responsePayload2.getShortUrl();
+
+        assertShortUrlOk(shortUrl1, shortUrl2);
+        assertNotEquals(shortUrl1, shortUrl2);
+    }
+
+    private static void assertShortUrlOk(String shortUrl1, String shortUrl2) {
+        assertNotNull(shortUrl1);
+        assertFalse(shortUrl1.isEmpty());
+        assertNotNull(shortUrl2);
+        assertFalse(shortUrl2.isEmpty());
+    }
+
+    /**
+     * Test invalid cases for POST /shorten:
+     * Null, empty string, space, invalid characters.
+     *
+     * @param longUrl user provided url
+     */
+    @ParameterizedTest
+    @NullSource
+    @ValueSource(strings = {"", " ", "https://goo gle.com", "http://goog|e.com"})
+    public void testShortenInvalidUrl(String longUrl) {
+        logger.debug("Running test for url: [{}]", longUrl);
+        UrlRequestPayload requestPayload = new UrlRequestPayload();
+        requestPayload.setLongUrl(longUrl);
+
+        ResponseEntity<ErrorResponsePayload> response = restTemplate.exchange(
+                createURLWithPort("shorten"), HttpMethod.POST,
+                new HttpEntity<>(requestPayload, headers), ErrorResponsePayload.class);
+
+        assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+
+        ErrorResponsePayload responsePayload = response.getBody();
+        assertNotNull(responsePayload);
+        assertEquals(HttpStatus.BAD_REQUEST.value(), responsePayload.getStatus());
+        assertEquals(HttpStatus.BAD_REQUEST.getReasonPhrase(), responsePayload.getReasonPhrase());
+        assertEquals("The provided url is malformed or otherwise invalid.", responsePayload.getMessage());
+    }
+
+    /**
+     * Test invalid cases for GET /{shortUrl}:
+     * Shorter than 6 chars, bigger than 6 chars, non-existent.
+     *
+     * @param shortUrl application generated short url identifier
+     */
+    @ParameterizedTest
+    @ValueSource(strings = {"elu39", "balling", "julia1"})
+    public void testLookupInvalidUrl(String shortUrl) {
+        logger.debug("Running test for url: [{}]", shortUrl);
+
+        ResponseEntity<ErrorResponsePayload> response = restTemplate.exchange(
+                createURLWithPort(shortUrl), HttpMethod.GET,
+                null, ErrorResponsePayload.class);
+        assertEquals(HttpStatus.NOT_FOUND, response.getStatusCode());
+
+        ErrorResponsePayload responsePayload = response.getBody();
+        assertNotNull(responsePayload);
+        assertEquals(HttpStatus.NOT_FOUND.value(), responsePayload.getStatus());
+
+        assertEquals("The requested short url was not found.", responsePayload.getMessage());
+        assertEquals(HttpStatus.NOT_FOUND.getReasonPhrase(), responsePayload.getReasonPhrase());
+    }
+
+    /**
+     * Test GET /{shortUrl} redirects to the canonical form of the shortened url,
+     * which differs from the original one by {@code canonicalSuffix}.
+     */
+    @ParameterizedTest
+    @CsvSource({"http://google.com, /", "www.google.com, /",
+            "'https://www.google.com/search?q=Grandparents%27+Day&oi=ddle&ct=119275999&hl=en-GB&sa=X&ved=0ahUKEwi8rY3qvIflAhWPRMAKHXkaDJsQPQgL&biw=1191&bih=634&dpr=1', ''"})
+    public void testLookupValidUrl(String longUrl, String canonicalSuffix) {
+        var randomString = RandomStringUtils.randomAlphabetic(10).toLowerCase();
+        logger.debug("Running test for url: [{}]", longUrl + randomString);
+        UrlRequestPayload requestPayload = new UrlRequestPayload();
+        requestPayload.setLongUrl(longUrl + randomString);
+
+        ResponseEntity<UrlResponsePayload> response = shortenValidUrl(requestPayload);
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+
+        UrlResponsePayload responsePayload = response.getBody();
+        assertNotNull(responsePayload);
+        var shortUrl = responsePayload.getShortUrl();
+        shortUrl = shortUrl.substring(shortUrl.length() - SHORT_URL_SIZE);
+
+        ResponseEntity actual = restTemplate.getForEntity(
+                createURLWithPort(shortUrl),
+                ResponseEntity.class);
+
+        assertEquals(HttpStatus.FOUND, actual.getStatusCode());
+        assertEquals(makeAbsoluteUrl(longUrl + randomString) + canonicalSuffix,
+                actual.getHeaders().getLocation().toString());
+    }
+
+    /**
+     * Test POST /shorten for equivalent urls.
+     * Scheme and host case, default port and tracking parameters = same
+     */
+    @Test
+    public void testShortenEquivalentUrls() {
+        var randomString = RandomStringUtils.randomAlphabetic(10);
+        UrlRequestPayload requestPayload1 = new UrlRequestPayload();
+        requestPayload1.setLongUrl("HTTP://Google.com:80/" + randomString + "?utm_source=newsletter");
+        UrlRequestPayload requestPayload2 = new UrlRequestPayload();
+        requestPayload2.setLongUrl("google.com/" + randomString);
+
+        ResponseEntity<UrlResponsePayload> response1 = shortenValidUrl(requestPayload1);
+        assertEquals(HttpStatus.OK, response1.getStatusCode());
+
+        ResponseEntity<UrlResponsePayload> response2 = shortenValidUrl(requestPayload2);
+        assertEquals(HttpStatus.OK, response2.getStatusCode());
+
+        assertNotNull(response1.getBody());
+        assertNotNull(response2.getBody());
+        assertEquals(response1.getBody().getShortUrl(), response2.getBody().getShortUrl());
+        assertEquals("http://google.com/" + randomString,
+                urlShortenerRepository.findByLongUrl("http://google.com/" + randomString).get().getLongUrl());
+    }
+
+    /**
+     * Test GET /{shortUrl} for a link created with its own redirect policy,
+     * then repeated as a conditional request.
+     */
+    @Test
+    public void testLookupUrlWithLinkPolicy() {
+        UrlRequestPayload requestPayload = new UrlRequestPayload();
+        requestPayload.setLongUrl("http://google.com" + RandomStringUtils.randomAlphabetic(10));
+        requestPayload.setRedirectStatus(301);
+        requestPayload.setCacheMaxAge(3600);
+
+        ResponseEntity<UrlResponsePayload> response = shortenValidUrl(requestPayload);
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        UrlResponsePayload responsePayload = response.getBody();
+        assertNotNull(responsePayload);
+        var shortUrl = responsePayload.getShortUrl();
+        shortUrl = shortUrl.substring(shortUrl.length() - SHORT_URL_SIZE);
+
+        ResponseEntity<Void> actual = restTemplate.getForEntity(createURLWithPort(shortUrl), Void.class);
+        assertEquals(HttpStatus.MOVED_PERMANENTLY, actual.getStatusCode());
+        assertEquals("max-age=3600, public", actual.getHeaders().getCacheControl());
+
+        HttpHeaders conditionalHeaders = new HttpHeaders();
+        conditionalHeaders.setIfNoneMatch(actual.getHeaders().getETag());
+        ResponseEntity<Void> conditional = restTemplate.exchange(createURLWithPort(shortUrl), HttpMethod.GET,
+                new HttpEntity<>(conditionalHeaders), Void.class);
+        assertEquals(HttpStatus.NOT_MODIFIED, conditional.getStatusCode());
+    }
+
+    /**
+     * Concurrent test for POST to /shorten
+     * Two requests are expected to trigger a conflict in the database (seen
+     * in the execution logs) but all three should return a successful result.
+     */
+    @Test
+    public void testConcurrentShortenRequestsWithSameUrl() {
+        int numOfConcurrentRequests = 3;
+        AtomicInteger successfulRuns = new AtomicInteger(0);
+
+        UrlRequestPayload requestPayload = new UrlRequestPayload();
+        requestPayload.setLongUrl("http://" + RandomStringUtils.randomAlphabetic(10) + ".com");
+
+        CountDownLatch requestsLatch = new CountDownLatch(numOfConcurrentRequests);
+        CountDownLatch releaseLatch = new CountDownLatch(1);
+
+        for (int i = 0; i < numOfConcurrentRequests; i++) {
+            new Thread(() -> {
+                try {
+                    releaseLatch.await();
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+                try {
+                    ResponseEntity<UrlResponsePayload> response = shortenValidUrl(requestPayload);
+                    if (HttpStatus.OK.equals(response.getStatusCode())) {
+                        successfulRuns.incrementAndGet();
+                    }
+                } finally {
+                    requestsLatch.countDown();
+                }
+            }).start();
+        }
+
+        releaseLatch.countDown();
+        try {
+            requestsLatch.await(3, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+
+        assertEquals(numOfConcurrentRequests, successfulRuns.get());
+    }
+
+    private static String generateRandomUrl() {
+        return ("http://conflict."
+                + RandomStringUtils.randomAlphabetic(5).toLowerCase() + ".com/");
+    }
+
+    /**
+     * Fabricates a hash conflict in the service: injects the database with 10 entries
+     * for short urls based on a given hash, but does not save into the database the url
+     * used to generate the hash.
+     */
+    private String createDataForConflict() {
+        String longUrl = generateRandomUrl();
+        String hash = DigestUtils.md5DigestAsHex(longUrl.getBytes());
+
+        //Currently the maximum number of attempts to solve a conflict is 10.
+        //We need 11 entries to conflict with the initial attempt, and 10
+        //more attempts to solve the conflict.
+        List<UrlEntity> conflictingEntities = List.of(
+                new UrlEntity(hash.substring(0, 6), generateRandomUrl()),
+                new UrlEntity(hash.substring(1, 7), generateRandomUrl()),
+                new UrlEntity(hash.substring(2, 8), generateRandomUrl()),
+                new UrlEntity(hash.substring(3, 9), generateRandomUrl()),
+                new UrlEntity(hash.substring(4, 10), generateRandomUrl()),
+                new UrlEntity(hash.substring(5, 11), generateRandomUrl()),
+                new UrlEntity(hash.substring(6, 12), generateRandomUrl()),
+                new UrlEntity(hash.substring(7, 13), generateRandomUrl()),
+                new UrlEntity(hash.substring(8, 14), generateRandomUrl()),
+                new UrlEntity(hash.substring(9, 15), generateRandomUrl()),
+                new UrlEntity(hash.substring(10, 16), generateRandomUrl()),
+                new UrlEntity(hash.substring(11, 17), generateRandomUrl()));
+        urlShortenerRepository.saveAll(conflictingEntities);
+        return longUrl;
+    }
+
+    @Test
+    public void testShortenUrlWithTooManyConflicts() {
+        String longUrl = createDataForConflict();
+        logger.debug("Running test for url: [{}]", longUrl);
+        UrlRequestPayload requestPayload = new UrlRequestPayload();
+        requestPayload.setLongUrl(longUrl);
+
+        ResponseEntity<ErrorResponsePayload> response = restTemplate.exchange(
+                createURLWithPort("shorten"), HttpMethod.POST,
+                new HttpEntity<>(requestPayload, headers), ErrorResponsePayload.class);
+
+        assertEquals(HttpStatus.CONFLICT, response.getStatusCode());
+
+        ErrorResponsePayload responsePayload = response.getBody();
+        assertNotNull(responsePayload);
+        assertEquals(HttpStatus.CONFLICT.value(), responsePayload.getStatus());
+        assertEquals(HttpStatus.CONFLICT.getReasonPhrase(), responsePayload.getReasonPhrase());
+        assertEquals("All attempts to create a short url resulted in conflicts, please try a different URL.", responsePayload.getMessage());
+    }
+
+    @Test
+    public void testShortenUrlsInBatch() {
+        String longUrl = generateRandomUrl();
+        List<UrlRequestPayload> requestPayloads = List.of(new UrlRequestPayload(longUrl),
+                new UrlRequestPayload("not a url"), new UrlRequestPayload(longUrl));
+
+        ResponseEntity<UrlBatchItemPayload[]> response = restTemplate.exchange(
+                createURLWithPort("shorten/batch"), HttpMethod.POST,
+                new HttpEntity<>(requestPayloads, headers), UrlBatchItemPayload[].class);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        UrlBatchItemPayload[] items = response.getBody();
+        assertNotNull(items);
+        assertEquals(3, items.length);
+        assertNotNull(items[0].getShortUrl());
+        assertEquals(items[0].getShortUrl(), items[2].getShortUrl());
+        assertEquals(HttpStatus.BAD_REQUEST.value(), items[1].getError().getStatus());
+
+        ResponseEntity<ErrorResponsePayload> empty = restTemplate.exchange(
+                createURLWithPort("shorten/batch"), HttpMethod.POST,
+                new HttpEntity<>(List.of(), headers), ErrorResponsePayload.class);
+        assertEquals(HttpStatus.BAD_REQUEST, empty.getStatusCode());
+    }
+
+    /**
+     * Test: a batch larger than a chunk is resolved in order, short urls of other links and
+     * unknown ones alike
+     */
+    @Test
+    public void testResolveUrlsInBatch() {
+        List<String> longUrls = List.of(generateRandomUrl(), generateRandomUrl(), generateRandomUrl());
+        ResponseEntity<UrlBatchItemPayload[]> shortened = restTemplate.exchange(
+                createURLWithPort("shorten/batch"), HttpMethod.POST,
+                new HttpEntity<>(longUrls.stream().map(UrlRequestPayload::new).collect(Collectors.toList()), headers),
+                UrlBatchItemPayload[].class);
+        assertNotNull(shortened.getBody());
+        List<String> shortUrls = new ArrayList<>();
+        for (int i = 0; i < 1200; i++) {
+            shortUrls.add(i % 2 == 0 ? URI.create(shortened.getBody()[i % 3].getShortUrl()).getPath().substring(1)
+                    : "zzzzzz");
+        }
+
+        ResponseEntity<ResolveBatchItemPayload[]> response = restTemplate.exchange(
+                createURLWithPort("resolve/batch"), HttpMethod.POST,
+                new HttpEntity<>(shortUrls, headers), ResolveBatchItemPayload[].class);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        ResolveBatchItemPayload[] items = response.getBody();
+        assertNotNull(items);
+        assertEquals(1200, items.length);
+        for (int i = 0; i < items.length; i++) {
+            assertEquals(shortUrls.get(i), items[i].getShortUrl());
+            if (i % 2 == 0) {
+                assertEquals(longUrls.get(i % 3), items[i].getLongUrl());
+            } else {
+                assertEquals(HttpStatus.NOT_FOUND.value(), items[i].getError().getStatus());
+            }
+        }
+    }
+
+    /**
+     * Test: links inserted, updated or deleted while the backfill copies them are the same in the
+     * partitioned copy once it is done, and in the partitioned url_entity once V8 swapped it in
+     */
+    @Test
+    public void testBackfillKeepsConcurrentChanges() throws Exception {
+        try (HikariDataSource dataSource = schemaDataSource(PARTITIONING_SCHEMA)) {
+            JdbcTemplate partitioning = new JdbcTemplate(dataSource);
+            migrate(dataSource, PARTITIONING_SCHEMA, "6");
+            for (int i = 0; i < 400; i++) {
+                partitioning.update("INSERT INTO url_entity (short_url, long_url) VALUES (?, ?)",
+                        String.format("bf%04d", i), "http://backfill.example.com/" + i);
+            }
+            migrate(dataSource, PARTITIONING_SCHEMA, "7");
+            UrlEntityBackfill backfill = new UrlEntityBackfill(partitioning,
+                    new DataSourceTransactionManager(dataSource), mock(ApplicationContext.class), 20, 20);
+            CompletableFuture<Void> copy = CompletableFuture.runAsync(() -> {
+                try {
+                    backfill.run(null);
+                } catch (InterruptedException exception) {
+                    throw new IllegalStateException(exception);
+                }
+            });
+            for (int i = 0; i < 400; i += 4) {
+                partitioning.update("UPDATE url_entity SET long_url = long_url || '/updated', redirect_status = 307"
+                        + " WHERE short_url = ?", String.format("bf%04d", i));
+                partitioning.update("DELETE FROM url_entity WHERE short_url = ?", String.format("bf%04d", i + 1));
+                partitioning.update("INSERT INTO url_entity (short_url, long_url) VALUES (?, ?)",
+                        String.format("bf%04dx", i + 2), "http://backfill.example.com/new/" + i);
+            }
+            copy.get(60, TimeUnit.SECONDS);
+
+            String links = "SELECT short_url, long_url, redirect_status FROM %s ORDER BY short_url";
+            List<Map<String, Object>> expected = partitioning.queryForList(String.format(links, "url_entity"));
+            assertEquals(400, expected.size());
+            assertEquals(expected, partitioning.queryForList(String.format(links, "url_entity_partitioned")));
+            migrate(dataSource, PARTITIONING_SCHEMA, "8");
+            assertEquals(expected, partitioning.queryForList(String.format(links, "url_entity")));
+            assertEquals(expected.stream().map(link -> link.get("long_url")).collect(Collectors.toSet()),
+                    new HashSet<>(partitioning.queryForList("SELECT long_url FROM url_long_url", String.class)));
+        } finally {
+            jdbcTemplate.execute("DROP SCHEMA IF EXISTS " + PARTITIONING_SCHEMA + " CASCADE");
+        }
+    }
+
+    /**
+     * Test: a long url stored twice, under another short url, is still rejected through url_long_url
+     */
+    @Test
+    public void testLongUrlStoredTwiceIsRejected() {
+        String longUrl = generateRandomUrl();
+        String shortUrl = RandomStringUtils.randomAlphanumeric(SHORT_URL_SIZE);
+        jdbcTemplate.update("INSERT INTO url_entity (short_url, long_url) VALUES (?, ?)", shortUrl, longUrl);
+
+        assertThrows(DuplicateKeyException.class, () -> jdbcTemplate.update(
+                "INSERT INTO url_entity (short_url, long_url) VALUES (?, ?)",
+                RandomStringUtils.randomAlphanumeric(SHORT_URL_SIZE), longUrl));
+        assertEquals(List.of(shortUrl), jdbcTemplate.queryForList(
+                "SELECT short_url FROM url_long_url WHERE long_url = ?", String.class, longUrl));
+    }
+
+    /**
+     * Test: inserting the short url of an archived link is still rejected, by the trigger that
+     * runs after the insert on the partitioned url_entity
+     */
+    @Test
+    public void testArchivedShortUrlIsRejected() {
+        String shortUrl = RandomStringUtils.randomAlphanumeric(SHORT_URL_SIZE);
+        jdbcTemplate.update("INSERT INTO url_archive (short_url, long_url_hash, long_url) VALUES (?, ?, ?)",
+                shortUrl, 0, new byte[]{0});
+        try {
+            assertThrows(DuplicateKeyException.class, () -> jdbcTemplate.update(
+                    "INSERT INTO url_entity (short_url, long_url) VALUES (?, ?)", shortUrl, generateRandomUrl()));
+            assertEquals(0, jdbcTemplate.queryForObject(
+                    "SELECT count(*) FROM url_entity WHERE short_url = ?", Integer.class, shortUrl));
+        } finally {
+            jdbcTemplate.update("DELETE FROM url_archive WHERE short_url = ?", shortUrl);
+        }
+    }
+
+    /**
+     * Test: the merge moves a link to the canonical form of its long url, keeping its short url
+     * and policy, while the report leaves it as it is
+     */
+    @Test
+    public void testCanonicalUrlMigrationRewritesLinks() {
+        try (HikariDataSource dataSource = schemaDataSource(CANONICALIZATION_SCHEMA)) {
+            JdbcTemplate canonicalization = new JdbcTemplate(dataSource);
+            migrate(dataSource, CANONICALIZATION_SCHEMA, "latest");
+            canonicalization.update("INSERT INTO url_entity (short_url, long_url, redirect_status, cache_max_age)"
+                    + " VALUES (?, ?, ?, ?)", "cm0001", "HTTP://Canon.Example.com:80/a", 307, 60);
+            canonicalization.update("INSERT INTO url_entity (short_url, long_url) VALUES (?, ?)",
+                    "cm0002", "http://canon.example.com/kept");
+
+            runCanonicalUrlMigration(canonicalization, "report");
+            assertEquals("HTTP://Canon.Example.com:80/a", longUrlOf(canonicalization, "cm0001"));
+
+            runCanonicalUrlMigration(canonicalization, "merge");
+            assertEquals(Map.of("short_url", "cm0001", "long_url", "http://canon.example.com/a",
+                    "redirect_status", 307, "cache_max_age", 60), canonicalization.queryForMap(
+                    "SELECT short_url, long_url, redirect_status, cache_max_age FROM url_entity WHERE short_url = ?",
+                    "cm0001"));
+            assertEquals("http://canon.example.com/kept", longUrlOf(canonicalization, "cm0002"));
+            assertEquals(List.of("http://canon.example.com/a", "http://canon.example.com/kept"),
+                    canonicalization.queryForList("SELECT long_url FROM url_long_url ORDER BY long_url", String.class));
+        } finally {
+            jdbcTemplate.execute("DROP SCHEMA IF EXISTS " + CANONICALIZATION_SCHEMA + " CASCADE");
+        }
+    }
+
+    /**
+     * Test: of the long urls sharing a canonical form only one is rewritten, and none is when
+     * a link already holds the canonical form, the duplicates keep their short urls
+     */
+    @Test
+    public void testCanonicalUrlMigrationKeepsCollidingLinks() {
+        try (HikariDataSource dataSource = schemaDataSource(CANONICALIZATION_SCHEMA)) {
+            JdbcTemplate canonicalization = new JdbcTemplate(dataSource);
+            migrate(dataSource, CANONICALIZATION_SCHEMA, "latest");
+            Map<String, String> links = Map.of(
+                    "cm0003", "HTTP://Canon.Example.com/b",
+                    "cm0004", "http://CANON.example.com/b",
+                    "cm0005", "http://canon.example.com/c?utm_source=news",
+                    "cm0006", "http://canon.example.com/c");
+            links.forEach((shortUrl, longUrl) -> canonicalization.update(
+                    "INSERT INTO url_entity (short_url, long_url) VALUES (?, ?)", shortUrl, longUrl));
+
+            runCanonicalUrlMigration(canonicalization, "merge");
+
+            Map<String, String> rewritten = links.keySet().stream()
+                    .filter(shortUrl -> !links.get(shortUrl).equals(longUrlOf(canonicalization, shortUrl)))
+                    .collect(Collectors.toMap(shortUrl -> shortUrl, shortUrl -> longUrlOf(canonicalization, shortUrl)));
+            assertEquals(1, rewritten.size());
+            assertEquals("http://canon.example.com/b", rewritten.values().iterator().next());
+            assertTrue(Set.of("cm0003", "cm0004").containsAll(rewritten.keySet()));
+            assertEquals(4, canonicalization.queryForObject("SELECT count(*) FROM url_entity", Integer.class));
+        } finally {
+            jdbcTemplate.execute("DROP SCHEMA IF EXISTS " + CANONICALIZATION_SCHEMA + " CASCADE");
+        }
+    }
+
+    /**
+     * Test: a merge run again after a partial run rewrites only the links left, and a run over
+     * a fully merged table changes nothing
+     */
+    @Test
+    public void testCanonicalUrlMigrationResumes() {
+        try (HikariDataSource dataSource = schemaDataSource(CANONICALIZATION_SCHEMA)) {
+            JdbcTemplate canonicalization = new JdbcTemplate(dataSource);
+            migrate(dataSource, CANONICALIZATION_SCHEMA, "latest");
+            canonicalization.update("INSERT INTO url_entity (short_url, long_url) VALUES (?, ?), (?, ?), (?, ?)",
+                    "cm0007", "http://canon.example.com/d", "cm0008", "HTTP://CANON.Example.com/d",
+                    "cm0009", "HTTP://Canon.Example.com/e");
+
+            runCanonicalUrlMigration(canonicalization, "merge");
+
+            assertEquals("http://canon.example.com/d", longUrlOf(canonicalization, "cm0007"));
+            assertEquals("HTTP://CANON.Example.com/d", longUrlOf(canonicalization, "cm0008"));
+            assertEquals("http://canon.example.com/e", longUrlOf(canonicalization, "cm0009"));
+
+            String links = "SELECT short_url, long_url, redirect_status FROM url_entity ORDER BY short_url";
+            List<Map<String, Object>> merged = canonicalization.queryForList(links);
+            runCanonicalUrlMigration(canonicalization, "merge");
+            assertEquals(merged, canonicalization.queryForList(links));
+        } finally {
+            jdbcTemplate.execute("DROP SCHEMA IF EXISTS " + CANONICALIZATION_SCHEMA + " CASCADE");
+        }
+    }
+
+    private static void runCanonicalUrlMigration(JdbcTemplate jdbcTemplate, String mode) {
+        new CanonicalUrlMigration(jdbcTemplate, new UrlCanonicalizer(true, List.of("utm_*"), false),
+                mock(ApplicationContext.class), mode).run(null);
+    }
+
+    private static String longUrlOf(JdbcTemplate jdbcTemplate, String shortUrl) {
+        return jdbcTemplate.queryForObject("SELECT long_url FROM url_entity WHERE short_url = ?", String.class,
+                shortUrl);
+    }
+
+    /**
+     * @return connections to a schema of its own, for the migrations tested against their own tables
+     */
+    private HikariDataSource schemaDataSource(String schema) {
+        HikariDataSource dataSource = dataSourceProperties.initializeDataSourceBuilder()
+                .type(HikariDataSource.class).build();
+        dataSource.setPoolName(schema + "-pool");
+        dataSource.setMaximumPoolSize(4);
+        dataSource.setConnectionInitSql("SET search_path TO " + schema);
+        return dataSource;
+    }
+
+    private static void migrate(DataSource dataSource, String schema, String targetVersion) {
+        Flyway.configure().dataSource(dataSource).schemas(schema).target(targetVersion).load().migrate();
+    }
+}
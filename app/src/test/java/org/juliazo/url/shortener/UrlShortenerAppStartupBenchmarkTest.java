@@ -0,0 +1,235 @@
+package org.juliazo.url.shortener;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testcontainers.containers.PostgreSQLContainer;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Time to first redirect: from the launch of a new application process to the first
+ * successful redirect it serves, for the default startup, the fast-start profile, and the
+ * fast-start profile with the class-data sharing archive built like the fast-start image
+ * does. Results are logged, nothing is asserted about them.
+ * <p>
+ * Not part of the regular test run, run with the benchmark profile, after building the
+ * class path of the fast-start image, which all the runs use when present:
+ * mvn package -Pfast-start -DskipTests && mvn test -Pbenchmark -Dtest=UrlShortenerAppStartupBenchmarkTest
+ * <p>
+ * Like the integration tests, it requires the docker environment to be up and running, or
+ * spring.datasource.url, username and password set to an existing database.
+ */
+@Tag("benchmark")
+@RunWith(JUnitPlatform.class)
+public class UrlShortenerAppStartupBenchmarkTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(UrlShortenerAppStartupBenchmarkTest.class);
+
+    private static final int LAUNCHES = 3;
+
+    private static final Duration STARTUP_TIMEOUT = Duration.ofMinutes(2);
+
+    private static final Path WORK_DIRECTORY = Paths.get("target", "startup-benchmark").toAbsolutePath();
+
+    private static final Path FAST_START_LIB = Paths.get("target", "fast-start", "lib").toAbsolutePath();
+
+    private static PostgreSQLContainer<?> database;
+
+    private static List<String> databaseArguments;
+
+    private final HttpClient httpClient = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .followRedirects(HttpClient.Redirect.NEVER)
+            .connectTimeout(Duration.ofSeconds(1))
+            .build();
+
+    @BeforeAll
+    public static void startDatabase() throws IOException {
+        Files.createDirectories(WORK_DIRECTORY);
+        String url = System.getProperty("spring.datasource.url");
+        if (url == null || url.startsWith("jdbc:tc:")) {
+            database = new PostgreSQLContainer<>("postgres:11");
+            database.start();
+            databaseArguments = Arrays.asList("--spring.datasource.url=" + database.getJdbcUrl(),
+                    "--spring.datasource.username=" + database.getUsername(),
+                    "--spring.datasource.password=" + database.getPassword());
+        } else {
+            databaseArguments = Arrays.asList("--spring.datasource.url=" + url,
+                    "--spring.datasource.username=" + System.getProperty("spring.datasource.username"),
+                    "--spring.datasource.password=" + System.getProperty("spring.datasource.password"));
+        }
+    }
+
+    @AfterAll
+    public static void stopDatabase() {
+        if (database != null) {
+            database.stop();
+        }
+    }
+
+    /**
+     * Benchmark: time to first redirect of a new instance, per startup mode
+     */
+    @Test
+    public void benchmarkTimeToFirstRedirect() throws Exception {
+        String classPath = Files.isDirectory(FAST_START_LIB) ? FAST_START_LIB + File.separator + "*"
+                : System.getProperty("java.class.path");
+        String shortUrl = createLink(classPath);
+
+        logger.info("Time to first redirect, best and median of {} launches", LAUNCHES);
+        measure("default", classPath, shortUrl, List.of(), List.of());
+        measure("fast-start", classPath, shortUrl, List.of(), List.of("--spring.profiles.active=fast-start"));
+        if (!Files.isDirectory(FAST_START_LIB)) {
+            logger.info("No {}, skipped the class-data sharing archive", FAST_START_LIB);
+            return;
+        }
+        Path archive = buildArchive(classPath);
+        measure("fast-start + CDS", classPath, shortUrl, List.of("-XX:SharedArchiveFile=" + archive),
+                List.of("--spring.profiles.active=fast-start"));
+    }
+
+    /**
+     * Starts the application once, migrating the database, and shortens the url the
+     * measured launches redirect to.
+     *
+     * @return the short url, without the host
+     */
+    private String createLink(String classPath) throws Exception {
+        int port = freePort();
+        Process process = launch(classPath, port, List.of(), List.of());
+        try {
+            HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/shorten"))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString("{\"longUrl\":\"http://ea.com/startup\"}"))
+                    .build();
+            String body;
+            while ((body = send(request, 200, process)) == null) {
+                Thread.sleep(10);
+            }
+            return URI.create(new ObjectMapper().readTree(body).get("shortUrl").asText()).getPath().substring(1);
+        } finally {
+            stop(process);
+        }
+    }
+
+    private void measure(String name, String classPath, String shortUrl, List<String> jvmOptions,
+                         List<String> arguments) throws Exception {
+        long[] millis = new long[LAUNCHES];
+        for (int i = 0; i < LAUNCHES; i++) {
+            int port = freePort();
+            HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/" + shortUrl))
+                    .GET().build();
+            long start = System.nanoTime();
+            Process process = launch(classPath, port, jvmOptions, arguments);
+            try {
+                while (send(request, 302, process) == null) {
+                    Thread.sleep(10);
+                }
+                millis[i] = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            } finally {
+                stop(process);
+            }
+        }
+        Arrays.sort(millis);
+        logger.info(String.format("%-18s best %6d ms  median %6d ms", name, millis[0], millis[LAUNCHES / 2]));
+    }
+
+    /**
+     * Builds the archive the way the fast-start image does: a training run without migrations
+     * that exits once started, then the dump of the classes it loaded.
+     */
+    private Path buildArchive(String classPath) throws Exception {
+        Path classList = WORK_DIRECTORY.resolve("app.classlist");
+        Path archive = WORK_DIRECTORY.resolve("app.jsa");
+        Files.deleteIfExists(archive);
+        Process training = launch(classPath, freePort(), List.of("-XX:DumpLoadedClassList=" + classList),
+                List.of("--spring.profiles.active=fast-start,cds-training"));
+        assertEquals(0, training.waitFor());
+        Process dump = new ProcessBuilder(javaBinary(), "-Xshare:dump", "-XX:SharedClassListFile=" + classList,
+                "-XX:SharedArchiveFile=" + archive, "-cp", classPath)
+                .directory(WORK_DIRECTORY.toFile())
+                .redirectErrorStream(true)
+                .redirectOutput(WORK_DIRECTORY.resolve("dump.log").toFile())
+                .start();
+        assertEquals(0, dump.waitFor());
+        return archive;
+    }
+
+    private Process launch(String classPath, int port, List<String> jvmOptions, List<String> arguments)
+            throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(javaBinary());
+        command.addAll(jvmOptions);
+        command.addAll(Arrays.asList("-cp", classPath, UrlShortenerApp.class.getName(), "--server.port=" + port));
+        command.addAll(databaseArguments);
+        command.addAll(arguments);
+        return new ProcessBuilder(command)
+                .directory(WORK_DIRECTORY.toFile())
+                .redirectErrorStream(true)
+                .redirectOutput(WORK_DIRECTORY.resolve("application.out").toFile())
+                .start();
+    }
+
+    /**
+     * @return the response body when the expected status is answered, null when the
+     * application is not serving yet
+     * @throws IllegalStateException when the application exited or did not start in time
+     */
+    private String send(HttpRequest request, int expectedStatus, Process process) throws InterruptedException {
+        if (!process.isAlive()) {
+            throw new IllegalStateException("Application exited with " + process.exitValue()
+                    + ", see " + WORK_DIRECTORY.resolve("application.out"));
+        }
+        if (process.info().startInstant().map(start -> start.plus(STARTUP_TIMEOUT).isBefore(Instant.now()))
+                .orElse(false)) {
+            throw new IllegalStateException("Application did not serve in " + STARTUP_TIMEOUT);
+        }
+        try {
+            HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+            return response.statusCode() == expectedStatus ? response.body() : null;
+        } catch (IOException exception) {
+            return null;
+        }
+    }
+
+    private static void stop(Process process) throws InterruptedException {
+        process.destroy();
+        if (!process.waitFor(30, TimeUnit.SECONDS)) {
+            process.destroyForcibly().waitFor();
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static String javaBinary() {
+        return Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+    }
+}
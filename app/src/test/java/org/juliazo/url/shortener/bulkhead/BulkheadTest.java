@@ -0,0 +1,167 @@
+package org.juliazo.url.shortener.bulkhead;
+
+import org.juliazo.url.shortener.commons.exception.ServiceOverloadedException;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@RunWith(JUnitPlatform.class)
+class BulkheadTest {
+
+    /**
+     * Test: a flood of slow shorten requests does not move the redirect p99
+     */
+    @Test
+    public void shouldKeepRedirectLatencyFlatDuringShortenFlood() throws InterruptedException {
+        ExecutorService redirectExecutor = BulkheadConfiguration.boundedExecutor("redirect", 4, 1000);
+        ExecutorService shortenExecutor = BulkheadConfiguration.boundedExecutor("shorten", 2, 50);
+        Bulkhead bulkhead = new Bulkhead(
+                Map.of(Workload.REDIRECT, redirectExecutor, Workload.SHORTEN, shortenExecutor), 1);
+
+        long baseline = redirectP99(bulkhead);
+
+        CountDownLatch release = new CountDownLatch(1);
+        int shed = 0;
+        for (int i = 0; i < 200; i++) {
+            try {
+                bulkhead.submit(Workload.SHORTEN, () -> awaitQuietly(release));
+            } catch (ServiceOverloadedException exception) {
+                shed++;
+            }
+        }
+        long duringFlood = redirectP99(bulkhead);
+        release.countDown();
+
+        assertTrue(shed > 0);
+        assertTrue(duringFlood < Math.max(5 * baseline, TimeUnit.MILLISECONDS.toNanos(20)),
+                "redirect p99 went from " + baseline + "ns to " + duringFlood + "ns");
+        redirectExecutor.shutdown();
+        shortenExecutor.shutdown();
+    }
+
+    /**
+     * Test: database access is routed to the connection pool of the current workload
+     */
+    @Test
+    public void shouldRouteConnectionsByWorkload() throws Exception {
+        DataSource redirectPool = mock(DataSource.class);
+        DataSource shortenPool = mock(DataSource.class);
+        Connection redirectConnection = mock(Connection.class);
+        Connection shortenConnection = mock(Connection.class);
+        when(redirectPool.getConnection()).thenReturn(redirectConnection);
+        when(shortenPool.getConnection()).thenReturn(shortenConnection);
+        WorkloadRoutingDataSource routingDataSource = new WorkloadRoutingDataSource(redirectPool, shortenPool);
+
+        CompletableFuture<Connection> redirect = Bulkhead.inline().submit(Workload.REDIRECT, () -> connect(routingDataSource));
+        CompletableFuture<Connection> shorten = Bulkhead.inline().submit(Workload.SHORTEN, () -> connect(routingDataSource));
+
+        assertSame(redirectConnection, redirect.join());
+        assertSame(shortenConnection, shorten.join());
+        assertSame(shortenConnection, routingDataSource.getConnection());
+    }
+
+    /**
+     * Test: failures of the task complete the future exceptionally
+     */
+    @Test
+    public void shouldPropagateFailures() {
+        CompletableFuture<Object> result = Bulkhead.inline().submit(Workload.REDIRECT, () -> {
+            throw new IllegalStateException("failed");
+        });
+        assertTrue(result.isCompletedExceptionally());
+        assertThrows(Exception.class, result::join);
+    }
+
+    /**
+     * Test: errors thrown by a task on the executor complete the future instead of leaving the caller waiting
+     */
+    @Test
+    public void shouldPropagateErrors() {
+        ExecutorService shortenExecutor = BulkheadConfiguration.boundedExecutor("shorten", 1, 10);
+        Bulkhead bulkhead = new Bulkhead(Map.of(Workload.SHORTEN, shortenExecutor), 1);
+        CompletableFuture<Object> result = bulkhead.submit(Workload.SHORTEN, () -> {
+            throw new StackOverflowError();
+        });
+
+        CompletionException exception = assertTimeoutPreemptively(Duration.ofSeconds(5),
+                () -> assertThrows(CompletionException.class, result::join));
+        assertTrue(exception.getCause() instanceof StackOverflowError);
+        shortenExecutor.shutdown();
+    }
+
+    /**
+     * Test: stopping the bulkhead lets the tasks in progress complete and rejects new ones
+     */
+    @Test
+    public void shouldDrainTasksOnStop() throws InterruptedException {
+        ExecutorService shortenExecutor = BulkheadConfiguration.boundedExecutor("shorten", 1, 10);
+        Bulkhead bulkhead = new Bulkhead(Map.of(Workload.SHORTEN, shortenExecutor), 1);
+        CountDownLatch started = new CountDownLatch(1);
+        CompletableFuture<String> inFlight = bulkhead.submit(Workload.SHORTEN, () -> {
+            started.countDown();
+            awaitQuietly(new CountDownLatch(1), 200);
+            return "stored";
+        });
+        started.await(5, TimeUnit.SECONDS);
+
+        bulkhead.stop();
+
+        assertEquals("stored", inFlight.getNow(null));
+        assertTrue(shortenExecutor.isTerminated());
+        assertThrows(ServiceOverloadedException.class, () -> bulkhead.submit(Workload.SHORTEN, () -> "late"));
+    }
+
+    private static long redirectP99(Bulkhead bulkhead) {
+        List<Long> latencies = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            long start = System.nanoTime();
+            assertEquals(Workload.REDIRECT, bulkhead.submit(Workload.REDIRECT, Workload::current).join());
+            latencies.add(System.nanoTime() - start);
+        }
+        Collections.sort(latencies);
+        return latencies.get((int) (latencies.size() * 0.99));
+    }
+
+    private static Connection connect(DataSource dataSource) {
+        try {
+            return dataSource.getConnection();
+        } catch (SQLException exception) {
+            throw new IllegalStateException(exception);
+        }
+    }
+
+    private static Object awaitQuietly(CountDownLatch latch) {
+        return awaitQuietly(latch, TimeUnit.SECONDS.toMillis(10));
+    }
+
+    private static Object awaitQuietly(CountDownLatch latch, long timeoutMillis) {
+        try {
+            latch.await(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+        return null;
+    }
+}
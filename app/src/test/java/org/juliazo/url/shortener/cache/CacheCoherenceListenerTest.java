@@ -0,0 +1,167 @@
+package org.juliazo.url.shortener.cache;
+
+import org.juliazo.url.shortener.commons.redirect.UrlRedirect;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
+
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+@RunWith(JUnitPlatform.class)
+class CacheCoherenceListenerTest {
+
+    private static final String CATCH_UP = "SELECT id, short_url, long_url FROM url_mapping_event";
+
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+
+    private final UrlMappingCache urlMappingCache = new UrlMappingCache(100, 100);
+
+    private CacheCoherenceListener cacheCoherenceListener;
+
+    @BeforeEach
+    public void setUp() {
+        cacheCoherenceListener = new CacheCoherenceListener(urlMappingCache, jdbcTemplate, null, 120, 24);
+        when(jdbcTemplate.queryForObject(startsWith("SELECT COALESCE(MAX(id)"), eq(Long.class))).thenReturn(10L);
+        cacheCoherenceListener.resynchronize();
+    }
+
+    private static String insert(long id, String shortUrl, String longUrl) {
+        return id + "|I|" + shortUrl + "||||" + longUrl;
+    }
+
+    private static String delete(long id, String shortUrl, String longUrl) {
+        return id + "|D|" + shortUrl + "||||" + longUrl;
+    }
+
+    /**
+     * Test: a gap in the event ids reads back the removals missed in between before applying the event
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testGapCatchesUpMissedRemovals() {
+        urlMappingCache.put("6e8b9a", new UrlRedirect("http://ea.com/frostbite", null, null));
+        when(jdbcTemplate.query(startsWith(CATCH_UP), any(RowMapper.class), eq(11L), eq(14L), eq(1000)))
+                .thenReturn(List.of(new CacheCoherenceListener.MappingEvent(12, 'D', "6e8b9a",
+                        new UrlRedirect("http://ea.com/frostbite", null, null))));
+
+        cacheCoherenceListener.onNotification(insert(11, "0a1b2c", "http://ea.com/battlefield"));
+        cacheCoherenceListener.onNotification(insert(14, "1b2c3d", "http://ea.com/sims"));
+
+        assertFalse(urlMappingCache.findRedirect("6e8b9a").isPresent());
+        assertTrue(urlMappingCache.findRedirect("0a1b2c").isPresent());
+        assertTrue(urlMappingCache.findRedirect("1b2c3d").isPresent());
+        verify(jdbcTemplate, never()).query(startsWith(CATCH_UP), any(RowMapper.class), eq(10L), eq(11L), eq(1000));
+    }
+
+    /**
+     * Test: when the gap holds a full batch of removals, the whole cache is dropped instead
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testFullCatchUpBatchDropsCache() {
+        urlMappingCache.put("6e8b9a", new UrlRedirect("http://ea.com/frostbite", null, null));
+        List<Object> removals = Collections.nCopies(1000, new CacheCoherenceListener.MappingEvent(12, 'D', "0a1b2c",
+                new UrlRedirect("http://ea.com/battlefield", null, null)));
+        when(jdbcTemplate.query(startsWith(CATCH_UP), any(RowMapper.class), eq(10L), eq(5000L), eq(1000)))
+                .thenReturn(removals);
+
+        cacheCoherenceListener.onNotification(delete(5000, "1b2c3d", "http://ea.com/sims"));
+
+        assertFalse(urlMappingCache.findRedirect("6e8b9a").isPresent());
+        assertEquals(0, urlMappingCache.redirectCacheSize());
+    }
+
+    /**
+     * Test: an insert older than the last event seen is skipped, its link may have been removed
+     * since, while a removal is always applied
+     */
+    @Test
+    public void testStaleInsertIsSkipped() {
+        cacheCoherenceListener.onNotification(insert(11, "6e8b9a", "http://ea.com/frostbite"));
+        cacheCoherenceListener.onNotification(delete(12, "6e8b9a", "http://ea.com/frostbite"));
+        cacheCoherenceListener.onNotification(insert(11, "6e8b9a", "http://ea.com/frostbite"));
+
+        assertFalse(urlMappingCache.findRedirect("6e8b9a").isPresent());
+
+        urlMappingCache.put("0a1b2c", new UrlRedirect("http://ea.com/battlefield", null, null));
+        cacheCoherenceListener.onNotification(delete(12, "0a1b2c", "http://ea.com/battlefield"));
+        assertFalse(urlMappingCache.findRedirect("0a1b2c").isPresent());
+    }
+
+    /**
+     * Test: the reconciliation replays the removals of its window and prunes the events past the retention
+     */
+    @Test
+    public void testReconcileReplaysRecentRemovalsAndPrunes() throws Exception {
+        urlMappingCache.put("6e8b9a", new UrlRedirect("http://ea.com/frostbite", null, null));
+        urlMappingCache.put("0a1b2c", new UrlRedirect("http://ea.com/battlefield", null, null));
+        ResultSet removal = mock(ResultSet.class);
+        when(removal.getString(1)).thenReturn("6e8b9a");
+        when(removal.getString(2)).thenReturn("http://ea.com/frostbite");
+        doAnswer(invocation -> {
+            invocation.<RowCallbackHandler>getArgument(1).processRow(removal);
+            return null;
+        }).when(jdbcTemplate).query(startsWith("SELECT short_url, long_url FROM url_mapping_event"),
+                any(RowCallbackHandler.class), eq(120L));
+        when(jdbcTemplate.update(startsWith("DELETE FROM url_mapping_event"), eq(24L), eq(10000))).thenReturn(3);
+
+        cacheCoherenceListener.reconcile();
+
+        assertFalse(urlMappingCache.findRedirect("6e8b9a").isPresent());
+        assertTrue(urlMappingCache.findRedirect("0a1b2c").isPresent());
+        verify(jdbcTemplate).update(startsWith("DELETE FROM url_mapping_event"), eq(24L), eq(10000));
+    }
+
+    /**
+     * Test: re-establishing the channel drops the cache and restarts the event ids from the
+     * latest recorded event, the events missed meanwhile are not caught up one by one
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testReconnectDropsCacheAndResetsEventId() {
+        cacheCoherenceListener.onNotification(insert(11, "6e8b9a", "http://ea.com/frostbite"));
+        when(jdbcTemplate.queryForObject(startsWith("SELECT COALESCE(MAX(id)"), eq(Long.class))).thenReturn(500L);
+        List<Object[]> catchUps = new ArrayList<>();
+        when(jdbcTemplate.query(startsWith(CATCH_UP), any(RowMapper.class), anyLong(), anyLong(), eq(1000)))
+                .thenAnswer(invocation -> {
+                    catchUps.add(new Object[]{invocation.getArgument(2), invocation.getArgument(3)});
+                    return List.of();
+                });
+
+        cacheCoherenceListener.resynchronize();
+        assertEquals(0, urlMappingCache.redirectCacheSize());
+
+        cacheCoherenceListener.onNotification(insert(501, "0a1b2c", "http://ea.com/battlefield"));
+        cacheCoherenceListener.onNotification(insert(503, "1b2c3d", "http://ea.com/sims"));
+
+        assertTrue(urlMappingCache.findRedirect("0a1b2c").isPresent());
+        assertEquals(1, catchUps.size());
+        assertEquals(501L, catchUps.get(0)[0]);
+        assertEquals(503L, catchUps.get(0)[1]);
+    }
+}
@@ -0,0 +1,78 @@
+package org.juliazo.url.shortener.cache;
+
+import org.juliazo.url.shortener.commons.redirect.UrlRedirect;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@RunWith(JUnitPlatform.class)
+class CompactRedirectsTest {
+
+    private final CompactRedirects compactRedirects = new CompactRedirects(2);
+
+    /**
+     * Test: a redirect with every policy field set decodes to an equal redirect, down to the nanosecond
+     */
+    @Test
+    public void shouldRoundTripRedirectWithPolicy() {
+        UrlRedirect redirect = new UrlRedirect("https://ea.com:8443/frostbite?engine=2&q=%20#top", 308, 86400,
+                Instant.ofEpochSecond(1_800_000_000L, 123_456_789));
+
+        UrlRedirect decoded = compactRedirects.decode(compactRedirects.encode(redirect));
+
+        assertEquals(redirect, decoded);
+        assertEquals(redirect.hashCode(), decoded.hashCode());
+    }
+
+    /**
+     * Test: non-ASCII urls and urls without authority decode as they were
+     */
+    @Test
+    public void shouldRoundTripAnyLongUrl() {
+        for (String longUrl : new String[]{"http://bücher.de/straße/ü?ä=ö", "http://ea.com", "mailto:frost@ea.com",
+                "http://ea.com?q=1", "http://ea.com#frag"}) {
+            UrlRedirect redirect = new UrlRedirect(longUrl, null, null);
+
+            byte[] encoded = compactRedirects.encode(redirect);
+
+            assertEquals(redirect, compactRedirects.decode(encoded));
+            assertEquals(longUrl, compactRedirects.decodeLongUrl(encoded));
+        }
+    }
+
+    /**
+     * Test: a shared scheme and host is interned once and left out of the encoded urls
+     */
+    @Test
+    public void shouldInternSchemeAndHost() {
+        byte[] first = compactRedirects.encode(new UrlRedirect("http://ea.com/frostbite", null, null));
+        byte[] second = compactRedirects.encode(new UrlRedirect("http://ea.com/battlefield", null, null));
+
+        assertEquals(1, compactRedirects.prefixCount());
+        assertEquals(1 + 1 + "/frostbite".length(), first.length);
+        assertEquals(1 + 1 + "/battlefield".length(), second.length);
+    }
+
+    /**
+     * Test: once the dictionary is full, urls of new hosts are kept whole and encoded the same way every time
+     */
+    @Test
+    public void shouldKeepUrlWholeWhenDictionaryIsFull() {
+        compactRedirects.encode(new UrlRedirect("http://ea.com/frostbite", null, null));
+        compactRedirects.encode(new UrlRedirect("https://ea.com/frostbite", null, null));
+        UrlRedirect redirect = new UrlRedirect("http://dice.se/frostbite", null, null);
+
+        byte[] encoded = compactRedirects.encode(redirect);
+
+        assertEquals(2, compactRedirects.prefixCount());
+        assertTrue(encoded.length > "http://dice.se/frostbite".length());
+        assertArrayEquals(encoded, compactRedirects.encode(redirect));
+        assertEquals(redirect, compactRedirects.decode(encoded));
+    }
+}
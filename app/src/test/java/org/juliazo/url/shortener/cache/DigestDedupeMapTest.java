@@ -0,0 +1,81 @@
+package org.juliazo.url.shortener.cache;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@RunWith(JUnitPlatform.class)
+class DigestDedupeMapTest {
+
+    /**
+     * Test: every well formed short url survives packing, malformed ones are not packed
+     */
+    @ParameterizedTest
+    @ValueSource(strings = {"000000", "6e8b9a", "ZZZZZZZZZZ", "aB3dE5gH9"})
+    public void testPacking(String shortUrl) {
+        long packed = DigestDedupeMap.pack(shortUrl);
+
+        assertTrue(packed > 0);
+        assertEquals(shortUrl, DigestDedupeMap.unpack(packed));
+        assertEquals(0, DigestDedupeMap.pack(shortUrl + "-"));
+    }
+
+    /**
+     * Test: a mapping is only removed along with the short url it maps to
+     */
+    @Test
+    public void testRemove() {
+        DigestDedupeMap map = new DigestDedupeMap(64);
+        map.put("http://ea.com/frostbite", "6e8b9a");
+
+        map.remove("http://ea.com/frostbite", "0a1b2c");
+        assertEquals("6e8b9a", map.get("http://ea.com/frostbite"));
+        map.remove("http://ea.com/frostbite", "6e8b9a");
+        assertNull(map.get("http://ea.com/frostbite"));
+
+        assertEquals(0, map.size());
+        assertEquals(1, map.hits());
+        assertEquals(1, map.misses());
+    }
+
+    /**
+     * Test: the map never grows beyond its capacity, and entries hit again while a flood of
+     * new urls passes through are kept over the new ones
+     */
+    @Test
+    public void testEviction() {
+        DigestDedupeMap map = new DigestDedupeMap(1024);
+        for (int i = 0; i < 512; i++) {
+            map.put("http://ea.com/hot/" + i, String.format("%06x", i));
+        }
+
+        for (int i = 0; i < 4096; i++) {
+            map.put("http://scanner.com/" + i, String.format("s%05x", i));
+            if (i % 64 == 0) {
+                for (int hot = 0; hot < 512; hot++) {
+                    map.get("http://ea.com/hot/" + hot);
+                }
+            }
+        }
+
+        assertEquals(1024, map.capacity());
+        assertTrue(map.size() <= map.capacity());
+        int kept = 0;
+        for (int i = 0; i < 512; i++) {
+            String shortUrl = map.get("http://ea.com/hot/" + i);
+            if (shortUrl != null) {
+                assertEquals(String.format("%06x", i), shortUrl);
+                kept++;
+            }
+        }
+        // only sets drawing more than 8 hot urls lose some
+        assertTrue(kept > 460, kept + " kept");
+        assertEquals(24 * 1024 + 128, map.footprintBytes());
+    }
+}
@@ -0,0 +1,90 @@
+package org.juliazo.url.shortener.cache;
+
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@RunWith(JUnitPlatform.class)
+class HotLinkTrackerTest {
+
+    private final AtomicLong clock = new AtomicLong(1_000_000);
+
+    private final HotLinkTracker hotLinkTracker = new HotLinkTracker(60, 6, 1024, 16, clock::get);
+
+    /**
+     * Test: hot links stand out of a long tail of links requested once
+     */
+    @Test
+    public void testTopLinks() {
+        for (int i = 0; i < 5000; i++) {
+            hotLinkTracker.record(String.format("%06x", i));
+            if (i % 50 == 0) {
+                hotLinkTracker.record("aaaaaa");
+            }
+            if (i % 100 == 0) {
+                hotLinkTracker.record("bbbbbb");
+            }
+        }
+
+        List<Map.Entry<String, Integer>> top = hotLinkTracker.top(2);
+
+        assertEquals(List.of("aaaaaa", "bbbbbb"), top.stream().map(Map.Entry::getKey).collect(Collectors.toList()));
+        // estimates never undercount, the sketch is sized for a small overcount
+        assertTrue(top.get(0).getValue() >= 100 && top.get(0).getValue() < 120, top.toString());
+        assertTrue(top.get(1).getValue() >= 50 && top.get(1).getValue() < 70, top.toString());
+    }
+
+    /**
+     * Test: hits are forgotten a slice at a time once they fall out of the window
+     */
+    @Test
+    public void testSlidingWindow() {
+        hotLinkTracker.record("aaaaaa");
+        clock.addAndGet(30_000);
+        hotLinkTracker.record("aaaaaa");
+        assertEquals(2, hotLinkTracker.estimate("aaaaaa"));
+
+        clock.addAndGet(30_000);
+        assertEquals(1, hotLinkTracker.estimate("aaaaaa"));
+
+        clock.addAndGet(3_600_000);
+        assertEquals(0, hotLinkTracker.estimate("aaaaaa"));
+        assertTrue(hotLinkTracker.top(10).isEmpty());
+    }
+
+    /**
+     * Test: no hit is lost when many redirects of the same link are counted at once
+     */
+    @Test
+    public void testConcurrentHits() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (int thread = 0; thread < 8; thread++) {
+                results.add(executor.submit(() -> {
+                    for (int i = 0; i < 10_000; i++) {
+                        hotLinkTracker.record("aaaaaa");
+                    }
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(80_000, hotLinkTracker.estimate("aaaaaa"));
+    }
+}
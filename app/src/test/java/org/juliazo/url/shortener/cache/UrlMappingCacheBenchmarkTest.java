@@ -0,0 +1,127 @@
+package org.juliazo.url.shortener.cache;
+
+import org.juliazo.url.shortener.commons.archive.UrlCompression;
+import org.juliazo.url.shortener.commons.redirect.UrlRedirect;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+/**
+ * Memory per entry and decode cost of the redirect cache, holding plain {@link UrlRedirect}s,
+ * their {@link CompactRedirects compact form}, or their long urls deflated by {@link UrlCompression}.
+ * Results are logged, nothing is asserted about them.
+ * <p>
+ * The heap is measured after a full GC, run it alone for stable numbers:
+ * mvn test -Pbenchmark -Dtest=UrlMappingCacheBenchmarkTest
+ * <p>
+ * Unlike the other benchmarks, it needs no docker environment.
+ */
+@Tag("benchmark")
+@RunWith(JUnitPlatform.class)
+class UrlMappingCacheBenchmarkTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(UrlMappingCacheBenchmarkTest.class);
+
+    private static final int LINKS = 300_000;
+
+    private static final int HOSTS = 2_000;
+
+    private static final int ROUNDS = 10;
+
+    private static final String[] PATHS = {"/articles/", "/news/", "/product/", "/blog/post/", "/watch?v=", "/search?q="};
+
+    private static final String[] QUERIES = {"", "?utm_source=newsletter&utm_medium=email&utm_campaign=",
+            "?ref=home&lang=en&id=", "&fbclid=IwAR"};
+
+    @Test
+    public void compareRedirectCacheForms() {
+        List<String> shortUrls = new ArrayList<>(LINKS);
+        List<UrlRedirect> redirects = generateRedirects(shortUrls);
+
+        Function<UrlRedirect, UrlRedirect> plain = redirect -> new UrlRedirect(copy(redirect.getLongUrl()),
+                redirect.getRedirectStatus() == null ? null : Integer.valueOf(redirect.getRedirectStatus()),
+                redirect.getCacheMaxAge() == null ? null : Integer.valueOf(redirect.getCacheMaxAge()),
+                redirect.getExpiresAt());
+        CompactRedirects compactRedirects = new CompactRedirects(UrlMappingCache.DEFAULT_MAX_PREFIXES);
+        measure("plain, parsed Location", shortUrls, redirects, plain,
+                redirect -> URI.create(redirect.getLongUrl()).toASCIIString().length());
+        measure("plain", shortUrls, redirects, plain, redirect -> redirect.getLongUrl().length());
+        measure("compact", shortUrls, redirects, compactRedirects::encode,
+                encoded -> compactRedirects.decode(encoded).getLongUrl().length());
+        measure("deflate", shortUrls, redirects, redirect -> UrlCompression.compress(redirect.getLongUrl()),
+                compressed -> UrlCompression.decompress(compressed).length());
+        logger.info("{} prefixes interned", compactRedirects.prefixCount());
+    }
+
+    /**
+     * Fills a redirect cache with the given form of the redirects, logs the heap it takes
+     * and the time to turn a cached entry into the Location of its redirect.
+     */
+    private <V> void measure(String form, List<String> shortUrls, List<UrlRedirect> redirects,
+                             Function<UrlRedirect, V> encode, ToIntFunction<V> location) {
+        long heapBefore = usedHeap();
+        StripedLruMap<String, V> cache = new StripedLruMap<>(2 * LINKS);
+        for (int i = 0; i < LINKS; i++) {
+            cache.put(copy(shortUrls.get(i)), encode.apply(redirects.get(i)));
+        }
+        long bytesPerEntry = (usedHeap() - heapBefore) / LINKS;
+
+        long checksum = 0;
+        long start = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            if (round == ROUNDS / 2) {
+                start = System.nanoTime();
+            }
+            for (String shortUrl : shortUrls) {
+                checksum += location.applyAsInt(cache.get(shortUrl));
+            }
+        }
+        long nanosPerLookup = (System.nanoTime() - start) / ((long) LINKS * (ROUNDS - ROUNDS / 2));
+
+        logger.info("{}: {} bytes per entry, {} entries per GB, {} ns per lookup to Location (checksum {})",
+                form, bytesPerEntry, (1L << 30) / bytesPerEntry, nanosPerLookup, checksum);
+    }
+
+    /**
+     * @return redirects to a few thousand hosts, a tenth of them with their own policy
+     */
+    private static List<UrlRedirect> generateRedirects(List<String> shortUrls) {
+        Random random = new Random(42);
+        List<UrlRedirect> redirects = new ArrayList<>(LINKS);
+        for (int i = 0; i < LINKS; i++) {
+            int host = (int) Math.abs(random.nextGaussian() * HOSTS / 3) % HOSTS;
+            String longUrl = (host % 4 == 0 ? "http://" : "https://www.") + "site" + host + ".com"
+                    + PATHS[random.nextInt(PATHS.length)] + Long.toString(random.nextLong() & Long.MAX_VALUE, 36)
+                    + QUERIES[random.nextInt(QUERIES.length)] + (random.nextInt(1_000_000));
+            shortUrls.add(String.format("%06x", i));
+            redirects.add(i % 10 == 0 ? new UrlRedirect(longUrl, 301, 86400) : new UrlRedirect(longUrl, null, null));
+        }
+        return redirects;
+    }
+
+    /**
+     * @return a copy of the string, not sharing its bytes, as read from the database
+     */
+    private static String copy(String value) {
+        return new String(value.getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
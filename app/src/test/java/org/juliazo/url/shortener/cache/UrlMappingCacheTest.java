@@ -0,0 +1,123 @@
+package org.juliazo.url.shortener.cache;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.juliazo.url.shortener.commons.redirect.UrlRedirect;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@RunWith(JUnitPlatform.class)
+class UrlMappingCacheTest {
+
+    private static final UrlRedirect REDIRECT = new UrlRedirect("http://ea.com/frostbite", null, null);
+
+    private final UrlMappingCache urlMappingCache = new UrlMappingCache(1000, 1000);
+
+    /**
+     * Test: a mapping read before an invalidation must not be cached
+     */
+    @Test
+    public void shouldNotCacheMappingReadBeforeInvalidation() {
+        long stamp = urlMappingCache.stamp();
+        urlMappingCache.invalidate("6e8b9a", "http://ea.com/frostbite");
+        urlMappingCache.putIfUnchanged(stamp, "6e8b9a", REDIRECT);
+
+        assertFalse(urlMappingCache.findRedirect("6e8b9a").isPresent());
+        assertFalse(urlMappingCache.findShortUrl("http://ea.com/frostbite").isPresent());
+    }
+
+    /**
+     * Test: a mapping read with no invalidation in between is cached in both directions
+     */
+    @Test
+    public void shouldCacheMappingInBothDirections() {
+        urlMappingCache.putIfUnchanged(urlMappingCache.stamp(), "6e8b9a", REDIRECT);
+
+        assertEquals(REDIRECT, urlMappingCache.findRedirect("6e8b9a").orElseThrow());
+        assertEquals("6e8b9a", urlMappingCache.findShortUrl("http://ea.com/frostbite").orElseThrow());
+    }
+
+    /**
+     * Test: links with an expiration are only cached by short url
+     */
+    @Test
+    public void shouldNotDedupeExpiringLinks() {
+        urlMappingCache.put("6e8b9a", new UrlRedirect("http://ea.com/frostbite", null, null, Instant.now().plusSeconds(60)));
+
+        assertTrue(urlMappingCache.findRedirect("6e8b9a").isPresent());
+        assertFalse(urlMappingCache.findShortUrl("http://ea.com/frostbite").isPresent());
+    }
+
+    /**
+     * Test: the cache never grows beyond its configured size
+     */
+    @Test
+    public void shouldEvictBeyondMaxSize() {
+        for (int i = 0; i < 5000; i++) {
+            urlMappingCache.put(String.format("%06x", i), new UrlRedirect("http://ea.com/" + i, null, null));
+        }
+        assertTrue(urlMappingCache.redirectCacheSize() <= 1000);
+        assertTrue(urlMappingCache.dedupeCacheSize() <= 1000);
+    }
+
+    /**
+     * Test: with admission, a flood of short urls requested once does not evict the hot links
+     */
+    @Test
+    public void shouldKeepHotLinksThroughOneOffFlood() {
+        HotLinkTracker hotLinkTracker = new HotLinkTracker(60, 6, 16384, 16, () -> 0L);
+        UrlMappingCache admittingCache = new UrlMappingCache(160, 160, true, 16384, hotLinkTracker,
+                new SimpleMeterRegistry());
+        List<String> cachedHotLinks = new ArrayList<>();
+        for (int i = 0; i < 160; i++) {
+            String shortUrl = String.format("h%05x", i);
+            for (int hit = 0; hit < 3; hit++) {
+                hotLinkTracker.record(shortUrl);
+            }
+            admittingCache.put(shortUrl, new UrlRedirect("http://ea.com/hot/" + i, null, null));
+        }
+        for (int i = 0; i < 160; i++) {
+            String shortUrl = String.format("h%05x", i);
+            if (admittingCache.findRedirect(shortUrl).isPresent()) {
+                cachedHotLinks.add(shortUrl);
+            }
+        }
+
+        for (int i = 0; i < 5000; i++) {
+            String shortUrl = String.format("s%05x", i);
+            hotLinkTracker.record(shortUrl);
+            admittingCache.put(shortUrl, new UrlRedirect("http://scanner.com/" + i, null, null));
+        }
+
+        assertTrue(cachedHotLinks.size() > 100);
+        for (String shortUrl : cachedHotLinks) {
+            assertTrue(admittingCache.findRedirect(shortUrl).isPresent(), shortUrl);
+        }
+    }
+
+    /**
+     * Test: notification payloads are parsed, long urls may contain the separator
+     */
+    @Test
+    public void shouldParseMappingEvents() {
+        CacheCoherenceListener.MappingEvent event =
+                CacheCoherenceListener.MappingEvent.parse("42|I|6e8b9a|301||1000|http://ea.com/a|b");
+
+        assertEquals(42, event.id);
+        assertEquals('I', event.type);
+        assertEquals("6e8b9a", event.shortUrl);
+        assertEquals(new UrlRedirect("http://ea.com/a|b", 301, null, Instant.ofEpochMilli(1000)), event.redirect);
+        assertNull(CacheCoherenceListener.MappingEvent.parse("x|I|6e8b9a||||http://ea.com"));
+        assertNull(CacheCoherenceListener.MappingEvent.parse("42|U|6e8b9a||||http://ea.com"));
+        assertNull(CacheCoherenceListener.MappingEvent.parse("42|I|6e8b9a|http://ea.com"));
+    }
+}
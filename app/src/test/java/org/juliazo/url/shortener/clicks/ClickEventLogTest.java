@@ -0,0 +1,188 @@
+package org.juliazo.url.shortener.clicks;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.juliazo.url.shortener.commons.clicks.ClickLogFormat;
+import org.juliazo.url.shortener.commons.clicks.ClickLogReader;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@RunWith(JUnitPlatform.class)
+class ClickEventLogTest {
+
+    @TempDir
+    Path directory;
+
+    /**
+     * Test: the ring hands the events back in order and refuses new ones while full
+     */
+    @Test
+    public void testRingFull() {
+        ClickEventRing ring = new ClickEventRing(4);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(ring.offer("aaaaa" + i, i, i, null));
+        }
+        assertFalse(ring.offer("bbbbbb", 4, 4, null));
+
+        List<String> drained = new ArrayList<>();
+        assertEquals(3, ring.drain((shortUrl, timestamp, userAgentHash, referrer) -> drained.add(shortUrl), 3));
+        assertTrue(ring.offer("cccccc", 5, 5, null));
+        ring.drain((shortUrl, timestamp, userAgentHash, referrer) -> drained.add(shortUrl), 10);
+
+        assertEquals(List.of("aaaaa0", "aaaaa1", "aaaaa2", "aaaaa3", "cccccc"), drained);
+        assertEquals(0, ring.size());
+    }
+
+    /**
+     * Test: when the handler throws partway through a drain, the events handled and the failing
+     * one are consumed, the next drain starts after the failing event and every slot is reusable
+     */
+    @Test
+    public void testRingHandlerThrows() {
+        ClickEventRing ring = new ClickEventRing(4);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(ring.offer("aaaaa" + i, i, i, null));
+        }
+
+        List<String> drained = new ArrayList<>();
+        assertThrows(IllegalStateException.class, () -> ring.drain((shortUrl, timestamp, userAgentHash, referrer) -> {
+            if (timestamp == 1) {
+                throw new IllegalStateException("Disk full");
+            }
+            drained.add(shortUrl);
+        }, 10));
+        assertEquals(2, ring.size());
+        assertTrue(ring.offer("bbbbbb", 4, 4, null));
+        assertTrue(ring.offer("cccccc", 5, 5, null));
+        assertFalse(ring.offer("dddddd", 6, 6, null));
+        assertEquals(4, ring.drain((shortUrl, timestamp, userAgentHash, referrer) -> drained.add(shortUrl), 10));
+
+        assertEquals(List.of("aaaaa0", "aaaaa2", "aaaaa3", "bbbbbb", "cccccc"), drained);
+        assertEquals(0, ring.size());
+    }
+
+    /**
+     * Test: concurrent producers lose no event, each producer's events stay in order
+     */
+    @Test
+    public void testRingConcurrentProducers() throws Exception {
+        ClickEventRing ring = new ClickEventRing(1024);
+        int producers = 4;
+        int events = 50_000;
+        ExecutorService executor = Executors.newFixedThreadPool(producers);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int producer = 0; producer < producers; producer++) {
+            int id = producer;
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < events; i++) {
+                    while (!ring.offer("aaaaaa", i, id, null)) {
+                        Thread.onSpinWait();
+                    }
+                }
+            }));
+        }
+        long[] next = new long[producers];
+        int drained = 0;
+        while (drained < producers * events) {
+            drained += ring.drain((shortUrl, timestamp, userAgentHash, referrer) ->
+                    assertEquals(next[userAgentHash]++, timestamp), 256);
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        for (long count : next) {
+            assertEquals(events, count);
+        }
+    }
+
+    /**
+     * Test: clicks are written to segments that rotate when full, only the newest segments
+     * are kept, and the reader turns them into NDJSON
+     */
+    @Test
+    public void testSegments() throws Exception {
+        int segmentSize = ClickLogFormat.HEADER_SIZE + ClickLogFormat.MAX_RECORD_SIZE;
+        ClickEventLog clickEventLog = new ClickEventLog(new SimpleMeterRegistry(), 1024, directory.toString(),
+                segmentSize, 2);
+        clickEventLog.start();
+        String referrer = "https://example.com/\"quoted\"/" + "\u00e9".repeat(2100);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(clickEventLog.record(String.format("%06x", i), referrer, "curl/7.68.0"));
+        }
+        assertTrue(clickEventLog.record("6e8b9a", null, null));
+        clickEventLog.stop();
+
+        List<Path> segments;
+        try (Stream<Path> files = Files.list(directory)) {
+            segments = files.sorted().collect(Collectors.toList());
+        }
+        assertEquals(2, segments.size());
+        assertTrue(segments.get(1).getFileName().toString().endsWith("4.seg"), segments.toString());
+
+        // a truncated referrer still takes most of a segment, the last click fits next to it
+        StringWriter ndjson = new StringWriter();
+        assertEquals(1, ClickLogReader.toNdjson(segments.get(0), ndjson));
+        assertEquals(2, ClickLogReader.toNdjson(segments.get(1), ndjson));
+        String[] lines = ndjson.toString().split("\n");
+        assertTrue(lines[1].startsWith("{\"shortUrl\":\"000003\",\"timestamp\":\""), lines[1]);
+        assertTrue(lines[1].contains("\"referrer\":\"https://example.com/\\\"quoted\\\"/\u00e9\u00e9"), lines[1]);
+        assertTrue(lines[1].endsWith("\"userAgentHash\":" + "curl/7.68.0".hashCode() + "}"), lines[1]);
+        assertTrue(lines[2].matches("\\{\"shortUrl\":\"6e8b9a\",\"timestamp\":\"[^\"]+Z\",\"referrer\":null,"
+                + "\"userAgentHash\":0}"), lines[2]);
+    }
+
+    /**
+     * Test: clicks that cannot be written are dropped and counted, the writer survives the
+     * failures and stops without waiting for the log to be writable again
+     */
+    @Test
+    public void testFailedWritesAreDropped() throws Exception {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        Path clicks = directory.resolve("clicks");
+        ClickEventLog clickEventLog = new ClickEventLog(meterRegistry, 1024, clicks.toString(),
+                ClickLogFormat.HEADER_SIZE + ClickLogFormat.MAX_RECORD_SIZE, 2);
+        clickEventLog.start();
+        String referrer = "https://example.com/" + "\u00e9".repeat(2100);
+        assertTrue(clickEventLog.record("000000", referrer, null));
+        while (meterRegistry.counter("url.shortener.clicks.written").count() < 1) {
+            Thread.sleep(1);
+        }
+
+        // the first click fills its segment, the next segments cannot be created
+        try (Stream<Path> files = Files.list(clicks)) {
+            for (Path file : files.collect(Collectors.toList())) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(clicks);
+        Files.createFile(clicks);
+        assertTrue(clickEventLog.record("000001", referrer, null));
+        assertTrue(clickEventLog.record("000002", null, null));
+        assertTrue(clickEventLog.record("000003", null, null));
+        assertTimeoutPreemptively(Duration.ofSeconds(10), clickEventLog::stop);
+
+        assertEquals(1, meterRegistry.counter("url.shortener.clicks.written").count());
+        assertEquals(3, meterRegistry.get("url.shortener.clicks.dropped").functionCounter().count());
+    }
+}
@@ -0,0 +1,402 @@
+package org.juliazo.url.shortener.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.juliazo.url.shortener.bulkhead.Bulkhead;
+import org.juliazo.url.shortener.commons.exception.ConflictingDataException;
+import org.juliazo.url.shortener.commons.exception.InvalidBatchException;
+import org.juliazo.url.shortener.commons.exception.InvalidUrlException;
+import org.juliazo.url.shortener.commons.exception.ResourceNotFoundException;
+import org.juliazo.url.shortener.commons.exception.ServiceOverloadedException;
+import org.juliazo.url.shortener.commons.payload.ErrorResponsePayload;
+import org.juliazo.url.shortener.commons.payload.ResolveBatchItemPayload;
+import org.juliazo.url.shortener.commons.payload.UrlBatchItemPayload;
+import org.juliazo.url.shortener.commons.payload.UrlRequestPayload;
+import org.juliazo.url.shortener.commons.payload.UrlResponsePayload;
+import org.juliazo.url.shortener.commons.redirect.UrlRedirect;
+import org.juliazo.url.shortener.limiter.FixedConcurrencyLimiter;
+import org.juliazo.url.shortener.service.UrlShortenerService;
+import org.juliazo.url.shortener.timing.RequestTimer;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletionException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+@RunWith(JUnitPlatform.class)
+class UrlShortenerControllerTest {
+
+    /**
+     * The controller responsible for handling REST requests
+     */
+    private UrlShortenerController urlShortenerController;
+
+    /**
+     * The service which holds the core logic for the application
+     */
+    @Mock
+    private UrlShortenerService urlShortenerService;
+
+    private final MockHttpServletResponse response = new MockHttpServletResponse();
+
+    @BeforeEach
+    public void setUp() {
+        urlShortenerController = createController(false);
+    }
+
+    private UrlShortenerController createController(boolean timingEnabled) {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        return new UrlShortenerController(urlShortenerService,
+                new RedirectResponseFactory(302, 0),
+                new FixedConcurrencyLimiter("shorten", 10, 1, meterRegistry),
+                new FixedConcurrencyLimiter("redirect", 10, 1, meterRegistry),
+                Bulkhead.inline(),
+                new RequestTimer(timingEnabled, false),
+                3, 2, new ObjectMapper(), 5, 2);
+    }
+
+    /**
+     * Test: Send a valid long url to /shorten endpoint, receive a short url in response
+     */
+    @Test
+    public void testShortenUrl () {
+        UrlRequestPayload requestPayload = new UrlRequestPayload();
+        requestPayload.setLongUrl("ea.com/frostbite");
+
+        String shortUrl = "6e8b9a";
+        String composedShortUrl = "http://localhost:80/" + shortUrl;
+        when(urlShortenerService.shortenUrl(eq(requestPayload))).thenReturn(shortUrl);
+
+        ResponseEntity<UrlResponsePayload> expected = new ResponseEntity<> (new UrlResponsePayload(requestPayload.getLongUrl(), composedShortUrl), HttpStatus.OK);
+
+        ResponseEntity<UrlResponsePayload>  actual = urlShortenerController.shortenUrl(requestPayload, null, response).join();
+
+        UrlResponsePayload actualPayload = actual.getBody();
+
+        assertEquals(expected.getStatusCode(), actual.getStatusCode());
+        assertNotNull(actualPayload);
+        assertEquals(requestPayload.getLongUrl(), actualPayload.getLongUrl());
+        assertEquals(composedShortUrl, actualPayload.getShortUrl());
+    }
+
+    /**
+     * Test: Send a batch of urls to /shorten/batch, each url is answered in order, failing on its own
+     */
+    @Test
+    public void testShortenUrls () {
+        UrlRequestPayload valid = new UrlRequestPayload("ea.com/frostbite");
+        UrlRequestPayload invalid = new UrlRequestPayload("not a url");
+        UrlRequestPayload conflicting = new UrlRequestPayload("ea.com/battlefield");
+        when(urlShortenerService.shortenUrl(eq(valid))).thenReturn("6e8b9a");
+        when(urlShortenerService.shortenUrl(eq(invalid))).thenThrow(new InvalidUrlException(new IllegalArgumentException("not a url")));
+        when(urlShortenerService.shortenUrl(eq(conflicting))).thenThrow(new ConflictingDataException());
+
+        ResponseEntity<List<UrlBatchItemPayload>> actual =
+                urlShortenerController.shortenUrls(List.of(valid, invalid, conflicting), response).join();
+
+        assertEquals(HttpStatus.OK, actual.getStatusCode());
+        List<UrlBatchItemPayload> items = actual.getBody();
+        assertNotNull(items);
+        assertEquals(3, items.size());
+        assertEquals("ea.com/frostbite", items.get(0).getLongUrl());
+        assertEquals("http://localhost:80/6e8b9a", items.get(0).getShortUrl());
+        assertNull(items.get(0).getError());
+        assertEquals("not a url", items.get(1).getLongUrl());
+        assertNull(items.get(1).getShortUrl());
+        assertEquals(HttpStatus.BAD_REQUEST.value(), items.get(1).getError().getStatus());
+        assertEquals(HttpStatus.CONFLICT.value(), items.get(2).getError().getStatus());
+    }
+
+    /**
+     * Test: Empty batches and batches larger than the configured maximum are rejected as a whole
+     */
+    @Test
+    public void testShortenUrlsInvalidBatch () {
+        UrlRequestPayload payload = new UrlRequestPayload("ea.com/frostbite");
+
+        assertThrows(InvalidBatchException.class,
+                () -> urlShortenerController.shortenUrls(Collections.emptyList(), response));
+        assertThrows(InvalidBatchException.class,
+                () -> urlShortenerController.shortenUrls(List.of(payload, payload, payload, payload), response));
+    }
+
+    /**
+     * Test: Send a batch of short urls to /resolve/batch, resolved in chunks and answered in
+     * order, unknown short urls and failed chunks with an error each
+     */
+    @Test
+    public void testResolveUrls () throws IOException {
+        when(urlShortenerService.resolveUrls(List.of("6e8b9a", "aaaaaa"))).thenReturn(Map.of(
+                "6e8b9a", Optional.of(new UrlRedirect("http://ea.com/frostbite", null, null)),
+                "aaaaaa", Optional.empty()));
+        when(urlShortenerService.resolveUrls(List.of("bbbbbb", "cccccc"))).thenThrow(new ServiceOverloadedException(1));
+        when(urlShortenerService.resolveUrls(List.of("6e8b9a"))).thenReturn(Map.of());
+
+        ResponseEntity<StreamingResponseBody> actual = urlShortenerController.resolveUrls(
+                List.of("6e8b9a", "aaaaaa", "bbbbbb", "cccccc", "6e8b9a")).join();
+
+        assertEquals(HttpStatus.OK, actual.getStatusCode());
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        actual.getBody().writeTo(body);
+        ResolveBatchItemPayload[] items = new ObjectMapper().readValue(body.toByteArray(),
+                ResolveBatchItemPayload[].class);
+        assertEquals(5, items.length);
+        assertEquals("6e8b9a", items[0].getShortUrl());
+        assertEquals("http://ea.com/frostbite", items[0].getLongUrl());
+        assertNull(items[0].getError());
+        assertEquals("aaaaaa", items[1].getShortUrl());
+        assertNull(items[1].getLongUrl());
+        assertEquals(HttpStatus.NOT_FOUND.value(), items[1].getError().getStatus());
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE.value(), items[2].getError().getStatus());
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE.value(), items[3].getError().getStatus());
+        assertEquals("6e8b9a", items[4].getShortUrl());
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE.value(), items[4].getError().getStatus());
+        assertEquals("The short url could not be resolved, please try again later.", items[4].getError().getMessage());
+    }
+
+    /**
+     * Test: Empty batches and batches larger than the configured maximum are rejected as a whole,
+     * so is a batch whose first chunk fails
+     */
+    @Test
+    public void testResolveUrlsInvalidBatch () {
+        assertThrows(InvalidBatchException.class,
+                () -> urlShortenerController.resolveUrls(Collections.emptyList()));
+        assertThrows(InvalidBatchException.class,
+                () -> urlShortenerController.resolveUrls(List.of("a", "b", "c", "d", "e", "f")));
+
+        when(urlShortenerService.resolveUrls(List.of("6e8b9a"))).thenThrow(new ServiceOverloadedException(1));
+        CompletionException exception = assertThrows(CompletionException.class,
+                () -> urlShortenerController.resolveUrls(List.of("6e8b9a")).join());
+        assertTrue(exception.getCause() instanceof ServiceOverloadedException);
+    }
+
+    /**
+     * Test: Send a valid short url to /{shortUrl }, the lookup endpoint, receive a long url in response
+     */
+    @Test
+    public void testLookupUrl () {
+        String shortUrl = "6e8b9a";
+        String composedLongUrl = "http://ea.com/frostbite";
+        when(urlShortenerService.lookupUrl(eq(shortUrl), any(), any()))
+                .thenReturn(new UrlRedirect(composedLongUrl, null, null));
+
+        ResponseEntity<Void> actual = urlShortenerController.lookupUrl(shortUrl, null, null, null, response).join();
+
+        assertEquals(HttpStatus.FOUND, actual.getStatusCode());
+        assertEquals(composedLongUrl, actual.getHeaders().getLocation().toString());
+        assertEquals("no-store", actual.getHeaders().getCacheControl());
+    }
+
+    /**
+     * Test: A long url with non-ASCII characters is percent-encoded in the Location header
+     */
+    @Test
+    public void testLookupUrlNonAscii () {
+        String shortUrl = "6e8b9a";
+        when(urlShortenerService.lookupUrl(eq(shortUrl), any(), any()))
+                .thenReturn(new UrlRedirect("http://ea.com/straße", null, null));
+
+        ResponseEntity<Void> actual = urlShortenerController.lookupUrl(shortUrl, null, null, null, response).join();
+
+        assertEquals("http://ea.com/stra%C3%9Fe", actual.getHeaders().getFirst(HttpHeaders.LOCATION));
+    }
+
+    /**
+     * Test: A link with its own redirect policy overrides the deployment defaults
+     */
+    @Test
+    public void testLookupUrlWithLinkPolicy () {
+        String shortUrl = "6e8b9a";
+        String composedLongUrl = "http://ea.com/frostbite";
+        when(urlShortenerService.lookupUrl(eq(shortUrl), any(), any()))
+                .thenReturn(new UrlRedirect(composedLongUrl, 301, 3600));
+
+        ResponseEntity<Void> actual = urlShortenerController.lookupUrl(shortUrl, null, null, null, response).join();
+
+        assertEquals(HttpStatus.MOVED_PERMANENTLY, actual.getStatusCode());
+        assertEquals("max-age=3600, public", actual.getHeaders().getCacheControl());
+        assertNotNull(actual.getHeaders().getETag());
+    }
+
+    /**
+     * Test: A conditional request holding the current ETag receives 304 NOT MODIFIED
+     */
+    @Test
+    public void testLookupUrlNotModified () {
+        String shortUrl = "6e8b9a";
+        when(urlShortenerService.lookupUrl(any(), any(), any()))
+                .thenReturn(new UrlRedirect("http://ea.com/frostbite", null, 3600));
+
+        String eTag = urlShortenerController.lookupUrl(shortUrl, null, null, null, response)
+                .join().getHeaders().getETag();
+        ResponseEntity<Void> actual =
+                urlShortenerController.lookupUrl(shortUrl, "W/\"other\", " + eTag, null, null, response).join();
+
+        assertEquals(HttpStatus.NOT_MODIFIED, actual.getStatusCode());
+        assertEquals(eTag, actual.getHeaders().getETag());
+    }
+
+    /**
+     * Test: Expiring links are never cached beyond their expiration nor redirected permanently
+     */
+    @Test
+    public void testLookupExpiringUrl () {
+        String shortUrl = "6e8b9a";
+        UrlRedirect expiring = new UrlRedirect("http://ea.com/frostbite", 308, 3600, Instant.now().plusSeconds(60));
+        when(urlShortenerService.lookupUrl(eq(shortUrl), any(), any())).thenReturn(expiring);
+
+        ResponseEntity<Void> actual = urlShortenerController.lookupUrl(shortUrl, null, null, null, response).join();
+
+        assertEquals(HttpStatus.TEMPORARY_REDIRECT, actual.getStatusCode());
+        assertTrue(actual.getHeaders().getCacheControl().matches("max-age=(59|60), public"));
+    }
+
+    /**
+     * Test: With timing enabled, the phases of the request come back in the Server-Timing header
+     */
+    @Test
+    public void testLookupUrlServerTiming () {
+        when(urlShortenerService.lookupUrl(any(), any(), any()))
+                .thenReturn(new UrlRedirect("http://ea.com/frostbite", null, null));
+
+        createController(true).lookupUrl("6e8b9a", null, null, null, response).join();
+
+        String serverTiming = response.getHeader(RequestTimer.SERVER_TIMING);
+        assertNotNull(serverTiming);
+        assertTrue(serverTiming.matches("queue;dur=\\d+\\.\\d{3}, render;dur=\\d+\\.\\d{3}, total;dur=\\d+\\.\\d{3}"),
+                serverTiming);
+    }
+
+    /**
+     * Test: Failed requests are timed too, untimed requests have no Server-Timing header
+     */
+    @Test
+    public void testFailedLookupServerTiming () {
+        when(urlShortenerService.lookupUrl(any(), any(), any())).thenThrow(new ResourceNotFoundException());
+
+        assertThrows(CompletionException.class,
+                () -> urlShortenerController.lookupUrl("6e8b9a", null, null, null, response).join());
+        assertNull(response.getHeader(RequestTimer.SERVER_TIMING));
+
+        assertThrows(CompletionException.class,
+                () -> createController(true).lookupUrl("6e8b9a", null, null, null, response).join());
+        assertTrue(response.getHeader(RequestTimer.SERVER_TIMING).contains("total;dur="));
+    }
+
+    /**
+     * Test: Deployments can only be configured with redirect status codes
+     */
+    @Test
+    public void shouldRejectUnsupportedDefaultStatus () {
+        assertThrows(IllegalArgumentException.class, () -> new RedirectResponseFactory(200, 0));
+    }
+
+    /**
+     * Test: Check correctly formatted response when an InvalidUrlException is raised
+     */
+    @Test
+    public void shouldHandleInvalidUrlException () {
+        InvalidUrlException exception = new InvalidUrlException(new Throwable());
+
+        ErrorResponsePayload expectedErrorResponsePayload = new ErrorResponsePayload(HttpStatus.BAD_REQUEST.value(),
+                HttpStatus.BAD_REQUEST.getReasonPhrase(), exception.getMessage());
+        ResponseEntity<ErrorResponsePayload> expected = new ResponseEntity<> (expectedErrorResponsePayload, HttpStatus.BAD_REQUEST);
+
+        ResponseEntity<ErrorResponsePayload> actual = UrlShortenerController.handleInvalidUrlError(exception);
+
+        ErrorResponsePayload actualPayload = actual.getBody();
+        assertEquals(expected.getStatusCode(), actual.getStatusCode());
+        assertNotNull(actualPayload);
+        assertEquals(expectedErrorResponsePayload.getMessage(), actualPayload.getMessage());
+        assertEquals(expectedErrorResponsePayload.getStatus(), actualPayload.getStatus());
+        assertEquals(expectedErrorResponsePayload.getReasonPhrase(), actualPayload.getReasonPhrase());
+    }
+
+    /**
+     * Test: Check correctly formatted response when a ResourceNotFoundException is raised
+     */
+    @Test
+    public void shouldHandleResourceNotFoundException () {
+        ResourceNotFoundException exception = new ResourceNotFoundException();
+
+        ErrorResponsePayload expectedErrorResponsePayload = new ErrorResponsePayload(HttpStatus.NOT_FOUND.value(),
+                HttpStatus.NOT_FOUND.getReasonPhrase(), exception.getMessage());
+        ResponseEntity<ErrorResponsePayload> expected = new ResponseEntity<>(expectedErrorResponsePayload, HttpStatus.NOT_FOUND);
+
+        ResponseEntity<ErrorResponsePayload> actual = UrlShortenerController.handleNotFoundError(exception);
+
+        ErrorResponsePayload actualPayload = actual.getBody();
+        assertEquals(expected.getStatusCode(), actual.getStatusCode());
+        assertNotNull(actualPayload);
+        assertEquals(expectedErrorResponsePayload.getMessage(), actualPayload.getMessage());
+        assertEquals(expectedErrorResponsePayload.getStatus(), actualPayload.getStatus());
+        assertEquals(expectedErrorResponsePayload.getReasonPhrase(), actualPayload.getReasonPhrase());
+    }
+
+    /**
+     * Test: Check correctly formatted response when a ConflictingDataException is raised
+     */
+    @Test
+    public void shouldHandleConflictingDataException () {
+        ConflictingDataException exception = new ConflictingDataException();
+
+        ErrorResponsePayload expectedErrorResponsePayload = new ErrorResponsePayload(HttpStatus.CONFLICT.value(),
+                HttpStatus.CONFLICT.getReasonPhrase(), exception.getMessage());
+        ResponseEntity<ErrorResponsePayload> expected = new ResponseEntity<>(expectedErrorResponsePayload, HttpStatus.CONFLICT);
+
+        ResponseEntity<ErrorResponsePayload> actual = UrlShortenerController.handleShortUrlConflictError(exception);
+
+        ErrorResponsePayload actualPayload = actual.getBody();
+        assertEquals(expected.getStatusCode(), actual.getStatusCode());
+        assertNotNull(actualPayload);
+        assertEquals(expectedErrorResponsePayload.getMessage(), actualPayload.getMessage());
+        assertEquals(expectedErrorResponsePayload.getStatus(), actualPayload.getStatus());
+        assertEquals(expectedErrorResponsePayload.getReasonPhrase(), actualPayload.getReasonPhrase());
+    }
+
+
+    /**
+     * Test: Check correctly formatted response when a ServiceOverloadedException is raised
+     */
+    @Test
+    public void shouldHandleServiceOverloadedException () {
+        ServiceOverloadedException exception = new ServiceOverloadedException(2);
+
+        ResponseEntity<ErrorResponsePayload> actual = UrlShortenerController.handleServiceOverloadedError(exception);
+
+        ErrorResponsePayload actualPayload = actual.getBody();
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, actual.getStatusCode());
+        assertEquals("2", actual.getHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+        assertNotNull(actualPayload);
+        assertEquals(exception.getMessage(), actualPayload.getMessage());
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE.value(), actualPayload.getStatus());
+    }
+
+}
@@ -0,0 +1,86 @@
+package org.juliazo.url.shortener.degraded;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.juliazo.url.shortener.commons.exception.DatabaseUnavailableException;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.DataIntegrityViolationException;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+@RunWith(JUnitPlatform.class)
+class DatabaseCircuitBreakerTest {
+
+    private final AtomicLong clock = new AtomicLong(1_000_000);
+
+    private final DatabaseCircuitBreaker circuitBreaker =
+            new DatabaseCircuitBreaker(new SimpleMeterRegistry(), 3, 100, 5000, clock::get);
+
+    /**
+     * Test: failures in a row open the breaker, which then refuses calls without running them,
+     * until a probe succeeds and closes it again
+     */
+    @Test
+    public void testOpenAndRecover() {
+        AtomicInteger recoveries = new AtomicInteger();
+        circuitBreaker.addRecoveryListener(recoveries::incrementAndGet);
+        for (int i = 0; i < 3; i++) {
+            DatabaseUnavailableException exception = assertThrows(DatabaseUnavailableException.class,
+                    () -> circuitBreaker.call(this::connectionRefused));
+            assertEquals(DataAccessResourceFailureException.class, exception.getCause().getClass());
+        }
+        assertEquals(DatabaseCircuitBreaker.State.OPEN, circuitBreaker.getState());
+
+        AtomicInteger calls = new AtomicInteger();
+        clock.addAndGet(1500);
+        DatabaseUnavailableException refused = assertThrows(DatabaseUnavailableException.class,
+                () -> circuitBreaker.call(calls::incrementAndGet));
+        assertEquals(4, refused.getRetryAfterSeconds());
+        assertEquals(0, calls.get());
+
+        clock.addAndGet(3500);
+        assertThrows(DatabaseUnavailableException.class, () -> circuitBreaker.call(this::connectionRefused));
+        assertEquals(DatabaseCircuitBreaker.State.OPEN, circuitBreaker.getState());
+        clock.addAndGet(5000);
+        assertEquals(1, circuitBreaker.call(calls::incrementAndGet));
+        assertEquals(DatabaseCircuitBreaker.State.CLOSED, circuitBreaker.getState());
+        assertEquals(1, recoveries.get());
+    }
+
+    /**
+     * Test: calls over the latency budget are failures even though they succeed, errors answered
+     * by the database are rethrown as they are and reset the failures
+     */
+    @Test
+    public void testSlowCallsAndDatabaseErrors() {
+        for (int i = 0; i < 2; i++) {
+            assertEquals("slow", circuitBreaker.call(() -> {
+                clock.addAndGet(150);
+                return "slow";
+            }));
+        }
+        assertThrows(DataIntegrityViolationException.class, () -> circuitBreaker.call(() -> {
+            throw new DataIntegrityViolationException("duplicate key value violates unique constraint");
+        }));
+        circuitBreaker.call(() -> {
+            clock.addAndGet(150);
+            return "slow";
+        });
+        assertEquals(DatabaseCircuitBreaker.State.CLOSED, circuitBreaker.getState());
+
+        for (int i = 0; i < 2; i++) {
+            circuitBreaker.call(() -> clock.addAndGet(101));
+        }
+        assertEquals(DatabaseCircuitBreaker.State.OPEN, circuitBreaker.getState());
+    }
+
+    private Object connectionRefused() {
+        throw new DataAccessResourceFailureException("Connection to localhost:5432 refused");
+    }
+}
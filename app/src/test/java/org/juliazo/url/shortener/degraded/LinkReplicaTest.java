@@ -0,0 +1,81 @@
+package org.juliazo.url.shortener.degraded;
+
+import org.juliazo.url.shortener.commons.redirect.RedirectSnapshot;
+import org.juliazo.url.shortener.commons.redirect.UrlRedirect;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+@RunWith(JUnitPlatform.class)
+class LinkReplicaTest {
+
+    @TempDir
+    Path directory;
+
+    /**
+     * Test: a restarted replica serves the snapshot and the changes journaled since, a batch
+     * cut short at the end of the journal is dropped
+     */
+    @Test
+    public void testReopen() throws IOException {
+        LinkReplica linkReplica = new LinkReplica(directory.toString());
+        linkReplica.open();
+        try (RedirectSnapshot.Writer writer = linkReplica.writeSnapshot(2, 10)) {
+            writer.add("6e8b9a", new UrlRedirect("https://www.ea.com/frostbite", null, null));
+            writer.add("0a1b2c", new UrlRedirect("https://www.ea.com/removed", null, null));
+        }
+        linkReplica.replaceSnapshot(10);
+        Map<String, UrlRedirect> changes = new HashMap<>();
+        changes.put("0a1b2c", null);
+        changes.put("3d4e5f", new UrlRedirect("https://www.ea.com/new", 307, 60, Instant.ofEpochSecond(1_900_000_000)));
+        linkReplica.apply(changes, 12);
+        linkReplica.close();
+        Files.write(directory.resolve(LinkReplica.JOURNAL_FILE), new byte[]{2, 0, 6, '6', 'e'},
+                StandardOpenOption.APPEND);
+
+        LinkReplica reopened = new LinkReplica(directory.toString());
+        reopened.open();
+
+        assertEquals(12, reopened.getLastEventId());
+        assertEquals("https://www.ea.com/frostbite", reopened.find("6e8b9a").getLongUrl());
+        assertNull(reopened.find("0a1b2c"));
+        assertEquals(changes.get("3d4e5f"), reopened.find("3d4e5f"));
+        assertEquals(2, reopened.changeCount());
+        reopened.close();
+    }
+
+    /**
+     * Test: a new snapshot replaces the changes, which are not replayed after a restart
+     */
+    @Test
+    public void testReplaceSnapshot() throws IOException {
+        LinkReplica linkReplica = new LinkReplica(directory.toString());
+        linkReplica.open();
+        assertEquals(-1, linkReplica.getLastEventId());
+        linkReplica.apply(Map.of("6e8b9a", new UrlRedirect("https://www.ea.com/old", null, null)), 3);
+        try (RedirectSnapshot.Writer writer = linkReplica.writeSnapshot(1, 5)) {
+            writer.add("6e8b9a", new UrlRedirect("https://www.ea.com/frostbite", null, null));
+        }
+        linkReplica.replaceSnapshot(5);
+        linkReplica.close();
+
+        LinkReplica reopened = new LinkReplica(directory.toString());
+        reopened.open();
+        assertEquals(5, reopened.getLastEventId());
+        assertEquals(0, reopened.changeCount());
+        assertEquals("https://www.ea.com/frostbite", reopened.find("6e8b9a").getLongUrl());
+        reopened.close();
+    }
+}
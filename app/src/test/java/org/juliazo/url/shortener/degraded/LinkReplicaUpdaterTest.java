@@ -0,0 +1,186 @@
+package org.juliazo.url.shortener.degraded;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.juliazo.url.shortener.commons.archive.UrlCompression;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.stubbing.Answer;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementSetter;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+@RunWith(JUnitPlatform.class)
+class LinkReplicaUpdaterTest {
+
+    private static final String LAST_EVENT_ID = "SELECT COALESCE(MAX(id), 0) FROM url_mapping_event";
+
+    private static final String FIRST_EVENT_ID = "SELECT COALESCE(MIN(id), 0) FROM url_mapping_event";
+
+    @TempDir
+    Path directory;
+
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+
+    private LinkReplica linkReplica;
+
+    private LinkReplicaUpdater linkReplicaUpdater;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        linkReplica = new LinkReplica(directory.toString());
+        linkReplica.open();
+        linkReplicaUpdater = new LinkReplicaUpdater(linkReplica,
+                new DatabaseCircuitBreaker(new SimpleMeterRegistry(), 5, 1000, 5000), jdbcTemplate,
+                new SimpleMeterRegistry(), 3_600_000, 120, 3600, 100_000);
+        lenient().when(jdbcTemplate.queryForObject(startsWith("SELECT COALESCE(SUM"), eq(Long.class))).thenReturn(2L);
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        linkReplica.close();
+    }
+
+    /**
+     * Test: the first refresh writes a snapshot of both tiers, the archived long urls decompressed,
+     * at the last event id read before the scan
+     */
+    @Test
+    public void testFullSnapshot() throws SQLException {
+        snapshot(10, "https://www.ea.com/frostbite");
+
+        linkReplicaUpdater.refresh();
+
+        assertEquals(10, linkReplica.getLastEventId());
+        assertEquals(2, linkReplica.size());
+        assertEquals("https://www.ea.com/frostbite", linkReplica.find("6e8b9a").getLongUrl());
+        assertEquals("https://www.ea.com/battlefield", linkReplica.find("0a1b2c").getLongUrl());
+        verify(jdbcTemplate, never()).queryForList(startsWith("SELECT id, short_url"), anyLong(), anyInt());
+    }
+
+    /**
+     * Test: later refreshes apply the events recorded since the snapshot, batch after batch,
+     * reading the links they name again, the links gone being removed
+     */
+    @Test
+    public void testIncrementalEvents() throws SQLException {
+        snapshot(10, "https://www.ea.com/frostbite");
+        linkReplicaUpdater.refresh();
+        when(jdbcTemplate.queryForObject(FIRST_EVENT_ID, Long.class)).thenReturn(1L);
+        when(jdbcTemplate.queryForList(startsWith("SELECT id, short_url"), eq(10L), anyInt()))
+                .thenReturn(List.of(Map.of("id", 11L, "short_url", "3d4e5f"), Map.of("id", 12L, "short_url", "0a1b2c")));
+        when(jdbcTemplate.queryForList(startsWith("SELECT id, short_url"), eq(12L), anyInt())).thenReturn(List.of());
+        doAnswer(rows(resultSet("3d4e5f", "https://www.ea.com/sims"))).when(jdbcTemplate).query(
+                contains("FROM url_entity WHERE short_url = ANY"), any(PreparedStatementSetter.class),
+                any(RowCallbackHandler.class));
+
+        linkReplicaUpdater.refresh();
+
+        assertEquals(12, linkReplica.getLastEventId());
+        assertEquals("https://www.ea.com/frostbite", linkReplica.find("6e8b9a").getLongUrl());
+        assertEquals("https://www.ea.com/sims", linkReplica.find("3d4e5f").getLongUrl());
+        assertNull(linkReplica.find("0a1b2c"));
+        assertEquals(2, linkReplica.changeCount());
+    }
+
+    /**
+     * Test: when the events following the replica were already pruned, a new snapshot is
+     * written instead of catching up
+     */
+    @Test
+    public void testPrunedEventsRebuildSnapshot() throws SQLException {
+        snapshot(10, "https://www.ea.com/frostbite");
+        linkReplicaUpdater.refresh();
+        when(jdbcTemplate.queryForObject(FIRST_EVENT_ID, Long.class)).thenReturn(15L);
+        snapshot(20, "https://www.ea.com/frostbite/engine");
+
+        linkReplicaUpdater.refresh();
+
+        assertEquals(20, linkReplica.getLastEventId());
+        assertEquals(0, linkReplica.changeCount());
+        assertEquals("https://www.ea.com/frostbite/engine", linkReplica.find("6e8b9a").getLongUrl());
+        verify(jdbcTemplate, never()).queryForList(startsWith("SELECT id, short_url"), anyLong(), anyInt());
+    }
+
+    /**
+     * Stubs the next snapshot: one link in url_entity and one in url_archive, up to the given event.
+     */
+    @SuppressWarnings("unchecked")
+    private void snapshot(long lastEventId, String longUrl) throws SQLException {
+        when(jdbcTemplate.queryForObject(LAST_EVENT_ID, Long.class)).thenReturn(lastEventId);
+        ResultSet hot = resultSet("6e8b9a", longUrl);
+        ResultSet archived = mock(ResultSet.class);
+        when(archived.getString(1)).thenReturn("0a1b2c");
+        when(archived.getBytes(2)).thenReturn(UrlCompression.compress("https://www.ea.com/battlefield"));
+        when(jdbcTemplate.query(contains("FROM url_entity WHERE short_url > ?"), any(RowMapper.class), any(), any()))
+                .thenAnswer(scan(hot));
+        when(jdbcTemplate.query(contains("FROM url_archive WHERE short_url > ?"), any(RowMapper.class), any(), any()))
+                .thenAnswer(scan(archived));
+    }
+
+    private static ResultSet resultSet(String shortUrl, String longUrl) throws SQLException {
+        ResultSet resultSet = mock(ResultSet.class);
+        when(resultSet.getString(1)).thenReturn(shortUrl);
+        when(resultSet.getString(2)).thenReturn(longUrl);
+        return resultSet;
+    }
+
+    /**
+     * @return an answer mapping the rows with the row mapper of the query
+     */
+    private static Answer<List<Object>> scan(ResultSet... rows) {
+        return invocation -> {
+            RowMapper<Object> rowMapper = invocation.getArgument(1);
+            List<Object> mapped = new ArrayList<>();
+            for (int i = 0; i < rows.length; i++) {
+                mapped.add(rowMapper.mapRow(rows[i], i));
+            }
+            return mapped;
+        };
+    }
+
+    /**
+     * @return an answer handing the rows to the row callback handler of the query
+     */
+    private static Answer<Void> rows(ResultSet... rows) {
+        return invocation -> {
+            RowCallbackHandler handler = invocation.getArgument(2);
+            for (ResultSet row : rows) {
+                handler.processRow(row);
+            }
+            return null;
+        };
+    }
+}
@@ -0,0 +1,192 @@
+package org.juliazo.url.shortener.grpc;
+
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.juliazo.url.shortener.bulkhead.Bulkhead;
+import org.juliazo.url.shortener.bulkhead.Workload;
+import org.juliazo.url.shortener.commons.exception.InvalidUrlException;
+import org.juliazo.url.shortener.commons.payload.UrlRequestPayload;
+import org.juliazo.url.shortener.commons.redirect.UrlRedirect;
+import org.juliazo.url.shortener.grpc.api.Outcome;
+import org.juliazo.url.shortener.grpc.api.ResolveRequest;
+import org.juliazo.url.shortener.grpc.api.ResolveResponse;
+import org.juliazo.url.shortener.grpc.api.ShortenRequest;
+import org.juliazo.url.shortener.grpc.api.ShortenResponse;
+import org.juliazo.url.shortener.grpc.api.UrlShortenerGrpc;
+import org.juliazo.url.shortener.limiter.FixedConcurrencyLimiter;
+import org.juliazo.url.shortener.service.UrlShortenerService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+@RunWith(JUnitPlatform.class)
+class UrlShortenerGrpcServiceTest {
+
+    @Mock
+    private UrlShortenerService urlShortenerService;
+
+    private final ExecutorService redirectExecutor = Executors.newFixedThreadPool(16);
+
+    private Server server;
+
+    private ManagedChannel channel;
+
+    private UrlShortenerGrpc.UrlShortenerBlockingStub start(int maxInFlightPerStream) throws Exception {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        UrlShortenerGrpcService grpcService = new UrlShortenerGrpcService(urlShortenerService,
+                new FixedConcurrencyLimiter("shorten", 100, 1, meterRegistry),
+                new FixedConcurrencyLimiter("redirect", 100, 1, meterRegistry),
+                new Bulkhead(Map.of(Workload.REDIRECT, redirectExecutor), 1),
+                maxInFlightPerStream);
+        String name = InProcessServerBuilder.generateName();
+        server = InProcessServerBuilder.forName(name).addService(grpcService).build().start();
+        channel = InProcessChannelBuilder.forName(name).build();
+        return UrlShortenerGrpc.newBlockingStub(channel);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        channel.shutdownNow();
+        server.shutdownNow();
+        redirectExecutor.shutdownNow();
+    }
+
+    /**
+     * Test: a long url is shortened and the short url resolved with unary calls
+     */
+    @Test
+    public void testUnaryCalls() throws Exception {
+        UrlShortenerGrpc.UrlShortenerBlockingStub stub = start(8);
+        when(urlShortenerService.shortenUrl(any(UrlRequestPayload.class))).thenAnswer(invocation -> {
+            UrlRequestPayload payload = invocation.getArgument(0);
+            assertEquals(301, payload.getRedirectStatus());
+            assertEquals(null, payload.getCacheMaxAge());
+            return "6e8b9a";
+        });
+        when(urlShortenerService.resolveUrls(List.of("6e8b9a")))
+                .thenReturn(Map.of("6e8b9a", Optional.of(new UrlRedirect("http://ea.com/frostbite", 301, null))));
+
+        ShortenResponse shortened = stub.shorten(ShortenRequest.newBuilder()
+                .setLongUrl("ea.com/frostbite").setRedirectStatus(301).build());
+        ResolveResponse resolved = stub.resolve(ResolveRequest.newBuilder().setShortUrl("6e8b9a").build());
+
+        assertEquals(Outcome.OK, shortened.getOutcome());
+        assertEquals("6e8b9a", shortened.getShortUrl());
+        assertEquals("http://ea.com/frostbite", resolved.getLongUrl());
+        assertEquals(301, resolved.getRedirectStatus());
+        assertFalse(resolved.hasCacheMaxAge());
+        assertFalse(resolved.hasExpiresAtEpochSeconds());
+        verify(urlShortenerService, never()).lookupUrl(anyString());
+    }
+
+    /**
+     * Test: unary calls fail with the gRPC status matching the REST error status
+     */
+    @Test
+    public void testUnaryErrors() throws Exception {
+        UrlShortenerGrpc.UrlShortenerBlockingStub stub = start(8);
+        when(urlShortenerService.shortenUrl(any(UrlRequestPayload.class)))
+                .thenThrow(new InvalidUrlException(null));
+        when(urlShortenerService.resolveUrls(List.of("000000"))).thenReturn(Map.of("000000", Optional.empty()));
+        when(urlShortenerService.resolveUrls(List.of("111111"))).thenReturn(Map.of());
+
+        StatusRuntimeException invalid = assertThrows(StatusRuntimeException.class,
+                () -> stub.shorten(ShortenRequest.newBuilder().setLongUrl("not a url").build()));
+        StatusRuntimeException notFound = assertThrows(StatusRuntimeException.class,
+                () -> stub.resolve(ResolveRequest.newBuilder().setShortUrl("000000").build()));
+        StatusRuntimeException notResolved = assertThrows(StatusRuntimeException.class,
+                () -> stub.resolve(ResolveRequest.newBuilder().setShortUrl("111111").build()));
+
+        assertEquals(Status.Code.INVALID_ARGUMENT, invalid.getStatus().getCode());
+        assertEquals(Status.Code.NOT_FOUND, notFound.getStatus().getCode());
+        assertEquals(Status.Code.UNAVAILABLE, notResolved.getStatus().getCode());
+    }
+
+    /**
+     * Test: every streamed request is answered with its outcome, a failing one does not end the stream,
+     * and no more requests than allowed are handled at the same time
+     */
+    @Test
+    public void testResolveStream() throws Exception {
+        start(4);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        when(urlShortenerService.resolveUrls(anyCollection())).thenAnswer(invocation -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(1);
+                Collection<String> shortUrls = invocation.getArgument(0);
+                String shortUrl = shortUrls.iterator().next();
+                if (shortUrl.endsWith("7")) {
+                    return Map.of(shortUrl, Optional.empty());
+                }
+                return Map.of(shortUrl, Optional.of(new UrlRedirect("http://ea.com/" + shortUrl, null, null)));
+            } finally {
+                running.decrementAndGet();
+            }
+        });
+
+        Map<Long, ResolveResponse> responses = new ConcurrentHashMap<>();
+        CountDownLatch completed = new CountDownLatch(1);
+        StreamObserver<ResolveRequest> requests = UrlShortenerGrpc.newStub(channel)
+                .resolveStream(new StreamObserver<ResolveResponse>() {
+                    @Override
+                    public void onNext(ResolveResponse response) {
+                        responses.put(response.getId(), response);
+                    }
+
+                    @Override
+                    public void onError(Throwable failure) {
+                    }
+
+                    @Override
+                    public void onCompleted() {
+                        completed.countDown();
+                    }
+                });
+        for (long id = 0; id < 200; id++) {
+            requests.onNext(ResolveRequest.newBuilder().setId(id).setShortUrl(String.format("%06d", id)).build());
+        }
+        requests.onCompleted();
+
+        assertTrue(completed.await(10, TimeUnit.SECONDS));
+        assertEquals(200, responses.size());
+        assertEquals(Outcome.NOT_FOUND, responses.get(7L).getOutcome());
+        assertEquals(Outcome.OK, responses.get(8L).getOutcome());
+        assertEquals("http://ea.com/000008", responses.get(8L).getLongUrl());
+        assertTrue(maxRunning.get() <= 4, "max running: " + maxRunning.get());
+    }
+}
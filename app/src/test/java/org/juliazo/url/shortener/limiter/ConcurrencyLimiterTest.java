@@ -0,0 +1,83 @@
+package org.juliazo.url.shortener.limiter;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.juliazo.url.shortener.commons.exception.ServiceOverloadedException;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@RunWith(JUnitPlatform.class)
+class ConcurrencyLimiterTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    /**
+     * Test: requests beyond the limit are rejected right away and counted
+     */
+    @Test
+    public void shouldRejectBeyondLimit() {
+        ConcurrencyLimiter limiter = new FixedConcurrencyLimiter("test", 2, 3, meterRegistry);
+        limiter.acquire();
+        ConcurrencyLimiter.Permit permit = limiter.acquire();
+
+        ServiceOverloadedException exception = assertThrows(ServiceOverloadedException.class, limiter::acquire);
+        assertEquals(3, exception.getRetryAfterSeconds());
+        assertEquals(1, meterRegistry.get("url.shortener.limiter.rejected").counter().count());
+        assertEquals(2, meterRegistry.get("url.shortener.limiter.in.flight").gauge().value());
+
+        permit.release();
+        limiter.acquire();
+    }
+
+    /**
+     * Test: the permit is released when the task fails
+     */
+    @Test
+    public void shouldReleaseOnFailure() {
+        ConcurrencyLimiter limiter = new FixedConcurrencyLimiter("test", 1, 1, meterRegistry);
+
+        assertThrows(IllegalStateException.class, () -> limiter.execute(() -> {
+            throw new IllegalStateException();
+        }));
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    /**
+     * Test: the adaptive limit grows while latency is stable and shrinks once it rises
+     */
+    @Test
+    public void shouldAdaptLimitToLatency() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("test", 10, 2, 100, 1, meterRegistry);
+        long stable = TimeUnit.MILLISECONDS.toNanos(5);
+        for (int i = 0; i < 50; i++) {
+            limiter.onSample(stable, limiter.getLimit());
+        }
+        int grown = limiter.getLimit();
+        assertTrue(grown > 10);
+
+        long queueing = TimeUnit.MILLISECONDS.toNanos(50);
+        for (int i = 0; i < 50; i++) {
+            limiter.onSample(queueing, limiter.getLimit());
+        }
+        assertTrue(limiter.getLimit() < grown);
+        assertTrue(limiter.getLimit() >= 2);
+    }
+
+    /**
+     * Test: the limit does not grow while the service uses less than half of it
+     */
+    @Test
+    public void shouldNotGrowWhenUnderused() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("test", 10, 2, 100, 1, meterRegistry);
+        for (int i = 0; i < 50; i++) {
+            limiter.onSample(TimeUnit.MILLISECONDS.toNanos(5), 1);
+        }
+        assertEquals(10, limiter.getLimit());
+    }
+}
@@ -0,0 +1,195 @@
+package org.juliazo.url.shortener.maintenance;
+
+import org.juliazo.url.shortener.cache.UrlMappingCache;
+import org.juliazo.url.shortener.commons.redirect.UrlRedirect;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+@RunWith(JUnitPlatform.class)
+class ExpiredLinkReaperTest {
+
+    private static final int BATCH_SIZE = 2;
+
+    private static final long GRACE_SECONDS = 3600;
+
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+
+    private final UrlMappingCache urlMappingCache = new UrlMappingCache(100, 100);
+
+    private final FakeTable table = new FakeTable();
+
+    private ExpiredLinkReaper expiredLinkReaper;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        expiredLinkReaper = new ExpiredLinkReaper(jdbcTemplate, urlMappingCache, BATCH_SIZE, 100, 0, GRACE_SECONDS);
+        when(jdbcTemplate.query(startsWith("WITH batch AS"), any(RowMapper.class), any(Timestamp.class),
+                anyString(), any(Timestamp.class), eq(BATCH_SIZE))).thenAnswer(invocation -> table.deleteBatch(
+                invocation.getArgument(1), invocation.getArgument(2), invocation.getArgument(3),
+                invocation.getArgument(4), invocation.getArgument(5)));
+    }
+
+    /**
+     * Test: every batch starts after the last link deleted by the previous one, and every reaped
+     * short url is invalidated in the cache
+     */
+    @Test
+    public void testCursorAdvancesBetweenBatches() {
+        Instant expired = Instant.now().minusSeconds(2 * GRACE_SECONDS);
+        table.add(expired, "0a1b2c");
+        table.add(expired, "6e8b9a");
+        table.add(expired.plusSeconds(1), "1b2c3d");
+        table.add(expired.plusSeconds(2), "3d4e5f");
+        table.add(expired.plusSeconds(2), "4e5f6a");
+        for (FakeRow row : table.rows) {
+            urlMappingCache.put(row.shortUrl, new UrlRedirect(row.longUrl, null, null));
+        }
+
+        assertEquals(5, expiredLinkReaper.reap());
+
+        assertTrue(table.rows.isEmpty());
+        assertEquals(List.of("", "6e8b9a", "3d4e5f", "4e5f6a"), table.cursorShortUrls);
+        assertEquals(List.of(new Timestamp(0), Timestamp.from(expired), Timestamp.from(expired.plusSeconds(2)),
+                Timestamp.from(expired.plusSeconds(2))), table.cursorExpiresAts);
+        assertEquals(0, urlMappingCache.redirectCacheSize());
+        assertFalse(urlMappingCache.findShortUrl("http://ea.com/0a1b2c").isPresent());
+        assertFalse(urlMappingCache.findShortUrl("http://ea.com/4e5f6a").isPresent());
+    }
+
+    /**
+     * Test: links expired for less than the grace period are kept, and stay in the cache
+     */
+    @Test
+    public void testGraceCutoffKeepsRecentlyExpiredLinks() {
+        Instant now = Instant.now();
+        table.add(now.minusSeconds(GRACE_SECONDS + 60), "0a1b2c");
+        table.add(now.minusSeconds(GRACE_SECONDS - 60), "6e8b9a");
+        table.add(now.minusSeconds(1), "1b2c3d");
+        urlMappingCache.put("6e8b9a", new UrlRedirect("http://ea.com/6e8b9a", null, null));
+
+        assertEquals(1, expiredLinkReaper.reap());
+
+        assertEquals(2, table.rows.size());
+        assertFalse(table.contains("0a1b2c"));
+        assertTrue(urlMappingCache.findRedirect("6e8b9a").isPresent());
+        Instant cutoff = table.cutoffs.get(0).toInstant();
+        assertTrue(!cutoff.isAfter(now.minusSeconds(GRACE_SECONDS - 5))
+                && !cutoff.isBefore(now.minusSeconds(GRACE_SECONDS)));
+    }
+
+    /**
+     * Test: a short batch does not end the run while expired links are left, and the links
+     * locked by a concurrent request are left for the next run
+     */
+    @Test
+    public void testShortBatchDoesNotEndRun() {
+        Instant expired = Instant.now().minusSeconds(2 * GRACE_SECONDS);
+        for (int i = 0; i < 6; i++) {
+            table.add(expired.plusSeconds(i), "link0" + i);
+        }
+        table.locked.add("link01");
+        table.shortBatches = 1;
+
+        assertEquals(5, expiredLinkReaper.reap());
+
+        assertEquals(1, table.rows.size());
+        assertTrue(table.contains("link01"));
+
+        table.locked.clear();
+        assertEquals(1, expiredLinkReaper.reap());
+        assertTrue(table.rows.isEmpty());
+    }
+
+    private static final class FakeRow {
+
+        final Timestamp expiresAt;
+        final String shortUrl;
+        final String longUrl;
+
+        FakeRow(Timestamp expiresAt, String shortUrl) {
+            this.expiresAt = expiresAt;
+            this.shortUrl = shortUrl;
+            this.longUrl = "http://ea.com/" + shortUrl;
+        }
+    }
+
+    /**
+     * Stands in for url_entity behind the delete batch: rows past the cursor and before the
+     * cutoff, in key order, locked rows skipped. The first short batches are cut after one row,
+     * the way a row changed concurrently is dropped after the limit was applied.
+     */
+    private static final class FakeTable {
+
+        final List<FakeRow> rows = new ArrayList<>();
+        final Set<String> locked = new HashSet<>();
+        final List<Timestamp> cursorExpiresAts = new ArrayList<>();
+        final List<String> cursorShortUrls = new ArrayList<>();
+        final List<Timestamp> cutoffs = new ArrayList<>();
+        int shortBatches;
+
+        void add(Instant expiresAt, String shortUrl) {
+            rows.add(new FakeRow(Timestamp.from(expiresAt), shortUrl));
+        }
+
+        boolean contains(String shortUrl) {
+            return rows.stream().anyMatch(row -> row.shortUrl.equals(shortUrl));
+        }
+
+        List<Object> deleteBatch(RowMapper<Object> rowMapper, Timestamp cursorExpiresAt, String cursorShortUrl,
+                                 Timestamp cutoff, int limit) throws SQLException {
+            cursorExpiresAts.add(cursorExpiresAt);
+            cursorShortUrls.add(cursorShortUrl);
+            cutoffs.add(cutoff);
+            int batchLimit = shortBatches-- > 0 ? 1 : limit;
+            List<FakeRow> batch = new ArrayList<>();
+            rows.stream()
+                    .filter(row -> row.expiresAt.after(cursorExpiresAt) || (row.expiresAt.equals(cursorExpiresAt)
+                            && row.shortUrl.compareTo(cursorShortUrl) > 0))
+                    .filter(row -> row.expiresAt.before(cutoff) && !locked.contains(row.shortUrl))
+                    .sorted(Comparator.comparing((FakeRow row) -> row.expiresAt).thenComparing(row -> row.shortUrl))
+                    .limit(batchLimit)
+                    .forEach(batch::add);
+            rows.removeAll(batch);
+            List<Object> deleted = new ArrayList<>();
+            for (FakeRow row : batch) {
+                ResultSet resultSet = mock(ResultSet.class);
+                when(resultSet.getTimestamp(1)).thenReturn(row.expiresAt);
+                when(resultSet.getString(2)).thenReturn(row.shortUrl);
+                when(resultSet.getString(3)).thenReturn(row.longUrl);
+                deleted.add(rowMapper.mapRow(resultSet, deleted.size()));
+            }
+            return deleted;
+        }
+    }
+}
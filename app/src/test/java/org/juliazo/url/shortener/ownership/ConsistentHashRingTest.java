@@ -0,0 +1,78 @@
+package org.juliazo.url.shortener.ownership;
+
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@RunWith(JUnitPlatform.class)
+class ConsistentHashRingTest {
+
+    private static final List<String> MEMBERS = List.of("http://10.0.0.1:8080", "http://10.0.0.2:8080",
+            "http://10.0.0.3:8080", "http://10.0.0.4:8080");
+
+    private static final int KEYS = 10000;
+
+    private static String key(int i) {
+        return "http://ea.com/frostbite/" + i;
+    }
+
+    /**
+     * Test: every replica builds the same ring whatever order it lists the members in, and
+     * every key lists every member once
+     */
+    @Test
+    public void testOwnersDoNotDependOnMemberOrder() {
+        ConsistentHashRing ring = new ConsistentHashRing(MEMBERS, 64);
+        ConsistentHashRing reversed = new ConsistentHashRing(List.of(MEMBERS.get(3), MEMBERS.get(2),
+                MEMBERS.get(1), MEMBERS.get(0), MEMBERS.get(0)), 64);
+
+        assertEquals(4, reversed.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(ring.owners(key(i)), reversed.owners(key(i)));
+            assertEquals(4, ring.owners(key(i)).size());
+        }
+        assertTrue(new ConsistentHashRing(List.of(), 64).owners(key(0)).isEmpty());
+    }
+
+    /**
+     * Test: keys are spread about evenly over the members
+     */
+    @Test
+    public void testKeysAreSpread() {
+        ConsistentHashRing ring = new ConsistentHashRing(MEMBERS, 64);
+        Map<String, Integer> owned = new HashMap<>();
+        for (int i = 0; i < KEYS; i++) {
+            owned.merge(ring.owners(key(i)).get(0), 1, Integer::sum);
+        }
+
+        assertEquals(4, owned.size());
+        owned.values().forEach(count -> assertTrue(count > KEYS * 15 / 100 && count < KEYS * 35 / 100,
+                () -> "Uneven spread " + owned));
+    }
+
+    /**
+     * Test: when a member leaves, only its keys change owner, each one to the member that was
+     * next in line for it
+     */
+    @Test
+    public void testLeavingMemberOnlyMovesItsKeys() {
+        ConsistentHashRing ring = new ConsistentHashRing(MEMBERS, 64);
+        ConsistentHashRing shrunk = new ConsistentHashRing(MEMBERS.subList(0, 3), 64);
+
+        for (int i = 0; i < KEYS; i++) {
+            List<String> owners = ring.owners(key(i));
+            if (owners.get(0).equals(MEMBERS.get(3))) {
+                assertEquals(owners.get(1), shrunk.owners(key(i)).get(0));
+            } else {
+                assertEquals(owners.get(0), shrunk.owners(key(i)).get(0));
+            }
+        }
+    }
+}
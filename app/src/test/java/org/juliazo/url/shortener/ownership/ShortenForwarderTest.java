@@ -0,0 +1,157 @@
+package org.juliazo.url.shortener.ownership;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.juliazo.url.shortener.commons.exception.ConflictingDataException;
+import org.juliazo.url.shortener.commons.payload.UrlRequestPayload;
+import org.juliazo.url.shortener.commons.payload.UrlResponsePayload;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@RunWith(JUnitPlatform.class)
+class ShortenForwarderTest {
+
+    private static final String SELF = "http://10.0.0.1:8080";
+
+    /**
+     * Nothing listens on port 1 of localhost, connections are refused.
+     */
+    private static final String UNREACHABLE = "http://localhost:1";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    /**
+     * Requests received by the stub owner, with the replica that forwarded them
+     */
+    private final List<String> requests = new CopyOnWriteArrayList<>();
+
+    private HttpServer server;
+
+    private String owner;
+
+    private volatile int status = 200;
+
+    @BeforeEach
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/shorten", this::handle);
+        server.start();
+        owner = "http://localhost:" + server.getAddress().getPort();
+    }
+
+    @AfterEach
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        UrlRequestPayload request = objectMapper.readValue(exchange.getRequestBody(), UrlRequestPayload.class);
+        requests.add(request.getLongUrl() + " from " + exchange.getRequestHeaders()
+                .getFirst(ShortenForwarder.FORWARDED_HEADER));
+        byte[] body = objectMapper.writeValueAsBytes(
+                new UrlResponsePayload(request.getLongUrl(), "http://localhost:80/6e8b9a"));
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(body);
+        }
+    }
+
+    private ShortenForwarder forwarder(List<String> members) {
+        ShortenOwnership ownership = new ShortenOwnership(null, meterRegistry, SELF, members, 64, 60000, 8080);
+        return new ShortenForwarder(ownership, objectMapper, meterRegistry, 10000);
+    }
+
+    /**
+     * @return a long url whose owners on the ring of the given members match the predicate
+     */
+    private static String longUrlOwnedBy(List<String> members, Predicate<List<String>> owners) {
+        ConsistentHashRing ring = new ConsistentHashRing(members, 64);
+        return IntStream.range(0, 10000).mapToObj(i -> "http://ea.com/frostbite/" + i)
+                .filter(longUrl -> owners.test(ring.owners(longUrl))).findFirst().orElseThrow();
+    }
+
+    /**
+     * Test: a long url owned by another replica is shortened there, the request names this
+     * instance as the one that forwarded it
+     */
+    @Test
+    public void testForwardsToOwner() {
+        List<String> members = List.of(SELF, owner);
+        String longUrl = longUrlOwnedBy(members, owners -> owners.get(0).equals(owner));
+
+        Optional<String> shortUrl = forwarder(members).forward(new UrlRequestPayload("ea.com/x"), longUrl);
+
+        assertEquals(Optional.of("6e8b9a"), shortUrl);
+        assertEquals(List.of(longUrl + " from " + SELF), requests);
+        assertEquals(1, meterRegistry.get("url.shortener.ownership.forwards").tag("result", "forwarded")
+                .counter().count());
+    }
+
+    /**
+     * Test: a long url owned by this instance is not forwarded
+     */
+    @Test
+    public void testOwnLongUrlIsNotForwarded() {
+        List<String> members = List.of(SELF, owner);
+        String longUrl = longUrlOwnedBy(members, owners -> owners.get(0).equals(SELF));
+
+        assertEquals(Optional.empty(), forwarder(members).forward(new UrlRequestPayload(longUrl), longUrl));
+        assertTrue(requests.isEmpty());
+    }
+
+    /**
+     * Test: an owner that can not be reached is skipped, the next member on the ring gets the
+     * request, and later requests go there directly
+     */
+    @Test
+    public void testUnreachableOwnerFailsOver() {
+        List<String> members = List.of(SELF, owner, UNREACHABLE);
+        String longUrl = longUrlOwnedBy(members, owners -> owners.equals(List.of(UNREACHABLE, owner, SELF)));
+        ShortenForwarder forwarder = forwarder(members);
+
+        assertEquals(Optional.of("6e8b9a"), forwarder.forward(new UrlRequestPayload(longUrl), longUrl));
+        assertEquals(Optional.of("6e8b9a"), forwarder.forward(new UrlRequestPayload(longUrl), longUrl));
+
+        assertEquals(2, requests.size());
+        assertEquals(1, meterRegistry.get("url.shortener.ownership.forwards").tag("result", "unreachable")
+                .counter().count());
+    }
+
+    /**
+     * Test: the owner failing to create a short url is answered as a conflict, other errors
+     * of the owner leave the short url to this instance
+     */
+    @Test
+    public void testOwnerErrors() {
+        List<String> members = List.of(SELF, owner);
+        String longUrl = longUrlOwnedBy(members, owners -> owners.get(0).equals(owner));
+        ShortenForwarder forwarder = forwarder(members);
+
+        status = 409;
+        assertThrows(ConflictingDataException.class,
+                () -> forwarder.forward(new UrlRequestPayload(longUrl), longUrl));
+        status = 500;
+        assertEquals(Optional.empty(), forwarder.forward(new UrlRequestPayload(longUrl), longUrl));
+    }
+}
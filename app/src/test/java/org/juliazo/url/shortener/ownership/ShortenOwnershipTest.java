@@ -0,0 +1,153 @@
+package org.juliazo.url.shortener.ownership;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+@RunWith(JUnitPlatform.class)
+class ShortenOwnershipTest {
+
+    private static final String SELF = "http://10.0.0.1:8080";
+
+    private static final String SECOND = "http://10.0.0.2:8080";
+
+    private static final String THIRD = "http://10.0.0.3:8080";
+
+    private static final long MEMBER_TIMEOUT_MILLIS = 6000;
+
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private ShortenOwnership shortenOwnership;
+
+    @BeforeEach
+    public void setUp() {
+        shortenOwnership = new ShortenOwnership(jdbcTemplate, meterRegistry, SELF, List.of(), 64,
+                MEMBER_TIMEOUT_MILLIS, 8080);
+    }
+
+    /**
+     * Test: a heartbeat refreshes the row of this instance, prunes the rows long gone and builds
+     * the ring from the members whose heartbeat is younger than the member timeout
+     */
+    @Test
+    public void testHeartbeatBuildsRingFromLiveMembers() {
+        when(jdbcTemplate.queryForList(startsWith("SELECT address"), eq(String.class), eq(MEMBER_TIMEOUT_MILLIS)))
+                .thenReturn(List.of(SELF, SECOND, THIRD));
+
+        shortenOwnership.heartbeat();
+
+        verify(jdbcTemplate).update(startsWith("INSERT INTO shortener_member"), eq(SELF));
+        verify(jdbcTemplate).update(startsWith("DELETE FROM shortener_member WHERE heartbeat_at"),
+                eq(MEMBER_TIMEOUT_MILLIS * 100));
+        assertEquals(Set.of(SELF, SECOND, THIRD), shortenOwnership.members());
+        assertEquals(3, meterRegistry.get("url.shortener.ownership.members").gauge().value());
+    }
+
+    /**
+     * Test: a member whose heartbeat is too old drops out of the ring, its long urls belong to
+     * the members left
+     */
+    @Test
+    public void testMemberDroppingOutRebuildsRing() {
+        when(jdbcTemplate.queryForList(startsWith("SELECT address"), eq(String.class), eq(MEMBER_TIMEOUT_MILLIS)))
+                .thenReturn(List.of(SELF, SECOND, THIRD)).thenReturn(List.of(SELF, SECOND));
+        shortenOwnership.heartbeat();
+
+        shortenOwnership.heartbeat();
+
+        assertEquals(Set.of(SELF, SECOND), shortenOwnership.members());
+        for (int i = 0; i < 100; i++) {
+            List<String> owners = shortenOwnership.owners("http://ea.com/frostbite/" + i);
+            assertEquals(owners.size() == 1 ? List.of(SELF) : List.of(SECOND, SELF), owners);
+        }
+    }
+
+    /**
+     * Test: this instance is a member even before its own heartbeat is read back, and alone
+     */
+    @Test
+    public void testSelfIsAlwaysMember() {
+        assertEquals(Set.of(SELF), shortenOwnership.members());
+        when(jdbcTemplate.queryForList(startsWith("SELECT address"), eq(String.class), eq(MEMBER_TIMEOUT_MILLIS)))
+                .thenReturn(List.of(SECOND)).thenReturn(List.of());
+
+        shortenOwnership.heartbeat();
+        assertEquals(Set.of(SELF, SECOND), shortenOwnership.members());
+
+        shortenOwnership.heartbeat();
+        assertEquals(Set.of(SELF), shortenOwnership.members());
+    }
+
+    /**
+     * Test: when the database cannot be reached, the ring is left as it was
+     */
+    @Test
+    public void testDatabaseFailureKeepsRing() {
+        when(jdbcTemplate.queryForList(startsWith("SELECT address"), eq(String.class), eq(MEMBER_TIMEOUT_MILLIS)))
+                .thenReturn(List.of(SELF, SECOND, THIRD))
+                .thenThrow(new DataAccessResourceFailureException("Connection to localhost:5432 refused"));
+        shortenOwnership.heartbeat();
+
+        shortenOwnership.heartbeat();
+        assertEquals(Set.of(SELF, SECOND, THIRD), shortenOwnership.members());
+
+        when(jdbcTemplate.update(startsWith("INSERT INTO shortener_member"), any(Object.class)))
+                .thenThrow(new DataAccessResourceFailureException("Connection to localhost:5432 refused"));
+        shortenOwnership.heartbeat();
+        assertEquals(Set.of(SELF, SECOND, THIRD), shortenOwnership.members());
+    }
+
+    /**
+     * Test: a stopping instance deletes its row, a failure to do so is only logged
+     */
+    @Test
+    public void testLeaveDeletesOwnRow() {
+        when(jdbcTemplate.update(startsWith("DELETE FROM shortener_member WHERE address"), any(Object.class)))
+                .thenReturn(1)
+                .thenThrow(new DataAccessResourceFailureException("Connection to localhost:5432 refused"));
+
+        shortenOwnership.leave();
+        shortenOwnership.leave();
+
+        verify(jdbcTemplate, times(2))
+                .update(startsWith("DELETE FROM shortener_member WHERE address"), eq(SELF));
+    }
+
+    /**
+     * Test: listed members, this instance added to them, are used as they are, without the database
+     */
+    @Test
+    public void testListedMembersSkipDatabase() {
+        ShortenOwnership listed = new ShortenOwnership(jdbcTemplate, new SimpleMeterRegistry(), SELF,
+                List.of(" " + SECOND, THIRD, ""), 64, MEMBER_TIMEOUT_MILLIS, 8080);
+
+        listed.heartbeat();
+        listed.leave();
+
+        assertEquals(Set.of(SELF, SECOND, THIRD), listed.members());
+        verifyNoInteractions(jdbcTemplate);
+    }
+}
@@ -0,0 +1,65 @@
+package org.juliazo.url.shortener.profiling;
+
+import jdk.jfr.consumer.RecordingFile;
+import org.juliazo.url.shortener.commons.exception.InvalidRecordingOptionException;
+import org.juliazo.url.shortener.commons.exception.RecordingStateException;
+import org.juliazo.url.shortener.model.RecordingPayload;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+@RunWith(JUnitPlatform.class)
+class FlightRecordingsTest {
+
+    private final FlightRecordings flightRecordings = new FlightRecordings(600);
+
+    @AfterEach
+    public void tearDown() {
+        flightRecordings.close();
+    }
+
+    /**
+     * Test: a started recording can be stopped and read back from the returned file
+     */
+    @Test
+    public void testStartAndStop() throws Exception {
+        RecordingPayload started = flightRecordings.start("profile", 60);
+        assertEquals("RUNNING", started.getState());
+        assertEquals("profile", started.getProfile());
+        assertEquals(60, started.getDurationSeconds());
+
+        Path file = flightRecordings.stop();
+        try {
+            assertFalse(RecordingFile.readAllEvents(file).isEmpty());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+        assertThrows(RecordingStateException.class, flightRecordings::status);
+    }
+
+    /**
+     * Test: only one recording runs at a time
+     */
+    @Test
+    public void testSingleRunningRecording() {
+        flightRecordings.start("default", 60);
+
+        assertThrows(RecordingStateException.class, () -> flightRecordings.start("default", 60));
+    }
+
+    @Test
+    public void testInvalidOptions() {
+        assertThrows(InvalidRecordingOptionException.class, () -> flightRecordings.start("everything", 60));
+        assertThrows(InvalidRecordingOptionException.class, () -> flightRecordings.start("default", 0));
+        assertThrows(InvalidRecordingOptionException.class, () -> flightRecordings.start("default", 601));
+        assertThrows(RecordingStateException.class, flightRecordings::stop);
+    }
+}
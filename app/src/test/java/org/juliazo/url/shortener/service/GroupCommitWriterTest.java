@@ -0,0 +1,394 @@
+package org.juliazo.url.shortener.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.juliazo.url.shortener.commons.exception.ConflictingDataException;
+import org.juliazo.url.shortener.commons.exception.DatabaseUnavailableException;
+import org.juliazo.url.shortener.commons.exception.ServiceOverloadedException;
+import org.juliazo.url.shortener.degraded.DatabaseCircuitBreaker;
+import org.juliazo.url.shortener.model.UrlEntity;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+@RunWith(JUnitPlatform.class)
+class GroupCommitWriterTest {
+
+    private static final ShortUrlGenerator SHORT_URL_GENERATOR = new ShortUrlGenerator("md5", 6);
+
+    @Mock
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    @Mock
+    private TransactionStatus transactionStatus;
+
+    private GroupCommitWriter groupCommitWriter;
+
+    @BeforeEach
+    public void setUp() {
+        lenient().when(transactionManager.getTransaction(any())).thenReturn(transactionStatus);
+        groupCommitWriter = new GroupCommitWriter(jdbcTemplate, transactionManager, SHORT_URL_GENERATOR,
+                new SimpleMeterRegistry(), 10, 3, 200, 5000, 1);
+    }
+
+    private static GroupCommitWriter.PendingLink pending(String longUrl) {
+        return new GroupCommitWriter.PendingLink(
+                new UrlEntity(SHORT_URL_GENERATOR.generate(longUrl, 0), longUrl));
+    }
+
+    /**
+     * Test: links queued within the flush interval are stored with a single
+     * batched insert, in a single transaction
+     */
+    @Test
+    public void testQueuedLinksAreStoredInOneGroup() throws InterruptedException {
+        when(jdbcTemplate.batchUpdate(anyString(), any(SqlParameterSource[].class))).thenReturn(new int[]{1, 1, 1});
+        groupCommitWriter.start();
+        try {
+            List<CompletableFuture<UrlEntity>> results = new ArrayList<>();
+            for (String longUrl : List.of("http://ea.com/a", "http://ea.com/b", "http://ea.com/c")) {
+                results.add(groupCommitWriter.submit(new UrlEntity(
+                        SHORT_URL_GENERATOR.generate(longUrl, 0), longUrl)));
+            }
+            for (CompletableFuture<UrlEntity> result : results) {
+                assertEquals(6, result.join().getShortUrl().length());
+            }
+        } finally {
+            groupCommitWriter.stop();
+        }
+        verify(jdbcTemplate, times(1)).batchUpdate(anyString(), any(SqlParameterSource[].class));
+        verify(transactionManager, times(1)).commit(transactionStatus);
+    }
+
+    /**
+     * Test: callers only get their short url after the group is committed
+     */
+    @Test
+    public void testFuturesCompleteAfterCommit() {
+        GroupCommitWriter.PendingLink first = pending("http://ea.com/a");
+        GroupCommitWriter.PendingLink second = pending("http://ea.com/b");
+        when(jdbcTemplate.batchUpdate(anyString(), any(SqlParameterSource[].class))).thenReturn(new int[]{1, 1});
+        doAnswer(invocation -> {
+            assertFalse(first.result.isDone());
+            assertFalse(second.result.isDone());
+            return null;
+        }).when(transactionManager).commit(transactionStatus);
+
+        groupCommitWriter.flush(List.of(first, second));
+
+        assertEquals(first.link, first.result.join());
+        assertEquals(second.link, second.result.join());
+    }
+
+    /**
+     * Test: a long url already stored, by another caller or earlier in the same
+     * group, resolves to the stored short url
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testAlreadyStoredLongUrlUsesStoredShortUrl() {
+        GroupCommitWriter.PendingLink first = pending("http://ea.com/a");
+        GroupCommitWriter.PendingLink duplicate = pending("http://ea.com/a");
+        when(jdbcTemplate.batchUpdate(anyString(), any(SqlParameterSource[].class))).thenReturn(new int[]{1, 0});
+        when(jdbcTemplate.queryForList(anyString(), any(SqlParameterSource.class), eq(String.class)))
+                .thenReturn(List.of(first.link.getShortUrl()));
+        when(jdbcTemplate.query(anyString(), any(SqlParameterSource.class), any(RowMapper.class)))
+                .thenReturn(List.of(first.link));
+
+        groupCommitWriter.flush(List.of(first, duplicate));
+
+        assertEquals(first.link.getShortUrl(), duplicate.result.join().getShortUrl());
+        verify(jdbcTemplate, times(1)).batchUpdate(anyString(), any(SqlParameterSource[].class));
+    }
+
+    /**
+     * Test: a short url taken by another long url is reassigned and inserted again,
+     * within the same transaction
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testCollidingShortUrlIsReassigned() {
+        GroupCommitWriter.PendingLink first = pending("http://ea.com/a");
+        GroupCommitWriter.PendingLink colliding = pending("http://ea.com/b");
+        when(jdbcTemplate.batchUpdate(anyString(), any(SqlParameterSource[].class)))
+                .thenReturn(new int[]{1, 0}).thenReturn(new int[]{1});
+        when(jdbcTemplate.queryForList(anyString(), any(SqlParameterSource.class), eq(String.class)))
+                .thenReturn(List.of());
+
+        groupCommitWriter.flush(List.of(first, colliding));
+
+        assertEquals(SHORT_URL_GENERATOR.generate("http://ea.com/b", 1),
+                colliding.result.join().getShortUrl());
+        verify(transactionManager, times(1)).commit(transactionStatus);
+    }
+
+    /**
+     * Test: a link that keeps colliding fails with {@link ConflictingDataException},
+     * the rest of its group is stored
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testUnsolvableConflictFailsOnlyItsLink() {
+        GroupCommitWriter.PendingLink first = pending("http://ea.com/a");
+        GroupCommitWriter.PendingLink colliding = pending("http://ea.com/b");
+        when(jdbcTemplate.batchUpdate(anyString(), any(SqlParameterSource[].class)))
+                .thenReturn(new int[]{1, 0}).thenReturn(new int[]{0});
+        when(jdbcTemplate.queryForList(anyString(), any(SqlParameterSource.class), eq(String.class)))
+                .thenReturn(List.of());
+
+        groupCommitWriter.flush(List.of(first, colliding));
+
+        assertEquals(first.link, first.result.join());
+        CompletionException exception = assertThrows(CompletionException.class, colliding.result::join);
+        assertTrue(exception.getCause() instanceof ConflictingDataException);
+        verify(jdbcTemplate, times(UrlShortenerService.MAX_CONFLICT_SOLVING_ATTEMPTS + 1))
+                .batchUpdate(anyString(), any(SqlParameterSource[].class));
+    }
+
+    /**
+     * Test: a long url stored by a concurrent transaction fails the insert, the group is
+     * stored again and resolves it to the stored short url
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testLongUrlStoredConcurrentlyStoresTheGroupAgain() {
+        GroupCommitWriter.PendingLink first = pending("http://ea.com/a");
+        GroupCommitWriter.PendingLink raced = pending("http://ea.com/b");
+        UrlEntity stored = new UrlEntity("zzzzzz", "http://ea.com/b");
+        when(jdbcTemplate.batchUpdate(anyString(), any(SqlParameterSource[].class)))
+                .thenThrow(new DuplicateKeyException("url_long_url_pkey")).thenReturn(new int[]{1, 0});
+        when(jdbcTemplate.queryForList(anyString(), any(SqlParameterSource.class), eq(String.class)))
+                .thenReturn(List.of(stored.getShortUrl()));
+        when(jdbcTemplate.query(anyString(), any(SqlParameterSource.class), any(RowMapper.class)))
+                .thenReturn(List.of(stored));
+
+        groupCommitWriter.flush(List.of(first, raced));
+
+        assertEquals(first.link, first.result.join());
+        assertEquals(stored, raced.result.join());
+        verify(transactionManager, times(1)).rollback(transactionStatus);
+        verify(transactionManager, times(1)).commit(transactionStatus);
+    }
+
+    /**
+     * Test: a group stored again starts over from the short urls and attempts of its links,
+     * not from the ones of the rolled back transaction
+     */
+    @Test
+    public void testGroupStoredAgainStartsFromItsFirstShortUrls() {
+        GroupCommitWriter.PendingLink link = pending("http://ea.com/a");
+        String firstShortUrl = link.link.getShortUrl();
+        List<String> insertedShortUrls = new ArrayList<>();
+        when(jdbcTemplate.batchUpdate(anyString(), any(SqlParameterSource[].class))).thenAnswer(invocation -> {
+            SqlParameterSource[] rows = invocation.getArgument(1);
+            insertedShortUrls.add((String) rows[0].getValue("shortUrl"));
+            switch (insertedShortUrls.size()) {
+                case 1:
+                    return new int[]{0};
+                case 2:
+                    throw new DuplicateKeyException("url_long_url_pkey");
+                default:
+                    return new int[]{1};
+            }
+        });
+        when(jdbcTemplate.queryForList(anyString(), any(SqlParameterSource.class), eq(String.class)))
+                .thenReturn(List.of());
+
+        groupCommitWriter.flush(List.of(link));
+
+        String secondShortUrl = SHORT_URL_GENERATOR.generate("http://ea.com/a", 1);
+        assertEquals(List.of(firstShortUrl, secondShortUrl, firstShortUrl), insertedShortUrls);
+        assertEquals(firstShortUrl, link.result.join().getShortUrl());
+        assertEquals(0, link.attempts);
+    }
+
+    /**
+     * Test: when the group can not be committed, every caller of the group gets the error
+     */
+    @Test
+    public void testFailedCommitFailsTheWholeGroup() {
+        GroupCommitWriter.PendingLink first = pending("http://ea.com/a");
+        GroupCommitWriter.PendingLink second = pending("http://ea.com/b");
+        when(jdbcTemplate.batchUpdate(anyString(), any(SqlParameterSource[].class))).thenReturn(new int[]{1, 1});
+        doThrow(new IllegalStateException("connection lost")).when(transactionManager).commit(transactionStatus);
+
+        groupCommitWriter.flush(List.of(first, second));
+
+        assertTrue(first.result.isCompletedExceptionally());
+        assertTrue(second.result.isCompletedExceptionally());
+    }
+
+    /**
+     * Test: links submitted before the writer stops are still stored
+     */
+    @Test
+    public void testStopStoresQueuedLinks() throws Exception {
+        when(jdbcTemplate.batchUpdate(anyString(), any(SqlParameterSource[].class))).thenReturn(new int[]{1});
+        groupCommitWriter.start();
+        CompletableFuture<UrlEntity> result = groupCommitWriter.submit(new UrlEntity("abcdef", "http://ea.com/a"));
+        groupCommitWriter.stop();
+
+        assertEquals("abcdef", result.get(1, TimeUnit.SECONDS).getShortUrl());
+    }
+
+    /**
+     * Test: stopping does not wait past the result timeout for a stuck group, the links still
+     * queued are rejected
+     */
+    @Test
+    public void testStopGivesUpOnStuckGroup() throws Exception {
+        GroupCommitWriter slowWriter = new GroupCommitWriter(jdbcTemplate, transactionManager, SHORT_URL_GENERATOR,
+                new SimpleMeterRegistry(), 10, 1, 200, 200, 1);
+        CountDownLatch storing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(jdbcTemplate.batchUpdate(anyString(), any(SqlParameterSource[].class))).thenAnswer(invocation -> {
+            storing.countDown();
+            while (release.getCount() > 0) {
+                try {
+                    release.await();
+                } catch (InterruptedException exception) {
+                    // a driver blocked on its socket does not notice interrupts either
+                }
+            }
+            return new int[]{1};
+        });
+        slowWriter.start();
+        try {
+            CompletableFuture<UrlEntity> stuck = slowWriter.submit(new UrlEntity("abcdef", "http://ea.com/a"));
+            assertTrue(storing.await(5, TimeUnit.SECONDS));
+            CompletableFuture<UrlEntity> queued = slowWriter.submit(new UrlEntity("bcdefa", "http://ea.com/b"));
+
+            assertTimeoutPreemptively(Duration.ofSeconds(5), slowWriter::stop);
+
+            ExecutionException exception = assertThrows(ExecutionException.class, () -> queued.get(1, TimeUnit.SECONDS));
+            assertTrue(exception.getCause() instanceof ServiceOverloadedException);
+            assertTrue(stuck.isCompletedExceptionally());
+        } finally {
+            release.countDown();
+        }
+    }
+
+    /**
+     * Test: an error thrown while storing a group still completes every future of the group
+     */
+    @Test
+    public void testErrorFailsTheWholeGroup() {
+        GroupCommitWriter.PendingLink first = pending("http://ea.com/a");
+        GroupCommitWriter.PendingLink second = pending("http://ea.com/b");
+        StackOverflowError error = new StackOverflowError();
+        when(jdbcTemplate.batchUpdate(anyString(), any(SqlParameterSource[].class))).thenThrow(error);
+
+        assertThrows(StackOverflowError.class, () -> groupCommitWriter.flush(List.of(first, second)));
+
+        assertTrue(first.result.isCompletedExceptionally());
+        assertTrue(second.result.isCompletedExceptionally());
+    }
+
+    /**
+     * Test: once the writer thread died on an error, its caller gets the error and new links are rejected
+     */
+    @Test
+    public void testDeadWriterRejectsNewLinks() throws Exception {
+        when(jdbcTemplate.batchUpdate(anyString(), any(SqlParameterSource[].class)))
+                .thenThrow(new OutOfMemoryError("test"));
+        groupCommitWriter.start();
+        CompletableFuture<UrlEntity> result = groupCommitWriter.submit(new UrlEntity("abcdef", "http://ea.com/a"));
+
+        ExecutionException exception = assertThrows(ExecutionException.class, () -> result.get(1, TimeUnit.SECONDS));
+        assertTrue(exception.getCause() instanceof OutOfMemoryError);
+        groupCommitWriter.stop();
+        assertThrows(ServiceOverloadedException.class,
+                () -> groupCommitWriter.submit(new UrlEntity("bcdefa", "http://ea.com/b")));
+    }
+
+    /**
+     * Test: a caller whose group is not committed in time gets {@link ServiceOverloadedException}
+     */
+    @Test
+    public void testSlowGroupTimesOut() throws Exception {
+        GroupCommitWriter slowWriter = new GroupCommitWriter(jdbcTemplate, transactionManager, SHORT_URL_GENERATOR,
+                new SimpleMeterRegistry(), 10, 3, 200, 100, 1);
+        CountDownLatch storing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(jdbcTemplate.batchUpdate(anyString(), any(SqlParameterSource[].class))).thenAnswer(invocation -> {
+            storing.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return new int[]{1};
+        });
+        slowWriter.start();
+        try {
+            CompletableFuture<UrlEntity> result = slowWriter.submit(new UrlEntity("abcdef", "http://ea.com/a"));
+
+            ExecutionException exception = assertThrows(ExecutionException.class,
+                    () -> result.get(2, TimeUnit.SECONDS));
+            assertTrue(exception.getCause() instanceof ServiceOverloadedException);
+            assertTrue(storing.await(5, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            slowWriter.stop();
+        }
+    }
+
+    /**
+     * Test: a group that cannot reach the database fails with a {@link DatabaseUnavailableException}
+     * and counts as a failure of the circuit breaker, once open the groups fail without a transaction
+     */
+    @Test
+    public void testGroupsGoThroughCircuitBreaker() {
+        DatabaseCircuitBreaker circuitBreaker = new DatabaseCircuitBreaker(new SimpleMeterRegistry(), 1, 1000, 60000);
+        ReflectionTestUtils.setField(groupCommitWriter, "circuitBreaker", circuitBreaker);
+        when(jdbcTemplate.batchUpdate(anyString(), any(SqlParameterSource[].class)))
+                .thenThrow(new DataAccessResourceFailureException("Connection to localhost:5432 refused"));
+        GroupCommitWriter.PendingLink unreachable = pending("http://ea.com/a");
+        GroupCommitWriter.PendingLink refused = pending("http://ea.com/b");
+
+        groupCommitWriter.flush(List.of(unreachable));
+        groupCommitWriter.flush(List.of(refused));
+
+        assertTrue(circuitBreaker.isOpen());
+        for (GroupCommitWriter.PendingLink pending : List.of(unreachable, refused)) {
+            CompletionException exception = assertThrows(CompletionException.class, pending.result::join);
+            assertTrue(exception.getCause() instanceof DatabaseUnavailableException);
+        }
+        verify(transactionManager, times(1)).getTransaction(any());
+    }
+}
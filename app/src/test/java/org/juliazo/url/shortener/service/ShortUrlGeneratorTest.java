@@ -0,0 +1,87 @@
+package org.juliazo.url.shortener.service;
+
+import org.juliazo.url.shortener.commons.redirect.ShortUrls;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+import org.springframework.util.DigestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@RunWith(JUnitPlatform.class)
+class ShortUrlGeneratorTest {
+
+    /**
+     * Test: the md5 algorithm keeps generating the original short urls, a window of the hex digest
+     */
+    @Test
+    public void testMd5() {
+        ShortUrlGenerator generator = new ShortUrlGenerator("md5", 6);
+        String hash = DigestUtils.md5DigestAsHex("http://ea.com/frostbite".getBytes());
+
+        assertEquals(hash.substring(0, 6), generator.generate("http://ea.com/frostbite", 0));
+        assertEquals(hash.substring(1, 7), generator.generate("http://ea.com/frostbite", 1));
+    }
+
+    /**
+     * Test: the hash is MurmurHash3 x64 128 bit, checked against reference values
+     */
+    @Test
+    public void testMurmur3() {
+        assertArrayEquals(new long[]{0L, 0L}, ShortUrlGenerator.murmur3(new byte[0]));
+        assertArrayEquals(new long[]{-7529584571168128863L, -3816472040723951519L},
+                ShortUrlGenerator.murmur3("http://ea.com/frostbite".getBytes(StandardCharsets.UTF_8)));
+        assertArrayEquals(new long[]{-3125121540782225468L, 6153307677030655506L},
+                ShortUrlGenerator.murmur3("https://example.com".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Test: base 62 short urls have the configured length, are well formed and stay the same
+     * for the same long url, every attempt giving a different one
+     */
+    @ParameterizedTest
+    @ValueSource(ints = {6, 8, 10})
+    public void testBase62(int length) {
+        ShortUrlGenerator generator = new ShortUrlGenerator("murmur3", length);
+
+        Set<String> attempts = new HashSet<>();
+        for (int attempt = 0; attempt <= UrlShortenerService.MAX_CONFLICT_SOLVING_ATTEMPTS + 1; attempt++) {
+            String shortUrl = generator.generate("http://ea.com/frostbite", attempt);
+            assertEquals(length, shortUrl.length());
+            assertTrue(ShortUrls.isWellFormed(shortUrl));
+            assertEquals(shortUrl, generator.generate("http://ea.com/frostbite", attempt));
+            attempts.add(shortUrl);
+        }
+        assertEquals(UrlShortenerService.MAX_CONFLICT_SOLVING_ATTEMPTS + 2, attempts.size());
+    }
+
+    /**
+     * Test: with short urls of 6 characters, 100k long urls get their first choice
+     */
+    @Test
+    public void testBase62Spread() {
+        ShortUrlGenerator generator = new ShortUrlGenerator("murmur3", 6);
+
+        Set<String> shortUrls = new HashSet<>();
+        for (int i = 0; i < 100_000; i++) {
+            shortUrls.add(generator.generate("https://example.com/articles/" + i, 0));
+        }
+        assertEquals(100_000, shortUrls.size());
+    }
+
+    @Test
+    public void testInvalidSettings() {
+        assertThrows(IllegalArgumentException.class, () -> new ShortUrlGenerator("sha1", 6));
+        assertThrows(IllegalArgumentException.class, () -> new ShortUrlGenerator("murmur3", 5));
+        assertThrows(IllegalArgumentException.class, () -> new ShortUrlGenerator("murmur3", 11));
+    }
+}
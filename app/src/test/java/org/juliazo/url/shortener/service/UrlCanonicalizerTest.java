@@ -0,0 +1,69 @@
+package org.juliazo.url.shortener.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@RunWith(JUnitPlatform.class)
+class UrlCanonicalizerTest {
+
+    private final UrlCanonicalizer urlCanonicalizer =
+            new UrlCanonicalizer(true, List.of("utm_*", "fbclid"), false);
+
+    /**
+     * Test: equivalent urls share the same canonical form
+     */
+    @ParameterizedTest
+    @ValueSource(strings = {"HTTP://Example.com:80/a", "http://example.com/a", "http://EXAMPLE.com/./b/../a",
+            "http://example.com/%61", "http://example.com/a?utm_source=news&utm_medium=email",
+            "http://example.com/a?fbclid=123"})
+    public void testEquivalentUrls(String longUrl) {
+        assertEquals("http://example.com/a", urlCanonicalizer.canonicalize(longUrl));
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+            "https://example.com:443, https://example.com/",
+            "https://example.com:8443/a, https://example.com:8443/a",
+            "http://example.com:443/a, http://example.com:443/a",
+            "http://example.com/a%2fb%7e, http://example.com/a%2Fb~",
+            "http://example.com/a?q=Grandparents%27+Day, http://example.com/a?q=Grandparents%27+Day",
+            "http://example.com/a?b=2&utm_source=x&a=1, http://example.com/a?b=2&a=1",
+            "http://example.com/a?UTM_Campaign=x, http://example.com/a",
+            "http://example.com/A#Top, http://example.com/A#Top",
+            "http://User@Example.com/a, http://User@example.com/a"})
+    public void testCanonicalForm(String longUrl, String expected) {
+        assertEquals(expected, urlCanonicalizer.canonicalize(longUrl));
+    }
+
+    @Test
+    public void testSortQueryParameters() {
+        UrlCanonicalizer sorting = new UrlCanonicalizer(true, List.of(), true);
+
+        assertEquals("http://example.com/a?a=1&b=2&b=1",
+                sorting.canonicalize("http://example.com/a?b=2&a=1&b=1"));
+    }
+
+    /**
+     * Test: urls the canonicalizer does not understand are kept as they are
+     */
+    @ParameterizedTest
+    @ValueSource(strings = {"http://www.google.com,", "http://exa mple.com"})
+    public void testUrlsWithoutHostAreKept(String longUrl) {
+        assertEquals(longUrl, urlCanonicalizer.canonicalize(longUrl));
+    }
+
+    @Test
+    public void testDisabled() {
+        UrlCanonicalizer disabled = new UrlCanonicalizer(false, List.of("utm_*"), true);
+
+        assertEquals("HTTP://Example.com:80?utm_source=x", disabled.canonicalize("HTTP://Example.com:80?utm_source=x"));
+    }
+}
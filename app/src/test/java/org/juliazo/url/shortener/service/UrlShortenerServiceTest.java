@@ -0,0 +1,662 @@
+package org.juliazo.url.shortener.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import net.bytebuddy.utility.RandomString;
+import org.juliazo.url.shortener.cache.HotLinkTracker;
+import org.juliazo.url.shortener.cache.UrlMappingCache;
+import org.juliazo.url.shortener.clicks.ClickEventLog;
+import org.juliazo.url.shortener.commons.exception.ConflictingDataException;
+import org.juliazo.url.shortener.commons.exception.DatabaseUnavailableException;
+import org.juliazo.url.shortener.commons.exception.InvalidLinkOptionException;
+import org.juliazo.url.shortener.commons.exception.InvalidUrlException;
+import org.juliazo.url.shortener.commons.exception.ResourceNotFoundException;
+import org.juliazo.url.shortener.commons.payload.UrlRequestPayload;
+import org.juliazo.url.shortener.commons.redirect.UrlRedirect;
+import org.juliazo.url.shortener.degraded.DatabaseCircuitBreaker;
+import org.juliazo.url.shortener.degraded.LinkReplica;
+import org.juliazo.url.shortener.degraded.LinkReplicaUpdater;
+import org.juliazo.url.shortener.model.UrlEntity;
+import org.juliazo.url.shortener.ownership.ShortenForwarder;
+import org.juliazo.url.shortener.repository.UrlShortenerRepository;
+import org.juliazo.url.shortener.startup.StartupRedirectLookup;
+import org.juliazo.url.shortener.tiering.LinkArchive;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.NullSource;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.ResultSet;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+@RunWith(JUnitPlatform.class)
+class UrlShortenerServiceTest {
+
+    /**
+     * The service which holds the core logic for the application
+     */
+    @InjectMocks
+    private UrlShortenerService urlShortenerService;
+
+    @Mock
+    private UrlShortenerRepository urlShortenerRepository;
+
+    @Spy
+    private UrlMappingCache urlMappingCache = new UrlMappingCache(100, 100);
+
+    @Spy
+    private HotLinkTracker hotLinkTracker = new HotLinkTracker(60, 6, 1024, 16);
+
+    @Spy
+    private UrlCanonicalizer urlCanonicalizer = new UrlCanonicalizer(true, List.of("utm_*"), false);
+
+    @Spy
+    private ShortUrlGenerator shortUrlGenerator = new ShortUrlGenerator("md5", 6);
+
+    /**
+     * All long urls must be absolute (start with http or https).
+     * Relative urls are interpreted as being relative to this service,
+     * not separate urls.
+     *
+     * @param longUrl user provided url
+     * @return the url with http protocol
+     */
+    private static String makeAbsoluteUrl(String longUrl) {
+        String absoluteUrl = longUrl;
+        if (!longUrl.startsWith("http")) {
+            absoluteUrl = "http://" + longUrl;
+        }
+        return absoluteUrl;
+    }
+
+    @Test
+    public void testLookupValidUrl() {
+        URI longUrl = URI.create("http://ea.com/frostbite");
+        String shortUrl = "6e8b9a";
+
+        Optional<UrlEntity> foundEntity = Optional.of(new UrlEntity(shortUrl, longUrl.toString()));
+        when(urlShortenerRepository.findByShortUrl(eq(shortUrl))).thenReturn(foundEntity);
+        UrlRedirect actual = urlShortenerService.lookupUrl(shortUrl);
+
+        assertEquals(longUrl.toString(), actual.getLongUrl());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"elu39", "balling", "julia1", "", " "})
+    public void testLookupInvalidUrl(String shortUrl) {
+        assertThrows(ResourceNotFoundException.class, () -> urlShortenerService.lookupUrl(shortUrl));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"https://google.com", "http://www.google.com,", "google.com", "httpforever.com",
+            "https://www.google.com/search?q=Grandparents%27+Day&oi=ddle&ct=119275999&hl=en-GB&sa=X&ved=0ahUKEwi8rY3qvIflAhWPRMAKHXkaDJsQPQgL&biw=1191&bih=634&dpr=1"})
+    public void testShortenValidUrl(String longUrl) {
+        when(urlShortenerRepository.save(any(UrlEntity.class))).thenReturn(new UrlEntity(RandomString.make(6), makeAbsoluteUrl(longUrl)));
+
+        String shortUrl = urlShortenerService.shortenUrl(longUrl);
+        assertNotNull(shortUrl);
+        assertFalse(shortUrl.isEmpty());
+    }
+
+    @Test
+    public void testShortenExistentValidUrl() {
+        String longUrl = "https://www.ea.com/frostbite/engine";
+
+        Optional<UrlEntity> foundEntity = Optional.of(new UrlEntity("6e8b9a", longUrl));
+        when(urlShortenerRepository.findByLongUrl(any())).thenReturn(foundEntity);
+
+        String shortUrl = urlShortenerService.shortenUrl(longUrl);
+        assertEquals("6e8b9a", shortUrl);
+    }
+
+    @Test
+    public void testShortenValidUrlAfterConflict() {
+        String longUrl = "https://www.ea.com/frostbite/engine";
+        Optional<UrlEntity> foundEntity = Optional.of(new UrlEntity("6e8b9a", longUrl));
+
+        //Step 1: no entity found, Step 3: entity found
+        when(urlShortenerRepository.findByLongUrl(any())).thenReturn(Optional.empty(), foundEntity);
+        //Step 2: conflict simulating two threads saving the same entity at the same time
+        when(urlShortenerRepository.save(any())).thenThrow(new DataIntegrityViolationException("Conflict"));
+
+        String shortUrl = urlShortenerService.shortenUrl(longUrl);
+        assertEquals("6e8b9a", shortUrl);
+    }
+
+    /**
+     * Test: shorten requests, conflict resolutions and lookups are recorded as flight recorder events
+     */
+    @Test
+    public void testFlightRecorderEvents() throws Exception {
+        String longUrl = "https://www.ea.com/frostbite/engine";
+        when(urlShortenerRepository.findByLongUrl(any()))
+                .thenReturn(Optional.empty(), Optional.of(new UrlEntity("6e8b9a", longUrl)));
+        when(urlShortenerRepository.save(any())).thenThrow(new DataIntegrityViolationException("Conflict"));
+
+        Path file = Files.createTempFile("url-shortener-test", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("org.juliazo.url.shortener.Shorten");
+            recording.enable("org.juliazo.url.shortener.ConflictResolution");
+            recording.enable("org.juliazo.url.shortener.Lookup");
+            recording.start();
+            urlShortenerService.shortenUrl(longUrl);
+            urlShortenerService.lookupUrl("6e8b9a");
+            recording.stop();
+            recording.dump(file);
+
+            var events = RecordingFile.readAllEvents(file).stream()
+                    .collect(Collectors.toMap(event -> event.getEventType().getName(), Function.identity()));
+            RecordedEvent shorten = events.get("org.juliazo.url.shortener.Shorten");
+            assertEquals("6e8b9a", shorten.getString("shortUrl"));
+            assertEquals("database", shorten.getString("source"));
+            assertEquals(1, shorten.getInt("attempts"));
+            RecordedEvent conflict = events.get("org.juliazo.url.shortener.ConflictResolution");
+            assertEquals("existing", conflict.getString("resolution"));
+            assertEquals(1, conflict.getInt("attempt"));
+            RecordedEvent lookup = events.get("org.juliazo.url.shortener.Lookup");
+            assertEquals("cache", lookup.getString("source"));
+            assertTrue(lookup.getBoolean("found"));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @ParameterizedTest
+    @NullSource
+    @ValueSource(strings = {"", " ", "http://goo gle.com", "goog|e.com"})
+    public void testShortenInvalidUrl(String longUrl) {
+        assertThrows(InvalidUrlException.class, () -> urlShortenerService.shortenUrl(longUrl));
+    }
+
+    @Test
+    public void testShortenUrlWithTooManyConflicts() {
+        String longUrl = "https://www.ea.com/frostbite/engine";
+
+        when(urlShortenerRepository.findByLongUrl(any())).thenReturn(Optional.empty());
+        when(urlShortenerRepository.save(any())).thenThrow(new DataIntegrityViolationException("Conflict"));
+
+        assertThrows(ConflictingDataException.class, () -> urlShortenerService.shortenUrl(longUrl));
+    }
+
+    @Test
+    public void testLookupCachedUrl() {
+        String longUrl = "http://ea.com/frostbite";
+        String shortUrl = "6e8b9a";
+
+        Optional<UrlEntity> foundEntity = Optional.of(new UrlEntity(shortUrl, longUrl));
+        when(urlShortenerRepository.findByShortUrl(eq(shortUrl))).thenReturn(foundEntity);
+        urlShortenerService.lookupUrl(shortUrl);
+        UrlRedirect actual = urlShortenerService.lookupUrl(shortUrl);
+
+        assertEquals(longUrl, actual.getLongUrl());
+        verify(urlShortenerRepository).findByShortUrl(eq(shortUrl));
+    }
+
+    @Test
+    public void testLookupInvalidatedUrl() {
+        String longUrl = "http://ea.com/frostbite";
+        String shortUrl = "6e8b9a";
+        urlMappingCache.put(shortUrl, new UrlRedirect(longUrl, null, null));
+        urlMappingCache.invalidate(shortUrl, longUrl);
+
+        when(urlShortenerRepository.findByShortUrl(eq(shortUrl))).thenReturn(Optional.empty());
+        assertThrows(ResourceNotFoundException.class, () -> urlShortenerService.lookupUrl(shortUrl));
+    }
+
+    @Test
+    public void testShortenCachedUrl() {
+        String longUrl = "https://www.ea.com/frostbite/engine";
+        when(urlShortenerRepository.save(any(UrlEntity.class))).thenReturn(new UrlEntity("6e8b9a", longUrl));
+
+        String created = urlShortenerService.shortenUrl(longUrl);
+        String repeated = urlShortenerService.shortenUrl(longUrl);
+
+        assertEquals(created, repeated);
+        verify(urlShortenerRepository).findByLongUrl(any());
+    }
+
+    @Test
+    public void testShortenUrlFoundByPeer() {
+        String longUrl = "https://www.ea.com/frostbite/engine";
+        urlMappingCache.put("6e8b9a", new UrlRedirect(longUrl, null, null));
+
+        assertEquals("6e8b9a", urlShortenerService.shortenUrl(longUrl));
+        verify(urlShortenerRepository, never()).findByLongUrl(any());
+    }
+
+    @Test
+    public void testShortenUrlWithLinkPolicy() {
+        UrlRequestPayload requestPayload = new UrlRequestPayload("https://www.ea.com/frostbite/engine");
+        requestPayload.setRedirectStatus(308);
+        requestPayload.setCacheMaxAge(0);
+        when(urlShortenerRepository.save(any(UrlEntity.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        String shortUrl = urlShortenerService.shortenUrl(requestPayload);
+        UrlRedirect actual = urlShortenerService.lookupUrl(shortUrl);
+
+        assertEquals(Integer.valueOf(308), actual.getRedirectStatus());
+        assertEquals(Integer.valueOf(0), actual.getCacheMaxAge());
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {200, 303, 404})
+    public void testShortenUrlWithUnsupportedRedirectStatus(int redirectStatus) {
+        UrlRequestPayload requestPayload = new UrlRequestPayload("https://www.ea.com/frostbite/engine");
+        requestPayload.setRedirectStatus(redirectStatus);
+
+        assertThrows(InvalidLinkOptionException.class, () -> urlShortenerService.shortenUrl(requestPayload));
+    }
+
+    @Test
+    public void testLookupExpiredUrl() {
+        String shortUrl = "6e8b9a";
+        UrlEntity expired = new UrlEntity(shortUrl, "http://ea.com/frostbite", null, null,
+                Instant.now().minusSeconds(1));
+        when(urlShortenerRepository.findByShortUrl(eq(shortUrl))).thenReturn(Optional.of(expired));
+
+        assertThrows(ResourceNotFoundException.class, () -> urlShortenerService.lookupUrl(shortUrl));
+    }
+
+    @Test
+    public void testLookupExpiredCachedUrlRereadsDatabase() {
+        String shortUrl = "6e8b9a";
+        String longUrl = "http://ea.com/frostbite";
+        urlMappingCache.put(shortUrl, new UrlRedirect(longUrl, null, null, Instant.now().minusSeconds(1)));
+        Instant extended = Instant.now().plusSeconds(60);
+        when(urlShortenerRepository.findByShortUrl(eq(shortUrl)))
+                .thenReturn(Optional.of(new UrlEntity(shortUrl, longUrl, null, null, extended)));
+
+        assertEquals(extended, urlShortenerService.lookupUrl(shortUrl).getExpiresAt());
+    }
+
+    @Test
+    public void testShortenExpiredUrlExtendsExpiration() {
+        String longUrl = "https://www.ea.com/frostbite/engine";
+        UrlEntity expired = new UrlEntity("6e8b9a", longUrl, null, null, Instant.now().minusSeconds(1));
+        when(urlShortenerRepository.findByLongUrl(any())).thenReturn(Optional.of(expired));
+        when(urlShortenerRepository.save(any(UrlEntity.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        UrlRequestPayload requestPayload = new UrlRequestPayload(longUrl);
+        requestPayload.setExpiresIn(60L);
+
+        assertEquals("6e8b9a", urlShortenerService.shortenUrl(requestPayload));
+        verify(urlShortenerRepository).save(argThat(entity -> entity.getExpiresAt().isAfter(Instant.now())));
+    }
+
+    @Test
+    public void testShortenPermanentUrlKeepsIt() {
+        String longUrl = "https://www.ea.com/frostbite/engine";
+        when(urlShortenerRepository.findByLongUrl(any())).thenReturn(Optional.of(new UrlEntity("6e8b9a", longUrl)));
+
+        UrlRequestPayload requestPayload = new UrlRequestPayload(longUrl);
+        requestPayload.setExpiresIn(60L);
+
+        assertEquals("6e8b9a", urlShortenerService.shortenUrl(requestPayload));
+        verify(urlShortenerRepository, never()).save(any());
+    }
+
+    @ParameterizedTest
+    @ValueSource(longs = {0, -60})
+    public void testShortenUrlWithInvalidExpiration(long expiresIn) {
+        UrlRequestPayload requestPayload = new UrlRequestPayload("https://www.ea.com/frostbite/engine");
+        requestPayload.setExpiresIn(expiresIn);
+
+        assertThrows(InvalidLinkOptionException.class, () -> urlShortenerService.shortenUrl(requestPayload));
+    }
+
+    @Test
+    public void testShortenUrlThroughWritePipeline() {
+        String longUrl = "https://www.ea.com/frostbite/engine";
+        GroupCommitWriter groupCommitWriter = mock(GroupCommitWriter.class);
+        ReflectionTestUtils.setField(urlShortenerService, "groupCommitWriter", groupCommitWriter);
+        when(urlShortenerRepository.findByLongUrl(any())).thenReturn(Optional.empty());
+        when(groupCommitWriter.submit(any(UrlEntity.class))).thenAnswer(invocation -> {
+            UrlEntity newUrl = invocation.getArgument(0);
+            newUrl.setShortUrl("6e8b9a");
+            return CompletableFuture.completedFuture(newUrl);
+        });
+
+        assertEquals("6e8b9a", urlShortenerService.shortenUrl(longUrl));
+        assertEquals(longUrl, urlMappingCache.findRedirect("6e8b9a").get().getLongUrl());
+        verify(urlShortenerRepository, never()).save(any());
+    }
+
+    @Test
+    public void testShortenUrlThroughWritePipelineWithUnsolvableConflict() {
+        GroupCommitWriter groupCommitWriter = mock(GroupCommitWriter.class);
+        ReflectionTestUtils.setField(urlShortenerService, "groupCommitWriter", groupCommitWriter);
+        when(urlShortenerRepository.findByLongUrl(any())).thenReturn(Optional.empty());
+        when(groupCommitWriter.submit(any(UrlEntity.class)))
+                .thenReturn(CompletableFuture.failedFuture(new ConflictingDataException()));
+
+        assertThrows(ConflictingDataException.class,
+                () -> urlShortenerService.shortenUrl("https://www.ea.com/frostbite/engine"));
+    }
+
+    /**
+     * Test: in degraded mode, the wait of a new link for its group commit is not timed by the
+     * circuit breaker, which the writer goes through itself, a slow queue does not open it
+     */
+    @Test
+    public void testWritePipelineWaitIsNotTimedByCircuitBreaker() {
+        DatabaseCircuitBreaker circuitBreaker = new DatabaseCircuitBreaker(new SimpleMeterRegistry(), 1, 50, 60000);
+        GroupCommitWriter groupCommitWriter = mock(GroupCommitWriter.class);
+        ReflectionTestUtils.setField(urlShortenerService, "circuitBreaker", circuitBreaker);
+        ReflectionTestUtils.setField(urlShortenerService, "groupCommitWriter", groupCommitWriter);
+        when(urlShortenerRepository.findByLongUrl(any())).thenReturn(Optional.empty());
+        when(groupCommitWriter.submit(any(UrlEntity.class))).thenAnswer(invocation -> {
+            UrlEntity newUrl = invocation.getArgument(0);
+            return CompletableFuture.supplyAsync(() -> newUrl,
+                    CompletableFuture.delayedExecutor(200, TimeUnit.MILLISECONDS));
+        });
+
+        assertNotNull(urlShortenerService.shortenUrl("https://www.ea.com/frostbite/engine"));
+        assertFalse(circuitBreaker.isOpen());
+    }
+
+    /**
+     * Test: a request for a long url whose short url is being created waits for it, instead
+     * of storing it a second time
+     */
+    @Test
+    public void testConcurrentShortensOfOneUrlAreCoalesced() throws InterruptedException {
+        String longUrl = "https://www.ea.com/frostbite/engine";
+        List<String> waiterShortUrls = new CopyOnWriteArrayList<>();
+        Thread waiter = new Thread(() -> waiterShortUrls.add(urlShortenerService.shortenUrl(longUrl)));
+        when(urlShortenerRepository.findByLongUrl(any())).thenReturn(Optional.empty());
+        when(urlShortenerRepository.save(any(UrlEntity.class))).thenAnswer(invocation -> {
+            waiter.start();
+            while (waiter.getState() != Thread.State.WAITING && waiter.isAlive()) {
+                Thread.sleep(1);
+            }
+            return invocation.getArgument(0);
+        });
+
+        String shortUrl = urlShortenerService.shortenUrl(longUrl);
+        waiter.join();
+
+        assertEquals(List.of(shortUrl), waiterShortUrls);
+        verify(urlShortenerRepository, times(1)).save(any());
+    }
+
+    /**
+     * Test: a long url neither cached nor stored is shortened by its owner, canonicalized,
+     * and not stored here
+     */
+    @Test
+    public void testShortenUrlForwardedToOwner() {
+        ShortenForwarder shortenForwarder = mock(ShortenForwarder.class);
+        ReflectionTestUtils.setField(urlShortenerService, "shortenForwarder", shortenForwarder);
+        when(urlShortenerRepository.findByLongUrl(any())).thenReturn(Optional.empty());
+        when(shortenForwarder.forward(any(UrlRequestPayload.class), eq("http://ea.com/frostbite")))
+                .thenReturn(Optional.of("6e8b9a"));
+
+        assertEquals("6e8b9a", urlShortenerService.shortenUrl("ea.com/frostbite?utm_source=news"));
+        verify(urlShortenerRepository, never()).save(any());
+    }
+
+    /**
+     * Test: a request forwarded to this instance is shortened here, never forwarded again
+     */
+    @Test
+    public void testShortenUrlAsOwnerIsNotForwarded() {
+        ShortenForwarder shortenForwarder = mock(ShortenForwarder.class);
+        ReflectionTestUtils.setField(urlShortenerService, "shortenForwarder", shortenForwarder);
+        when(urlShortenerRepository.findByLongUrl(any())).thenReturn(Optional.empty());
+        when(urlShortenerRepository.save(any(UrlEntity.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        String shortUrl = urlShortenerService.shortenUrlAsOwner(new UrlRequestPayload("http://ea.com/frostbite"));
+
+        assertEquals(shortUrlGenerator.generate("http://ea.com/frostbite", 0), shortUrl);
+        verifyNoMoreInteractions(shortenForwarder);
+    }
+
+    /**
+     * Test: every link found is logged as a click with its referrer and user agent, misses are not
+     */
+    @Test
+    public void testLookupUrlLogsClick() {
+        ClickEventLog clickEventLog = mock(ClickEventLog.class);
+        ReflectionTestUtils.setField(urlShortenerService, "clickEventLog", clickEventLog);
+        when(urlShortenerRepository.findByShortUrl("6e8b9a"))
+                .thenReturn(Optional.of(new UrlEntity("6e8b9a", "https://www.ea.com/frostbite/engine")));
+        when(urlShortenerRepository.findByShortUrl("0a1b2c")).thenReturn(Optional.empty());
+
+        urlShortenerService.lookupUrl("6e8b9a", "https://www.ea.com", "curl/7.68.0");
+        assertThrows(ResourceNotFoundException.class,
+                () -> urlShortenerService.lookupUrl("0a1b2c", "https://www.ea.com", "curl/7.68.0"));
+
+        verify(clickEventLog).record("6e8b9a", "https://www.ea.com", "curl/7.68.0");
+        verifyNoMoreInteractions(clickEventLog);
+    }
+
+    /**
+     * Test: a short url missing from the database is found in the archive, then served from the cache
+     */
+    @Test
+    public void testLookupArchivedUrl() {
+        LinkArchive linkArchive = mock(LinkArchive.class);
+        ReflectionTestUtils.setField(urlShortenerService, "linkArchive", linkArchive);
+        when(urlShortenerRepository.findByShortUrl("6e8b9a")).thenReturn(Optional.empty());
+        when(linkArchive.findByShortUrl("6e8b9a"))
+                .thenReturn(Optional.of(new UrlEntity("6e8b9a", "https://www.ea.com/frostbite/engine")));
+
+        assertEquals("https://www.ea.com/frostbite/engine", urlShortenerService.lookupUrl("6e8b9a").getLongUrl());
+        assertEquals("https://www.ea.com/frostbite/engine", urlShortenerService.lookupUrl("6e8b9a").getLongUrl());
+        verify(linkArchive, times(1)).findByShortUrl("6e8b9a");
+        verify(linkArchive, times(2)).recordAccess("6e8b9a");
+    }
+
+    /**
+     * Test: a long url missing from the database keeps the short url it was archived with
+     */
+    @Test
+    public void testShortenArchivedUrl() {
+        String longUrl = "https://www.ea.com/frostbite/engine";
+        LinkArchive linkArchive = mock(LinkArchive.class);
+        ReflectionTestUtils.setField(urlShortenerService, "linkArchive", linkArchive);
+        when(urlShortenerRepository.findByLongUrl(longUrl)).thenReturn(Optional.empty());
+        when(linkArchive.findByLongUrl(longUrl)).thenReturn(Optional.of(new UrlEntity("0a1b2c", longUrl)));
+
+        assertEquals("0a1b2c", urlShortenerService.shortenUrl(longUrl));
+        verify(urlShortenerRepository, never()).save(any());
+        verify(linkArchive).recordAccess("0a1b2c");
+    }
+
+    /**
+     * Test: once the database goes down, redirects are served from the local replica, while
+     * short urls missing from it and new links fail fast, without reaching the database
+     */
+    @Test
+    public void testDegradedModeWhileDatabaseDown() {
+        LinkReplica linkReplica = mock(LinkReplica.class);
+        ReflectionTestUtils.setField(urlShortenerService, "linkReplica", linkReplica);
+        ReflectionTestUtils.setField(urlShortenerService, "circuitBreaker",
+                new DatabaseCircuitBreaker(new SimpleMeterRegistry(), 2, 1000, 60000));
+        when(urlShortenerRepository.findByShortUrl(any()))
+                .thenThrow(new DataAccessResourceFailureException("Connection to localhost:5432 refused"));
+        when(linkReplica.find("6e8b9a")).thenReturn(new UrlRedirect("https://www.ea.com/frostbite/engine", null, null));
+        when(linkReplica.find("0a1b2c")).thenReturn(null);
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals("https://www.ea.com/frostbite/engine", urlShortenerService.lookupUrl("6e8b9a").getLongUrl());
+        }
+        DatabaseUnavailableException missing = assertThrows(DatabaseUnavailableException.class,
+                () -> urlShortenerService.lookupUrl("0a1b2c"));
+        assertEquals(60, missing.getRetryAfterSeconds());
+        assertThrows(DatabaseUnavailableException.class,
+                () -> urlShortenerService.shortenUrl("https://www.ea.com/battlefield"));
+
+        verify(urlShortenerRepository, times(2)).findByShortUrl(any());
+        verify(urlShortenerRepository, never()).findByLongUrl(any());
+    }
+
+    /**
+     * Test: redirects are served from the local replica written by its updater once the circuit
+     * breaker opened, and the refreshes refused meanwhile leave the replica as it was
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testRedirectsServedFromUpdatedReplicaWhileBreakerOpen(@TempDir Path directory) throws Exception {
+        LinkReplica linkReplica = new LinkReplica(directory.toString());
+        linkReplica.open();
+        DatabaseCircuitBreaker circuitBreaker = new DatabaseCircuitBreaker(new SimpleMeterRegistry(), 1, 1000, 60000);
+        JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+        ResultSet link = mock(ResultSet.class);
+        when(link.getString(1)).thenReturn("6e8b9a");
+        when(link.getString(2)).thenReturn("https://www.ea.com/frostbite/engine");
+        when(link.getObject(3)).thenReturn(307);
+        when(jdbcTemplate.query(argThat((String sql) -> sql.contains("FROM url_entity WHERE short_url > ?")),
+                any(RowMapper.class), any(), any())).thenAnswer(invocation ->
+                List.of(invocation.<RowMapper<Object>>getArgument(1).mapRow(link, 0)));
+        LinkReplicaUpdater linkReplicaUpdater = new LinkReplicaUpdater(linkReplica, circuitBreaker, jdbcTemplate,
+                new SimpleMeterRegistry(), 30000, 120, 3600, 100000);
+        ReflectionTestUtils.setField(urlShortenerService, "linkReplica", linkReplica);
+        ReflectionTestUtils.setField(urlShortenerService, "circuitBreaker", circuitBreaker);
+        when(urlShortenerRepository.findByShortUrl(any()))
+                .thenThrow(new DataAccessResourceFailureException("Connection to localhost:5432 refused"));
+        try {
+            linkReplicaUpdater.refresh();
+
+            for (int i = 0; i < 2; i++) {
+                UrlRedirect replicated = urlShortenerService.lookupUrl("6e8b9a");
+                assertEquals("https://www.ea.com/frostbite/engine", replicated.getLongUrl());
+                assertEquals(Integer.valueOf(307), replicated.getRedirectStatus());
+                urlMappingCache.invalidateAll();
+            }
+            assertTrue(circuitBreaker.isOpen());
+            linkReplicaUpdater.refresh();
+            assertEquals("https://www.ea.com/frostbite/engine", urlShortenerService.lookupUrl("6e8b9a").getLongUrl());
+            verify(urlShortenerRepository, times(1)).findByShortUrl(any());
+        } finally {
+            linkReplica.close();
+        }
+    }
+
+    /**
+     * Test: a batch of short urls is resolved from the cache, then with one query for the misses
+     * and one for the archive, without clicks and without promoting archived links
+     */
+    @Test
+    public void testResolveUrls() {
+        LinkArchive linkArchive = mock(LinkArchive.class);
+        ReflectionTestUtils.setField(urlShortenerService, "linkArchive", linkArchive);
+        urlMappingCache.put("6e8b9a", new UrlRedirect("https://www.ea.com/frostbite/engine", null, null));
+        when(urlShortenerRepository.findByShortUrlIn(Set.of("0a1b2c", "1b2c3d", "2c3d4e"))).thenReturn(List.of(
+                new UrlEntity("0a1b2c", "https://www.ea.com/battlefield"),
+                new UrlEntity("1b2c3d", "https://www.ea.com/fifa", null, null, Instant.now().minusSeconds(60))));
+        when(linkArchive.findArchived(Set.of("2c3d4e")))
+                .thenReturn(List.of(new UrlEntity("2c3d4e", "https://www.ea.com/sims")));
+
+        Map<String, Optional<UrlRedirect>> resolved =
+                urlShortenerService.resolveUrls(List.of("6e8b9a", "0a1b2c", "1b2c3d", "2c3d4e", "bad!", "0a1b2c"));
+
+        assertEquals(5, resolved.size());
+        assertEquals("https://www.ea.com/frostbite/engine", resolved.get("6e8b9a").orElseThrow().getLongUrl());
+        assertEquals("https://www.ea.com/battlefield", resolved.get("0a1b2c").orElseThrow().getLongUrl());
+        assertEquals(Optional.empty(), resolved.get("1b2c3d"));
+        assertEquals("https://www.ea.com/sims", resolved.get("2c3d4e").orElseThrow().getLongUrl());
+        assertEquals(Optional.empty(), resolved.get("bad!"));
+        assertTrue(urlMappingCache.findRedirect("0a1b2c").isPresent());
+        verify(hotLinkTracker, never()).record(any());
+        verify(linkArchive, never()).findByShortUrl(any());
+        verify(linkArchive, never()).recordAccess(any());
+    }
+
+    /**
+     * Test: while the database is down, a batch is resolved from the local replica, short urls
+     * missing from it are left out
+     */
+    @Test
+    public void testResolveUrlsWhileDatabaseDown() {
+        LinkReplica linkReplica = mock(LinkReplica.class);
+        ReflectionTestUtils.setField(urlShortenerService, "linkReplica", linkReplica);
+        ReflectionTestUtils.setField(urlShortenerService, "circuitBreaker",
+                new DatabaseCircuitBreaker(new SimpleMeterRegistry(), 1, 1000, 60000));
+        when(urlShortenerRepository.findByShortUrlIn(any()))
+                .thenThrow(new DataAccessResourceFailureException("Connection to localhost:5432 refused"));
+        when(linkReplica.find("6e8b9a")).thenReturn(new UrlRedirect("https://www.ea.com/frostbite/engine", null, null));
+        when(linkReplica.find("0a1b2c")).thenReturn(null);
+
+        Map<String, Optional<UrlRedirect>> resolved = urlShortenerService.resolveUrls(List.of("6e8b9a", "0a1b2c"));
+
+        assertEquals(Map.of("6e8b9a", Optional.of(new UrlRedirect("https://www.ea.com/frostbite/engine", null, null))),
+                resolved);
+    }
+
+    /**
+     * Test: until the application is ready, redirects are looked up without the JPA repository,
+     * and through it from then on
+     */
+    @Test
+    public void testRedirectsBeforeApplicationReady() {
+        StartupRedirectLookup startupRedirectLookup = mock(StartupRedirectLookup.class);
+        ReflectionTestUtils.setField(urlShortenerService, "startupRedirectLookup", startupRedirectLookup);
+        when(startupRedirectLookup.isActive()).thenReturn(true, false);
+        when(startupRedirectLookup.findByShortUrl("6e8b9a"))
+                .thenReturn(Optional.of(new UrlEntity("6e8b9a", "https://www.ea.com/frostbite/engine")));
+        when(urlShortenerRepository.findByShortUrl("0a1b2c"))
+                .thenReturn(Optional.of(new UrlEntity("0a1b2c", "https://www.ea.com/battlefield")));
+
+        assertEquals("https://www.ea.com/frostbite/engine", urlShortenerService.lookupUrl("6e8b9a").getLongUrl());
+        assertEquals("https://www.ea.com/battlefield", urlShortenerService.lookupUrl("0a1b2c").getLongUrl());
+
+        verify(urlShortenerRepository, never()).findByShortUrl("6e8b9a");
+        verify(startupRedirectLookup, never()).findByShortUrl("0a1b2c");
+    }
+
+    @Test
+    public void testShortenEquivalentUrlsShareShortUrl() {
+        when(urlShortenerRepository.findByLongUrl(any())).thenReturn(Optional.empty());
+        when(urlShortenerRepository.save(any(UrlEntity.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        String shortUrl = urlShortenerService.shortenUrl("HTTP://EA.com:80/frostbite?utm_source=news");
+
+        verify(urlShortenerRepository).save(argThat(entity -> entity.getLongUrl().equals("http://ea.com/frostbite")));
+        assertEquals(shortUrl, urlShortenerService.shortenUrl("ea.com/frostbite"));
+        verify(urlShortenerRepository, times(1)).findByLongUrl(any());
+    }
+}
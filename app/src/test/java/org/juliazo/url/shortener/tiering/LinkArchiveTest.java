@@ -0,0 +1,120 @@
+package org.juliazo.url.shortener.tiering;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.juliazo.url.shortener.model.UrlEntity;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+@RunWith(JUnitPlatform.class)
+class LinkArchiveTest {
+
+    private static final UrlEntity ARCHIVED = new UrlEntity("6e8b9a", "http://ea.com/frostbite");
+
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    @Mock
+    private TransactionStatus transactionStatus;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private LinkArchive linkArchive;
+
+    @BeforeEach
+    public void setUp() {
+        lenient().when(transactionManager.getTransaction(any())).thenReturn(transactionStatus);
+        linkArchive = new LinkArchive(jdbcTemplate, transactionManager, meterRegistry, 3600, 100);
+        lenient().when(jdbcTemplate.queryForList(startsWith("SELECT 1 FROM url_archive"), eq(Integer.class),
+                eq("6e8b9a"))).thenReturn(List.of(1));
+    }
+
+    /**
+     * Test: an archived link found by its short url is moved back to url_entity
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testArchivedLinkIsPromoted() {
+        when(jdbcTemplate.query(startsWith("DELETE FROM url_archive"), any(RowMapper.class), eq("6e8b9a")))
+                .thenReturn(List.of(ARCHIVED));
+        when(jdbcTemplate.update(startsWith("INSERT INTO url_entity"), any(), any(), any(), any(), any(), any()))
+                .thenReturn(1);
+
+        assertEquals(Optional.of(ARCHIVED), linkArchive.findByShortUrl("6e8b9a"));
+        verify(transactionStatus, never()).setRollbackOnly();
+        assertEquals(1, meterRegistry.counter("url.shortener.tier.promoted").count());
+    }
+
+    /**
+     * Test: an archived link whose long url was stored again under another short url is not
+     * restored, it stays archived and is still served
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testRestoreSkipsLongUrlAlreadyStored() {
+        when(jdbcTemplate.query(startsWith("DELETE FROM url_archive"), any(RowMapper.class), eq("6e8b9a")))
+                .thenReturn(List.of(ARCHIVED));
+        when(jdbcTemplate.update(startsWith("INSERT INTO url_entity"), any(), any(), any(), any(), any(), any()))
+                .thenReturn(0);
+        when(jdbcTemplate.query(startsWith("SELECT short_url"), any(RowMapper.class), eq("6e8b9a")))
+                .thenReturn(List.of());
+
+        assertEquals(Optional.of(ARCHIVED), linkArchive.findByShortUrl("6e8b9a"));
+        verify(transactionStatus).setRollbackOnly();
+        assertEquals(0, meterRegistry.counter("url.shortener.tier.promoted").count());
+    }
+
+    /**
+     * Test: a link promoted first by a concurrent request is read from url_entity
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testConcurrentPromotionReadsHotLink() {
+        UrlEntity hot = new UrlEntity("6e8b9a", "http://ea.com/frostbite", 301, 60, null);
+        when(jdbcTemplate.query(startsWith("DELETE FROM url_archive"), any(RowMapper.class), eq("6e8b9a")))
+                .thenReturn(List.of());
+        when(jdbcTemplate.query(startsWith("SELECT short_url"), any(RowMapper.class), eq("6e8b9a")))
+                .thenReturn(List.of(hot));
+
+        assertEquals(Optional.of(hot), linkArchive.findByShortUrl("6e8b9a"));
+        verify(transactionStatus).setRollbackOnly();
+        assertEquals(0, meterRegistry.counter("url.shortener.tier.promoted").count());
+    }
+
+    /**
+     * Test: a short url neither hot nor archived is not found, without opening a transaction
+     */
+    @Test
+    public void testMissingShortUrl() {
+        when(jdbcTemplate.queryForList(startsWith("SELECT 1 FROM url_archive"), eq(Integer.class), eq("6e8b9a")))
+                .thenReturn(List.of());
+
+        assertFalse(linkArchive.findByShortUrl("6e8b9a").isPresent());
+        verify(transactionManager, never()).getTransaction(any());
+    }
+}
@@ -0,0 +1,181 @@
+package org.juliazo.url.shortener.tiering;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.juliazo.url.shortener.cache.UrlMappingCache;
+import org.juliazo.url.shortener.commons.archive.UrlCompression;
+import org.juliazo.url.shortener.commons.redirect.UrlRedirect;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.stubbing.Answer;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+@RunWith(JUnitPlatform.class)
+class LinkTieringJobTest {
+
+    private static final long IDLE_DAYS = 30;
+
+    private static final Instant LONG_AGO = Instant.parse("2026-01-01T00:00:00Z");
+
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    @Mock
+    private TransactionStatus transactionStatus;
+
+    private final UrlMappingCache urlMappingCache = new UrlMappingCache(100, 100);
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    /**
+     * Cursor and cutoff of every batch selected: last access time, short url, cutoff, batch size.
+     */
+    private final List<Object[]> selections = new ArrayList<>();
+
+    @BeforeEach
+    public void setUp() {
+        lenient().when(transactionManager.getTransaction(any())).thenReturn(transactionStatus);
+        lenient().when(jdbcTemplate.queryForObject(startsWith("SELECT COALESCE"), eq(Long.class),
+                eq("url_entity"), eq("url_entity"))).thenReturn(1200L);
+        lenient().when(jdbcTemplate.queryForObject(startsWith("SELECT COALESCE"), eq(Long.class),
+                eq("url_archive"), eq("url_archive"))).thenReturn(null);
+    }
+
+    private LinkTieringJob tieringJob(int batchSize, int maxBatchesPerRun) {
+        return new LinkTieringJob(jdbcTemplate, transactionManager, urlMappingCache, meterRegistry,
+                IDLE_DAYS, batchSize, maxBatchesPerRun, 0);
+    }
+
+    /**
+     * Test: idle links are selected batch after batch from the last link of the previous batch,
+     * archived with their long url compressed and invalidated in the cache, until a batch is not full
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testArchivesIdleLinksInBatches() {
+        urlMappingCache.put("link00", new UrlRedirect("http://ea.com/0", null, null));
+        when(jdbcTemplate.query(startsWith("SELECT last_accessed_at"), any(RowMapper.class), any(), any(), any(), any()))
+                .thenAnswer(idleLinks(0, 2)).thenAnswer(idleLinks(2, 1));
+
+        int archived = tieringJob(2, 10).archiveIdleLinks();
+
+        assertEquals(3, archived);
+        assertEquals(2, selections.size());
+        assertEquals(new Timestamp(0), selections.get(0)[0]);
+        assertEquals("", selections.get(0)[1]);
+        assertEquals(Timestamp.from(LONG_AGO.plusSeconds(1)), selections.get(1)[0]);
+        assertEquals("link01", selections.get(1)[1]);
+        Instant cutoff = ((Timestamp) selections.get(0)[2]).toInstant();
+        Instant expectedCutoff = Instant.now().minus(Duration.ofDays(IDLE_DAYS));
+        assertTrue(Duration.between(cutoff, expectedCutoff).abs().getSeconds() < 60);
+        assertEquals(2, selections.get(0)[3]);
+
+        verify(jdbcTemplate, times(2)).batchUpdate(startsWith("INSERT INTO url_archive"), anyList());
+        assertFalse(urlMappingCache.findRedirect("link00").isPresent());
+        assertEquals(3, meterRegistry.counter("url.shortener.tier.archived").count());
+    }
+
+    /**
+     * Test: the archived rows hold the murmur3 key and the compressed form of the long url
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testArchivedRowsHoldCompressedLongUrl() {
+        when(jdbcTemplate.query(startsWith("SELECT last_accessed_at"), any(RowMapper.class), any(), any(), any(), any()))
+                .thenAnswer(idleLinks(0, 1));
+        List<List<Object[]>> archivedRows = new ArrayList<>();
+        when(jdbcTemplate.batchUpdate(startsWith("INSERT INTO url_archive"), anyList())).thenAnswer(invocation -> {
+            archivedRows.add(invocation.getArgument(1));
+            return new int[]{1};
+        });
+
+        tieringJob(2, 10).archiveIdleLinks();
+
+        Object[] row = archivedRows.get(0).get(0);
+        assertEquals("link00", row[0]);
+        assertEquals(LinkArchive.hash("http://ea.com/0"), row[1]);
+        assertArrayEquals(UrlCompression.compress("http://ea.com/0"), (byte[]) row[2]);
+    }
+
+    /**
+     * Test: a run stops after its maximum number of batches, even with idle links left
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testRunStopsAtMaxBatches() {
+        when(jdbcTemplate.query(startsWith("SELECT last_accessed_at"), any(RowMapper.class), any(), any(), any(), any()))
+                .thenAnswer(idleLinks(0, 2)).thenAnswer(idleLinks(2, 2)).thenAnswer(idleLinks(4, 2));
+
+        assertEquals(4, tieringJob(2, 2).archiveIdleLinks());
+        assertEquals(2, selections.size());
+    }
+
+    /**
+     * Test: without idle links nothing is archived, the tier sizes are still refreshed from
+     * the row estimates, a table without statistics counting as empty
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testTierSizesFromRowEstimates() {
+        when(jdbcTemplate.query(startsWith("SELECT last_accessed_at"), any(RowMapper.class), any(), any(), any(), any()))
+                .thenAnswer(idleLinks(0, 0));
+
+        assertEquals(0, tieringJob(2, 10).archiveIdleLinks());
+
+        verify(jdbcTemplate, times(0)).batchUpdate(startsWith("INSERT INTO url_archive"), anyList());
+        assertEquals(1200, meterRegistry.get("url.shortener.tier.links").tag("tier", "hot").gauge().value());
+        assertEquals(0, meterRegistry.get("url.shortener.tier.links").tag("tier", "archive").gauge().value());
+    }
+
+    /**
+     * @return an answer selecting {@code count} idle links from {@code first}, accessed one second apart
+     */
+    private Answer<List<Object>> idleLinks(int first, int count) {
+        return invocation -> {
+            Object[] arguments = invocation.getArguments();
+            selections.add(new Object[]{arguments[2], arguments[3], arguments[4], arguments[5]});
+            RowMapper<Object> rowMapper = invocation.getArgument(1);
+            List<Object> links = new ArrayList<>();
+            for (int i = first; i < first + count; i++) {
+                ResultSet resultSet = mock(ResultSet.class);
+                when(resultSet.getTimestamp(1)).thenReturn(Timestamp.from(LONG_AGO.plusSeconds(i)));
+                when(resultSet.getString(2)).thenReturn(String.format("link%02d", i));
+                when(resultSet.getString(3)).thenReturn("http://ea.com/" + i);
+                links.add(rowMapper.mapRow(resultSet, i - first));
+            }
+            return links;
+        };
+    }
+}
@@ -0,0 +1,72 @@
+package org.juliazo.url.shortener.timing;
+
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@RunWith(JUnitPlatform.class)
+class RequestTimingsTest {
+
+    private static List<String> phaseNames(RequestTimings timings) {
+        return timings.getPhases().stream().map(RequestTimings.Phase::getName).collect(Collectors.toList());
+    }
+
+    /**
+     * Test: phases run on the thread a task was handed to are recorded in the timings bound to the task
+     */
+    @Test
+    public void testPhasesFollowTheBoundTask() {
+        RequestTimings timings = RequestTimings.start();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            String result = CompletableFuture.supplyAsync(timings.bind(() -> RequestTimings.time("db-find",
+                    () -> RequestTimings.time("hash", () -> "6e8b9a"))), executor).join();
+
+            assertEquals("6e8b9a", result);
+            assertEquals(List.of("queue", "db-find", "hash"), phaseNames(timings));
+            // the binding ends with the task
+            assertEquals("x", CompletableFuture.supplyAsync(() -> RequestTimings.time("cache", () -> "x"), executor)
+                    .join());
+            assertEquals(3, timings.getPhases().size());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Test: without timings bound, or with disabled timings, phases are just run
+     */
+    @Test
+    public void testDisabledTimingsRecordNothing() {
+        assertEquals("x", RequestTimings.time("cache", () -> "x"));
+
+        RequestTimings disabled = RequestTimings.disabled();
+        Supplier<String> task = () -> RequestTimings.time("cache", () -> "x");
+        assertSame(task, disabled.bind(task));
+        assertEquals("x", disabled.record("render", task));
+        assertTrue(disabled.getPhases().isEmpty());
+    }
+
+    @Test
+    public void testServerTimingFormat() {
+        RequestTimings timings = RequestTimings.start();
+        timings.record("validate", () -> null);
+        timings.record("render", () -> null);
+
+        String serverTiming = timings.toServerTiming(1_234_567);
+
+        assertTrue(serverTiming.matches("validate;dur=\\d+\\.\\d{3}, render;dur=\\d+\\.\\d{3}, total;dur=1\\.235"),
+                serverTiming);
+    }
+}
@@ -0,0 +1,36 @@
+package org.juliazo.url.shortener.client;
+
+import org.juliazo.url.shortener.commons.payload.UrlResponsePayload;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded, least recently used memo of the short urls received, by long url. The service always
+ * answers the same long url with the same short url, so a memoized answer never goes stale.
+ */
+final class LinkMemo {
+
+    private final Map<String, UrlResponsePayload> entries;
+
+    LinkMemo(int maxSize) {
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, UrlResponsePayload> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    synchronized UrlResponsePayload get(String longUrl) {
+        return entries.get(longUrl);
+    }
+
+    synchronized void put(String longUrl, UrlResponsePayload response) {
+        entries.put(longUrl, response);
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+}
@@ -0,0 +1,108 @@
+package org.juliazo.url.shortener.client;
+
+import org.juliazo.url.shortener.commons.payload.UrlRequestPayload;
+import org.juliazo.url.shortener.commons.payload.UrlResponsePayload;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Coalesces the shorten calls made at about the same time into micro-batches.
+ * <p>
+ * The first call of a batch waits at most {@link #maxDelayNanos} for others to join it;
+ * the batch is handed to the sender as soon as it holds {@link #maxBatchSize} calls, or
+ * when the delay is over. The sender completes the futures of the calls.
+ */
+final class ShortenBatcher {
+
+    /**
+     * A call waiting for its short url.
+     */
+    static final class Pending {
+
+        private final UrlRequestPayload request;
+
+        private final CompletableFuture<UrlResponsePayload> result = new CompletableFuture<>();
+
+        Pending(UrlRequestPayload request) {
+            this.request = request;
+        }
+
+        UrlRequestPayload getRequest() {
+            return request;
+        }
+
+        CompletableFuture<UrlResponsePayload> getResult() {
+            return result;
+        }
+    }
+
+    private final int maxBatchSize;
+
+    private final long maxDelayNanos;
+
+    private final ScheduledExecutorService scheduler;
+
+    private final Consumer<List<Pending>> sender;
+
+    private List<Pending> batch = new ArrayList<>();
+
+    private ScheduledFuture<?> scheduledFlush;
+
+    ShortenBatcher(int maxBatchSize, long maxDelayNanos, ScheduledExecutorService scheduler,
+                   Consumer<List<Pending>> sender) {
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelayNanos = maxDelayNanos;
+        this.scheduler = scheduler;
+        this.sender = sender;
+    }
+
+    /**
+     * @param request the url to shorten
+     * @return the future short url, completed by the sender of the batch the call joined
+     */
+    CompletableFuture<UrlResponsePayload> submit(UrlRequestPayload request) {
+        Pending pending = new Pending(request);
+        List<Pending> full = null;
+        synchronized (this) {
+            batch.add(pending);
+            if (batch.size() >= maxBatchSize) {
+                full = take();
+            } else if (batch.size() == 1) {
+                scheduledFlush = scheduler.schedule(this::flush, maxDelayNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+        if (full != null) {
+            sender.accept(full);
+        }
+        return pending.getResult();
+    }
+
+    /**
+     * Hands the calls waiting so far to the sender, without waiting for more.
+     */
+    void flush() {
+        List<Pending> waiting;
+        synchronized (this) {
+            waiting = take();
+        }
+        if (!waiting.isEmpty()) {
+            sender.accept(waiting);
+        }
+    }
+
+    private List<Pending> take() {
+        List<Pending> taken = batch;
+        batch = new ArrayList<>();
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+        return taken;
+    }
+}
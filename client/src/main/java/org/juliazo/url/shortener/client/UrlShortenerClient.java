@@ -0,0 +1,469 @@
+package org.juliazo.url.shortener.client;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import org.juliazo.url.shortener.commons.payload.ErrorResponsePayload;
+import org.juliazo.url.shortener.commons.payload.UrlBatchItemPayload;
+import org.juliazo.url.shortener.commons.payload.UrlRequestPayload;
+import org.juliazo.url.shortener.commons.payload.UrlResponsePayload;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Java client of the url shortener REST API, sharing its payloads with the service.
+ * <p>
+ * All calls go through one {@link HttpClient}, whose pool keeps the connections to the service
+ * alive from one call to the next. Calls made at about the same time are coalesced into
+ * micro-batches sent to {@code POST /shorten/batch}; a service without that endpoint is then
+ * called with {@code POST /shorten} per url.
+ * <p>
+ * The service answers a long url with the same short url for good, so the short urls received
+ * are memoized in a bounded local memo, and identical calls in flight share one request. Calls
+ * with a redirect policy or an expiration always reach the service, which may extend the
+ * expiration of the link.
+ * <p>
+ * Client side metrics are registered in the given {@link MeterRegistry}:
+ * <ul>
+ * <li>{@code url.shortener.client.requests}, timer of the HTTP requests by endpoint and outcome;</li>
+ * <li>{@code url.shortener.client.memo}, counter of the calls answered by the memo or not;</li>
+ * <li>{@code url.shortener.client.batch.size}, summary of the urls sent per batch.</li>
+ * </ul>
+ * Instances are thread safe, one is meant to be shared by all callers of a service.
+ */
+public final class UrlShortenerClient implements AutoCloseable {
+
+    private static final String JSON = "application/json";
+
+    private static final TypeReference<List<UrlBatchItemPayload>> BATCH_ITEMS = new TypeReference<>() {
+    };
+
+    private final URI shortenUri;
+
+    private final URI batchUri;
+
+    private final Duration requestTimeout;
+
+    private final HttpClient httpClient;
+
+    private final ObjectMapper objectMapper = new ObjectMapper()
+            .setSerializationInclusion(JsonInclude.Include.NON_NULL)
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    private final LinkMemo memo;
+
+    private final Map<String, CompletableFuture<UrlResponsePayload>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * Null when batching is disabled.
+     */
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * Null when batching is disabled.
+     */
+    private final ShortenBatcher batcher;
+
+    private final MeterRegistry meterRegistry;
+
+    private final Counter memoHits;
+
+    private final Counter memoMisses;
+
+    private final DistributionSummary batchSizes;
+
+    /**
+     * Cleared once the service answered a batch with 404 or 405, it predates the batch endpoint.
+     */
+    private volatile boolean batchSupported = true;
+
+    private UrlShortenerClient(Builder builder) {
+        URI baseUri = builder.baseUri.toString().endsWith("/")
+                ? builder.baseUri : URI.create(builder.baseUri + "/");
+        this.shortenUri = baseUri.resolve("shorten");
+        this.batchUri = baseUri.resolve("shorten/batch");
+        this.requestTimeout = builder.requestTimeout;
+
+        HttpClient.Builder httpClientBuilder = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(builder.connectTimeout);
+        if (builder.executor != null) {
+            httpClientBuilder.executor(builder.executor);
+        }
+        this.httpClient = httpClientBuilder.build();
+        this.memo = new LinkMemo(builder.memoSize);
+
+        if (builder.maxBatchSize > 1) {
+            this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "url-shortener-client-batcher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.batcher = new ShortenBatcher(builder.maxBatchSize, builder.maxBatchDelay.toNanos(), scheduler,
+                    this::sendBatch);
+        } else {
+            this.scheduler = null;
+            this.batcher = null;
+        }
+
+        this.meterRegistry = builder.meterRegistry;
+        this.memoHits = Counter.builder("url.shortener.client.memo").tag("result", "hit").register(meterRegistry);
+        this.memoMisses = Counter.builder("url.shortener.client.memo").tag("result", "miss").register(meterRegistry);
+        this.batchSizes = DistributionSummary.builder("url.shortener.client.batch.size").register(meterRegistry);
+    }
+
+    /**
+     * @param baseUri where the service is reached, e.g. {@code http://localhost:80/}
+     * @return a builder of clients of the service, with the default settings
+     */
+    public static Builder builder(URI baseUri) {
+        return new Builder(baseUri);
+    }
+
+    /**
+     * @param longUrl the url to shorten
+     * @return the short url, see {@link #shortenAsync(UrlRequestPayload)}
+     * @throws UrlShortenerClientException when the url could not be shortened
+     */
+    public UrlResponsePayload shorten(String longUrl) {
+        return shorten(new UrlRequestPayload(longUrl));
+    }
+
+    /**
+     * Blocks until the url is shortened.
+     *
+     * @param request the url to shorten and its optional redirect policy and expiration
+     * @return the short url, see {@link #shortenAsync(UrlRequestPayload)}
+     * @throws UrlShortenerClientException when the url could not be shortened
+     */
+    public UrlResponsePayload shorten(UrlRequestPayload request) {
+        try {
+            return shortenAsync(request).join();
+        } catch (CompletionException exception) {
+            Throwable cause = unwrap(exception);
+            if (cause instanceof UrlShortenerClientException) {
+                throw (UrlShortenerClientException) cause;
+            }
+            throw new UrlShortenerClientException(UrlShortenerClientException.NO_STATUS, cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * @param longUrl the url to shorten
+     * @return the future short url, see {@link #shortenAsync(UrlRequestPayload)}
+     */
+    public CompletableFuture<UrlResponsePayload> shortenAsync(String longUrl) {
+        return shortenAsync(new UrlRequestPayload(longUrl));
+    }
+
+    /**
+     * @param request the url to shorten and its optional redirect policy and expiration
+     * @return the future short url, an absolute url; failing with a {@link UrlShortenerClientException}
+     * when the service rejected the url, was overloaded or could not be reached
+     */
+    public CompletableFuture<UrlResponsePayload> shortenAsync(UrlRequestPayload request) {
+        String longUrl = request.getLongUrl();
+        if (longUrl == null || request.getRedirectStatus() != null || request.getCacheMaxAge() != null
+                || request.getExpiresIn() != null) {
+            return dispatch(request);
+        }
+        UrlResponsePayload memoized = memo.get(longUrl);
+        if (memoized != null) {
+            memoHits.increment();
+            return CompletableFuture.completedFuture(memoized);
+        }
+        memoMisses.increment();
+
+        CompletableFuture<UrlResponsePayload> call = new CompletableFuture<>();
+        CompletableFuture<UrlResponsePayload> joined = inFlight.putIfAbsent(longUrl, call);
+        if (joined != null) {
+            return joined.copy();
+        }
+        dispatch(request).whenComplete((response, failure) -> {
+            if (failure == null) {
+                memo.put(longUrl, response);
+            }
+            inFlight.remove(longUrl, call);
+            if (failure == null) {
+                call.complete(response);
+            } else {
+                call.completeExceptionally(unwrap(failure));
+            }
+        });
+        return call.copy();
+    }
+
+    /**
+     * Sends the calls waiting to join a batch right away and stops batching.
+     */
+    @Override
+    public void close() {
+        if (batcher != null) {
+            batcher.flush();
+            scheduler.shutdown();
+        }
+    }
+
+    private CompletableFuture<UrlResponsePayload> dispatch(UrlRequestPayload request) {
+        if (batcher != null && batchSupported) {
+            return batcher.submit(request);
+        }
+        return send(request);
+    }
+
+    private CompletableFuture<UrlResponsePayload> send(UrlRequestPayload request) {
+        return post(shortenUri, "shorten", request).thenApply(response -> {
+            if (response.statusCode() != 200) {
+                throw errorOf(response);
+            }
+            return read(response, UrlResponsePayload.class);
+        });
+    }
+
+    /**
+     * Sends a batch, completing the future of every call of it. A batch of one, or any batch
+     * once the service is known to predate the batch endpoint, is sent a url at a time.
+     */
+    private void sendBatch(List<ShortenBatcher.Pending> batch) {
+        if (batch.size() == 1 || !batchSupported) {
+            batch.forEach(pending -> forward(send(pending.getRequest()), pending));
+            return;
+        }
+        batchSizes.record(batch.size());
+        List<UrlRequestPayload> requests = batch.stream()
+                .map(ShortenBatcher.Pending::getRequest)
+                .collect(Collectors.toList());
+        post(batchUri, "shorten-batch", requests).whenComplete((response, failure) -> {
+            try {
+                if (failure != null) {
+                    throw unwrap(failure);
+                }
+                int status = response.statusCode();
+                if (status == 404 || status == 405) {
+                    batchSupported = false;
+                    batch.forEach(pending -> forward(send(pending.getRequest()), pending));
+                    return;
+                }
+                if (status != 200) {
+                    throw errorOf(response);
+                }
+                List<UrlBatchItemPayload> items = read(response, BATCH_ITEMS);
+                if (items.size() != batch.size()) {
+                    throw new UrlShortenerClientException(status,
+                            "Received " + items.size() + " results for a batch of " + batch.size() + " urls", null);
+                }
+                for (int i = 0; i < items.size(); i++) {
+                    complete(batch.get(i), items.get(i));
+                }
+            } catch (Throwable exception) {
+                batch.forEach(pending -> pending.getResult().completeExceptionally(exception));
+            }
+        });
+    }
+
+    private static void complete(ShortenBatcher.Pending pending, UrlBatchItemPayload item) {
+        ErrorResponsePayload error = item.getError();
+        if (error == null) {
+            pending.getResult().complete(new UrlResponsePayload(item.getLongUrl(), item.getShortUrl()));
+        } else {
+            pending.getResult().completeExceptionally(
+                    new UrlShortenerClientException(error.getStatus(), error.getMessage(), null));
+        }
+    }
+
+    private static void forward(CompletableFuture<UrlResponsePayload> call, ShortenBatcher.Pending pending) {
+        call.whenComplete((response, failure) -> {
+            if (failure == null) {
+                pending.getResult().complete(response);
+            } else {
+                pending.getResult().completeExceptionally(unwrap(failure));
+            }
+        });
+    }
+
+    private CompletableFuture<HttpResponse<byte[]>> post(URI uri, String endpoint, Object body) {
+        HttpRequest request;
+        try {
+            request = HttpRequest.newBuilder(uri)
+                    .timeout(requestTimeout)
+                    .header("Content-Type", JSON)
+                    .header("Accept", JSON)
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(body)))
+                    .build();
+        } catch (IOException exception) {
+            return CompletableFuture.failedFuture(new UrlShortenerClientException(
+                    UrlShortenerClientException.NO_STATUS, "Could not write the request", exception));
+        }
+        long start = System.nanoTime();
+        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray())
+                .handle((response, failure) -> {
+                    Timer.builder("url.shortener.client.requests")
+                            .tag("endpoint", endpoint)
+                            .tag("outcome", response == null ? "io-error" : outcomeOf(response.statusCode()))
+                            .publishPercentiles(0.5, 0.99)
+                            .register(meterRegistry)
+                            .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                    if (failure != null) {
+                        Throwable cause = unwrap(failure);
+                        throw new UrlShortenerClientException(UrlShortenerClientException.NO_STATUS,
+                                "The url shortener could not be reached: " + cause, cause);
+                    }
+                    return response;
+                });
+    }
+
+    private static String outcomeOf(int status) {
+        if (status < 400) {
+            return "success";
+        }
+        return status < 500 ? "client-error" : "server-error";
+    }
+
+    private UrlShortenerClientException errorOf(HttpResponse<byte[]> response) {
+        String message = "The url shortener answered with status " + response.statusCode();
+        try {
+            ErrorResponsePayload error = objectMapper.readValue(response.body(), ErrorResponsePayload.class);
+            if (error.getMessage() != null) {
+                message = error.getMessage();
+            }
+        } catch (IOException exception) {
+            // not an error payload, e.g. from a proxy in between, the status says enough
+        }
+        return new UrlShortenerClientException(response.statusCode(), message, null);
+    }
+
+    private <T> T read(HttpResponse<byte[]> response, Class<T> type) {
+        try {
+            return objectMapper.readValue(response.body(), type);
+        } catch (IOException exception) {
+            throw new UrlShortenerClientException(response.statusCode(), "Could not read the response", exception);
+        }
+    }
+
+    private <T> T read(HttpResponse<byte[]> response, TypeReference<T> type) {
+        try {
+            return objectMapper.readValue(response.body(), type);
+        } catch (IOException exception) {
+            throw new UrlShortenerClientException(response.statusCode(), "Could not read the response", exception);
+        }
+    }
+
+    private static Throwable unwrap(Throwable failure) {
+        return failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+    }
+
+    /**
+     * Settings of a {@link UrlShortenerClient}.
+     */
+    public static final class Builder {
+
+        private final URI baseUri;
+
+        private Duration connectTimeout = Duration.ofSeconds(2);
+
+        private Duration requestTimeout = Duration.ofSeconds(5);
+
+        private int maxBatchSize = 50;
+
+        private Duration maxBatchDelay = Duration.ofMillis(2);
+
+        private int memoSize = 10000;
+
+        private MeterRegistry meterRegistry = Metrics.globalRegistry;
+
+        private Executor executor;
+
+        private Builder(URI baseUri) {
+            this.baseUri = baseUri;
+        }
+
+        /**
+         * @param connectTimeout how long to wait for a new connection, 2 seconds by default
+         */
+        public Builder connectTimeout(Duration connectTimeout) {
+            this.connectTimeout = connectTimeout;
+            return this;
+        }
+
+        /**
+         * @param requestTimeout how long to wait for the answer to a request, 5 seconds by default
+         */
+        public Builder requestTimeout(Duration requestTimeout) {
+            this.requestTimeout = requestTimeout;
+            return this;
+        }
+
+        /**
+         * @param maxBatchSize most urls sent in one batch, 50 by default; 1 disables batching. Keep it
+         *                     within {@code url-shortener.batch.max-size} of the service
+         */
+        public Builder maxBatchSize(int maxBatchSize) {
+            if (maxBatchSize < 1) {
+                throw new IllegalArgumentException("The batch size must be positive");
+            }
+            this.maxBatchSize = maxBatchSize;
+            return this;
+        }
+
+        /**
+         * @param maxBatchDelay how long a call waits for others to join its batch, 2 milliseconds by default
+         */
+        public Builder maxBatchDelay(Duration maxBatchDelay) {
+            this.maxBatchDelay = maxBatchDelay;
+            return this;
+        }
+
+        /**
+         * @param memoSize how many short urls are memoized, 10000 by default; 0 disables the memo
+         */
+        public Builder memoSize(int memoSize) {
+            if (memoSize < 0) {
+                throw new IllegalArgumentException("The memo size must not be negative");
+            }
+            this.memoSize = memoSize;
+            return this;
+        }
+
+        /**
+         * @param meterRegistry where the client metrics are registered, the global registry by default
+         */
+        public Builder meterRegistry(MeterRegistry meterRegistry) {
+            this.meterRegistry = meterRegistry;
+            return this;
+        }
+
+        /**
+         * @param executor runs the HTTP exchanges and completes the futures, the one of
+         *                 {@link HttpClient} by default
+         */
+        public Builder executor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        public UrlShortenerClient build() {
+            return new UrlShortenerClient(this);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package org.juliazo.url.shortener.client;
+
+/**
+ * A url could not be shortened: the service answered with an error, or could not be reached.
+ */
+public class UrlShortenerClientException extends RuntimeException {
+
+    /**
+     * Status of the calls that failed before an answer was received.
+     */
+    public static final int NO_STATUS = 0;
+
+    private final int status;
+
+    /**
+     * @param status  HTTP status the service answered with, {@link #NO_STATUS} when it could not be reached
+     * @param message the message of the service, or why it could not be reached
+     * @param cause   the failure, may be null
+     */
+    public UrlShortenerClientException(int status, String message, Throwable cause) {
+        super(message, cause);
+        this.status = status;
+    }
+
+    /**
+     * @return HTTP status the service answered with, {@link #NO_STATUS} when it could not be reached
+     */
+    public int getStatus() {
+        return status;
+    }
+
+    /**
+     * @return true when the same call may succeed later: the service was overloaded or unreachable
+     */
+    public boolean isRetryable() {
+        return status == NO_STATUS || status == 503;
+    }
+}
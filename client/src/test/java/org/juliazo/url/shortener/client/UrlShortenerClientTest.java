@@ -0,0 +1,192 @@
+package org.juliazo.url.shortener.client;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.juliazo.url.shortener.commons.payload.ErrorResponsePayload;
+import org.juliazo.url.shortener.commons.payload.UrlBatchItemPayload;
+import org.juliazo.url.shortener.commons.payload.UrlRequestPayload;
+import org.juliazo.url.shortener.commons.payload.UrlResponsePayload;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+@RunWith(JUnitPlatform.class)
+class UrlShortenerClientTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    /**
+     * Paths of the requests received by the stub service, in order
+     */
+    private final List<String> requests = new CopyOnWriteArrayList<>();
+
+    private HttpServer server;
+
+    private boolean batchSupported = true;
+
+    @BeforeEach
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/shorten", this::handle);
+        server.start();
+    }
+
+    @AfterEach
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    /**
+     * Test: calls made together are sent as one batch, each call gets its own result
+     */
+    @Test
+    public void testBatching() {
+        try (UrlShortenerClient client = clientBuilder().maxBatchDelay(Duration.ofSeconds(1)).maxBatchSize(3).build()) {
+            CompletableFuture<UrlResponsePayload> first = client.shortenAsync("https://example.com/1");
+            CompletableFuture<UrlResponsePayload> second = client.shortenAsync("https://example.com/2");
+            CompletableFuture<UrlResponsePayload> invalid = client.shortenAsync("invalid");
+
+            assertEquals("http://short/1", first.join().getShortUrl());
+            assertEquals("http://short/2", second.join().getShortUrl());
+            CompletionException exception = assertThrows(CompletionException.class, invalid::join);
+            assertEquals(400, ((UrlShortenerClientException) exception.getCause()).getStatus());
+            assertFalse(((UrlShortenerClientException) exception.getCause()).isRetryable());
+        }
+
+        assertEquals(Arrays.asList("/shorten/batch"), requests);
+        assertEquals(1, meterRegistry.get("url.shortener.client.batch.size").summary().count());
+        assertEquals(3.0, meterRegistry.get("url.shortener.client.batch.size").summary().totalAmount());
+    }
+
+    /**
+     * Test: a url already shortened is answered by the memo, unless the call has link options
+     */
+    @Test
+    public void testMemo() {
+        try (UrlShortenerClient client = clientBuilder().maxBatchSize(1).build()) {
+            assertEquals("http://short/1", client.shorten("https://example.com/1").getShortUrl());
+            assertEquals("http://short/1", client.shorten("https://example.com/1").getShortUrl());
+            assertEquals(1, requests.size());
+
+            UrlRequestPayload withOptions = new UrlRequestPayload("https://example.com/1");
+            withOptions.setExpiresIn(60L);
+            client.shorten(withOptions);
+            assertEquals(2, requests.size());
+        }
+
+        assertEquals(1.0, meterRegistry.get("url.shortener.client.memo").tag("result", "hit").counter().count());
+        assertEquals(2, meterRegistry.get("url.shortener.client.requests").tag("endpoint", "shorten")
+                .tag("outcome", "success").timer().count());
+    }
+
+    /**
+     * Test: a service without the batch endpoint is called a url at a time, from then on
+     */
+    @Test
+    public void testBatchNotSupported() {
+        batchSupported = false;
+        try (UrlShortenerClient client = clientBuilder().maxBatchDelay(Duration.ofSeconds(1)).maxBatchSize(2).build()) {
+            CompletableFuture<UrlResponsePayload> first = client.shortenAsync("https://example.com/1");
+            CompletableFuture<UrlResponsePayload> second = client.shortenAsync("https://example.com/2");
+
+            assertEquals("http://short/1", first.join().getShortUrl());
+            assertEquals("http://short/2", second.join().getShortUrl());
+            assertEquals("http://short/3", client.shorten("https://example.com/3").getShortUrl());
+        }
+
+        assertEquals("/shorten/batch", requests.get(0));
+        assertEquals(Arrays.asList("/shorten", "/shorten", "/shorten"), requests.subList(1, requests.size()));
+    }
+
+    /**
+     * Test: the error status and message of the service are those of the exception thrown
+     */
+    @Test
+    public void testError() {
+        try (UrlShortenerClient client = clientBuilder().maxBatchSize(1).build()) {
+            UrlShortenerClientException exception = assertThrows(UrlShortenerClientException.class,
+                    () -> client.shorten("invalid"));
+
+            assertEquals(400, exception.getStatus());
+            assertEquals("invalid is not a url", exception.getMessage());
+        }
+
+        assertEquals(1, meterRegistry.get("url.shortener.client.requests").tag("outcome", "client-error")
+                .timer().count());
+    }
+
+    private UrlShortenerClient.Builder clientBuilder() {
+        return UrlShortenerClient.builder(URI.create("http://localhost:" + server.getAddress().getPort()))
+                .meterRegistry(meterRegistry);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        requests.add(path);
+        Object body;
+        int status = 200;
+        if (path.equals("/shorten/batch")) {
+            if (!batchSupported) {
+                exchange.sendResponseHeaders(404, -1);
+                exchange.close();
+                return;
+            }
+            UrlRequestPayload[] batch = objectMapper.readValue(exchange.getRequestBody(), UrlRequestPayload[].class);
+            List<UrlBatchItemPayload> items = new ArrayList<>();
+            for (UrlRequestPayload request : batch) {
+                items.add(isValid(request)
+                        ? new UrlBatchItemPayload(request.getLongUrl(), shortUrlOf(request), null)
+                        : new UrlBatchItemPayload(request.getLongUrl(), null, errorOf(request)));
+            }
+            body = items;
+        } else {
+            UrlRequestPayload request = objectMapper.readValue(exchange.getRequestBody(), UrlRequestPayload.class);
+            if (isValid(request)) {
+                body = new UrlResponsePayload(request.getLongUrl(), shortUrlOf(request));
+            } else {
+                body = errorOf(request);
+                status = 400;
+            }
+        }
+        byte[] json = objectMapper.writeValueAsBytes(body);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, json.length);
+        exchange.getResponseBody().write(json);
+        exchange.close();
+    }
+
+    private static boolean isValid(UrlRequestPayload request) {
+        return request.getLongUrl().startsWith("https://");
+    }
+
+    private static String shortUrlOf(UrlRequestPayload request) {
+        String longUrl = request.getLongUrl();
+        return "http://short/" + longUrl.substring(longUrl.lastIndexOf('/') + 1);
+    }
+
+    private static ErrorResponsePayload errorOf(UrlRequestPayload request) {
+        return new ErrorResponsePayload(400, "Bad Request", request.getLongUrl() + " is not a url");
+    }
+}
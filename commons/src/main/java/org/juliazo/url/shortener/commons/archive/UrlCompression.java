@@ -0,0 +1,93 @@
+package org.juliazo.url.shortener.commons.archive;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compression of the long urls of archived links, shared by the application, which
+ * archives them, and the edge redirect servers, which read them.
+ * <p>
+ * Urls are too short for plain deflate to find much to reuse, so they are deflated
+ * against a preset dictionary of the fragments most urls share: schemes, hosts prefixes,
+ * top level domains and tracking parameters. The first byte of a compressed url is the
+ * version of the dictionary, so it can evolve without rewriting the archive.
+ */
+public final class UrlCompression {
+
+    private static final byte VERSION_1 = 1;
+
+    /**
+     * The most frequent fragments come last, deflate encodes the closest matches with the fewest bits.
+     */
+    private static final byte[] DICTIONARY_1 = ("utm_content=utm_term=gclid=fbclid=ref=source=lang=en&page=&id="
+            + ".html.php.aspx/index/en/news/articles/blog/post/product/search?q=/watch?v=/status/"
+            + "&utm_medium=&utm_campaign=?utm_source=.io/.co.uk/.de/.fr/.br/.net/.org/"
+            + "http://www.https://.com/https://www.").getBytes(StandardCharsets.US_ASCII);
+
+    private UrlCompression() {
+    }
+
+    /**
+     * @param longUrl the url to compress
+     * @return the compressed url, starting with the dictionary version
+     */
+    public static byte[] compress(String longUrl) {
+        byte[] input = longUrl.getBytes(StandardCharsets.UTF_8);
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+        try {
+            deflater.setDictionary(DICTIONARY_1);
+            deflater.setInput(input);
+            deflater.finish();
+            ByteArrayOutputStream output = new ByteArrayOutputStream(input.length + 16);
+            output.write(VERSION_1);
+            byte[] buffer = new byte[Math.max(64, input.length + 16)];
+            while (!deflater.finished()) {
+                output.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return output.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * @param compressed a url compressed by {@link #compress}
+     * @return the url
+     * @throws IllegalArgumentException when the data is no compressed url
+     */
+    public static String decompress(byte[] compressed) {
+        if (compressed.length == 0 || compressed[0] != VERSION_1) {
+            throw new IllegalArgumentException("Unsupported compressed url format");
+        }
+        Inflater inflater = new Inflater(true);
+        try {
+            // raw deflate streams name no dictionary, it is set up front
+            inflater.setDictionary(DICTIONARY_1);
+            // and zlib wants one byte past the end of a raw stream
+            byte[] input = new byte[compressed.length];
+            System.arraycopy(compressed, 1, input, 0, compressed.length - 1);
+            inflater.setInput(input);
+            ByteArrayOutputStream output = new ByteArrayOutputStream(compressed.length * 3);
+            byte[] buffer = new byte[256];
+            while (!inflater.finished()) {
+                int inflated = inflater.inflate(buffer);
+                if (inflated == 0 && inflater.needsInput()) {
+                    throw new IllegalArgumentException("Truncated compressed url");
+                }
+                output.write(buffer, 0, inflated);
+            }
+            // zero bits of the padding byte can read as an end of block, ending a truncated stream
+            if (inflater.getBytesRead() > compressed.length - 1) {
+                throw new IllegalArgumentException("Truncated compressed url");
+            }
+            return new String(output.toByteArray(), StandardCharsets.UTF_8);
+        } catch (DataFormatException exception) {
+            throw new IllegalArgumentException("Corrupted compressed url", exception);
+        } finally {
+            inflater.end();
+        }
+    }
+}
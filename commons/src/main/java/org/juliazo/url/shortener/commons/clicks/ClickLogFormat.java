@@ -0,0 +1,131 @@
+package org.juliazo.url.shortener.commons.clicks;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Binary format of the click log segments, written by the application and read back by
+ * the {@link ClickLogReader}.
+ * <p>
+ * A segment starts with the 4 bytes {@link #MAGIC}, followed by the click records, all
+ * numbers big endian:
+ * <pre>
+ *   u8   length of the short url, 1 to 255
+ *   ...  short url, ASCII
+ *   i64  timestamp, milliseconds since the epoch
+ *   i32  hash of the user agent, 0 when there was none
+ *   u16  length of the referrer, 0 when there was none
+ *   ...  referrer, UTF-8
+ * </pre>
+ * Segments are preallocated and zero filled, a zero short url length marks the end of the
+ * records. The writer puts the length byte of a record last, so a reader never sees a
+ * record partially written.
+ */
+public final class ClickLogFormat {
+
+    /**
+     * "CLK" and the version of the format.
+     */
+    public static final int MAGIC = 0x434c4b01;
+
+    public static final int HEADER_SIZE = Integer.BYTES;
+
+    /**
+     * Longer referrers are truncated, their query strings rarely matter for analytics.
+     */
+    public static final int MAX_REFERRER_CHARS = 2048;
+
+    /**
+     * Largest record, with a short url of 255 characters and a referrer of
+     * {@link #MAX_REFERRER_CHARS} characters of 3 bytes each.
+     */
+    public static final int MAX_RECORD_SIZE = 1 + 255 + Long.BYTES + Integer.BYTES + Short.BYTES
+            + MAX_REFERRER_CHARS * 3;
+
+    private ClickLogFormat() {
+    }
+
+    /**
+     * Receives the records of a segment.
+     */
+    public interface ClickVisitor {
+
+        void visit(String shortUrl, long timestamp, int userAgentHash, String referrer);
+    }
+
+    /**
+     * @param shortUrl        the short url that was resolved
+     * @param encodedReferrer the referrer, as encoded by {@link #encodeReferrer}
+     * @return the bytes the record takes in a segment
+     */
+    public static int recordSize(String shortUrl, byte[] encodedReferrer) {
+        return 1 + shortUrl.length() + Long.BYTES + Integer.BYTES + Short.BYTES + encodedReferrer.length;
+    }
+
+    /**
+     * @param referrer the referrer of a click, may be null
+     * @return the referrer truncated to {@link #MAX_REFERRER_CHARS} and encoded in UTF-8
+     */
+    public static byte[] encodeReferrer(String referrer) {
+        if (referrer == null) {
+            return new byte[0];
+        }
+        String truncated = referrer.length() > MAX_REFERRER_CHARS ? referrer.substring(0, MAX_REFERRER_CHARS) : referrer;
+        return truncated.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes one record at the position of the buffer, the length byte last, and moves
+     * the position past it. The caller checks that {@link #recordSize} bytes remain.
+     *
+     * @param segment         the mapped segment
+     * @param shortUrl        the short url that was resolved, ASCII
+     * @param timestamp       milliseconds since the epoch
+     * @param userAgentHash   hash of the user agent
+     * @param encodedReferrer the referrer, as encoded by {@link #encodeReferrer}
+     */
+    public static void write(ByteBuffer segment, String shortUrl, long timestamp, int userAgentHash,
+                             byte[] encodedReferrer) {
+        int start = segment.position();
+        segment.position(start + 1);
+        for (int i = 0; i < shortUrl.length(); i++) {
+            segment.put((byte) shortUrl.charAt(i));
+        }
+        segment.putLong(timestamp);
+        segment.putInt(userAgentHash);
+        segment.putShort((short) encodedReferrer.length);
+        segment.put(encodedReferrer);
+        segment.put(start, (byte) shortUrl.length());
+    }
+
+    /**
+     * Reads the records of a segment, from its header to its end marker.
+     *
+     * @param segment the segment, positioned at its header
+     * @param visitor receives every record
+     * @return the number of records read
+     * @throws IllegalArgumentException when the data is no click log segment
+     */
+    public static int read(ByteBuffer segment, ClickVisitor visitor) {
+        if (segment.remaining() < HEADER_SIZE || segment.getInt() != MAGIC) {
+            throw new IllegalArgumentException("Not a click log segment");
+        }
+        int records = 0;
+        while (segment.hasRemaining()) {
+            int shortUrlLength = segment.get() & 0xff;
+            if (shortUrlLength == 0) {
+                break;
+            }
+            byte[] shortUrl = new byte[shortUrlLength];
+            segment.get(shortUrl);
+            long timestamp = segment.getLong();
+            int userAgentHash = segment.getInt();
+            byte[] referrer = new byte[segment.getShort() & 0xffff];
+            segment.get(referrer);
+            visitor.visit(new String(shortUrl, StandardCharsets.US_ASCII), timestamp, userAgentHash,
+                    referrer.length == 0 ? null : new String(referrer, StandardCharsets.UTF_8));
+            records++;
+        }
+        return records;
+    }
+}
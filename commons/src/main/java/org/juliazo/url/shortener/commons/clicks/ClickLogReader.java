@@ -0,0 +1,107 @@
+package org.juliazo.url.shortener.commons.clicks;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Command line tool that prints click log segments as newline delimited JSON, one click
+ * per line, for the analytics tools:
+ * <pre>
+ *   java -cp url-shortener-commons.jar org.juliazo.url.shortener.commons.clicks.ClickLogReader clicks/ &gt; clicks.ndjson
+ * </pre>
+ * Takes segment files and directories of segments, the segments of a directory are read
+ * in the order they were written. The segment being written may be read too.
+ */
+public final class ClickLogReader {
+
+    private ClickLogReader() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: ClickLogReader <segment or directory>...");
+            System.exit(1);
+        }
+        Writer output = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+        for (String arg : args) {
+            for (Path segment : segments(Paths.get(arg))) {
+                toNdjson(segment, output);
+            }
+        }
+        output.flush();
+    }
+
+    /**
+     * @param path a segment file or a directory of segments
+     * @return the segments, oldest first
+     */
+    static List<Path> segments(Path path) throws IOException {
+        if (!Files.isDirectory(path)) {
+            return List.of(path);
+        }
+        try (Stream<Path> files = Files.list(path)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(".seg"))
+                    .sorted().collect(Collectors.toCollection(ArrayList::new));
+        }
+    }
+
+    /**
+     * @param segment a click log segment
+     * @param output  receives one JSON object per click
+     * @return the number of clicks written
+     */
+    public static int toNdjson(Path segment, Writer output) throws IOException {
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            StringBuilder line = new StringBuilder(256);
+            return ClickLogFormat.read(buffer, (shortUrl, timestamp, userAgentHash, referrer) -> {
+                line.setLength(0);
+                line.append("{\"shortUrl\":");
+                appendString(line, shortUrl);
+                line.append(",\"timestamp\":\"").append(Instant.ofEpochMilli(timestamp)).append('"');
+                line.append(",\"referrer\":");
+                if (referrer == null) {
+                    line.append("null");
+                } else {
+                    appendString(line, referrer);
+                }
+                line.append(",\"userAgentHash\":").append(userAgentHash).append("}\n");
+                try {
+                    output.write(line.toString());
+                } catch (IOException exception) {
+                    throw new UncheckedIOException(exception);
+                }
+            });
+        }
+    }
+
+    private static void appendString(StringBuilder line, String value) {
+        line.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char character = value.charAt(i);
+            if (character == '"' || character == '\\') {
+                line.append('\\').append(character);
+            } else if (character < 0x20) {
+                line.append(String.format("\\u%04x", (int) character));
+            } else {
+                line.append(character);
+            }
+        }
+        line.append('"');
+    }
+}
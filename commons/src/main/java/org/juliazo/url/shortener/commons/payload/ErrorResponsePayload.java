@@ -1,4 +1,4 @@
-package org.juliazo.url.shortener.model;
+package org.juliazo.url.shortener.commons.payload;
 
 public class ErrorResponsePayload {
 
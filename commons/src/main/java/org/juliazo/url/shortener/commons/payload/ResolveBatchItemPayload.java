@@ -0,0 +1,48 @@
+package org.juliazo.url.shortener.commons.payload;
+
+/**
+ * Outcome of one short url of a batch sent to /resolve/batch, in the order the short urls were
+ * sent: either the long url, or the error the short url would have been answered with on its
+ * own, 404 for an unknown or expired short url.
+ */
+public class ResolveBatchItemPayload {
+
+    private String shortUrl;
+
+    private String longUrl;
+
+    private ErrorResponsePayload error;
+
+    public ResolveBatchItemPayload(String shortUrl, String longUrl, ErrorResponsePayload error) {
+        this.shortUrl = shortUrl;
+        this.longUrl = longUrl;
+        this.error = error;
+    }
+
+    public ResolveBatchItemPayload() {
+    }
+
+    public String getShortUrl() {
+        return shortUrl;
+    }
+
+    public void setShortUrl(String shortUrl) {
+        this.shortUrl = shortUrl;
+    }
+
+    public String getLongUrl() {
+        return longUrl;
+    }
+
+    public void setLongUrl(String longUrl) {
+        this.longUrl = longUrl;
+    }
+
+    public ErrorResponsePayload getError() {
+        return error;
+    }
+
+    public void setError(ErrorResponsePayload error) {
+        this.error = error;
+    }
+}
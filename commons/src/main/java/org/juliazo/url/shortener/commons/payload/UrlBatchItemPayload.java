@@ -0,0 +1,47 @@
+package org.juliazo.url.shortener.commons.payload;
+
+/**
+ * Outcome of one url of a batch sent to /shorten/batch, in the order the urls were sent:
+ * either the short url, or the error the url would have been answered with on its own.
+ */
+public class UrlBatchItemPayload {
+
+    private String longUrl;
+
+    private String shortUrl;
+
+    private ErrorResponsePayload error;
+
+    public UrlBatchItemPayload(String longUrl, String shortUrl, ErrorResponsePayload error) {
+        this.longUrl = longUrl;
+        this.shortUrl = shortUrl;
+        this.error = error;
+    }
+
+    public UrlBatchItemPayload() {
+    }
+
+    public String getLongUrl() {
+        return longUrl;
+    }
+
+    public void setLongUrl(String longUrl) {
+        this.longUrl = longUrl;
+    }
+
+    public String getShortUrl() {
+        return shortUrl;
+    }
+
+    public void setShortUrl(String shortUrl) {
+        this.shortUrl = shortUrl;
+    }
+
+    public ErrorResponsePayload getError() {
+        return error;
+    }
+
+    public void setError(ErrorResponsePayload error) {
+        this.error = error;
+    }
+}
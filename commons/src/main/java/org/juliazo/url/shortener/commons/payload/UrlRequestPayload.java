@@ -0,0 +1,61 @@
+package org.juliazo.url.shortener.commons.payload;
+
+public class UrlRequestPayload {
+
+    private String longUrl;
+
+    /**
+     * Optional redirect status for this link: 301, 302, 307 or 308.
+     */
+    private Integer redirectStatus;
+
+    /**
+     * Optional number of seconds the redirect may be cached by browsers and CDNs,
+     * 0 disables caching, e.g. for links that need click tracking.
+     */
+    private Integer cacheMaxAge;
+
+    /**
+     * Optional number of seconds after which the link expires, absent for links that never expire.
+     */
+    private Long expiresIn;
+
+    public UrlRequestPayload() {
+    }
+
+    public UrlRequestPayload(String longUrl) {
+        this.longUrl = longUrl;
+    }
+
+    public String getLongUrl() {
+        return longUrl;
+    }
+
+    public void setLongUrl(String longUrl) {
+        this.longUrl = longUrl;
+    }
+
+    public Integer getRedirectStatus() {
+        return redirectStatus;
+    }
+
+    public void setRedirectStatus(Integer redirectStatus) {
+        this.redirectStatus = redirectStatus;
+    }
+
+    public Integer getCacheMaxAge() {
+        return cacheMaxAge;
+    }
+
+    public void setCacheMaxAge(Integer cacheMaxAge) {
+        this.cacheMaxAge = cacheMaxAge;
+    }
+
+    public Long getExpiresIn() {
+        return expiresIn;
+    }
+
+    public void setExpiresIn(Long expiresIn) {
+        this.expiresIn = expiresIn;
+    }
+}
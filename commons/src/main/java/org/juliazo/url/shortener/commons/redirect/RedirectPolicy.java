@@ -0,0 +1,112 @@
+package org.juliazo.url.shortener.commons.redirect;
+
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Decides how a redirect is answered, the same way by the application and the edge
+ * redirect servers.
+ * <p>
+ * The redirect status and the number of seconds browsers and CDNs may cache the
+ * redirect are set per deployment, and may be overridden per link. A max age of
+ * 0 answers with {@code Cache-Control: no-store}, so every click reaches the service.
+ * <p>
+ * Expiring links are never cached beyond their expiration and are never answered
+ * with a permanent redirect: 301 is downgraded to 302 and 308 to 307.
+ * <p>
+ * Every redirect carries a strong ETag derived from the link, requests whose
+ * {@code If-None-Match} header matches it are answered with 304 NOT MODIFIED.
+ */
+public final class RedirectPolicy {
+
+    private static final int FOUND = 302;
+    private static final int MOVED_PERMANENTLY = 301;
+    private static final int TEMPORARY_REDIRECT = 307;
+    private static final int PERMANENT_REDIRECT = 308;
+    private static final int NOT_MODIFIED = 304;
+
+    private final int defaultStatus;
+
+    private final int defaultCacheMaxAge;
+
+    /**
+     * @param defaultStatus      redirect status of the links without one of their own
+     * @param defaultCacheMaxAge cache max age of the links without one of their own, 0 disables caching
+     * @throws IllegalArgumentException when the status is not a supported redirect status or the max age is negative
+     */
+    public RedirectPolicy(int defaultStatus, int defaultCacheMaxAge) {
+        if (!UrlRedirect.SUPPORTED_STATUSES.contains(defaultStatus)) {
+            throw new IllegalArgumentException("Unsupported redirect status " + defaultStatus);
+        }
+        if (defaultCacheMaxAge < 0) {
+            throw new IllegalArgumentException("Negative redirect cache max age " + defaultCacheMaxAge);
+        }
+        this.defaultStatus = defaultStatus;
+        this.defaultCacheMaxAge = defaultCacheMaxAge;
+    }
+
+    /**
+     * @param shortUrl    alias for the long url
+     * @param redirect    the long url and redirect policy of the link
+     * @param ifNoneMatch the If-None-Match request header, may be null
+     * @param now         the current instant
+     * @return the redirect response, or 304 NOT MODIFIED when the caller already holds it
+     */
+    public RedirectResponse apply(String shortUrl, UrlRedirect redirect, String ifNoneMatch, Instant now) {
+        String eTag = eTag(shortUrl, redirect);
+
+        long cacheMaxAge = redirect.getCacheMaxAge() != null ? redirect.getCacheMaxAge() : defaultCacheMaxAge;
+        if (redirect.getExpiresAt() != null) {
+            long secondsToExpire = Duration.between(now, redirect.getExpiresAt()).getSeconds();
+            cacheMaxAge = Math.min(cacheMaxAge, Math.max(0, secondsToExpire));
+        }
+
+        int status;
+        if (matches(ifNoneMatch, eTag)) {
+            status = NOT_MODIFIED;
+        } else {
+            status = redirect.getRedirectStatus() != null ? redirect.getRedirectStatus() : defaultStatus;
+            if (redirect.getExpiresAt() != null) {
+                status = temporaryEquivalent(status);
+            }
+        }
+        return new RedirectResponse(status, redirect.getLongUrl(), eTag, cacheMaxAge, now);
+    }
+
+    /**
+     * Permanent redirects may be cached indefinitely by browsers, so they are
+     * replaced by the temporary redirect with the same method semantics.
+     */
+    private static int temporaryEquivalent(int status) {
+        if (status == MOVED_PERMANENTLY) {
+            return FOUND;
+        }
+        if (status == PERMANENT_REDIRECT) {
+            return TEMPORARY_REDIRECT;
+        }
+        return status;
+    }
+
+    /**
+     * The ETag only depends on the link itself, so every replica computes the same one.
+     */
+    static String eTag(String shortUrl, UrlRedirect redirect) {
+        return "\"" + shortUrl + "-" + Integer.toHexString(redirect.hashCode()) + "\"";
+    }
+
+    private static boolean matches(String ifNoneMatch, String eTag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String trimmed = candidate.trim();
+            if (trimmed.startsWith("W/")) {
+                trimmed = trimmed.substring(2);
+            }
+            if (trimmed.equals("*") || trimmed.equals(eTag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
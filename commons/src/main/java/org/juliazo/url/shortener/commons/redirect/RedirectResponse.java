@@ -0,0 +1,70 @@
+package org.juliazo.url.shortener.commons.redirect;
+
+import java.time.Instant;
+
+/**
+ * Status and headers of the response to a redirect, as decided by {@link RedirectPolicy}.
+ */
+public final class RedirectResponse {
+
+    private final int status;
+
+    private final String location;
+
+    private final String eTag;
+
+    private final long cacheMaxAge;
+
+    private final long expiresEpochMillis;
+
+    RedirectResponse(int status, String location, String eTag, long cacheMaxAge, Instant now) {
+        this.status = status;
+        this.location = location;
+        this.eTag = eTag;
+        this.cacheMaxAge = cacheMaxAge;
+        this.expiresEpochMillis = cacheMaxAge > 0 ? now.plusSeconds(cacheMaxAge).toEpochMilli() : 0;
+    }
+
+    /**
+     * @return the redirect status, or 304 when the caller already holds the redirect
+     */
+    public int getStatus() {
+        return status;
+    }
+
+    /**
+     * @return the long url, for the Location header
+     */
+    public String getLocation() {
+        return location;
+    }
+
+    /**
+     * @return the quoted strong ETag of the link
+     */
+    public String getETag() {
+        return eTag;
+    }
+
+    /**
+     * @return seconds the redirect may be cached, 0 when it must not be stored
+     */
+    public long getCacheMaxAge() {
+        return cacheMaxAge;
+    }
+
+    /**
+     * @return the Cache-Control header value
+     */
+    public String getCacheControl() {
+        return cacheMaxAge > 0 ? "max-age=" + cacheMaxAge + ", public" : "no-store";
+    }
+
+    /**
+     * @return the Expires header value, in epoch milliseconds; 0, already expired, when the
+     * redirect must not be stored
+     */
+    public long getExpiresEpochMillis() {
+        return expiresEpochMillis;
+    }
+}
@@ -0,0 +1,263 @@
+package org.juliazo.url.shortener.commons.redirect;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+
+/**
+ * Read-only copy of the links of url_entity in a memory-mapped file, written once and
+ * then shared by all lookups without locking. The links live in the page cache, not in
+ * the heap, and a restarted server maps the file again instead of reloading the links.
+ * Snapshots are written by the edge servers, and by the application for its degraded mode.
+ * <p>
+ * Layout, big-endian:
+ * <pre>
+ * header  magic, version, slot count, entry count (4 ints), event id, created at millis (2 longs)
+ * slots   slot count ints, offset of the entry of the slot in the file, 0 for an empty slot
+ * entries short url length (byte), short url (ASCII), redirect status and cache max age
+ *         (2 ints, -1 for none), expiration (long epoch seconds and int nanos, Long.MIN_VALUE
+ *         seconds for none), long url length (unsigned short), long url (UTF-8)
+ * </pre>
+ * Short urls are placed in the slots by open addressing with linear probing; there are
+ * at least twice as many slots as entries. Offsets are ints, a snapshot holds up to 2 GB
+ * of links, some 4 million; the links that do not fit are left to the database.
+ */
+public final class RedirectSnapshot {
+
+    private static final int MAGIC = 0x55524c53;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4 * Integer.BYTES + 2 * Long.BYTES;
+    private static final int NO_VALUE = -1;
+    private static final long NO_EXPIRATION = Long.MIN_VALUE;
+
+    private static final RedirectSnapshot EMPTY = new RedirectSnapshot(null, 0, 0, -1);
+
+    /**
+     * Null for the empty snapshot.
+     */
+    private final ByteBuffer buffer;
+
+    private final int slotCount;
+
+    private final int entryCount;
+
+    private final long eventId;
+
+    private RedirectSnapshot(ByteBuffer buffer, int slotCount, int entryCount, long eventId) {
+        this.buffer = buffer;
+        this.slotCount = slotCount;
+        this.entryCount = entryCount;
+        this.eventId = eventId;
+    }
+
+    /**
+     * @return a snapshot without links, every lookup falls through to the database
+     */
+    public static RedirectSnapshot empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Maps a snapshot file written by a {@link Writer}.
+     *
+     * @param file the snapshot file
+     * @return the snapshot
+     * @throws IOException when the file cannot be read or is not a snapshot
+     */
+    public static RedirectSnapshot open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+                throw new IOException("Not a redirect snapshot: " + file);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new IOException("Not a redirect snapshot of version " + VERSION + ": " + file);
+            }
+            int slotCount = buffer.getInt(8);
+            int entryCount = buffer.getInt(12);
+            if (Integer.bitCount(slotCount) != 1 || HEADER_SIZE + (long) slotCount * Integer.BYTES > size) {
+                throw new IOException("Truncated redirect snapshot: " + file);
+            }
+            return new RedirectSnapshot(buffer, slotCount, entryCount, buffer.getLong(16));
+        }
+    }
+
+    /**
+     * @param file            the file to write, replaced if it exists
+     * @param expectedEntries how many links are about to be added, sizes the slots
+     * @param eventId         the last url_mapping_event applied to the links about to be added
+     * @return a writer, to be closed once all links are added
+     * @throws IOException when the file cannot be written
+     */
+    public static Writer writer(Path file, int expectedEntries, long eventId) throws IOException {
+        return new Writer(file, expectedEntries, eventId);
+    }
+
+    /**
+     * @param shortUrl alias for a long url
+     * @return the link, or null when it is not in the snapshot
+     */
+    public UrlRedirect find(String shortUrl) {
+        if (buffer == null) {
+            return null;
+        }
+        int mask = slotCount - 1;
+        int slot = slotOf(shortUrl, mask);
+        for (int probe = 0; probe < slotCount; probe++) {
+            int offset = buffer.getInt(HEADER_SIZE + slot * Integer.BYTES);
+            if (offset == 0) {
+                return null;
+            }
+            if (keyEquals(offset, shortUrl)) {
+                return read(offset + 1 + shortUrl.length());
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * @return the last url_mapping_event reflected in the snapshot, -1 for the empty snapshot
+     */
+    public long getEventId() {
+        return eventId;
+    }
+
+    public int size() {
+        return entryCount;
+    }
+
+    private boolean keyEquals(int offset, String shortUrl) {
+        if (buffer.get(offset) != shortUrl.length()) {
+            return false;
+        }
+        for (int i = 0; i < shortUrl.length(); i++) {
+            if (buffer.get(offset + 1 + i) != shortUrl.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private UrlRedirect read(int offset) {
+        int redirectStatus = buffer.getInt(offset);
+        int cacheMaxAge = buffer.getInt(offset + 4);
+        long expiresAtSeconds = buffer.getLong(offset + 8);
+        int expiresAtNanos = buffer.getInt(offset + 16);
+        int longUrlLength = Short.toUnsignedInt(buffer.getShort(offset + 20));
+        byte[] longUrl = new byte[longUrlLength];
+        for (int i = 0; i < longUrlLength; i++) {
+            longUrl[i] = buffer.get(offset + 22 + i);
+        }
+        return new UrlRedirect(new String(longUrl, StandardCharsets.UTF_8),
+                redirectStatus == NO_VALUE ? null : redirectStatus,
+                cacheMaxAge == NO_VALUE ? null : cacheMaxAge,
+                expiresAtSeconds == NO_EXPIRATION ? null : Instant.ofEpochSecond(expiresAtSeconds, expiresAtNanos));
+    }
+
+    private static int slotOf(String shortUrl, int mask) {
+        int hash = shortUrl.hashCode();
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        return hash & mask;
+    }
+
+    /**
+     * Writes the links in one pass: the slots are mapped and filled in place while
+     * the entries are appended after them.
+     */
+    public static final class Writer implements AutoCloseable {
+
+        private final FileChannel channel;
+
+        private final MappedByteBuffer slots;
+
+        private final DataOutputStream entries;
+
+        private final int slotCount;
+
+        private final int maxEntries;
+
+        private long position;
+
+        private int entryCount;
+
+        private Writer(Path file, int expectedEntries, long eventId) throws IOException {
+            this.slotCount = Integer.highestOneBit(Math.max(16, Math.min(1 << 23, expectedEntries) * 2 - 1)) << 1;
+            this.maxEntries = slotCount / 4 * 3;
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            this.position = HEADER_SIZE + (long) slotCount * Integer.BYTES;
+            this.slots = channel.map(FileChannel.MapMode.READ_WRITE, 0, position);
+            this.slots.putInt(0, MAGIC);
+            this.slots.putInt(4, VERSION);
+            this.slots.putInt(8, slotCount);
+            this.slots.putLong(16, eventId);
+            this.slots.putLong(24, System.currentTimeMillis());
+            channel.position(position);
+            this.entries = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+        }
+
+        /**
+         * @param shortUrl alias for the long url, ASCII
+         * @param redirect the link
+         * @return false when the snapshot is full and no more links can be added; links too
+         * long for an entry are skipped, and left to the database
+         * @throws IOException when the file cannot be written
+         */
+        public boolean add(String shortUrl, UrlRedirect redirect) throws IOException {
+            byte[] longUrl = redirect.getLongUrl().getBytes(StandardCharsets.UTF_8);
+            int entrySize = 1 + shortUrl.length() + 22 + longUrl.length;
+            if (entryCount >= maxEntries || position + entrySize > Integer.MAX_VALUE) {
+                return false;
+            }
+            if (shortUrl.length() > Byte.MAX_VALUE || longUrl.length > 0xffff) {
+                return true;
+            }
+            int mask = slotCount - 1;
+            int slot = slotOf(shortUrl, mask);
+            while (slots.getInt(HEADER_SIZE + slot * Integer.BYTES) != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots.putInt(HEADER_SIZE + slot * Integer.BYTES, (int) position);
+
+            entries.writeByte(shortUrl.length());
+            entries.writeBytes(shortUrl);
+            entries.writeInt(redirect.getRedirectStatus() == null ? NO_VALUE : redirect.getRedirectStatus());
+            entries.writeInt(redirect.getCacheMaxAge() == null ? NO_VALUE : redirect.getCacheMaxAge());
+            Instant expiresAt = redirect.getExpiresAt();
+            entries.writeLong(expiresAt == null ? NO_EXPIRATION : expiresAt.getEpochSecond());
+            entries.writeInt(expiresAt == null ? 0 : expiresAt.getNano());
+            entries.writeShort(longUrl.length);
+            entries.write(longUrl);
+            position += entrySize;
+            entryCount++;
+            return true;
+        }
+
+        /**
+         * Completes the header and flushes the file to disk.
+         */
+        @Override
+        public void close() throws IOException {
+            try {
+                entries.flush();
+                slots.putInt(12, entryCount);
+                slots.force();
+                channel.force(true);
+            } finally {
+                channel.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package org.juliazo.url.shortener.commons.redirect;
+
+/**
+ * Rules every short url follows, shared by the application and the edge redirect
+ * servers so that both reject the same malformed short urls without a lookup.
+ * <p>
+ * Short urls are 6 to 10 letters or digits: the original ones are 6 lowercase hex
+ * characters, the base 62 ones may be configured longer. All of them keep resolving
+ * whatever the current configuration is.
+ */
+public final class ShortUrls {
+
+    /**
+     * Fewest characters of a short url, also the length of the original hex short urls.
+     */
+    public static final int MIN_SIZE = 6;
+
+    /**
+     * Most characters of a short url, 62^10 base 62 short urls still fit in a 64 bit hash.
+     */
+    public static final int MAX_SIZE = 10;
+
+    private ShortUrls() {
+    }
+
+    /**
+     * @param shortUrl alias received by a redirect, may be null
+     * @return true when the alias has the shape of a short url and is worth looking up
+     */
+    public static boolean isWellFormed(String shortUrl) {
+        if (shortUrl == null || shortUrl.length() < MIN_SIZE || shortUrl.length() > MAX_SIZE) {
+            return false;
+        }
+        for (int i = 0; i < shortUrl.length(); i++) {
+            char character = shortUrl.charAt(i);
+            if ((character < '0' || character > '9') && (character < 'a' || character > 'z')
+                    && (character < 'A' || character > 'Z')) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,82 @@
+package org.juliazo.url.shortener.commons.redirect;
+
+import java.time.Instant;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Immutable view of a stored link, holding what is needed to answer a redirect:
+ * the long url, the optional per link redirect policy and the optional expiration.
+ * A null policy value means the deployment default is used, a null expiration
+ * means the link never expires.
+ */
+public final class UrlRedirect {
+
+    /**
+     * Redirect status codes a link can be answered with.
+     */
+    public static final Set<Integer> SUPPORTED_STATUSES = Set.of(301, 302, 307, 308);
+
+    private final String longUrl;
+
+    private final Integer redirectStatus;
+
+    private final Integer cacheMaxAge;
+
+    private final Instant expiresAt;
+
+    public UrlRedirect(String longUrl, Integer redirectStatus, Integer cacheMaxAge) {
+        this(longUrl, redirectStatus, cacheMaxAge, null);
+    }
+
+    public UrlRedirect(String longUrl, Integer redirectStatus, Integer cacheMaxAge, Instant expiresAt) {
+        this.longUrl = longUrl;
+        this.redirectStatus = redirectStatus;
+        this.cacheMaxAge = cacheMaxAge;
+        this.expiresAt = expiresAt;
+    }
+
+    public String getLongUrl() {
+        return longUrl;
+    }
+
+    public Integer getRedirectStatus() {
+        return redirectStatus;
+    }
+
+    public Integer getCacheMaxAge() {
+        return cacheMaxAge;
+    }
+
+    public Instant getExpiresAt() {
+        return expiresAt;
+    }
+
+    /**
+     * @param now the current instant
+     * @return true when the link has an expiration and it has passed
+     */
+    public boolean isExpired(Instant now) {
+        return expiresAt != null && !now.isBefore(expiresAt);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (other == null || getClass() != other.getClass()) {
+            return false;
+        }
+        UrlRedirect that = (UrlRedirect) other;
+        return longUrl.equals(that.longUrl)
+                && Objects.equals(redirectStatus, that.redirectStatus)
+                && Objects.equals(cacheMaxAge, that.cacheMaxAge)
+                && Objects.equals(expiresAt, that.expiresAt);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(longUrl, redirectStatus, cacheMaxAge, expiresAt);
+    }
+}
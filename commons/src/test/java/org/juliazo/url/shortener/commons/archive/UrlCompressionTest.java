@@ -0,0 +1,57 @@
+package org.juliazo.url.shortener.commons.archive;
+
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@RunWith(JUnitPlatform.class)
+class UrlCompressionTest {
+
+    private static final String LONG_URL =
+            "https://www.example.com/news/articles/frostbite?utm_source=newsletter&utm_medium=email&id=42";
+
+    /**
+     * Test: urls decompress to the url compressed, whatever their content
+     */
+    @Test
+    public void testRoundTrip() {
+        for (String longUrl : new String[]{LONG_URL, "", "http://bücher.de/straße?q=ü", "http://ea.com/%E2%82%AC",
+                "x".repeat(5000)}) {
+            assertEquals(longUrl, UrlCompression.decompress(UrlCompression.compress(longUrl)));
+        }
+    }
+
+    /**
+     * Test: fragments of the dictionary make the compressed url shorter than the url
+     */
+    @Test
+    public void testDictionaryShortensUrls() {
+        assertTrue(UrlCompression.compress(LONG_URL).length < LONG_URL.length() / 2);
+    }
+
+    /**
+     * Test: empty data, data of an unknown version, truncated or corrupted data are rejected
+     */
+    @Test
+    public void testInvalidData() {
+        byte[] compressed = UrlCompression.compress(LONG_URL);
+        byte[] unknownVersion = compressed.clone();
+        unknownVersion[0] = 2;
+
+        assertThrows(IllegalArgumentException.class, () -> UrlCompression.decompress(new byte[0]));
+        assertThrows(IllegalArgumentException.class, () -> UrlCompression.decompress(unknownVersion));
+        for (int length = 1; length < compressed.length; length++) {
+            byte[] truncated = Arrays.copyOf(compressed, length);
+            assertThrows(IllegalArgumentException.class, () -> UrlCompression.decompress(truncated),
+                    "truncated to " + length + " bytes");
+        }
+        assertThrows(IllegalArgumentException.class,
+                () -> UrlCompression.decompress(new byte[]{1, (byte) 0xFF, (byte) 0xFF, 0x00}));
+    }
+}
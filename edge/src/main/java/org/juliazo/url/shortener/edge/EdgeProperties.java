@@ -0,0 +1,76 @@
+package org.juliazo.url.shortener.edge;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Map;
+import java.util.Properties;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Settings of the edge server: the defaults of {@code edge.properties}, overridden by
+ * system properties, e.g. {@code -Durl-shortener.edge.port=8081}.
+ * <p>
+ * Values may refer to environment variables with a default, {@code ${DB_HOST:localhost}},
+ * like the properties of the application.
+ */
+final class EdgeProperties {
+
+    private static final Pattern PLACEHOLDER = Pattern.compile("\\$\\{([^:}]+)(?::([^}]*))?}");
+
+    private final Properties properties;
+
+    private final Map<String, String> environment;
+
+    EdgeProperties(Properties properties, Map<String, String> environment) {
+        this.properties = properties;
+        this.environment = environment;
+    }
+
+    static EdgeProperties load() {
+        Properties properties = new Properties();
+        try (InputStream defaults = EdgeProperties.class.getResourceAsStream("/edge.properties")) {
+            if (defaults != null) {
+                properties.load(defaults);
+            }
+        } catch (IOException exception) {
+            throw new UncheckedIOException(exception);
+        }
+        properties.putAll(System.getProperties());
+        return new EdgeProperties(properties, System.getenv());
+    }
+
+    String get(String name, String defaultValue) {
+        String value = properties.getProperty(name);
+        return value == null ? defaultValue : resolve(value);
+    }
+
+    int getInt(String name, int defaultValue) {
+        String value = get(name, null);
+        return value == null ? defaultValue : Integer.parseInt(value.trim());
+    }
+
+    long getLong(String name, long defaultValue) {
+        String value = get(name, null);
+        return value == null ? defaultValue : Long.parseLong(value.trim());
+    }
+
+    /**
+     * Replaces the placeholders by the environment variable they name, or their default.
+     * A placeholder without default resolves to an empty string when the variable is not set.
+     */
+    private String resolve(String value) {
+        Matcher matcher = PLACEHOLDER.matcher(value);
+        StringBuilder resolved = new StringBuilder();
+        while (matcher.find()) {
+            String replacement = environment.get(matcher.group(1));
+            if (replacement == null) {
+                replacement = matcher.group(2) == null ? "" : matcher.group(2);
+            }
+            matcher.appendReplacement(resolved, Matcher.quoteReplacement(replacement));
+        }
+        matcher.appendTail(resolved);
+        return resolved.toString();
+    }
+}
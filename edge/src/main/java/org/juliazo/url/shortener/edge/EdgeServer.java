@@ -0,0 +1,122 @@
+package org.juliazo.url.shortener.edge;
+
+import com.sun.net.httpserver.HttpServer;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import org.juliazo.url.shortener.commons.redirect.RedirectPolicy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.file.Paths;
+import java.time.Clock;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Redirect only server, deployed next to or in front of the application to take over the
+ * redirect traffic. It serves {@code GET /{shortUrl}} from a memory-mapped snapshot of the
+ * links, only reaching the database for links missing from it, and starts without Spring,
+ * JPA or the application classpath.
+ *
+ * @see SnapshotUpdater
+ */
+public final class EdgeServer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(EdgeServer.class);
+
+    private static final String PREFIX = "url-shortener.edge.";
+
+    private static final int STOP_DELAY_SECONDS = 1;
+
+    private final HikariDataSource dataSource;
+
+    private final SnapshotUpdater snapshotUpdater;
+
+    private final ExecutorService requestExecutor;
+
+    private final HttpServer httpServer;
+
+    EdgeServer(EdgeProperties properties) throws IOException {
+        Clock clock = Clock.systemUTC();
+        this.dataSource = dataSource(properties);
+        LinkStore linkStore = new LinkStore(dataSource);
+        RedirectResolver resolver = new RedirectResolver(linkStore, clock,
+                properties.getLong(PREFIX + "miss-cache.ttl-millis", 5000),
+                properties.getInt(PREFIX + "miss-cache.max-size", 100000));
+        this.snapshotUpdater = new SnapshotUpdater(linkStore, resolver,
+                Paths.get(properties.get(PREFIX + "snapshot.directory", "./snapshot")),
+                properties.getLong(PREFIX + "snapshot.refresh-interval-millis", 1000),
+                properties.getLong(PREFIX + "snapshot.reconcile-interval-millis", 30000),
+                properties.getLong(PREFIX + "snapshot.reconcile-window-seconds", 120),
+                properties.getLong(PREFIX + "snapshot.rebuild-interval-seconds", 3600),
+                properties.getInt(PREFIX + "snapshot.rebuild-changes", 100000));
+        RedirectPolicy redirectPolicy = new RedirectPolicy(
+                properties.getInt("url-shortener.redirect.status", 302),
+                properties.getInt("url-shortener.redirect.cache-max-age", 0));
+
+        AtomicInteger threadCount = new AtomicInteger();
+        this.requestExecutor = Executors.newFixedThreadPool(properties.getInt(PREFIX + "threads", 32), runnable -> {
+            Thread thread = new Thread(runnable, "edge-request-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.httpServer = HttpServer.create(new InetSocketAddress(properties.getInt(PREFIX + "port", 8081)), 0);
+        httpServer.createContext("/", new RedirectHandler(resolver, redirectPolicy, clock));
+        httpServer.setExecutor(requestExecutor);
+    }
+
+    public static void main(String[] args) throws IOException {
+        EdgeServer server = new EdgeServer(EdgeProperties.load());
+        server.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(server::stop, "edge-shutdown"));
+        LOGGER.info("Edge redirect server listening on port {}, started in {} ms",
+                server.getPort(), ManagementFactory.getRuntimeMXBean().getUptime());
+    }
+
+    void start() {
+        snapshotUpdater.start();
+        httpServer.start();
+    }
+
+    /**
+     * Stops accepting requests, lets the ones in progress complete and releases the connections.
+     */
+    void stop() {
+        httpServer.stop(STOP_DELAY_SECONDS);
+        requestExecutor.shutdown();
+        try {
+            requestExecutor.awaitTermination(STOP_DELAY_SECONDS, TimeUnit.SECONDS);
+            snapshotUpdater.stop();
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+        dataSource.close();
+        LOGGER.info("Edge redirect server stopped");
+    }
+
+    int getPort() {
+        return httpServer.getAddress().getPort();
+    }
+
+    /**
+     * A small read-only pool, opened lazily: the server starts, and serves the snapshot,
+     * while the database is still unreachable.
+     */
+    private static HikariDataSource dataSource(EdgeProperties properties) {
+        HikariConfig config = new HikariConfig();
+        config.setPoolName("edge");
+        config.setJdbcUrl(properties.get(PREFIX + "datasource.url", "jdbc:postgresql://localhost:5432/"));
+        config.setUsername(properties.get(PREFIX + "datasource.username", null));
+        config.setPassword(properties.get(PREFIX + "datasource.password", null));
+        config.setMaximumPoolSize(properties.getInt(PREFIX + "datasource.pool-size", 4));
+        config.setConnectionTimeout(properties.getLong(PREFIX + "datasource.connection-timeout-millis", 1000));
+        config.setInitializationFailTimeout(-1);
+        config.setReadOnly(true);
+        return new HikariDataSource(config);
+    }
+}
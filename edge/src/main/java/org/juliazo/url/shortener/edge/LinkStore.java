@@ -0,0 +1,235 @@
+package org.juliazo.url.shortener.edge;
+
+import org.juliazo.url.shortener.commons.archive.UrlCompression;
+import org.juliazo.url.shortener.commons.redirect.UrlRedirect;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.OffsetDateTime;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Read-only access of the edge server to url_entity and url_mapping_event, with plain JDBC.
+ * <p>
+ * Links missing from url_entity are looked up in url_archive, the cold tier of the
+ * application. The edge serves archived links as they are, only the application
+ * promotes them back to url_entity.
+ */
+class LinkStore {
+
+    private static final String COLUMNS = "short_url, long_url, redirect_status, cache_max_age, expires_at";
+
+    private static final int SCAN_BATCH_SIZE = 10000;
+
+    private final DataSource dataSource;
+
+    LinkStore(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    /**
+     * Receives the links of a scan.
+     */
+    interface LinkConsumer {
+
+        /**
+         * @return false to stop the scan
+         */
+        boolean accept(String shortUrl, UrlRedirect redirect) throws IOException;
+    }
+
+    /**
+     * Short urls changed by a range of url_mapping_event rows.
+     */
+    static final class Changes {
+
+        private final long lastEventId;
+
+        private final Set<String> shortUrls;
+
+        Changes(long lastEventId, Set<String> shortUrls) {
+            this.lastEventId = lastEventId;
+            this.shortUrls = shortUrls;
+        }
+
+        long getLastEventId() {
+            return lastEventId;
+        }
+
+        Set<String> getShortUrls() {
+            return shortUrls;
+        }
+    }
+
+    /**
+     * @param shortUrl alias for a long url
+     * @return the link, or null when there is none, expired or not
+     */
+    UrlRedirect find(String shortUrl) throws SQLException {
+        Map<String, UrlRedirect> found = findAll(Set.of(shortUrl));
+        return found.get(shortUrl);
+    }
+
+    /**
+     * @param shortUrls aliases of long urls
+     * @return the links of the short urls that have one, expired or not
+     */
+    Map<String, UrlRedirect> findAll(Collection<String> shortUrls) throws SQLException {
+        Map<String, UrlRedirect> found = new HashMap<>();
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(
+                     "SELECT " + COLUMNS + " FROM url_entity WHERE short_url = ANY (?)")) {
+            Array array = connection.createArrayOf("varchar", shortUrls.toArray());
+            statement.setArray(1, array);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    found.put(resultSet.getString(1), toRedirect(resultSet));
+                }
+            }
+            if (found.size() < shortUrls.size()) {
+                findArchived(connection, shortUrls, found);
+            }
+        }
+        return found;
+    }
+
+    private static void findArchived(Connection connection, Collection<String> shortUrls,
+                                     Map<String, UrlRedirect> found) throws SQLException {
+        Object[] missing = shortUrls.stream().filter(shortUrl -> !found.containsKey(shortUrl)).toArray();
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT " + COLUMNS + " FROM url_archive WHERE short_url = ANY (?)")) {
+            statement.setArray(1, connection.createArrayOf("varchar", missing));
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    OffsetDateTime expiresAt = resultSet.getObject(5, OffsetDateTime.class);
+                    found.put(resultSet.getString(1), new UrlRedirect(
+                            UrlCompression.decompress(resultSet.getBytes(2)),
+                            (Integer) resultSet.getObject(3),
+                            (Integer) resultSet.getObject(4),
+                            expiresAt == null ? null : expiresAt.toInstant()));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return an estimate of the number of links, to size a snapshot
+     */
+    int countLinks() throws SQLException {
+        return (int) Math.min(Integer.MAX_VALUE, queryForLong("SELECT count(*) FROM url_entity"));
+    }
+
+    /**
+     * Reads every link not expired yet, in short url order and in batches, each batch in a
+     * transaction of its own so the scan holds no long running transaction.
+     */
+    void scan(LinkConsumer consumer) throws SQLException, IOException {
+        String after = "";
+        while (true) {
+            int read = 0;
+            try (Connection connection = dataSource.getConnection();
+                 PreparedStatement statement = connection.prepareStatement(
+                         "SELECT " + COLUMNS + " FROM url_entity"
+                                 + " WHERE short_url > ? AND (expires_at IS NULL OR expires_at > now())"
+                                 + " ORDER BY short_url LIMIT ?")) {
+                statement.setString(1, after);
+                statement.setInt(2, SCAN_BATCH_SIZE);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        read++;
+                        after = resultSet.getString(1);
+                        if (!consumer.accept(after, toRedirect(resultSet))) {
+                            return;
+                        }
+                    }
+                }
+            }
+            if (read < SCAN_BATCH_SIZE) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return the id of the last recorded url_mapping_event, 0 when there is none
+     */
+    long lastEventId() throws SQLException {
+        return queryForLong("SELECT COALESCE(MAX(id), 0) FROM url_mapping_event");
+    }
+
+    /**
+     * @return the id of the oldest url_mapping_event still kept, 0 when there is none
+     */
+    long firstEventId() throws SQLException {
+        return queryForLong("SELECT COALESCE(MIN(id), 0) FROM url_mapping_event");
+    }
+
+    /**
+     * @param afterEventId the last event already applied
+     * @param limit        how many events to read at most
+     * @return the short urls changed by the events after the given one
+     */
+    Changes changesAfter(long afterEventId, int limit) throws SQLException {
+        Set<String> shortUrls = new LinkedHashSet<>();
+        long lastEventId = afterEventId;
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(
+                     "SELECT id, short_url FROM url_mapping_event WHERE id > ? ORDER BY id LIMIT ?")) {
+            statement.setLong(1, afterEventId);
+            statement.setInt(2, limit);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    lastEventId = resultSet.getLong(1);
+                    shortUrls.add(resultSet.getString(2));
+                }
+            }
+        }
+        return new Changes(lastEventId, shortUrls);
+    }
+
+    /**
+     * @param windowSeconds how far back to look
+     * @return the short urls changed by the events recorded within the window
+     */
+    Set<String> changedWithin(long windowSeconds) throws SQLException {
+        Set<String> shortUrls = new LinkedHashSet<>();
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(
+                     "SELECT DISTINCT short_url FROM url_mapping_event"
+                             + " WHERE created_at >= now() - (? * interval '1 second')")) {
+            statement.setLong(1, windowSeconds);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    shortUrls.add(resultSet.getString(1));
+                }
+            }
+        }
+        return shortUrls;
+    }
+
+    private long queryForLong(String sql) throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql);
+             ResultSet resultSet = statement.executeQuery()) {
+            resultSet.next();
+            return resultSet.getLong(1);
+        }
+    }
+
+    private static UrlRedirect toRedirect(ResultSet resultSet) throws SQLException {
+        OffsetDateTime expiresAt = resultSet.getObject(5, OffsetDateTime.class);
+        return new UrlRedirect(resultSet.getString(2),
+                (Integer) resultSet.getObject(3),
+                (Integer) resultSet.getObject(4),
+                expiresAt == null ? null : expiresAt.toInstant());
+    }
+}
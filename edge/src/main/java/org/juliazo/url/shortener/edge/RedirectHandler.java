@@ -0,0 +1,121 @@
+package org.juliazo.url.shortener.edge;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import org.juliazo.url.shortener.commons.redirect.RedirectPolicy;
+import org.juliazo.url.shortener.commons.redirect.RedirectResponse;
+import org.juliazo.url.shortener.commons.redirect.UrlRedirect;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+
+/**
+ * Answers {@code GET /{shortUrl}} like the lookup endpoint of the application: a redirect
+ * with the headers of the shared {@link RedirectPolicy}, 304 NOT MODIFIED for a matching
+ * {@code If-None-Match}, or 404 NOT FOUND with the same error body. Besides redirects the
+ * edge server only answers {@code /health}, and only to GET and HEAD.
+ */
+class RedirectHandler implements HttpHandler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RedirectHandler.class);
+
+    static final String HEALTH_PATH = "/health";
+
+    /**
+     * HTTP-date, the format of the Expires header.
+     */
+    private static final DateTimeFormatter HTTP_DATE =
+            DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US).withZone(ZoneOffset.UTC);
+
+    private static final byte[] NOT_FOUND_BODY = errorBody(404, "Not Found",
+            "The requested short url was not found.");
+
+    private static final byte[] UNAVAILABLE_BODY = errorBody(503, "Service Unavailable",
+            "The short url could not be looked up, try again later.");
+
+    private static final byte[] HEALTH_BODY = "{\"status\":\"UP\"}".getBytes(StandardCharsets.UTF_8);
+
+    private final RedirectResolver resolver;
+
+    private final RedirectPolicy redirectPolicy;
+
+    private final Clock clock;
+
+    RedirectHandler(RedirectResolver resolver, RedirectPolicy redirectPolicy, Clock clock) {
+        this.resolver = resolver;
+        this.redirectPolicy = redirectPolicy;
+        this.clock = clock;
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        try {
+            String method = exchange.getRequestMethod();
+            boolean head = "HEAD".equals(method);
+            if (!head && !"GET".equals(method)) {
+                exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            String path = exchange.getRequestURI().getPath();
+            if (HEALTH_PATH.equals(path)) {
+                send(exchange, 200, HEALTH_BODY, head);
+                return;
+            }
+            String shortUrl = path.substring(1);
+            UrlRedirect redirect;
+            try {
+                redirect = resolver.resolve(shortUrl);
+            } catch (SQLException exception) {
+                LOGGER.warn("Failed to look up short url {}", shortUrl, exception);
+                send(exchange, 503, UNAVAILABLE_BODY, head);
+                return;
+            }
+            if (redirect == null) {
+                send(exchange, 404, NOT_FOUND_BODY, head);
+                return;
+            }
+            redirect(exchange, shortUrl, redirect);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void redirect(HttpExchange exchange, String shortUrl, UrlRedirect redirect) throws IOException {
+        String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+        RedirectResponse response = redirectPolicy.apply(shortUrl, redirect, ifNoneMatch, clock.instant());
+        Headers headers = exchange.getResponseHeaders();
+        headers.set("Location", response.getLocation());
+        headers.set("ETag", response.getETag());
+        headers.set("Cache-Control", response.getCacheControl());
+        headers.set("Expires", HTTP_DATE.format(Instant.ofEpochMilli(response.getExpiresEpochMillis())));
+        exchange.sendResponseHeaders(response.getStatus(), -1);
+    }
+
+    private static void send(HttpExchange exchange, int status, byte[] body, boolean head) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        if (head) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream responseBody = exchange.getResponseBody()) {
+            responseBody.write(body);
+        }
+    }
+
+    private static byte[] errorBody(int status, String reasonPhrase, String message) {
+        return ("{\"status\":" + status + ",\"reasonPhrase\":\"" + reasonPhrase + "\",\"message\":\"" + message + "\"}")
+                .getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,199 @@
+package org.juliazo.url.shortener.edge;
+
+import org.juliazo.url.shortener.commons.redirect.RedirectSnapshot;
+import org.juliazo.url.shortener.commons.redirect.ShortUrls;
+import org.juliazo.url.shortener.commons.redirect.UrlRedirect;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+import java.time.Clock;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Resolves short urls for the edge server.
+ * <p>
+ * Links are looked up in the overlay of the changes applied since the snapshot was
+ * written, then in the snapshot, and only on a miss, or for a link that expired, in
+ * the database. Links read from the database are kept in the overlay so the next
+ * lookup does not reach the database again.
+ * <p>
+ * Short urls the database does not know either are remembered as misses for a short
+ * while, so unknown short urls requested again and again do not each take a connection
+ * of the small pool of the edge. Misses are only checked after the overlay and the
+ * snapshot, a link created meanwhile is served as soon as its change is applied.
+ */
+class RedirectResolver {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RedirectResolver.class);
+
+    /**
+     * A link of the overlay: the link, or a tombstone for a link removed since the
+     * snapshot was written, stamped with the order it was put in.
+     */
+    static final class Change {
+
+        private final UrlRedirect redirect;
+
+        private final long stamp;
+
+        Change(UrlRedirect redirect, long stamp) {
+            this.redirect = redirect;
+            this.stamp = stamp;
+        }
+
+        UrlRedirect getRedirect() {
+            return redirect;
+        }
+
+        long getStamp() {
+            return stamp;
+        }
+    }
+
+    private final LinkStore linkStore;
+
+    private final Clock clock;
+
+    private final Map<String, Change> overlay = new ConcurrentHashMap<>();
+
+    private final AtomicLong stamps = new AtomicLong();
+
+    /**
+     * Short urls recently looked up in vain, with the epoch millis their miss expires at.
+     */
+    private final Map<String, Long> misses = new ConcurrentHashMap<>();
+
+    private final long missTtlMillis;
+
+    private final int maxMisses;
+
+    private volatile RedirectSnapshot snapshot = RedirectSnapshot.empty();
+
+    /**
+     * @param missTtlMillis how long a short url the database does not know is not looked up
+     *                      again, 0 to always look it up
+     * @param maxMisses     how many misses are remembered at most, they are all forgotten
+     *                      once that many are
+     */
+    RedirectResolver(LinkStore linkStore, Clock clock, long missTtlMillis, int maxMisses) {
+        this.linkStore = linkStore;
+        this.clock = clock;
+        this.missTtlMillis = missTtlMillis;
+        this.maxMisses = maxMisses;
+    }
+
+    /**
+     * @param shortUrl alias for a long url
+     * @return the link, or null when there is none or it expired
+     * @throws SQLException when the link had to be read from the database and that failed
+     */
+    UrlRedirect resolve(String shortUrl) throws SQLException {
+        if (!ShortUrls.isWellFormed(shortUrl)) {
+            return null;
+        }
+        UrlRedirect redirect;
+        Change change = overlay.get(shortUrl);
+        if (change != null) {
+            redirect = change.getRedirect();
+            if (redirect == null) {
+                return null;
+            }
+        } else {
+            redirect = snapshot.find(shortUrl);
+        }
+        if (redirect != null && !redirect.isExpired(clock.instant())) {
+            return redirect;
+        }
+        Long missExpiresAt = misses.get(shortUrl);
+        if (missExpiresAt != null) {
+            if (missExpiresAt > clock.millis()) {
+                return null;
+            }
+            misses.remove(shortUrl, missExpiresAt);
+        }
+
+        long stamp = stamps.incrementAndGet();
+        redirect = linkStore.find(shortUrl);
+        if (redirect != null && !redirect.isExpired(clock.instant())) {
+            putIfUnchanged(shortUrl, new Change(redirect, stamp), change);
+            return redirect;
+        }
+        recordMiss(shortUrl);
+        return null;
+    }
+
+    /**
+     * Applies a change read from url_mapping_event, it wins over anything read before.
+     *
+     * @param shortUrl alias for a long url
+     * @param redirect the link as now stored, null when it was removed
+     */
+    void apply(String shortUrl, UrlRedirect redirect) {
+        overlay.put(shortUrl, new Change(redirect, stamps.incrementAndGet()));
+        misses.remove(shortUrl);
+    }
+
+    /**
+     * @return the stamp the next change will be greater than, to be passed to
+     * {@link #replaceSnapshot(RedirectSnapshot, long)} once a snapshot written from
+     * now on is complete
+     */
+    long currentStamp() {
+        return stamps.get();
+    }
+
+    /**
+     * Swaps in a newer snapshot and drops the changes it already holds, the ones put
+     * before it started being written.
+     *
+     * @param newSnapshot the snapshot
+     * @param startStamp  {@link #currentStamp()} when the snapshot started being written
+     */
+    void replaceSnapshot(RedirectSnapshot newSnapshot, long startStamp) {
+        snapshot = newSnapshot;
+        overlay.forEach((shortUrl, change) -> {
+            if (change.getStamp() <= startStamp) {
+                overlay.remove(shortUrl, change);
+            }
+        });
+        LOGGER.info("Redirect snapshot of {} links up to event {}, {} changes since",
+                newSnapshot.size(), newSnapshot.getEventId(), overlay.size());
+    }
+
+    RedirectSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    int changeCount() {
+        return overlay.size();
+    }
+
+    int missCount() {
+        return misses.size();
+    }
+
+    private void recordMiss(String shortUrl) {
+        if (missTtlMillis <= 0) {
+            return;
+        }
+        if (misses.size() >= maxMisses) {
+            misses.clear();
+        }
+        misses.put(shortUrl, clock.millis() + missTtlMillis);
+    }
+
+    /**
+     * Links read on a miss must not replace a change applied meanwhile. They do replace
+     * the expired link that caused the miss, its expiration may have been extended.
+     */
+    private void putIfUnchanged(String shortUrl, Change read, Change missed) {
+        if (missed == null) {
+            overlay.putIfAbsent(shortUrl, read);
+        } else {
+            overlay.replace(shortUrl, missed, read);
+        }
+    }
+}
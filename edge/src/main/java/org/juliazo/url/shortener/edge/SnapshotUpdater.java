@@ -0,0 +1,185 @@
+package org.juliazo.url.shortener.edge;
+
+import org.juliazo.url.shortener.commons.redirect.RedirectSnapshot;
+import org.juliazo.url.shortener.commons.redirect.UrlRedirect;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the links of the {@link RedirectResolver} up to date, from a single background thread.
+ * <p>
+ * Every refresh interval the url_mapping_event rows recorded since the last one applied are
+ * read, and the links they name are read again from url_entity into the overlay of the
+ * resolver. Event ids are handed out before their transaction commits, so an event may show
+ * up after a later one was applied: every reconcile interval, the links named by the events
+ * of the last reconcile window are read again as well.
+ * <p>
+ * A new snapshot is written, and the overlay emptied, when there is none yet, when events
+ * not applied were already pruned, when the overlay holds too many changes, and every
+ * rebuild interval. The snapshot file is replaced atomically, so a restarted server maps
+ * the last complete one and only catches up on the events since.
+ */
+class SnapshotUpdater {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SnapshotUpdater.class);
+
+    static final String SNAPSHOT_FILE = "redirects.snapshot";
+
+    private static final int EVENT_BATCH_SIZE = 1000;
+
+    private final LinkStore linkStore;
+
+    private final RedirectResolver resolver;
+
+    private final Path directory;
+
+    private final long refreshIntervalMillis;
+
+    private final long reconcileIntervalNanos;
+
+    private final long reconcileWindowSeconds;
+
+    private final long rebuildIntervalNanos;
+
+    private final int rebuildChanges;
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "snapshot-updater");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private long lastEventId = -1;
+
+    private long lastReconcileNanos;
+
+    private long lastRebuildNanos;
+
+    SnapshotUpdater(LinkStore linkStore, RedirectResolver resolver, Path directory, long refreshIntervalMillis,
+                    long reconcileIntervalMillis, long reconcileWindowSeconds, long rebuildIntervalSeconds,
+                    int rebuildChanges) {
+        this.linkStore = linkStore;
+        this.resolver = resolver;
+        this.directory = directory;
+        this.refreshIntervalMillis = refreshIntervalMillis;
+        this.reconcileIntervalNanos = TimeUnit.MILLISECONDS.toNanos(reconcileIntervalMillis);
+        this.reconcileWindowSeconds = reconcileWindowSeconds;
+        this.rebuildIntervalNanos = TimeUnit.SECONDS.toNanos(rebuildIntervalSeconds);
+        this.rebuildChanges = rebuildChanges;
+    }
+
+    /**
+     * Maps the snapshot left by the previous run, if any, so lookups are served from it right
+     * away, and starts refreshing it in the background.
+     */
+    void start() {
+        Path file = directory.resolve(SNAPSHOT_FILE);
+        if (Files.isRegularFile(file)) {
+            try {
+                RedirectSnapshot snapshot = RedirectSnapshot.open(file);
+                resolver.replaceSnapshot(snapshot, resolver.currentStamp());
+                lastEventId = snapshot.getEventId();
+            } catch (IOException exception) {
+                LOGGER.warn("Ignoring unreadable redirect snapshot {}", file, exception);
+            }
+        }
+        lastReconcileNanos = System.nanoTime();
+        lastRebuildNanos = lastReconcileNanos;
+        executor.scheduleWithFixedDelay(this::refresh, 0, refreshIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    void stop() throws InterruptedException {
+        executor.shutdownNow();
+        executor.awaitTermination(refreshIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * One refresh, failures are logged and retried on the next one.
+     */
+    void refresh() {
+        try {
+            long now = System.nanoTime();
+            if (needsRebuild(now)) {
+                rebuild();
+                lastRebuildNanos = now;
+                lastReconcileNanos = now;
+                return;
+            }
+            catchUp();
+            if (now - lastReconcileNanos >= reconcileIntervalNanos) {
+                reload(linkStore.changedWithin(reconcileWindowSeconds));
+                lastReconcileNanos = now;
+            }
+        } catch (SQLException | IOException | RuntimeException exception) {
+            LOGGER.warn("Failed to refresh the redirect snapshot, retrying in {} ms", refreshIntervalMillis, exception);
+        }
+    }
+
+    private boolean needsRebuild(long now) throws SQLException {
+        return lastEventId < 0
+                || resolver.changeCount() > rebuildChanges
+                || now - lastRebuildNanos >= rebuildIntervalNanos
+                || linkStore.firstEventId() > lastEventId + 1;
+    }
+
+    private void catchUp() throws SQLException {
+        while (true) {
+            LinkStore.Changes changes = linkStore.changesAfter(lastEventId, EVENT_BATCH_SIZE);
+            if (changes.getLastEventId() == lastEventId) {
+                return;
+            }
+            reload(changes.getShortUrls());
+            lastEventId = changes.getLastEventId();
+        }
+    }
+
+    /**
+     * Reads the links again, the ones that are gone are applied as removed.
+     */
+    private void reload(Collection<String> shortUrls) throws SQLException {
+        if (shortUrls.isEmpty()) {
+            return;
+        }
+        Map<String, UrlRedirect> found = linkStore.findAll(shortUrls);
+        for (String shortUrl : shortUrls) {
+            resolver.apply(shortUrl, found.get(shortUrl));
+        }
+    }
+
+    /**
+     * Writes a new snapshot next to the current one and swaps it in. The event id is read
+     * first: the scan sees at least the changes up to it, the later ones are caught up on
+     * afterwards and applied again, which is harmless.
+     */
+    private void rebuild() throws SQLException, IOException {
+        long startNanos = System.nanoTime();
+        long startStamp = resolver.currentStamp();
+        long eventId = linkStore.lastEventId();
+        int expectedEntries = linkStore.countLinks();
+
+        Files.createDirectories(directory);
+        Path temporary = directory.resolve(SNAPSHOT_FILE + ".tmp");
+        Path file = directory.resolve(SNAPSHOT_FILE);
+        try (RedirectSnapshot.Writer writer = RedirectSnapshot.writer(temporary, expectedEntries, eventId)) {
+            linkStore.scan(writer::add);
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        RedirectSnapshot snapshot = RedirectSnapshot.open(file);
+        resolver.replaceSnapshot(snapshot, startStamp);
+        lastEventId = eventId;
+        LOGGER.info("Wrote redirect snapshot of {} links in {} ms", snapshot.size(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+    }
+}
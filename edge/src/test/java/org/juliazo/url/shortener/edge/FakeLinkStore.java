@@ -0,0 +1,126 @@
+package org.juliazo.url.shortener.edge;
+
+import org.juliazo.url.shortener.commons.redirect.UrlRedirect;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * In-memory stand-in for url_entity and url_mapping_event.
+ */
+class FakeLinkStore extends LinkStore {
+
+    /**
+     * The links, by short url.
+     */
+    final Map<String, UrlRedirect> links = new TreeMap<>();
+
+    /**
+     * The recorded events, short urls by event id.
+     */
+    final TreeMap<Long, String> events = new TreeMap<>();
+
+    /**
+     * The event id of every call to {@link #changesAfter}.
+     */
+    final List<Long> changesAfterCalls = new ArrayList<>();
+
+    /**
+     * Thrown by every lookup when set.
+     */
+    SQLException failure;
+
+    int finds;
+
+    int scans;
+
+    FakeLinkStore() {
+        super(null);
+    }
+
+    /**
+     * Records an event and the link as it now is, null when removed.
+     */
+    void change(long eventId, String shortUrl, UrlRedirect redirect) {
+        events.put(eventId, shortUrl);
+        if (redirect == null) {
+            links.remove(shortUrl);
+        } else {
+            links.put(shortUrl, redirect);
+        }
+    }
+
+    @Override
+    UrlRedirect find(String shortUrl) throws SQLException {
+        finds++;
+        if (failure != null) {
+            throw failure;
+        }
+        return links.get(shortUrl);
+    }
+
+    @Override
+    Map<String, UrlRedirect> findAll(Collection<String> shortUrls) {
+        Map<String, UrlRedirect> found = new HashMap<>();
+        for (String shortUrl : shortUrls) {
+            if (links.containsKey(shortUrl)) {
+                found.put(shortUrl, links.get(shortUrl));
+            }
+        }
+        return found;
+    }
+
+    @Override
+    int countLinks() {
+        return links.size();
+    }
+
+    @Override
+    void scan(LinkConsumer consumer) throws IOException {
+        scans++;
+        for (Map.Entry<String, UrlRedirect> link : links.entrySet()) {
+            if (!consumer.accept(link.getKey(), link.getValue())) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    long lastEventId() {
+        return events.isEmpty() ? 0 : events.lastKey();
+    }
+
+    @Override
+    long firstEventId() {
+        return events.isEmpty() ? 0 : events.firstKey();
+    }
+
+    @Override
+    Changes changesAfter(long afterEventId, int limit) {
+        changesAfterCalls.add(afterEventId);
+        Set<String> shortUrls = new LinkedHashSet<>();
+        long lastEventId = afterEventId;
+        int read = 0;
+        for (Map.Entry<Long, String> event : events.tailMap(afterEventId, false).entrySet()) {
+            if (read++ == limit) {
+                break;
+            }
+            lastEventId = event.getKey();
+            shortUrls.add(event.getValue());
+        }
+        return new Changes(lastEventId, shortUrls);
+    }
+
+    @Override
+    Set<String> changedWithin(long windowSeconds) {
+        return Set.of();
+    }
+}
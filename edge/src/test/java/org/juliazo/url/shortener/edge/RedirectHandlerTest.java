@@ -0,0 +1,165 @@
+package org.juliazo.url.shortener.edge;
+
+import com.sun.net.httpserver.HttpServer;
+import org.juliazo.url.shortener.commons.redirect.RedirectPolicy;
+import org.juliazo.url.shortener.commons.redirect.UrlRedirect;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.SQLException;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@RunWith(JUnitPlatform.class)
+class RedirectHandlerTest {
+
+    private static final Instant NOW = Instant.parse("2026-01-01T00:00:00Z");
+
+    private static final String NOT_FOUND_BODY =
+            "{\"status\":404,\"reasonPhrase\":\"Not Found\",\"message\":\"The requested short url was not found.\"}";
+
+    private final FakeLinkStore linkStore = new FakeLinkStore();
+
+    private final HttpClient httpClient = HttpClient.newHttpClient();
+
+    private HttpServer httpServer;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        Clock clock = Clock.fixed(NOW, ZoneOffset.UTC);
+        httpServer = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        httpServer.createContext("/", new RedirectHandler(new RedirectResolver(linkStore, clock, 5000, 100),
+                new RedirectPolicy(302, 0), clock));
+        httpServer.start();
+        linkStore.links.put("aaaaaa", new UrlRedirect("https://example.com/a", null, 60));
+    }
+
+    @AfterEach
+    public void tearDown() {
+        httpServer.stop(0);
+    }
+
+    /**
+     * Test: a link is answered with the redirect of the shared policy and its caching headers
+     */
+    @Test
+    public void testRedirect() throws Exception {
+        HttpResponse<String> response = send("GET", "/aaaaaa", null);
+
+        assertEquals(302, response.statusCode());
+        assertEquals("https://example.com/a", response.headers().firstValue("Location").orElse(null));
+        assertEquals("max-age=60, public", response.headers().firstValue("Cache-Control").orElse(null));
+        assertEquals("Thu, 01 Jan 2026 00:01:00 GMT", response.headers().firstValue("Expires").orElse(null));
+        assertTrue(response.headers().firstValue("ETag").isPresent());
+    }
+
+    /**
+     * Test: a request holding the ETag of the link is answered with 304 NOT MODIFIED
+     */
+    @Test
+    public void testNotModified() throws Exception {
+        String eTag = send("GET", "/aaaaaa", null).headers().firstValue("ETag").orElseThrow();
+
+        HttpResponse<String> response = send("GET", "/aaaaaa", eTag);
+
+        assertEquals(304, response.statusCode());
+        assertEquals(eTag, response.headers().firstValue("ETag").orElse(null));
+        assertEquals(302, send("GET", "/aaaaaa", "\"other\"").statusCode());
+    }
+
+    /**
+     * Test: unknown and malformed short urls are answered with 404 NOT FOUND and the error body of the application
+     */
+    @Test
+    public void testNotFound() throws Exception {
+        for (String path : new String[]{"/bbbbbb", "/favicon.ico"}) {
+            HttpResponse<String> response = send("GET", path, null);
+
+            assertEquals(404, response.statusCode(), path);
+            assertEquals("application/json", response.headers().firstValue("Content-Type").orElse(null));
+            assertEquals(NOT_FOUND_BODY, response.body());
+        }
+    }
+
+    /**
+     * Test: HEAD is answered like GET, without a body
+     */
+    @Test
+    public void testHead() throws Exception {
+        HttpResponse<String> redirect = send("HEAD", "/aaaaaa", null);
+        HttpResponse<String> notFound = send("HEAD", "/bbbbbb", null);
+        HttpResponse<String> health = send("HEAD", RedirectHandler.HEALTH_PATH, null);
+
+        assertEquals(302, redirect.statusCode());
+        assertEquals("https://example.com/a", redirect.headers().firstValue("Location").orElse(null));
+        assertEquals(404, notFound.statusCode());
+        assertEquals("", notFound.body());
+        assertEquals(200, health.statusCode());
+        assertEquals("", health.body());
+    }
+
+    /**
+     * Test: methods other than GET and HEAD are answered with 405 METHOD NOT ALLOWED, without a lookup
+     */
+    @Test
+    public void testMethodNotAllowed() throws Exception {
+        for (String method : new String[]{"POST", "PUT", "DELETE"}) {
+            HttpResponse<String> response = send(method, "/aaaaaa", null);
+
+            assertEquals(405, response.statusCode(), method);
+            assertEquals("GET, HEAD", response.headers().firstValue("Allow").orElse(null));
+        }
+        assertEquals(0, linkStore.finds);
+    }
+
+    /**
+     * Test: the health endpoint answers UP, even when the database can not be reached
+     */
+    @Test
+    public void testHealth() throws Exception {
+        linkStore.failure = new SQLException("Connection refused");
+
+        HttpResponse<String> response = send("GET", RedirectHandler.HEALTH_PATH, null);
+
+        assertEquals(200, response.statusCode());
+        assertEquals("{\"status\":\"UP\"}", response.body());
+    }
+
+    /**
+     * Test: a link that can not be looked up because the database failed is answered with 503 SERVICE UNAVAILABLE
+     */
+    @Test
+    public void testDatabaseUnavailable() throws Exception {
+        linkStore.failure = new SQLException("Connection refused");
+
+        HttpResponse<String> response = send("GET", "/bbbbbb", null);
+
+        assertEquals(503, response.statusCode());
+        assertFalse(response.body().isEmpty());
+    }
+
+    private HttpResponse<String> send(String method, String path, String ifNoneMatch)
+            throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder(
+                URI.create("http://localhost:" + httpServer.getAddress().getPort() + path))
+                .method(method, HttpRequest.BodyPublishers.noBody());
+        if (ifNoneMatch != null) {
+            request.header("If-None-Match", ifNoneMatch);
+        }
+        return httpClient.send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+}
@@ -0,0 +1,199 @@
+package org.juliazo.url.shortener.edge;
+
+import org.juliazo.url.shortener.commons.redirect.RedirectSnapshot;
+import org.juliazo.url.shortener.commons.redirect.UrlRedirect;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+@RunWith(JUnitPlatform.class)
+class RedirectResolverTest {
+
+    private static final Instant NOW = Instant.parse("2026-01-01T00:00:00Z");
+
+    private final FakeLinkStore linkStore = new FakeLinkStore();
+
+    private final MovableClock clock = new MovableClock();
+
+    private final RedirectResolver resolver = new RedirectResolver(linkStore, clock, 5000, 3);
+
+    @TempDir
+    Path directory;
+
+    /**
+     * Test: links of the snapshot are served without reaching the database
+     */
+    @Test
+    public void testResolveFromSnapshot() throws Exception {
+        UrlRedirect redirect = new UrlRedirect("https://example.com", 301, 60);
+        resolver.replaceSnapshot(snapshotOf("aaaaaa", redirect), resolver.currentStamp());
+
+        assertEquals(redirect, resolver.resolve("aaaaaa"));
+        assertEquals(0, linkStore.finds);
+    }
+
+    /**
+     * Test: a miss falls back to the database once, the link read is kept for the next lookups
+     */
+    @Test
+    public void testResolveMiss() throws Exception {
+        UrlRedirect redirect = new UrlRedirect("https://example.com", null, null);
+        linkStore.links.put("bbbbbb", redirect);
+
+        assertEquals(redirect, resolver.resolve("bbbbbb"));
+        assertEquals(redirect, resolver.resolve("bbbbbb"));
+        assertNull(resolver.resolve("cccccc"));
+        assertEquals(2, linkStore.finds);
+    }
+
+    /**
+     * Test: an unknown short url is not looked up again until its miss expires
+     */
+    @Test
+    public void testResolveKnownMiss() throws Exception {
+        assertNull(resolver.resolve("cccccc"));
+        assertNull(resolver.resolve("cccccc"));
+        assertEquals(1, linkStore.finds);
+
+        clock.now = NOW.plusMillis(5000);
+        assertNull(resolver.resolve("cccccc"));
+        assertEquals(2, linkStore.finds);
+    }
+
+    /**
+     * Test: a link created after its short url was missed is served once its change is applied,
+     * without waiting for the miss to expire
+     */
+    @Test
+    public void testAppliedChangeWinsOverMiss() throws Exception {
+        assertNull(resolver.resolve("cccccc"));
+        UrlRedirect created = new UrlRedirect("https://example.com", null, null);
+        resolver.apply("cccccc", created);
+
+        assertEquals(created, resolver.resolve("cccccc"));
+        assertEquals(0, resolver.missCount());
+        assertEquals(1, linkStore.finds);
+    }
+
+    /**
+     * Test: the misses remembered are bounded, and none is remembered without a time to live
+     */
+    @Test
+    public void testMissesBounded() throws Exception {
+        for (String shortUrl : new String[]{"cccccc", "dddddd", "eeeeee", "ffffff"}) {
+            assertNull(resolver.resolve(shortUrl));
+        }
+        assertEquals(1, resolver.missCount());
+
+        RedirectResolver uncached = new RedirectResolver(linkStore, clock, 0, 3);
+        assertNull(uncached.resolve("cccccc"));
+        assertNull(uncached.resolve("cccccc"));
+        assertEquals(0, uncached.missCount());
+        assertEquals(6, linkStore.finds);
+    }
+
+    /**
+     * Test: malformed short urls are rejected without a lookup, like the application does
+     */
+    @Test
+    public void testResolveMalformed() throws Exception {
+        assertNull(resolver.resolve("abc"));
+        assertNull(resolver.resolve("favicon.ico"));
+        assertNull(resolver.resolve("abc-12"));
+        assertNull(resolver.resolve("abcdefghijk"));
+        assertEquals(0, linkStore.finds);
+    }
+
+    /**
+     * Test: applied changes win over the snapshot, removed links are not found anymore
+     */
+    @Test
+    public void testApplyChanges() throws Exception {
+        resolver.replaceSnapshot(snapshotOf("aaaaaa", new UrlRedirect("https://example.com", null, null)),
+                resolver.currentStamp());
+
+        resolver.apply("aaaaaa", null);
+        assertNull(resolver.resolve("aaaaaa"));
+        assertEquals(0, linkStore.finds);
+
+        UrlRedirect moved = new UrlRedirect("https://example.org", null, null);
+        resolver.apply("aaaaaa", moved);
+        assertEquals(moved, resolver.resolve("aaaaaa"));
+    }
+
+    /**
+     * Test: an expired link is looked up again once its miss expired, its expiration may have been extended since
+     */
+    @Test
+    public void testResolveExpired() throws Exception {
+        resolver.replaceSnapshot(snapshotOf("aaaaaa",
+                new UrlRedirect("https://example.com", null, null, NOW.minusSeconds(1))), resolver.currentStamp());
+        assertNull(resolver.resolve("aaaaaa"));
+        assertEquals(1, linkStore.finds);
+
+        UrlRedirect extended = new UrlRedirect("https://example.com", null, null, NOW.plusSeconds(60));
+        linkStore.links.put("aaaaaa", extended);
+        clock.now = NOW.plusMillis(5000);
+        assertEquals(extended, resolver.resolve("aaaaaa"));
+        assertEquals(extended, resolver.resolve("aaaaaa"));
+        assertEquals(2, linkStore.finds);
+    }
+
+    /**
+     * Test: a new snapshot drops the changes it already holds and keeps the later ones
+     */
+    @Test
+    public void testReplaceSnapshot() throws Exception {
+        resolver.apply("aaaaaa", new UrlRedirect("https://example.com", null, null));
+        long startStamp = resolver.currentStamp();
+        resolver.apply("bbbbbb", null);
+
+        resolver.replaceSnapshot(snapshotOf("bbbbbb", new UrlRedirect("https://example.org", null, null)), startStamp);
+
+        assertEquals(1, resolver.changeCount());
+        assertNull(resolver.resolve("bbbbbb"));
+    }
+
+    /**
+     * A clock standing still, moved by the tests.
+     */
+    private static final class MovableClock extends Clock {
+
+        private Instant now = NOW;
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+
+    private RedirectSnapshot snapshotOf(String shortUrl, UrlRedirect redirect) throws IOException {
+        Path file = directory.resolve(shortUrl + ".snapshot");
+        try (RedirectSnapshot.Writer writer = RedirectSnapshot.writer(file, 1, 1)) {
+            writer.add(shortUrl, redirect);
+        }
+        return RedirectSnapshot.open(file);
+    }
+
+}
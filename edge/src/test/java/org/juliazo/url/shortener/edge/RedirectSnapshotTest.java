@@ -0,0 +1,86 @@
+package org.juliazo.url.shortener.edge;
+
+import org.juliazo.url.shortener.commons.redirect.RedirectSnapshot;
+import org.juliazo.url.shortener.commons.redirect.UrlRedirect;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@RunWith(JUnitPlatform.class)
+class RedirectSnapshotTest {
+
+    @TempDir
+    Path directory;
+
+    /**
+     * Test: every link written is found again, with its redirect policy and expiration
+     */
+    @Test
+    public void testWriteAndFind() throws IOException {
+        Path file = directory.resolve("redirects.snapshot");
+        UrlRedirect expiring = new UrlRedirect("https://example.com/ç", 307, 60, Instant.ofEpochSecond(1_900_000_000, 5));
+        try (RedirectSnapshot.Writer writer = RedirectSnapshot.writer(file, 1000, 42)) {
+            for (int i = 0; i < 1000; i++) {
+                assertTrue(writer.add(String.format("%06x", i), new UrlRedirect("https://example.com/" + i, null, null)));
+            }
+            assertTrue(writer.add("expire", expiring));
+        }
+
+        RedirectSnapshot snapshot = RedirectSnapshot.open(file);
+
+        assertEquals(1001, snapshot.size());
+        assertEquals(42, snapshot.getEventId());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(new UrlRedirect("https://example.com/" + i, null, null),
+                    snapshot.find(String.format("%06x", i)));
+        }
+        assertEquals(expiring, snapshot.find("expire"));
+        assertNull(snapshot.find("zzzzzz"));
+        assertNull(snapshot.find("00000"));
+    }
+
+    /**
+     * Test: a snapshot sized for fewer links stops accepting them before its slots fill up
+     */
+    @Test
+    public void testFull() throws IOException {
+        Path file = directory.resolve("redirects.snapshot");
+        int added = 0;
+        try (RedirectSnapshot.Writer writer = RedirectSnapshot.writer(file, 10, 1)) {
+            while (writer.add(String.format("%06x", added), new UrlRedirect("https://example.com", null, null))) {
+                added++;
+            }
+        }
+
+        RedirectSnapshot snapshot = RedirectSnapshot.open(file);
+
+        assertEquals(added, snapshot.size());
+        assertTrue(added >= 10);
+        assertEquals("https://example.com", snapshot.find("000000").getLongUrl());
+        assertNull(snapshot.find(String.format("%06x", added)));
+    }
+
+    /**
+     * Test: the empty snapshot holds nothing and files that are no snapshot are rejected
+     */
+    @Test
+    public void testEmptyAndInvalid() throws IOException {
+        assertNull(RedirectSnapshot.empty().find("aaaaaa"));
+        assertFalse(RedirectSnapshot.empty().getEventId() >= 0);
+
+        Path file = Files.write(directory.resolve("other"), new byte[64]);
+        assertThrows(IOException.class, () -> RedirectSnapshot.open(file));
+    }
+}
@@ -0,0 +1,128 @@
+package org.juliazo.url.shortener.edge;
+
+import org.juliazo.url.shortener.commons.redirect.UrlRedirect;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@RunWith(JUnitPlatform.class)
+class SnapshotUpdaterTest {
+
+    private static final Instant NOW = Instant.parse("2026-01-01T00:00:00Z");
+
+    private static final long HOUR_MILLIS = 3_600_000;
+
+    @TempDir
+    Path directory;
+
+    private final FakeLinkStore linkStore = new FakeLinkStore();
+
+    private final RedirectResolver resolver = new RedirectResolver(linkStore, Clock.fixed(NOW, ZoneOffset.UTC),
+            5000, 100);
+
+    private SnapshotUpdater updater(int rebuildChanges) {
+        return new SnapshotUpdater(linkStore, resolver, directory, 1000, HOUR_MILLIS, 120, 3600, rebuildChanges);
+    }
+
+    /**
+     * Test: the first refresh writes a snapshot of the links, at the last event recorded
+     */
+    @Test
+    public void testFirstRefreshWritesSnapshot() throws Exception {
+        UrlRedirect redirect = new UrlRedirect("https://example.com/a", 301, null);
+        linkStore.change(10, "aaaaaa", redirect);
+
+        updater(100).refresh();
+
+        assertTrue(Files.isRegularFile(directory.resolve(SnapshotUpdater.SNAPSHOT_FILE)));
+        assertEquals(10, resolver.getSnapshot().getEventId());
+        assertEquals(redirect, resolver.resolve("aaaaaa"));
+        assertEquals(0, linkStore.finds);
+        assertEquals(List.of(), linkStore.changesAfterCalls);
+    }
+
+    /**
+     * Test: later refreshes catch up on the journal, batch after batch, reading the links its
+     * events name again into the overlay, the ones gone as removed
+     */
+    @Test
+    public void testCatchUpOnJournal() throws Exception {
+        linkStore.change(10, "aaaaaa", new UrlRedirect("https://example.com/a", null, null));
+        linkStore.change(11, "bbbbbb", new UrlRedirect("https://example.com/b", null, null));
+        SnapshotUpdater updater = updater(100);
+        updater.refresh();
+
+        UrlRedirect moved = new UrlRedirect("https://example.org/a", null, null);
+        UrlRedirect created = new UrlRedirect("https://example.com/c", null, null);
+        linkStore.change(12, "bbbbbb", null);
+        for (long eventId = 13; eventId < 1513; eventId++) {
+            linkStore.change(eventId, "aaaaaa", moved);
+        }
+        linkStore.change(1513, "cccccc", created);
+        updater.refresh();
+
+        assertEquals(List.of(11L, 1011L, 1513L), linkStore.changesAfterCalls);
+        assertEquals(moved, resolver.resolve("aaaaaa"));
+        assertNull(resolver.resolve("bbbbbb"));
+        assertEquals(created, resolver.resolve("cccccc"));
+        assertEquals(0, linkStore.finds);
+        assertEquals(11, resolver.getSnapshot().getEventId());
+        assertEquals(1, linkStore.scans);
+    }
+
+    /**
+     * Test: when the events following the snapshot were already pruned, a new snapshot is
+     * written instead of catching up, and the overlay emptied
+     */
+    @Test
+    public void testPrunedEventsRebuildSnapshot() throws Exception {
+        linkStore.change(10, "aaaaaa", new UrlRedirect("https://example.com/a", null, null));
+        SnapshotUpdater updater = updater(100);
+        updater.refresh();
+        resolver.apply("bbbbbb", null);
+
+        UrlRedirect created = new UrlRedirect("https://example.com/c", null, null);
+        linkStore.change(20, "cccccc", created);
+        linkStore.events.headMap(20L).clear();
+        updater.refresh();
+
+        assertEquals(2, linkStore.scans);
+        assertEquals(20, resolver.getSnapshot().getEventId());
+        assertEquals(2, resolver.getSnapshot().size());
+        assertEquals(0, resolver.changeCount());
+        assertEquals(created, resolver.resolve("cccccc"));
+        assertEquals(List.of(), linkStore.changesAfterCalls);
+    }
+
+    /**
+     * Test: once the overlay holds too many changes, the next refresh writes a new snapshot holding them
+     */
+    @Test
+    public void testTooManyChangesRebuildSnapshot() throws Exception {
+        SnapshotUpdater updater = updater(2);
+        updater.refresh();
+        for (long eventId = 1; eventId <= 3; eventId++) {
+            linkStore.change(eventId, "aaaaa" + eventId, new UrlRedirect("https://example.com/" + eventId, null, null));
+        }
+        updater.refresh();
+        assertEquals(3, resolver.changeCount());
+
+        updater.refresh();
+
+        assertEquals(2, linkStore.scans);
+        assertEquals(3, resolver.getSnapshot().size());
+        assertEquals(0, resolver.changeCount());
+    }
+}
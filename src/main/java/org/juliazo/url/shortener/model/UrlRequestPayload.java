@@ -1,14 +0,0 @@
-package org.juliazo.url.shortener.model;
-
-public class UrlRequestPayload {
-
-    private String longUrl;
-
-    public String getLongUrl() {
-        return longUrl;
-    }
-
-    public void setLongUrl(String longUrl) {
-        this.longUrl = longUrl;
-    }
-}